@@ -20,16 +20,28 @@
 package de.mgpit.oracle.reports.plugin.destination.mq;
 
 
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Constructor;
 import java.net.URISyntaxException;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Properties;
 
 import org.apache.log4j.Logger;
 
 import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.Units;
 import de.mgpit.oracle.reports.plugin.commons.driver.MQ;
+import de.mgpit.oracle.reports.plugin.commons.driver.MQConnectionPool;
+import de.mgpit.oracle.reports.plugin.commons.driver.MQEndpointGroup;
+import de.mgpit.oracle.reports.plugin.commons.driver.MQPutPipeline;
+import de.mgpit.oracle.reports.plugin.commons.driver.MQSharedConnections;
+import de.mgpit.oracle.reports.plugin.commons.driver.MQSpool;
+import de.mgpit.oracle.reports.plugin.commons.io.AbortableOutputStream;
 import de.mgpit.oracle.reports.plugin.commons.io.IOUtility;
 import de.mgpit.oracle.reports.plugin.destination.MgpDestination;
 import de.mgpit.oracle.reports.plugin.destination.ModifyingDestination;
@@ -65,6 +77,8 @@ import oracle.reports.RWException;
  * <ul>
  * <li>{@code de.mgpit.oracle.reports.plugin.commons.driver.FileMockedMQ}</li>
  * <li>{@code de.mgpit.oracle.reports.plugin.commons.driver.WebsphereMQ}</li>
+ * <li>{@code de.mgpit.oracle.reports.plugin.commons.driver.InMemoryMQ} - for testing and benchmarking without a queue
+ * manager</li>
  * <li>or one of your implementations of {@code de.mgpit.oracle.reports.plugin.commons.driver.MQ}</li>
  * </ul>
  * <p>
@@ -74,6 +88,12 @@ import oracle.reports.RWException;
  * <li>{@code wmq://}<em>host:mqport</em>{@code /dest/queue/}<em>queuename@qmgr</em>{@code ?channelName=}<em>channelname</em>
  * </ul>
  * <strong>note: </strong>scheme must be <strong>wmq</strong> (lowercase!)
+ * <p>
+ * Equivalent endpoints - e.g. the same queue on several queue managers - can be given as list of URIs separated by
+ * commas or white space. A list can also be declared as named group {@code mq.group.}<em>name</em> and referred to
+ * as {@code group:}<em>name</em>. See {@link MQEndpointGroup} for balancing ({@code mq.endpoints.balancing}) and
+ * leaving out failed endpoints ({@code mq.endpoints.cooldownSeconds}). An endpoint counts as failed if connecting to
+ * it or putting a message fails - not if a modifier or reading the report fails.
  * 
  * <p>
  * One can also register modifier plugins.
@@ -88,6 +108,8 @@ import oracle.reports.RWException;
  *     <property name="modifier.BASE64"      value="de.mgpit.oracle.reports.plugin.destination.content.transformers.Base64Transformer"/>
  *     <property name="modifier.Envelope"    value="de.mgpit.oracle.reports.plugin.destination.content.decorators.EnvelopeDecorator"/>
  *     <property name="modifier.Header"      value="de.mgpit.oracle.reports.plugin.destination.content.decorators.HeaderDecorator"/>
+ *     <property name="modifier.GZIP"        value="de.mgpit.oracle.reports.plugin.destination.content.transformers.GzipTransformer"/>
+ *     <property name="modifier.LZ4"         value="de.mgpit.oracle.reports.plugin.destination.content.transformers.Lz4Transformer"/>
  *     <!-- Content Providers -->
  *     <property name="content.Soap_1_1"     value="tld.foo.bar.batz.SoapV0101Envelope"/> <!-- Must implement de.mgpit.oracle.reports.plugin.destination.content.types.Content -->
  *  </destination>
@@ -125,6 +147,56 @@ import oracle.reports.RWException;
  * </li>
  * </ul>
  * <small>1) Any valid DESTYPE. {@code NULL} or {@code ''} not allowed.</small>
+ * <p>
+ * <strong>Connection pooling:</strong>
+ * <p>
+ * Connections are kept in a {@link MQConnectionPool} per MQ configuration and reused by subsequent distributions.
+ * The pool can be tuned via the properties {@code mq.pool.maxSize} (default 4), {@code mq.pool.minIdle} (default 1),
+ * {@code mq.pool.maxIdleSeconds} (default 300, {@code 0} disables pooling) and {@code mq.pool.maxWaitSeconds}
+ * (default 30). It is drained on shutdown.
+ * <p>
+ * <strong>Large reports:</strong>
+ * <p>
+ * Reports exceeding the maximum message length of the queue can be sent in pieces, holding only one piece in memory.
+ * Set {@code mq.segmentation} to {@code segments} for segments of one logical message or to {@code group} for
+ * a message group. Pieces are at most {@code mq.segmentation.segmentSize} bytes (default 1 MB). A distribution is
+ * segmented if its total file size is at least {@code mq.segmentation.threshold} bytes (default: the segment size).
+ * All can be set for the destination and for each distribution.
+ * <p>
+ * <strong>Multiple files:</strong>
+ * <p>
+ * A distribution with additional files is sent as one message group - one message per file - within a single unit
+ * of work. The unit of work is committed when the distribution is stopped after all files have been sent and backed
+ * out otherwise. With segmentation each message of the group is sent in segments.
+ * <p>
+ * <strong>Asynchronous sending:</strong>
+ * <p>
+ * With {@code mq.async} set to {@code true} for the destination, a report is spooled and put by sender threads
+ * of a {@link MQPutPipeline}. The report engine does not wait for the queue manager unless the pipeline is full.
+ * Tuned via {@code mq.async.senders} (default 2), {@code mq.async.queueSize} (default 64 messages) and
+ * {@code mq.async.spoolInMemoryLimit} (default 1 MB per message). On shutdown the pipeline is drained for at most
+ * {@code mq.async.shutdownTimeoutSeconds} (default 60). A distribution can opt out with {@code mq.async=false}.
+ * Segmented and multi-file distributions are always sent synchronously.
+ * A put failing is tried {@code mq.async.putAttempts} times (default 3), waiting {@code mq.async.retryDelayMillis}
+ * (default 1000) in between. A report which still cannot be put is written to the spool - see <em>Outages</em>
+ * below. Hence asynchronous sending requires {@code mq.spool.directory}. Without it reports are sent synchronously.
+ * <p>
+ * <strong>Group commit:</strong>
+ * <p>
+ * With {@code mq.groupCommit} set to {@code true} for the destination, concurrent distributions to the same queue
+ * share one connection and their messages are committed together - at most {@code mq.groupCommit.maxMessages}
+ * (default 50) per commit, waiting at most {@code mq.groupCommit.maxDelayMillis} (default 20) for others to join.
+ * A distribution returns after its message has been committed. Applies to synchronous single-file distributions
+ * which are not segmented. A distribution can opt out with {@code mq.groupCommit=false}.
+ * <p>
+ * <strong>Outages:</strong>
+ * <p>
+ * With {@code mq.spool.directory} set for the destination, a report is written to a durable local spool if the
+ * queue manager cannot be connected on start. It is forwarded in order once the queue manager is available again,
+ * see {@link MQSpool}. As long as messages for a queue are pending in the spool, new reports for this queue are
+ * spooled as well for keeping the order. Multi-file distributions are never spooled as they are sent as one unit of
+ * work. A spooled report which cannot be put although the queue manager is available is parked after
+ * {@code mq.spool.maxAttempts} (default 10) attempts.
  *
  * @see MgpDestination
  * 
@@ -137,26 +209,200 @@ public final class MQDestination extends ModifyingDestination {
      */
     private static final Logger LOG = Logger.getLogger( MQDestination.class );
 
+    /**
+     * Holds the name of the property for choosing the segmentation of large reports. One of
+     * <ul>
+     * <li>{@link #SEGMENTATION_OFF} - each report is sent as one message (default)</li>
+     * <li>{@link #SEGMENTATION_SEGMENTS} - large reports are sent as segments of one logical message</li>
+     * <li>{@link #SEGMENTATION_GROUP} - large reports are sent as a message group</li>
+     * </ul>
+     */
+    public static final String SEGMENTATION_PROPERTY = "mq.segmentation";
+    public static final String SEGMENTATION_OFF = "off";
+    public static final String SEGMENTATION_SEGMENTS = "segments";
+    public static final String SEGMENTATION_GROUP = "group";
+
+    /**
+     * Holds the name of the property with the maximum number of bytes per segment.
+     */
+    public static final String SEGMENT_SIZE_PROPERTY = "mq.segmentation.segmentSize";
+
+    /**
+     * Holds the name of the property with the total file size in bytes from which on a distribution is segmented.
+     */
+    public static final String SEGMENTATION_THRESHOLD_PROPERTY = "mq.segmentation.threshold";
+
+    /**
+     * Holds the name of the property for sending asynchronously.
+     */
+    public static final String ASYNC_PROPERTY = "mq.async";
+
+    /**
+     * Holds the name of the property with the number of seconds to wait for the asynchronous sends on shutdown.
+     */
+    public static final String ASYNC_SHUTDOWN_TIMEOUT_PROPERTY = "mq.async.shutdownTimeoutSeconds";
+
+    /**
+     * Holds the name of the property for committing the messages of concurrent distributions together.
+     */
+    public static final String GROUP_COMMIT_PROPERTY = "mq.groupCommit";
+
+    /**
+     * Holds the timeout for draining the {@link #PIPELINE} on shutdown in seconds.
+     */
+    private static int asyncShutdownTimeoutSeconds = 60;
+
+    /**
+     * Holds the segmentation set for the destination.
+     */
+    private static String defaultSegmentation = SEGMENTATION_OFF;
+
+    /**
+     * Holds the segment size set for the destination.
+     */
+    private static long defaultSegmentSize = Units.ONE_MEGABYTE;
+
+    /**
+     * Holds the segmentation threshold set for the destination. Negative means the segment size.
+     */
+    private static long defaultSegmentationThreshold = -1L;
+
+    /**
+     * Holds the pool of MQ connections.
+     */
+    private static MQConnectionPool POOL;
+
+    /**
+     * Holds the pipeline for sending asynchronously or {@code null} if not enabled for the destination.
+     */
+    private static MQPutPipeline PIPELINE;
+
+    /**
+     * Holds the connections shared for group commit or {@code null} if not enabled for the destination.
+     */
+    private static MQSharedConnections SHARED;
+
+    /**
+     * Holds the spool for outages or {@code null} if not enabled for the destination.
+     */
+    private static MQSpool SPOOL;
+
     /**
      * Holds the MQ connection used for the current distribution cycle - which is
      * <br/>
      * {@code start} &rarr; {@code sendFile}<sup>{1..n}</sup> &rarr; {@code stop()}
-     *
+     * <p>
+     * The connection is borrowed from the {@link #POOL} on start and given back on stop - or got from the
+     * {@link #SHARED} connections with group commit.
      */
     private MQ mq;
 
+    /**
+     * Holds the segment size for the current distribution cycle or {@code 0} if not segmented.
+     */
+    private int segmentSize;
+
+    /**
+     * Holds if the segments of the current distribution cycle are sent as message group.
+     */
+    private boolean segmentsAsGroup;
+
+    /**
+     * Holds if the current distribution cycle consists of multiple files sent as message group.
+     */
+    private boolean multipart;
+
+    /**
+     * Holds if sending a file of the current distribution cycle has failed.
+     */
+    private boolean sendFailed;
+
+    /**
+     * Holds the MQ configuration of the current distribution cycle.
+     */
+    private MQ.Configuration configuration;
+
+    /**
+     * Holds the endpoints the configuration of the current distribution cycle has been chosen from.
+     */
+    private MQEndpointGroup endpoints;
+
+    /**
+     * Holds if the current distribution cycle is sent via the {@link #PIPELINE}.
+     */
+    private boolean sendAsync;
+
+    /**
+     * Holds if the current distribution cycle uses a {@link #SHARED} connection.
+     */
+    private boolean sendShared;
+
+    /**
+     * Holds if the current distribution cycle is written to the {@link #SPOOL}.
+     */
+    private boolean sendSpooled;
+
+    /**
+     * Holds the message of the file currently being sent - as got from the connection, the {@link #PIPELINE} or the
+     * {@link #SPOOL} without the modifiers wrapped around it.
+     */
+    private OutputStream message;
+
+    /**
+     * Holds if putting the message of the file currently being sent has failed - as opposed to the modifiers wrapped
+     * around it or reading the file.
+     */
+    private boolean putFailed;
+
     /**
      * Stops the distribution cycle.
+     * <p>
+     * The message group of a multi-file distribution is committed <em>before</em> delegating to the super class, as
+     * the number of files sent is reset there.
      */
     protected void stop() throws RWException {
+        final MQ.Configuration finished = this.configuration;
         try {
-            super.stop();
-            mq.disconnect();
+            try {
+                if ( isMultipart() ) {
+                    commitMessageGroup();
+                }
+            } finally {
+                super.stop();
+            }
         } catch ( Exception any ) {
+            releaseMQ( false );
             getLogger().error( "Error during finishing distribution!", any );
             throw asRWException( any );
         }
-        getLogger().info( "Finished distribution to " + U.w( mq ) );
+        releaseMQ( true );
+        getLogger().info( "Finished distribution to " + U.w( finished ) );
+    }
+
+    /**
+     * Releases the MQ connection of the current distribution cycle.
+     * 
+     * @param reusable
+     *            {@code true} gives the connection back to the pool, {@code false} disconnects it
+     */
+    private void releaseMQ( final boolean reusable ) {
+        if ( this.mq != null ) {
+            if ( isMultipart() && !reusable ) {
+                try {
+                    this.mq.backout();
+                } catch ( Exception ignoredButLogged ) {
+                    getLogger().warn( "Error on backing out message group", ignoredButLogged );
+                }
+            }
+            if ( this.sendShared ) {
+                SHARED.release( this.mq );
+            } else if ( reusable ) {
+                POOL.giveBack( this.mq );
+            } else {
+                POOL.invalidate( this.mq );
+            }
+            this.mq = null;
+        }
     }
 
     /**
@@ -187,13 +433,37 @@ public final class MQDestination extends ModifyingDestination {
 
             if ( continueToSend ) {
                 getLogger().info( "Starting distribution to MQ" );
-                final MQ individualMq = MQRegistrar.getDeclaredMQfrom( allProperties );
-                this.mq = (MQ) U.coalesce( individualMq, MQRegistrar.DEFAULT_MQ );
-                continueToSend = this.mq != null;
+                final MQEndpointGroup individualEndpoints = MQRegistrar.getDeclaredEndpointsFrom( allProperties );
+                final MQEndpointGroup endpoints = (MQEndpointGroup) U.coalesce( individualEndpoints,
+                        MQRegistrar.DEFAULT_ENDPOINTS );
+                continueToSend = endpoints != null;
                 if ( !continueToSend ) {
                     getLogger().warn( "Cannot continue to send! No MQ destination provided nor default MQ destination speficied!" );
                 } else {
-                    mq.connect();
+                    this.endpoints = endpoints;
+                    final MQ.Configuration[] candidates = endpoints.candidates();
+                    this.configuration = candidates[0];
+                    decideSegmentation( allProperties, totalFileSize );
+                    this.sendFailed = false;
+                    this.multipart = totalNumberOfFiles > 1;
+                    this.sendSpooled = SPOOL != null && !this.multipart && SPOOL.depth( this.configuration ) > 0;
+                    this.sendAsync = PIPELINE != null && !this.sendSpooled && !this.multipart && this.segmentSize == 0
+                            && !"false".equalsIgnoreCase( allProperties.getProperty( ASYNC_PROPERTY ) );
+                    this.sendShared = SHARED != null && !this.sendSpooled && !this.sendAsync && !this.multipart
+                            && this.segmentSize == 0
+                            && !"false".equalsIgnoreCase( allProperties.getProperty( GROUP_COMMIT_PROPERTY ) );
+                    if ( this.sendSpooled ) {
+                        getLogger().info( "Spooling behind " + U.w( SPOOL.depth( this.configuration ) ) + " pending message(s) for "
+                                + U.w( this.configuration ) + " to " + U.w( SPOOL ) );
+                    } else if ( this.sendAsync ) {
+                        getLogger().info( "Sending asynchronously via " + U.w( PIPELINE ) );
+                    } else {
+                        connectOrSpool( candidates );
+                    }
+                    if ( this.multipart ) {
+                        getLogger().info( "Sending " + U.w( totalNumberOfFiles ) + " files as message group." );
+                        this.mq.beginUnitOfWork();
+                    }
                 }
             } else {
                 getLogger().warn( "Cannot continue to send ..." );
@@ -203,36 +473,140 @@ public final class MQDestination extends ModifyingDestination {
             getLogger().error( "Error during preparation of distribution!", forLogging );
             throw forLogging;
         } catch ( Throwable fatalOther ) {
-            if ( mq != null ) {
-                try {
-                    mq.disconnect();
-                } catch ( Exception ignoredButLogged ) {
-                    getLogger().warn( "Error on emergency close", ignoredButLogged );
-                }
-            }
+            releaseMQ( false );
             getLogger().fatal( "Fatal error on starting Distribution!", fatalOther );
             throw asRWException( new Exception( "Fatal error on starting Distribution!", fatalOther ) );
         }
     }
 
+    /**
+     * Connects for the current distribution cycle - trying the candidates of the endpoints in turn. Falls back to the
+     * {@link #SPOOL} if none is available.
+     * <p>
+     * Only a candidate failing to connect is reported as failed - not one having no pooled connection left in time.
+     * 
+     * @param candidates
+     *            the candidates in the order to try them
+     * @throws Exception
+     *             if connecting fails and the distribution cannot be spooled
+     */
+    private void connectOrSpool( final MQ.Configuration[] candidates ) throws Exception {
+        Exception unavailable = null;
+        for ( int i = 0; i < candidates.length; i++ ) {
+            try {
+                this.mq = this.sendShared ? SHARED.get( candidates[i] ) : POOL.borrow( candidates[i] );
+                this.configuration = candidates[i];
+                return;
+            } catch ( Exception failed ) {
+                getLogger().warn( "Cannot connect to " + U.w( candidates[i] ), failed );
+                if ( !(failed instanceof MQConnectionPool.ExhaustedException || failed instanceof RuntimeException) ) {
+                    this.endpoints.failed( candidates[i] );
+                }
+                unavailable = failed;
+            }
+        }
+        if ( SPOOL == null || this.multipart ) {
+            throw unavailable;
+        }
+        getLogger().warn( "No endpoint available. Spooling to " + U.w( SPOOL ) );
+        this.configuration = this.endpoints.primary();
+        this.sendShared = false;
+        this.sendSpooled = true;
+    }
+
+    /**
+     * Decides if the current distribution is sent in segments.
+     * 
+     * @param allProperties
+     *            parameters for this distribution
+     * @param totalFileSize
+     *            total file size of all files being distributed
+     */
+    private void decideSegmentation( final Properties allProperties, final long totalFileSize ) {
+        this.segmentSize = 0;
+        final String segmentation = allProperties.getProperty( SEGMENTATION_PROPERTY, defaultSegmentation );
+        final boolean asSegments = SEGMENTATION_SEGMENTS.equalsIgnoreCase( segmentation );
+        final boolean asGroup = SEGMENTATION_GROUP.equalsIgnoreCase( segmentation );
+        if ( !asSegments && !asGroup ) {
+            return;
+        }
+        final long size = Units.parseLength( allProperties.getProperty( SEGMENT_SIZE_PROPERTY ), defaultSegmentSize );
+        if ( size <= 0 || size > Integer.MAX_VALUE ) {
+            getLogger().warn( "Invalid segment size " + U.w( size ) + ". Sending as one message." );
+            return;
+        }
+        long threshold = Units.parseLength( allProperties.getProperty( SEGMENTATION_THRESHOLD_PROPERTY ),
+                defaultSegmentationThreshold );
+        if ( threshold < 0 ) {
+            threshold = size;
+        }
+        if ( totalFileSize >= threshold ) {
+            this.segmentSize = (int) size;
+            this.segmentsAsGroup = asGroup;
+            getLogger().info( "Sending " + U.w( totalFileSize ) + " bytes " + (asGroup ? "as message group" : "in segments")
+                    + " of at most " + U.w( size ) + " bytes." );
+        }
+    }
+
     private boolean isMultipart() {
-        return false;
+        return this.multipart;
+    }
+
+    /**
+     * Commits the message group of the current distribution cycle.
+     * 
+     * @throws Exception
+     *             if not all files have been sent or committing fails
+     */
+    private void commitMessageGroup() throws Exception {
+        final int filesSent = getIndexOfCurrentlyDistributedFile();
+        final int filesExpected = getNumberOfFilesInDistribution();
+        if ( sendFailed || filesSent < filesExpected ) {
+            throw new Exception( "Message group incomplete. Sent " + filesSent + " of " + filesExpected + " file(s)"
+                    + (sendFailed ? " with errors" : "") + ". Backing out." );
+        }
+        this.mq.commit();
+        getLogger().info( "Committed message group of " + U.w( filesSent ) + " messages." );
     }
 
     protected void sendMainFile( Filename cacheFileFilename, short fileFormat ) throws RWException {
         getLogger().info( "Sending MAIN file of format " + humanReadable( fileFormat ) + " to " + getClass().getName() );
-        InputStream source = getContent( IOUtility.fileFromName( cacheFileFilename ) );
+        sendCacheFile( cacheFileFilename, "main" );
+    }
+
+    /**
+     * Sends a file from the cache as message of its own.
+     * 
+     * @param cacheFileFilename
+     *            file to send
+     * @param kind
+     *            kind of file for logging
+     * @throws RWException
+     */
+    private void sendCacheFile( Filename cacheFileFilename, String kind ) throws RWException {
+        final File cacheFile = IOUtility.fileFromName( cacheFileFilename );
+        InputStream source = getContent( cacheFile );
         OutputStream target = null;
+        boolean sent = false;
+        this.putFailed = false;
         try {
-            U.assertNotNull( this.mq, "Cannot continue to send! No MQ destination provided nor default MQ destination speficied!" );
-            target = getTarget();
+            U.assertTrue( this.mq != null || this.sendAsync || this.sendSpooled,
+                    "Cannot continue to send! No MQ destination provided nor default MQ destination speficied!" );
+            target = getTarget( cacheFile );
             IOUtility.copyFromTo( source, target );
             source.close();
-            if ( !this.isMultipart() ) {
-                target.close();
+            final long putStarted = System.currentTimeMillis();
+            target.close();
+            sent = true;
+            if ( this.mq != null ) {
+                this.endpoints.succeeded( this.configuration, System.currentTimeMillis() - putStarted );
             }
         } catch ( Throwable anyOther ) {
-            getLogger().fatal( "Fatal Error during sending main file " + U.w( cacheFileFilename ) + "!", anyOther );
+            this.sendFailed = true;
+            if ( this.mq != null && this.putFailed ) {
+                this.endpoints.failed( this.configuration );
+            }
+            getLogger().fatal( "Fatal Error during sending " + kind + " file " + U.w( cacheFileFilename ) + "!", anyOther );
             throw asRWException( new Exception( anyOther ) );
         } finally {
             try {
@@ -240,27 +614,47 @@ public final class MQDestination extends ModifyingDestination {
             } catch ( Exception ignoredButLogged ) {
                 getLogger().warn( "Error on emergency close of Input Source", ignoredButLogged );
             }
-            try {
-                if ( target != null ) target.close();
-            } catch ( Exception ignoredButLogged ) {
-                getLogger().warn( "Error on emergency close of Output Target", ignoredButLogged );
+            if ( !sent && abortMessage() ) {
+                // closing releases the modifiers - the aborted message discards what they write
+                try {
+                    if ( target != null ) target.close();
+                } catch ( Exception ignoredButLogged ) {
+                    getLogger().warn( "Error on emergency close of Output Target", ignoredButLogged );
+                }
             }
+            this.message = null;
         }
     }
 
+    /**
+     * Aborts the message of the file currently being sent. So a truncated message is neither put nor spooled.
+     * 
+     * @return {@code true} if there is no message or it has been aborted, {@code false} if the message cannot be
+     *         aborted and must not be closed therefore
+     */
+    private boolean abortMessage() {
+        if ( this.message == null ) {
+            return true;
+        }
+        if ( AbortableOutputStream.abortIfPossible( this.message ) ) {
+            getLogger().warn( "Aborted message to " + U.w( this.configuration ) );
+            return true;
+        }
+        getLogger().error( "Cannot abort message to " + U.w( this.configuration ) + ". Leaving it unclosed." );
+        return false;
+    }
+
     /**
      * Sends an additional file to the destination.
      * <p>
-     * This operation is currently not supported.
-     * TODO: No clear idea for design. Should additional files go as separate messages or should
-     * additional files be appended to the main file.
+     * The file is sent as message of its own within the message group of the current distribution.
      * 
      * @param cacheFileFilename
      * @param fileFormat
      */
     protected void sendAdditionalFile( final Filename cacheFileFilename, short fileFormat ) throws RWException {
-        getLogger().info( "Sending Other file to " + getClass().getName() );
-        getLogger().warn( U.classname( this ) + " currently does not support multiple files!" );
+        getLogger().info( "Sending Other file of format " + humanReadable( fileFormat ) + " to " + getClass().getName() );
+        sendCacheFile( cacheFileFilename, "additional" );
     }
 
     /**
@@ -270,7 +664,83 @@ public final class MQDestination extends ModifyingDestination {
      * 
      */
     protected OutputStream getTargetOut() throws Exception {
-        return this.mq.newMessage();
+        return getTargetOut( -1L );
+    }
+
+    /**
+     * Gets a Websphere MQ&reg; message for output of the size given.
+     * 
+     * @param expectedLength
+     *            number of bytes which will be written to the message, if known
+     * @return {@OutputStream} for writing into an Websphere MQ&reg; message.
+     * 
+     */
+    protected OutputStream getTargetOut( long expectedLength ) throws Exception {
+        this.message = newMessage( expectedLength );
+        return (this.mq != null) ? new PutFailureDetectingOutputStream( this.message ) : this.message;
+    }
+
+    private OutputStream newMessage( final long expectedLength ) throws Exception {
+        if ( this.sendSpooled ) {
+            return SPOOL.newMessage( this.configuration, this.segmentSize, this.segmentsAsGroup );
+        }
+        if ( this.sendAsync ) {
+            return PIPELINE.newMessage( this.configuration );
+        }
+        if ( isMultipart() ) {
+            final boolean lastInGroup = getIndexOfCurrentlyDistributedFile() >= getNumberOfFilesInDistribution();
+            return this.mq.newGroupMessage( expectedLength, this.segmentSize, lastInGroup );
+        }
+        if ( this.segmentSize > 0 ) {
+            return this.mq.newSegmentedMessage( this.segmentSize, this.segmentsAsGroup );
+        }
+        return this.mq.newMessage( expectedLength );
+    }
+
+    /**
+     * Remembers if the message fails - so a put failing can be told from a failure of the modifiers.
+     */
+    private final class PutFailureDetectingOutputStream extends FilterOutputStream {
+
+        PutFailureDetectingOutputStream( final OutputStream message ) {
+            super( message );
+        }
+
+        public void write( int b ) throws IOException {
+            try {
+                out.write( b );
+            } catch ( IOException failed ) {
+                MQDestination.this.putFailed = true;
+                throw failed;
+            }
+        }
+
+        public void write( byte[] b, int off, int len ) throws IOException {
+            try {
+                out.write( b, off, len );
+            } catch ( IOException failed ) {
+                MQDestination.this.putFailed = true;
+                throw failed;
+            }
+        }
+
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch ( IOException failed ) {
+                MQDestination.this.putFailed = true;
+                throw failed;
+            }
+        }
+
+        public void close() throws IOException {
+            try {
+                out.close();
+            } catch ( IOException failed ) {
+                MQDestination.this.putFailed = true;
+                throw failed;
+            }
+        }
     }
 
     /**
@@ -296,6 +766,17 @@ public final class MQDestination extends ModifyingDestination {
         try {
             MQRegistrar.registerMqImplementationFrom( destinationsProperties );
             MQRegistrar.registerDefaultMQfrom( destinationsProperties );
+            shutdownPipeline();
+            shutdownSpool();
+            initPool( destinationsProperties );
+            initSpool( destinationsProperties );
+            initPipeline( destinationsProperties );
+            initSharedConnections( destinationsProperties );
+            defaultSegmentation = destinationsProperties.getProperty( SEGMENTATION_PROPERTY, SEGMENTATION_OFF );
+            defaultSegmentSize = Units.parseLength( destinationsProperties.getProperty( SEGMENT_SIZE_PROPERTY ),
+                    defaultSegmentSize );
+            defaultSegmentationThreshold = Units.parseLength( destinationsProperties.getProperty( SEGMENTATION_THRESHOLD_PROPERTY ),
+                    defaultSegmentationThreshold );
         } catch ( Exception ex ) {
             throw asRWException( ex );
         } catch ( Throwable t ) {
@@ -338,32 +819,207 @@ public final class MQDestination extends ModifyingDestination {
         }
 
         /**
-         * Holds the default MQ instance as defined in the {@code <reportservername>.conf} file
+         * Checks if the registered MQ implementation supports group commit - that is if it overrides
+         * {@link MQ#enableGroupCommit(int, long)}.
+         * 
+         * @return {@code true} if group commit is supported
+         */
+        private static boolean supportsGroupCommit() {
+            try {
+                final Class[] enableGroupCommitArguments = { Integer.TYPE, Long.TYPE };
+                return MQ_IMPLEMENTATION.getMethod( "enableGroupCommit", enableGroupCommitArguments ).getDeclaringClass() != MQ.class;
+            } catch ( NoSuchMethodException cannotHappen ) {
+                return false;
+            }
+        }
+
+        /**
+         * Holds the default MQ endpoints as defined in the {@code <reportservername>.conf} file
          */
-        private static MQ DEFAULT_MQ;
+        private static MQEndpointGroup DEFAULT_ENDPOINTS;
+
+        /**
+         * Holds the endpoint groups by the literal they are declared with or by {@code group:}<em>name</em>.
+         * <p>
+         * Kept for remembering the failed endpoints and latencies across distributions.
+         */
+        private static final HashMap ENDPOINT_GROUPS = new HashMap();
+
+        private static final String GROUP_PROPERTY_PREFIX = "mq.group.";
+        private static final String GROUP_REFERENCE_PREFIX = "group:";
+
+        /**
+         * Holds the destination's properties for balancing and cooldown.
+         */
+        private static Properties endpointProperties;
 
         private static void registerDefaultMQfrom( Properties destinationsProperties ) {
-            DEFAULT_MQ = getDeclaredMQfrom( destinationsProperties );
-            if ( DEFAULT_MQ == null ) {
+            synchronized (ENDPOINT_GROUPS) {
+                ENDPOINT_GROUPS.clear();
+                endpointProperties = destinationsProperties;
+                final Enumeration names = destinationsProperties.propertyNames();
+                while ( names.hasMoreElements() ) {
+                    final String name = (String) names.nextElement();
+                    if ( name.startsWith( GROUP_PROPERTY_PREFIX ) ) {
+                        final String groupName = name.substring( GROUP_PROPERTY_PREFIX.length() );
+                        try {
+                            final MQEndpointGroup group = MQEndpointGroup.parse( destinationsProperties.getProperty( name ),
+                                    destinationsProperties );
+                            ENDPOINT_GROUPS.put( GROUP_REFERENCE_PREFIX + groupName, group );
+                            LOG.info( "Registered endpoint group " + U.w( groupName ) + " " + group );
+                        } catch ( Exception invalid ) {
+                            LOG.error( "Invalid endpoint group " + U.w( groupName ) + "! Ignoring it.", invalid );
+                        }
+                    }
+                }
+            }
+            DEFAULT_ENDPOINTS = getDeclaredEndpointsFrom( destinationsProperties );
+            if ( DEFAULT_ENDPOINTS == null ) {
                 LOG.info(
                         "No default MQ Connection specified. Destination may not work. Please specify a default Connection as <property name=\"mq\" value=\"wmq://<host>:<port>/dest/queue/<queuename>@<queuemanager>?channelName=<channelname>/\"/>" );
             }
         }
 
-        public static MQ getDeclaredMQfrom( Properties properties ) {
+        /**
+         * Gets the MQ endpoints declared - one URI, a list of URIs or a reference to a named group.
+         * 
+         * @param properties
+         *            the properties
+         * @return the endpoints or {@code null} if none declared
+         */
+        public static MQEndpointGroup getDeclaredEndpointsFrom( Properties properties ) {
             /*
              * Cascading search for one of the three valid property names to specify a default MQ connection ...
              */
-            String uriLiteral = properties.getProperty( "mq",
+            String literal = properties.getProperty( "mq",
                     properties.getProperty( "uri", properties.getProperty( "connection", properties.getProperty( "desname" ) ) ) );
-            final String prefixWanted = MQ.Configuration.WMQ_SCHEME + ":";
-            if ( !U.isEmpty( uriLiteral ) && uriLiteral.startsWith( prefixWanted ) ) {
-                return newMQ( uriLiteral );
+            if ( U.isEmpty( literal ) ) {
+                return null;
+            }
+            literal = literal.trim();
+            synchronized (ENDPOINT_GROUPS) {
+                MQEndpointGroup endpoints = (MQEndpointGroup) ENDPOINT_GROUPS.get( literal );
+                if ( endpoints == null && literal.startsWith( GROUP_REFERENCE_PREFIX ) ) {
+                    LOG.error( "Unknown endpoint group " + U.w( literal ) + "!" );
+                    return null;
+                }
+                final String prefixWanted = MQ.Configuration.WMQ_SCHEME + ":";
+                if ( endpoints == null && literal.startsWith( prefixWanted ) ) {
+                    try {
+                        endpoints = MQEndpointGroup.parse( literal, endpointProperties );
+                        ENDPOINT_GROUPS.put( literal, endpoints );
+                    } catch ( URISyntaxException syntax ) {
+                        LOG.error( "Invalid Connection URI! Cannot create MQ Connection!", syntax );
+                    }
+                }
+                return endpoints;
+            }
+        }
+    }
+
+    /**
+     * Sets up the {@link #PIPELINE} if asynchronous sending is enabled - shutting down the previous one, if any.
+     * <p>
+     * Reports which cannot be put are written to the {@link #SPOOL}. So the pipeline is not set up without it.
+     * 
+     * @param destinationsProperties
+     *            the properties set in the report server's conf file
+     */
+    private static synchronized void initPipeline( Properties destinationsProperties ) {
+        shutdownPipeline();
+        asyncShutdownTimeoutSeconds = MQConnectionPool.intProperty( destinationsProperties, ASYNC_SHUTDOWN_TIMEOUT_PROPERTY,
+                asyncShutdownTimeoutSeconds );
+        if ( "true".equalsIgnoreCase( destinationsProperties.getProperty( ASYNC_PROPERTY ) ) ) {
+            if ( SPOOL == null ) {
+                LOG.warn( "Sending asynchronously requires " + U.w( MQSpool.DIRECTORY_PROPERTY )
+                        + " for reports which cannot be put. Sending synchronously." );
+                return;
             }
-            return null;
+            PIPELINE = MQPutPipeline.fromProperties( POOL, SPOOL, destinationsProperties );
+            LOG.info( "Using " + U.w( PIPELINE ) );
+        }
+    }
+
+    private static synchronized void shutdownPipeline() {
+        if ( PIPELINE != null ) {
+            PIPELINE.shutdown( asyncShutdownTimeoutSeconds * 1000L );
+            PIPELINE = null;
         }
     }
 
+    /**
+     * Sets up the {@link #POOL} - draining the previous one, if any.
+     * 
+     * @param destinationsProperties
+     *            the properties set in the report server's conf file
+     */
+    private static synchronized void initPool( Properties destinationsProperties ) {
+        if ( POOL != null ) {
+            POOL.drain();
+        }
+        POOL = MQConnectionPool.fromProperties( FACTORY, destinationsProperties );
+        LOG.info( "Using " + U.w( POOL ) );
+    }
+
+    /**
+     * Sets up the {@link #SHARED} connections if group commit is enabled - draining the previous ones, if any.
+     * <p>
+     * If the MQ implementation does not support group commit, the reports are sent using the {@link #POOL} instead.
+     * 
+     * @param destinationsProperties
+     *            the properties set in the report server's conf file
+     */
+    private static synchronized void initSharedConnections( Properties destinationsProperties ) {
+        drainSharedConnections();
+        if ( "true".equalsIgnoreCase( destinationsProperties.getProperty( GROUP_COMMIT_PROPERTY ) ) ) {
+            if ( !MQRegistrar.supportsGroupCommit() ) {
+                LOG.warn( MQRegistrar.MQ_IMPLEMENTATION.getName() + " does not support group commit. Ignoring "
+                        + U.w( GROUP_COMMIT_PROPERTY ) + "." );
+                return;
+            }
+            SHARED = MQSharedConnections.fromProperties( FACTORY, destinationsProperties );
+            LOG.info( "Using " + U.w( SHARED ) );
+        }
+    }
+
+    /**
+     * Sets up the {@link #SPOOL} if spooling is enabled - shutting down the previous one, if any.
+     * 
+     * @param destinationsProperties
+     *            the properties set in the report server's conf file
+     */
+    private static synchronized void initSpool( Properties destinationsProperties ) {
+        shutdownSpool();
+        try {
+            SPOOL = MQSpool.fromProperties( POOL, destinationsProperties );
+            if ( SPOOL != null ) {
+                LOG.info( "Using " + U.w( SPOOL ) );
+            }
+        } catch ( Exception cannotSpool ) {
+            LOG.error( "Cannot set up the spool! Reports will fail while the queue manager is not available.", cannotSpool );
+        }
+    }
+
+    private static synchronized void shutdownSpool() {
+        if ( SPOOL != null ) {
+            SPOOL.shutdown();
+            SPOOL = null;
+        }
+    }
+
+    private static synchronized void drainSharedConnections() {
+        if ( SHARED != null ) {
+            SHARED.drain();
+            SHARED = null;
+        }
+    }
+
+    private static final MQConnectionPool.Factory FACTORY = new MQConnectionPool.Factory() {
+        public MQ newMQ( MQ.Configuration configuration ) throws Exception {
+            return MQDestination.newMQ( configuration );
+        }
+    };
+
     /**
      * Creates a new MQ instance.
      * <p>
@@ -374,14 +1030,8 @@ public final class MQDestination extends ModifyingDestination {
      */
     public static MQ newMQ( String uriLiteral ) {
         try {
-
-            final Class[] withConfigurationArgument = { MQ.Configuration.class };
-            Constructor c = MQRegistrar.MQ_IMPLEMENTATION.getDeclaredConstructor( withConfigurationArgument );
-
             MQ.Configuration configuration = MQ.Configuration.fromURILiteral( uriLiteral );
-            final Object[] configurationArgument = { configuration };
-            MQ mq = (MQ) c.newInstance( configurationArgument );
-            return mq;
+            return newMQ( configuration );
         } catch ( URISyntaxException syntax ) {
             LOG.error( "Invalid Connection URI! Cannot create MQ Connection!", syntax );
         } catch ( NoSuchMethodException noSuchMethod ) {
@@ -392,7 +1042,32 @@ public final class MQDestination extends ModifyingDestination {
         return null;
     }
 
+    /**
+     * Creates a new MQ instance of the registered implementation.
+     * 
+     * @param configuration
+     *            the configuration.
+     * @return a new - not yet connected - MQ instance.
+     * @throws Exception
+     *             if the instance cannot be created
+     */
+    private static MQ newMQ( MQ.Configuration configuration ) throws Exception {
+        final Class[] withConfigurationArgument = { MQ.Configuration.class };
+        Constructor c = MQRegistrar.MQ_IMPLEMENTATION.getDeclaredConstructor( withConfigurationArgument );
+        final Object[] configurationArgument = { configuration };
+        return (MQ) c.newInstance( configurationArgument );
+    }
+
     public static void shutdown() {
+        shutdownPipeline();
+        shutdownSpool();
+        drainSharedConnections();
+        synchronized (MQDestination.class) {
+            if ( POOL != null ) {
+                POOL.drain();
+                POOL = null;
+            }
+        }
         MgpDestination.shutdown();
         LOG.info( "Destination " + U.w( MQDestination.class.getName() ) + " shut down." );
     }
@@ -32,9 +32,12 @@ import org.apache.log4j.Logger;
 
 import de.mgpit.oracle.reports.plugin.commons.U;
 import de.mgpit.oracle.reports.plugin.commons.URIUtility;
+import de.mgpit.oracle.reports.plugin.commons.concurrent.WorkerPool;
+import de.mgpit.oracle.reports.plugin.commons.driver.SharedZipArchives;
 import de.mgpit.oracle.reports.plugin.commons.driver.ZipArchive;
 import de.mgpit.oracle.reports.plugin.commons.driver.ZipArchive.ArchivingException;
 import de.mgpit.oracle.reports.plugin.commons.io.IOUtility;
+import de.mgpit.oracle.reports.plugin.commons.io.ZipCompressionPolicy;
 import de.mgpit.oracle.reports.plugin.destination.MgpDestination;
 import de.mgpit.types.Entryname;
 import de.mgpit.types.Filename;
@@ -58,6 +61,13 @@ import oracle.reports.RWException;
  *  <destination destype="zip" class="de.mgpit.oracle.reports.plugin.destination.zip.ZipDestination">
  *     <property name="loglevel" value="DEBUG"/> <!-- log4j message levels. Allow debug messages --> 
  *     <property name="logfile"  value="/tmp/log/zipdestination.log"/> <!-- file to send the messages to -->
+ *     <property name="zip.append.inPlace" value="true"/> <!-- optional: append to existing ZIP files in place -->
+ *     <property name="zip.compression.parallel" value="true"/> <!-- optional: compress entries on all processors -->
+ *     <property name="zip.policy.stored" value="image/png, image/jpeg, .zip"/> <!-- optional: store as is -->
+ *     <property name="zip.policy.probe" value="application/pdf"/> <!-- optional: store unless deflating pays off -->
+ *     <property name="zip.policy.default" value="deflate"/> <!-- optional: stored|probe|deflate|0-9 -->
+ *     <property name="zip.batch.maxDelayMillis" value="20"/> <!-- optional: window for batching appends -->
+ *     <property name="zip.batch.maxDistributions" value="16"/> <!-- optional: maximum appends per batch -->
  *  </destination>
  *         }
  * </pre>
@@ -148,6 +158,14 @@ import oracle.reports.RWException;
  * Depending on the {@code DESFORMAT} this will work only partially, though. For example re-running a distribution with
  * {@code DESFORMAT=html} and a constant {@code DESNAME=}<em>some name</em> will include a new version for every non main
  * file (e.g. image) as their name is constructed of <em>some name</em> and a generated numeric suffix.
+ * <li>Appending distributions to the same ZIP file are serialized by the destination - and by a lock file
+ * {@code <archive>.lock} across processes. Distributions arriving within {@code zip.batch.maxDelayMillis} are
+ * written by one archive update. A distribution finishes once its entries are on disk.</li>
+ * <li>Entries are stored or deflated by their format as configured with the {@code zip.policy.*} properties - see
+ * {@link ZipCompressionPolicy}. By default images and ZIP based formats are stored and PDF is stored unless its first
+ * block compresses well.</li>
+ * <li>With {@code zip.append.inPlace=true} appending does not rewrite the archive, but replaced entries remain in the
+ * file as unreferenced data. Use a new archive from time to time if entries are replaced often.</li>
  * </ul>
  * 
  * @see ZipArchive
@@ -159,7 +177,32 @@ public final class ZipDestination extends MgpDestination {
 
     private static final Logger LOG = Logger.getLogger( ZipDestination.class );
 
+    /**
+     * Holds the name of the destination property for appending to existing ZIP files in place instead of rewriting
+     * them.
+     */
+    public static final String APPEND_IN_PLACE_PROPERTY = "zip.append.inPlace";
+
+    private static boolean appendInPlace = false;
+
+    /**
+     * Holds the name of the destination property for compressing the entries of a distribution concurrently on the
+     * shared {@link WorkerPool}. Pays off for distributions with many files, e.g. burst reports.
+     */
+    public static final String PARALLEL_COMPRESSION_PROPERTY = "zip.compression.parallel";
+
+    private static boolean parallelCompression = false;
+
+    private static ZipCompressionPolicy compressionPolicy = ZipCompressionPolicy.DEFLATE_ALL;
+
+    /**
+     * Holds the archives shared by appending distributions. Set up in {@link #init(Properties)}.
+     */
+    private static SharedZipArchives SHARED;
+
     private ZipArchive zipArchive;
+    private SharedZipArchives.Distribution sharedDistribution;
+    private Filename zipArchiveFileName;
     private URI uri;
     // private String zipEntryName;
     // private boolean inAppendingMode;
@@ -169,7 +212,11 @@ public final class ZipDestination extends MgpDestination {
      */
     protected void stop() throws RWException {
         try {
-            this.zipArchive.close();
+            if ( this.sharedDistribution != null ) {
+                SHARED.append( this.sharedDistribution );
+            } else {
+                this.zipArchive.close();
+            }
             super.stop();
         } catch ( Exception any ) {
             getLogger().error( "Error during finishing distribution!", any );
@@ -193,7 +240,7 @@ public final class ZipDestination extends MgpDestination {
         getLogger().info( "MAIN file " + U.w( cacheFile ) + " of format " + humanReadable( fileFormat ) + " will be put as "
                 + U.w( entryName ) + " to " + U.w( getZipArchiveFileName() ) );
         try {
-            addFileToArchiveWithName( cacheFile, entryName );
+            addFileToArchiveWithName( cacheFile, entryName, getFileFormatAsMimeType( fileFormat ) );
         } catch ( Throwable anyOther ) {
             getLogger().fatal( "Fatal Error during sending main file " + U.w( cacheFile ) + "!", anyOther );
             throw asRWException( new Exception( anyOther ) );
@@ -214,7 +261,7 @@ public final class ZipDestination extends MgpDestination {
         getLogger().info( "Other file " + U.w( cacheFile ) + " of format " + humanReadable( fileFormat ) + " will be put as "
                 + U.w( entryName ) + " to " + U.w( getZipArchiveFileName() ) );
         try {
-            addFileToArchiveWithName( cacheFile, entryName );
+            addFileToArchiveWithName( cacheFile, entryName, getFileFormatAsMimeType( fileFormat ) );
         } catch ( Throwable anyOther ) {
             getLogger().fatal( "Fatal Error during sending additional file " + U.w( cacheFile ) + "!", anyOther );
             throw asRWException( new Exception( anyOther ) );
@@ -229,13 +276,23 @@ public final class ZipDestination extends MgpDestination {
      *            archive
      * @param entryName
      *            name for the source in the ZIP file
+     * @param mimeType
+     *            mime type of the source for choosing its compression
      * @throws ArchivingException
      */
-    protected void addFileToArchiveWithName( final Filename sourcefilename, final Entryname entryname ) throws RWException {
+    protected void addFileToArchiveWithName( final Filename sourcefilename, final Entryname entryname, final String mimeType )
+            throws RWException {
         try {
             File sourceFile = IOUtility.fileFromName( sourcefilename );
+            if ( this.sharedDistribution != null ) {
+                if ( !sourceFile.exists() ) {
+                    throw new FileNotFoundException( sourceFile.getPath() );
+                }
+                this.sharedDistribution.add( sourcefilename, entryname, mimeType );
+                return;
+            }
             InputStream in = IOUtility.inputStreamFromFile( sourceFile );
-            this.zipArchive.addFromStream( in, entryname, sourceFile.lastModified() );
+            this.zipArchive.addFromStream( in, entryname, sourceFile.lastModified(), mimeType );
         } catch ( FileNotFoundException fileNotFound ) {
             getLogger().error( "Error during distribution! Could not find file to add!" );
             throw asRWException( fileNotFound );
@@ -317,17 +374,29 @@ public final class ZipDestination extends MgpDestination {
     /**
      * Create a new or use an eventually existing ZIP archive. An existing
      * archive will only be reused if called in appending mode, i.e. the APPEND
-     * parameter is set to true or yes.
+     * parameter is set to true or yes. Appending distributions collect their files
+     * and hand them to the {@link SharedZipArchives} on {@link #stop()}.
      * 
      * @param zipArchiveFileName
      *            full file name of the ZIP file to be created / updated.
      */
     private void createZipArchive( final Filename zipArchiveFileName, final boolean inAppendingMode ) {
-        if ( inAppendingMode ) {
+        this.zipArchiveFileName = zipArchiveFileName;
+        if ( inAppendingMode && SHARED != null ) {
+            this.sharedDistribution = SHARED.newDistribution( zipArchiveFileName );
+        } else if ( inAppendingMode && appendInPlace ) {
+            this.zipArchive = ZipArchive.newOrExistingNamedInPlace( zipArchiveFileName );
+        } else if ( inAppendingMode ) {
             this.zipArchive = ZipArchive.newOrExistingNamed( zipArchiveFileName );
         } else {
             this.zipArchive = ZipArchive.newNamed( zipArchiveFileName );
         }
+        if ( this.zipArchive != null ) {
+            this.zipArchive.withCompressionPolicy( compressionPolicy );
+            if ( parallelCompression ) {
+                this.zipArchive.withParallelCompression( WorkerPool.shared() );
+            }
+        }
     }
 
     /**
@@ -417,6 +486,9 @@ public final class ZipDestination extends MgpDestination {
      * Invoked by the Report Server.
      * <ul>
      * <li>initialize log4j</li>
+     * <li>read {@link #APPEND_IN_PLACE_PROPERTY} and {@link #PARALLEL_COMPRESSION_PROPERTY}</li>
+     * <li>set up the {@link ZipCompressionPolicy}</li>
+     * <li>set up the {@link SharedZipArchives} for appending distributions</li>
      * </ul>
      * 
      * @param destinationsProperties
@@ -428,16 +500,29 @@ public final class ZipDestination extends MgpDestination {
         MgpDestination.init( destinationsProperties );
         initLogging( destinationsProperties, ZipDestination.class );
         dumpProperties( destinationsProperties, LOG );
+        appendInPlace = destinationsProperties != null
+                && StringCodedBoolean.valueOf( destinationsProperties.getProperty( APPEND_IN_PLACE_PROPERTY, "FALSE" ) );
+        parallelCompression = destinationsProperties != null
+                && StringCodedBoolean.valueOf( destinationsProperties.getProperty( PARALLEL_COMPRESSION_PROPERTY, "FALSE" ) );
+        compressionPolicy = ZipCompressionPolicy.fromProperties( destinationsProperties );
+        LOG.info( "Entries are compressed by " + U.w( compressionPolicy ) );
+        initSharedArchives( destinationsProperties );
         LOG.info( "Destination " + U.w( ZipDestination.class.getName() ) + " started." );
     }
 
+    private static synchronized void initSharedArchives( final Properties destinationsProperties ) {
+        SHARED = SharedZipArchives.fromProperties( appendInPlace, parallelCompression, destinationsProperties )
+                .withCompressionPolicy( compressionPolicy );
+        LOG.info( "Appending distributions use " + U.w( SHARED ) );
+    }
+
     public static void shutdown() {
         MgpDestination.shutdown();
         LOG.info( "Destination " + U.w( ZipDestination.class.getName() ) + " shut down." );
     }
 
     private Filename getZipArchiveFileName() {
-        return this.zipArchive.getFileName();
+        return this.zipArchiveFileName;
     }
 
     protected Logger getLogger() {
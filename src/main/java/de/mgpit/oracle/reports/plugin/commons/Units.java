@@ -21,6 +21,8 @@
 package de.mgpit.oracle.reports.plugin.commons;
 
 
+import org.apache.log4j.Logger;
+
 /**
  * 
  * Poor man's units. Just to avoid "Magic Numbers".
@@ -40,4 +42,27 @@ public class Units {
     public static final long ONE_GIGABYTE = ONE_MEGABYTE * ONE_KILOBYTE;
     public static final long ONE_TERABYTE = ONE_GIGABYTE * ONE_KILOBYTE;
     public static final long ONE_PETABYTE = ONE_TERABYTE * ONE_KILOBYTE;
+
+    private static final Logger LOG = Logger.getLogger( Units.class );
+
+    /**
+     * Parses a length in bytes - e.g. a size or threshold given as property.
+     * 
+     * @param literal
+     *            the length as string; may be {@code null} or empty
+     * @param defaultValue
+     *            value to use if the literal is empty or cannot be parsed
+     * @return the length or {@code defaultValue}
+     */
+    public static long parseLength( final String literal, final long defaultValue ) {
+        if ( U.isEmpty( literal ) ) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong( literal.trim() );
+        } catch ( NumberFormatException unparsable ) {
+            LOG.warn( "Cannot parse " + U.w( literal ) + " as length. Using " + U.w( defaultValue ) );
+            return defaultValue;
+        }
+    }
 }
\ No newline at end of file
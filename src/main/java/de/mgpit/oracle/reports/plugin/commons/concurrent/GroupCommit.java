@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.concurrent;
+
+
+import de.mgpit.oracle.reports.plugin.commons.U;
+
+/**
+ * Commits the work of concurrent callers together.
+ * <p>
+ * Each caller does its work - e.g. putting a message under syncpoint - via {@link #doAndAwaitCommit(Work)} and
+ * returns only after a commit covering its work has succeeded. The work of all callers since the last commit forms a
+ * batch, which is committed
+ * <ul>
+ * <li>as soon as it holds {@code maxBatchSize} pieces of work - by the caller completing the batch</li>
+ * <li>or {@code maxDelayMillis} after its first piece of work - by the first caller waking up after that</li>
+ * </ul>
+ * If the commit fails the batch is backed out and every caller of the batch gets the failure.
+ * <p>
+ * Work, commit and back out are done holding this object's monitor. So no work is done while committing.
+ *
+ * @author mgp
+ *
+ */
+public final class GroupCommit {
+
+    /**
+     * A piece of work to be committed.
+     */
+    public interface Work {
+        void perform() throws Exception;
+    }
+
+    /**
+     * The resource the work is committed on.
+     */
+    public interface Committable {
+        void commit() throws Exception;
+
+        void backout() throws Exception;
+    }
+
+    private final Committable committable;
+    private final int maxBatchSize;
+    private final long maxDelayMillis;
+
+    private Batch current = new Batch();
+    private long commits = 0L;
+
+    public GroupCommit( final Committable committable, final int maxBatchSize, final long maxDelayMillis ) {
+        U.assertNotNull( committable, "Cannot commit on null!" );
+        this.committable = committable;
+        this.maxBatchSize = Math.max( 1, maxBatchSize );
+        this.maxDelayMillis = Math.max( 0L, maxDelayMillis );
+    }
+
+    /**
+     * Does the work given and waits until it has been committed.
+     *
+     * @param work
+     *            the work
+     * @throws Exception
+     *             if the work or the commit fails
+     */
+    public synchronized void doAndAwaitCommit( final Work work ) throws Exception {
+        work.perform();
+        final Batch batch = current;
+        if ( batch.size == 0 ) {
+            batch.deadline = System.currentTimeMillis() + maxDelayMillis;
+        }
+        batch.size++;
+        if ( batch.size >= maxBatchSize ) {
+            commitCurrent();
+        }
+        while ( !batch.done ) {
+            final long toWait = batch.deadline - System.currentTimeMillis();
+            if ( toWait <= 0 ) {
+                commitCurrent();
+            } else {
+                wait( toWait );
+            }
+        }
+        if ( batch.failure != null ) {
+            throw batch.failure;
+        }
+    }
+
+    /**
+     * Gets the number of commits done.
+     *
+     * @return number of commits
+     */
+    public synchronized long commitCount() {
+        return commits;
+    }
+
+    private void commitCurrent() {
+        final Batch batch = current;
+        current = new Batch();
+        try {
+            committable.commit();
+            commits++;
+        } catch ( Exception commitFailed ) {
+            batch.failure = commitFailed;
+            try {
+                committable.backout();
+            } catch ( Exception ignored ) {
+                // the failure of the commit is what the callers need to know
+            }
+        }
+        batch.done = true;
+        notifyAll();
+    }
+
+    public String toString() {
+        return "GroupCommit(maxBatchSize=" + maxBatchSize + ", maxDelayMillis=" + maxDelayMillis + ")";
+    }
+
+    private static final class Batch {
+        private int size = 0;
+        private long deadline;
+        private boolean done = false;
+        private Exception failure = null;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.concurrent;
+
+
+/**
+ * A piece of work run by a {@link WorkerPool} whose completion can be awaited.
+ * <p>
+ * Subclasses implement {@link #compute()}. A failure of {@code compute()} is kept and handed to the thread
+ * {@link #await() awaiting} the job.
+ *
+ * @author mgp
+ *
+ */
+public abstract class Job implements Runnable {
+    private boolean done = false;
+    private Throwable failure = null;
+
+    /**
+     * Does the work.
+     *
+     * @throws Exception
+     */
+    protected abstract void compute() throws Exception;
+
+    public final void run() {
+        Throwable caught = null;
+        try {
+            compute();
+        } catch ( Throwable any ) {
+            caught = any;
+        }
+        synchronized (this) {
+            failure = caught;
+            done = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until the job has been run.
+     *
+     * @throws Exception
+     *             the failure of {@link #compute()} - if any
+     * @throws InterruptedException
+     *             if the waiting thread is interrupted
+     */
+    public final synchronized void await() throws Exception {
+        while ( !done ) {
+            wait();
+        }
+        if ( failure != null ) {
+            if ( failure instanceof Exception ) {
+                throw (Exception) failure;
+            }
+            if ( failure instanceof Error ) {
+                throw (Error) failure;
+            }
+            throw new Exception( failure );
+        }
+    }
+
+    public final synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Resets the job so that it can be run again.
+     */
+    protected final synchronized void reset() {
+        done = false;
+        failure = null;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.concurrent;
+
+
+import java.util.LinkedList;
+
+import org.apache.log4j.Logger;
+
+import de.mgpit.oracle.reports.plugin.commons.U;
+
+/**
+ * A fixed set of daemon threads working off a queue of {@code Runnable}s.
+ * <p>
+ * Poor man's executor - the Reports Server's JVM does not provide {@code java.util.concurrent}. Use
+ * {@link #shared()} for CPU bound work like encoding or compressing blocks of data. The shared pool holds
+ * one thread per available processor and is started on first use.
+ *
+ * @author mgp
+ *
+ */
+public final class WorkerPool {
+    private static final Logger LOG = Logger.getLogger( WorkerPool.class );
+
+    private static WorkerPool shared;
+
+    private final String name;
+    private final LinkedList queue = new LinkedList();
+    private final Thread[] workers;
+    private boolean shutdown = false;
+
+    public WorkerPool( final String name, final int numberOfWorkers ) {
+        U.assertTrue( numberOfWorkers > 0, "A WorkerPool needs at least one worker!" );
+        this.name = name;
+        this.workers = new Thread[numberOfWorkers];
+        for ( int i = 0; i < numberOfWorkers; i++ ) {
+            workers[i] = new Thread( new Worker(), name + "-" + (i + 1) );
+            workers[i].setDaemon( true );
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Gets the shared pool.
+     *
+     * @return the shared pool
+     */
+    public static synchronized WorkerPool shared() {
+        if ( shared == null ) {
+            shared = new WorkerPool( "MgpWorker", Runtime.getRuntime().availableProcessors() );
+            LOG.info( "Started " + U.w( shared ) );
+        }
+        return shared;
+    }
+
+    /**
+     * Shuts the shared pool down - if started.
+     * <p>
+     * Tasks already queued are still being run.
+     */
+    public static synchronized void shutdownShared() {
+        if ( shared != null ) {
+            shared.shutdown();
+            shared = null;
+        }
+    }
+
+    /**
+     * Gets the number of worker threads.
+     *
+     * @return number of workers
+     */
+    public int size() {
+        return workers.length;
+    }
+
+    /**
+     * Queues a task for execution by one of the workers.
+     *
+     * @param task
+     *            task to run
+     * @throws IllegalStateException
+     *             if the pool has been shut down
+     */
+    public void execute( final Runnable task ) {
+        U.assertNotNull( task, "Cannot execute null task!" );
+        synchronized (queue) {
+            if ( shutdown ) {
+                throw new IllegalStateException( this + " has been shut down!" );
+            }
+            queue.addLast( task );
+            queue.notify();
+        }
+    }
+
+    /**
+     * Shuts this pool down. The workers terminate after having run the tasks already queued.
+     */
+    public void shutdown() {
+        synchronized (queue) {
+            shutdown = true;
+            queue.notifyAll();
+        }
+    }
+
+    private Runnable take() throws InterruptedException {
+        synchronized (queue) {
+            while ( queue.isEmpty() ) {
+                if ( shutdown ) {
+                    return null;
+                }
+                queue.wait();
+            }
+            return (Runnable) queue.removeFirst();
+        }
+    }
+
+    public String toString() {
+        return "WorkerPool " + name + " with " + workers.length + " worker(s)";
+    }
+
+    private class Worker implements Runnable {
+        public void run() {
+            try {
+                Runnable task;
+                while ( (task = take()) != null ) {
+                    try {
+                        task.run();
+                    } catch ( Throwable unexpected ) {
+                        LOG.error( "Task " + U.w( task ) + " failed!", unexpected );
+                    }
+                }
+            } catch ( InterruptedException interrupted ) {
+                LOG.warn( Thread.currentThread().getName() + " has been interrupted." );
+            }
+        }
+    }
+}
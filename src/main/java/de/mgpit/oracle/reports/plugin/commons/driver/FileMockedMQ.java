@@ -9,6 +9,7 @@ import java.io.OutputStream;
 import org.apache.log4j.Logger;
 
 import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.io.AbortableOutputStream;
 import de.mgpit.oracle.reports.plugin.commons.io.IOUtility;
 import de.mgpit.types.Filename;
 import oracle.reports.utility.Utility;
@@ -20,10 +21,11 @@ public class FileMockedMQ extends MQ {
     }
 
     public OutputStream newMessage() {
-        return new OutputStream() {
+        return new AbortableOutputStream() {
             
             private File file;
             private FileOutputStream fileOut;
+            private boolean aborted = false;
 
             {
                 try {
@@ -46,22 +48,59 @@ public class FileMockedMQ extends MQ {
                 }
             }
 
+            public void write( byte[] b, int off, int len ) throws IOException {
+                if ( fileOut != null ) {
+                    fileOut.write( b, off, len );
+                }
+            }
+
             public void flush() throws IOException {
-                fileOut.flush();
+                if ( fileOut != null ) {
+                    fileOut.flush();
+                }
             }
 
             public void close() throws IOException {
+                if ( aborted ) {
+                    return;
+                }
                 flush();
                 fileOut.close();
                 final Filename finalFilename = Filename.of( file.getPath() ).withNewExtension( "mqf" );
                 file.renameTo( IOUtility.fileFromName( finalFilename ) );
             }
 
+            /**
+             * Deletes the partial file. So no {@code .mqf} file is left.
+             */
+            public void abort() {
+                if ( aborted ) {
+                    return;
+                }
+                aborted = true;
+                try {
+                    fileOut.close();
+                } catch ( IOException ignoredButLogged ) {
+                    Logger.getRootLogger().warn( "Error on closing aborted " + file.getAbsolutePath(), ignoredButLogged );
+                }
+                fileOut = null;
+                file.delete();
+            }
+
         };
     }
 
     public void connect() throws Exception {}
 
+    /**
+     * Supports group commit trivially. Each message is a file of its own which needs no commit.
+     * 
+     * @see de.mgpit.oracle.reports.plugin.commons.driver.MQ#enableGroupCommit(int, long)
+     */
+    public boolean enableGroupCommit( final int maxBatchSize, final long maxDelayMillis ) {
+        return true;
+    }
+
     private String filenameFromConfiguration() {
         return configuration.getQueueManagerName() + "_" + configuration.getQueueName() + "_" + configuration.getChannelName()
                 + "__";
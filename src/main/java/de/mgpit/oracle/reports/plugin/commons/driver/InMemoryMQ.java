@@ -0,0 +1,519 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.driver;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.concurrent.GroupCommit;
+import de.mgpit.oracle.reports.plugin.commons.io.AbortableOutputStream;
+
+/**
+ * MQ holding its queues in memory.
+ * <p>
+ * A stand-in for testing and benchmarking the MQ destination without a queue manager. Plug it in with
+ * {@code mq.implementation} set to {@code de.mgpit.oracle.reports.plugin.commons.driver.InMemoryMQ}. The
+ * messages sent can be read back via {@link #queue(MQ.Configuration)}.
+ * <p>
+ * Each queue
+ * <ul>
+ * <li>is identified by the queue manager name and the queue name of the configuration</li>
+ * <li>has a maximum depth - a put exceeding it fails like with a real queue being full. Defaults to the system
+ * property {@code mq.inmemory.maxDepth} or 5000</li>
+ * <li>may delay each put by a simulated latency. Defaults to the system property
+ * {@code mq.inmemory.putLatencyMillis} or 0</li>
+ * <li>may delay each commit - including the implicit one of a put outside a unit of work - by a simulated latency
+ * for forcing the log. Defaults to the system property {@code mq.inmemory.commitLatencyMillis} or 0</li>
+ * <li>can be told to fail the next puts or connects</li>
+ * </ul>
+ * Units of work and group commit are supported. Messages put within a unit of work count for the depth but are
+ * not visible to consumers until committed.
+ *
+ * @author mgp
+ *
+ */
+public class InMemoryMQ extends MQ {
+
+    public static final String MAX_DEPTH_PROPERTY = "mq.inmemory.maxDepth";
+    public static final String PUT_LATENCY_PROPERTY = "mq.inmemory.putLatencyMillis";
+    public static final String COMMIT_LATENCY_PROPERTY = "mq.inmemory.commitLatencyMillis";
+
+    public static final int DEFAULT_MAX_DEPTH = 5000;
+
+    /**
+     * Holds the queues by their name - queue manager name and queue name.
+     */
+    private static final HashMap QUEUES = new HashMap();
+
+    private Queue queue;
+    private boolean connected = false;
+    private boolean inUnitOfWork = false;
+    private int unitsOfWork = 0;
+    /**
+     * Holds the messages put but not yet committed.
+     */
+    private final List uncommitted = new ArrayList();
+    private GroupCommit groupCommit;
+
+    public InMemoryMQ( Configuration configuration ) {
+        super( configuration );
+    }
+
+    /**
+     * Gets the queue for the configuration given - creating it if not existing yet.
+     *
+     * @param configuration
+     *            the configuration
+     * @return the queue
+     */
+    public static Queue queue( final Configuration configuration ) {
+        U.assertNotNull( configuration, "Cannot get a queue without configuration!" );
+        final String name = configuration.getQueueName() + "@" + configuration.getQueueManagerName();
+        synchronized (QUEUES) {
+            Queue queue = (Queue) QUEUES.get( name );
+            if ( queue == null ) {
+                queue = new Queue( name, Integer.getInteger( MAX_DEPTH_PROPERTY, DEFAULT_MAX_DEPTH ).intValue(),
+                        Long.getLong( PUT_LATENCY_PROPERTY, 0L ).longValue(), Long.getLong( COMMIT_LATENCY_PROPERTY, 0L )
+                                .longValue() );
+                QUEUES.put( name, queue );
+            }
+            return queue;
+        }
+    }
+
+    /**
+     * Removes all queues with their messages.
+     */
+    public static void reset() {
+        synchronized (QUEUES) {
+            QUEUES.clear();
+        }
+    }
+
+    public void connect() throws Exception {
+        final Queue target = queue( configuration );
+        target.checkConnect();
+        this.queue = target;
+        this.connected = true;
+    }
+
+    /**
+     * Disconnects - backing out a pending unit of work.
+     *
+     * @see de.mgpit.oracle.reports.plugin.commons.driver.MQ#disconnect()
+     */
+    public void disconnect() throws Exception {
+        if ( inUnitOfWork ) {
+            backout();
+        }
+        connected = false;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public OutputStream newMessage() throws Exception {
+        return newMessage( -1L );
+    }
+
+    public OutputStream newMessage( final long expectedLength ) throws Exception {
+        return new MessageOutputStream( expectedLength, null, 0, false );
+    }
+
+    /**
+     * Gets a new group message. The message is not segmented as there is no limit of the message length.
+     *
+     * @see de.mgpit.oracle.reports.plugin.commons.driver.MQ#newGroupMessage(long, int, boolean)
+     */
+    public OutputStream newGroupMessage( final long expectedLength, final int segmentSize, final boolean lastInGroup )
+            throws Exception {
+        synchronized (uncommitted) {
+            final String groupId = System.identityHashCode( this ) + "#" + unitsOfWork;
+            return new MessageOutputStream( expectedLength, groupId, uncommitted.size() + 1, lastInGroup );
+        }
+    }
+
+    public void beginUnitOfWork() throws Exception {
+        inUnitOfWork = true;
+        unitsOfWork++;
+    }
+
+    public boolean enableGroupCommit( final int maxBatchSize, final long maxDelayMillis ) {
+        groupCommit = new GroupCommit( new GroupCommit.Committable() {
+            public void commit() throws Exception {
+                commitUncommitted();
+            }
+
+            public void backout() throws Exception {
+                backoutUncommitted();
+            }
+        }, maxBatchSize, maxDelayMillis );
+        return true;
+    }
+
+    public void commit() throws Exception {
+        commitUncommitted();
+        inUnitOfWork = false;
+    }
+
+    public void backout() throws Exception {
+        backoutUncommitted();
+        inUnitOfWork = false;
+    }
+
+    private void commitUncommitted() throws IOException {
+        synchronized (uncommitted) {
+            queue.commit( uncommitted );
+            uncommitted.clear();
+        }
+    }
+
+    private void backoutUncommitted() {
+        synchronized (uncommitted) {
+            queue.backout( uncommitted.size() );
+            uncommitted.clear();
+        }
+    }
+
+    private void put( final Message message ) throws Exception {
+        if ( !connected ) {
+            throw new IOException( "Not connected to " + configuration );
+        }
+        if ( inUnitOfWork ) {
+            queue.reserve();
+            synchronized (uncommitted) {
+                uncommitted.add( message );
+            }
+        } else if ( groupCommit != null ) {
+            groupCommit.doAndAwaitCommit( new GroupCommit.Work() {
+                public void perform() throws Exception {
+                    queue.reserve();
+                    synchronized (uncommitted) {
+                        uncommitted.add( message );
+                    }
+                }
+            } );
+        } else {
+            queue.put( message );
+        }
+    }
+
+    /**
+     * Collects a message in memory and puts it on close - or discards it on abort.
+     */
+    private final class MessageOutputStream extends AbortableOutputStream {
+        private final ByteArrayOutputStream data;
+        private final String groupId;
+        private final int sequenceInGroup;
+        private final boolean lastInGroup;
+        private boolean closed = false;
+
+        MessageOutputStream( final long expectedLength, final String groupId, final int sequenceInGroup,
+                final boolean lastInGroup ) {
+            this.data = new ByteArrayOutputStream( (int) Math.max( 32L, Math.min( expectedLength, Integer.MAX_VALUE ) ) );
+            this.groupId = groupId;
+            this.sequenceInGroup = sequenceInGroup;
+            this.lastInGroup = lastInGroup;
+        }
+
+        public void write( int b ) throws IOException {
+            data.write( b );
+        }
+
+        public void write( byte[] b, int off, int len ) throws IOException {
+            data.write( b, off, len );
+        }
+
+        public void close() throws IOException {
+            if ( closed ) {
+                return;
+            }
+            closed = true;
+            try {
+                put( new Message( data.toByteArray(), groupId, sequenceInGroup, lastInGroup ) );
+            } catch ( IOException ioe ) {
+                throw ioe;
+            } catch ( Exception other ) {
+                final IOException wrapped = new IOException( "Cannot put message! " + other.getMessage() );
+                wrapped.initCause( other );
+                throw wrapped;
+            }
+        }
+
+        public void abort() {
+            closed = true;
+        }
+    }
+
+    /**
+     * A message put to an in memory queue.
+     */
+    public static final class Message {
+        private final byte[] data;
+        private final String groupId;
+        private final int sequenceInGroup;
+        private final boolean lastInGroup;
+
+        Message( final byte[] data, final String groupId, final int sequenceInGroup, final boolean lastInGroup ) {
+            this.data = data;
+            this.groupId = groupId;
+            this.sequenceInGroup = sequenceInGroup;
+            this.lastInGroup = lastInGroup;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * Gets the id of the message group.
+         *
+         * @return group id or {@code null} if the message is not member of a group
+         */
+        public String getGroupId() {
+            return groupId;
+        }
+
+        /**
+         * Gets the position of the message within its group - starting with 1.
+         *
+         * @return sequence number or {@code 0} if the message is not member of a group
+         */
+        public int getSequenceInGroup() {
+            return sequenceInGroup;
+        }
+
+        public boolean isLastInGroup() {
+            return lastInGroup;
+        }
+
+        public String toString() {
+            return "Message(" + data.length + " bytes" + (groupId == null ? "" : ", " + sequenceInGroup + " in " + groupId) + ")";
+        }
+    }
+
+    /**
+     * An in memory queue with a consumer API.
+     */
+    public static final class Queue {
+        private final String name;
+        private final LinkedList messages = new LinkedList();
+        private int maxDepth;
+        private long putLatencyMillis;
+        private long commitLatencyMillis;
+        /**
+         * Holds the number of messages put within units of work not yet committed.
+         */
+        private int reserved = 0;
+        private int putsToFail = 0;
+        private int connectsToFail = 0;
+        private long putCount = 0L;
+        private long commitCount = 0L;
+
+        Queue( final String name, final int maxDepth, final long putLatencyMillis, final long commitLatencyMillis ) {
+            this.name = name;
+            this.maxDepth = maxDepth;
+            this.putLatencyMillis = putLatencyMillis;
+            this.commitLatencyMillis = commitLatencyMillis;
+        }
+
+        public synchronized void setMaxDepth( final int maxDepth ) {
+            this.maxDepth = maxDepth;
+        }
+
+        public synchronized void setPutLatencyMillis( final long putLatencyMillis ) {
+            this.putLatencyMillis = putLatencyMillis;
+        }
+
+        public synchronized void setCommitLatencyMillis( final long commitLatencyMillis ) {
+            this.commitLatencyMillis = commitLatencyMillis;
+        }
+
+        /**
+         * Gets the number of commits - including the implicit ones of puts outside a unit of work.
+         *
+         * @return number of commits
+         */
+        public synchronized long commitCount() {
+            return commitCount;
+        }
+
+        /**
+         * Lets the next puts fail.
+         *
+         * @param count
+         *            number of puts to fail
+         */
+        public synchronized void failNextPuts( final int count ) {
+            this.putsToFail = count;
+        }
+
+        /**
+         * Lets the next connects fail.
+         *
+         * @param count
+         *            number of connects to fail
+         */
+        public synchronized void failNextConnects( final int count ) {
+            this.connectsToFail = count;
+        }
+
+        /**
+         * Gets the number of committed messages on the queue.
+         *
+         * @return depth
+         */
+        public synchronized int depth() {
+            return messages.size();
+        }
+
+        /**
+         * Gets the number of messages put successfully - including the ones got already.
+         *
+         * @return number of puts
+         */
+        public synchronized long putCount() {
+            return putCount;
+        }
+
+        /**
+         * Gets the next message without waiting.
+         *
+         * @return the message or {@code null} if the queue is empty
+         */
+        public synchronized Message get() {
+            return messages.isEmpty() ? null : (Message) messages.removeFirst();
+        }
+
+        /**
+         * Gets the next message - waiting for at most the time given.
+         *
+         * @param waitMillis
+         *            maximum time to wait in milliseconds
+         * @return the message or {@code null} if none arrived in time
+         * @throws InterruptedException
+         */
+        public synchronized Message get( final long waitMillis ) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + waitMillis;
+            while ( messages.isEmpty() ) {
+                final long toWait = deadline - System.currentTimeMillis();
+                if ( toWait <= 0 ) {
+                    return null;
+                }
+                wait( toWait );
+            }
+            return (Message) messages.removeFirst();
+        }
+
+        /**
+         * Gets the committed messages without removing them.
+         *
+         * @return copy of the messages in the order put
+         */
+        public synchronized List browse() {
+            return new ArrayList( messages );
+        }
+
+        public synchronized void clear() {
+            messages.clear();
+        }
+
+        synchronized void checkConnect() throws IOException {
+            if ( connectsToFail > 0 ) {
+                connectsToFail--;
+                throw new IOException( "Injected failure on connecting to " + name );
+            }
+        }
+
+        void put( final Message message ) throws IOException {
+            reserve();
+            final ArrayList single = new ArrayList( 1 );
+            single.add( message );
+            commit( single );
+        }
+
+        /**
+         * Reserves room for a message - simulating the latency of the put.
+         */
+        void reserve() throws IOException {
+            final long latency;
+            synchronized (this) {
+                if ( putsToFail > 0 ) {
+                    putsToFail--;
+                    throw new IOException( "Injected failure on putting to " + name );
+                }
+                if ( messages.size() + reserved >= maxDepth ) {
+                    throw new IOException( "Queue " + name + " is full! Maximum depth is " + maxDepth );
+                }
+                reserved++;
+                latency = putLatencyMillis;
+            }
+            if ( !simulateLatency( latency ) ) {
+                backout( 1 );
+                throw new IOException( "Interrupted on putting to " + name );
+            }
+        }
+
+        void commit( final List toCommit ) throws IOException {
+            final long latency;
+            synchronized (this) {
+                latency = commitLatencyMillis;
+            }
+            if ( !simulateLatency( latency ) ) {
+                backout( toCommit.size() );
+                throw new IOException( "Interrupted on committing to " + name );
+            }
+            synchronized (this) {
+                messages.addAll( toCommit );
+                reserved -= toCommit.size();
+                putCount += toCommit.size();
+                commitCount++;
+                notifyAll();
+            }
+        }
+
+        private static boolean simulateLatency( final long latency ) {
+            if ( latency > 0 ) {
+                try {
+                    Thread.sleep( latency );
+                } catch ( InterruptedException interrupted ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        synchronized void backout( final int count ) {
+            reserved -= count;
+        }
+
+        public String toString() {
+            return "InMemoryMQ.Queue(" + name + ")";
+        }
+    }
+}
@@ -45,6 +45,22 @@ public abstract class MQ {
         return configuration == null ? "Invalid MQ" : "MQ on " + configuration.toString();
     }
 
+    public Configuration getConfiguration() {
+        return this.configuration;
+    }
+
+    /**
+     * Checks if this MQ is still connected and can be used for sending messages.
+     * <p>
+     * Used to validate a pooled connection before handing it out again. <strong>Implementing classes</strong> holding
+     * a real connection should override this. The default implementation always answers {@code true}.
+     * 
+     * @return {@code true} if connected
+     */
+    public boolean isConnected() {
+        return true;
+    }
+
     /**
      * Connects to a queue manager an opens a connection to a queue.
      * <p>
@@ -75,6 +91,113 @@ public abstract class MQ {
      */
     public abstract OutputStream newMessage() throws Exception;
 
+    /**
+     * Gets a new message for the number of bytes given.
+     * <p>
+     * <strong>Implementing classes</strong> may use the length for preallocating the message. The default
+     * implementation ignores it and delegates to {@link #newMessage()}.
+     * <p>
+     * The message is put when the stream is closed. <strong>Implementing classes</strong> should return an
+     * {@link de.mgpit.oracle.reports.plugin.commons.io.AbortableOutputStream AbortableOutputStream} for all kinds of
+     * messages. So a message which fails while being written can be discarded instead of being put truncated.
+     * 
+     * @param expectedLength
+     *            number of bytes which will be written to the message or a negative value if not known
+     * @return {@code OutputStream} for writing the message
+     * @throws Exception
+     */
+    public OutputStream newMessage( final long expectedLength ) throws Exception {
+        return newMessage();
+    }
+
+    /**
+     * Gets a new message which is sent in pieces of the size given.
+     * <p>
+     * Used for messages exceeding the maximum message length of the queue. Only one piece needs to be held in memory
+     * at a time. The pieces are sent either
+     * <ul>
+     * <li>as segments of one logical message - which can be reassembled by the queue manager on get</li>
+     * <li>or as messages of one message group</li>
+     * </ul>
+     * <strong>Implementing classes</strong> without a limit of the message length may ignore segmentation. The
+     * default implementation delegates to {@link #newMessage()}.
+     * 
+     * @param segmentSize
+     *            maximum number of bytes per piece
+     * @param asGroup
+     *            {@code true} for sending a message group, {@code false} for sending segments
+     * @return {@code OutputStream} for writing the message
+     * @throws Exception
+     */
+    public OutputStream newSegmentedMessage( final int segmentSize, final boolean asGroup ) throws Exception {
+        return newMessage();
+    }
+
+    /**
+     * Gets a new message as member of a message group.
+     * <p>
+     * The members of a group are put in the order the messages are closed. Usually used within a unit of work,
+     * see {@link #beginUnitOfWork()}. <strong>Implementing classes</strong> without message groups may ignore the
+     * grouping. The default implementation delegates to {@link #newMessage(long)}.
+     * 
+     * @param expectedLength
+     *            number of bytes which will be written to the message or a negative value if not known
+     * @param segmentSize
+     *            maximum number of bytes per segment or {@code 0} for not segmenting the message
+     * @param lastInGroup
+     *            {@code true} if this is the last message of the group
+     * @return {@code OutputStream} for writing the message
+     * @throws Exception
+     */
+    public OutputStream newGroupMessage( final long expectedLength, final int segmentSize, final boolean lastInGroup )
+            throws Exception {
+        return newMessage( expectedLength );
+    }
+
+    /**
+     * Starts a unit of work.
+     * <p>
+     * The messages put afterwards are not visible to others until {@link #commit()} - and are discarded on
+     * {@link #backout()}. <strong>Implementing classes</strong> should back out a pending unit of work on
+     * {@link #disconnect()}. The default implementation does nothing.
+     * 
+     * @throws Exception
+     */
+    public void beginUnitOfWork() throws Exception {}
+
+    /**
+     * Enables group commit for this MQ.
+     * <p>
+     * Afterwards the MQ may be shared by concurrent threads for sending single messages. Each message is put under
+     * syncpoint and committed together with the messages of other threads. Closing the stream of a message returns
+     * after the commit. <strong>Implementing classes</strong> supporting this must be thread safe for
+     * {@link #newMessage()} and override this method - the MQ destination only uses group commit with implementations
+     * overriding it. The default implementation does not support group commit.
+     * 
+     * @param maxBatchSize
+     *            maximum number of messages per commit
+     * @param maxDelayMillis
+     *            maximum time in milliseconds a message waits for its commit
+     * @return {@code true} if group commit is supported, {@code false} else
+     */
+    public boolean enableGroupCommit( final int maxBatchSize, final long maxDelayMillis ) {
+        return false;
+    }
+
+    /**
+     * Commits the current unit of work. The default implementation does nothing.
+     * 
+     * @throws Exception
+     */
+    public void commit() throws Exception {}
+
+    /**
+     * Backs out the current unit of work. The default implementation does nothing.
+     * 
+     * @throws Exception
+     */
+    public void backout() throws Exception {}
+
     /**
      * 
      * A configuration for a Websphere MQ client connection.
@@ -102,6 +225,10 @@ public abstract class MQ {
 
         private final String hostName, queueManagerName, channelName, queueName, userId;
         private final int port;
+        /**
+         * Holds the hash code. A Configuration is immutable so it is computed once.
+         */
+        private final int hashCode;
 
         public final String getHostName() {
             return this.hostName;
@@ -170,6 +297,7 @@ public abstract class MQ {
             this.channelName = channelName;
             this.queueName = queueName;
             this.userId = userId;
+            this.hashCode = computeHashCode();
         }
 
         /**
@@ -341,10 +469,14 @@ public abstract class MQ {
             final Configuration another = (Configuration) obj;
             return U.eq( this.hostName, another.hostName ) && this.port == another.port
                     && U.eq( this.queueManagerName, another.queueManagerName ) && U.eq( this.channelName, another.channelName )
-                    && U.eq( this.queueName, another.queueName );
+                    && U.eq( this.queueName, another.queueName ) && U.eq( this.userId, another.userId );
         }
 
         public int hashCode() {
+            return this.hashCode;
+        }
+
+        private int computeHashCode() {
             int hashCode = 11; // initial hash code - prime
             final int prime = 29;    // prime, not too big
             hashCode = hashCode * prime + (null == this.hostName ? 0 : this.hostName.hashCode());
@@ -352,7 +484,8 @@ public abstract class MQ {
             hashCode = hashCode * prime + (null == this.queueManagerName ? 0 : this.queueManagerName.hashCode());
             hashCode = hashCode * prime + (null == this.channelName ? 0 : this.channelName.hashCode());
             hashCode = hashCode * prime + (null == this.queueName ? 0 : this.queueName.hashCode());
-            return hashCode();
+            hashCode = hashCode * prime + (null == this.userId ? 0 : this.userId.hashCode());
+            return hashCode;
         }
 
     }
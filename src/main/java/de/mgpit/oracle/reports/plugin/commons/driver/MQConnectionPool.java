@@ -0,0 +1,408 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.driver;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.log4j.Logger;
+
+import de.mgpit.oracle.reports.plugin.commons.U;
+
+/**
+ * A pool of connected {@link MQ} instances keyed by their {@link MQ.Configuration}.
+ * <p>
+ * Connecting to a queue manager and opening the queue is expensive compared to putting a small message. The pool
+ * keeps connections given back for reuse by the next distribution to the same queue.
+ * <ul>
+ * <li>At most {@code maxSize} connections per {@code Configuration} are handed out at the same time. Further
+ * requests wait up to {@code maxWaitMillis} for a connection to be given back.</li>
+ * <li>Idle connections are disconnected after {@code maxIdleMillis}, except for {@code minIdle} connections
+ * per {@code Configuration}. With {@code maxIdleMillis <= 0} connections are not kept at all.</li>
+ * <li>An idle connection is validated with {@link MQ#isConnected()} before being handed out again.</li>
+ * </ul>
+ * The pool can be configured via {@code Properties}, see {@link #fromProperties(Factory, Properties)}.
+ *
+ * @author mgp
+ *
+ */
+public final class MQConnectionPool {
+    private static final Logger LOG = Logger.getLogger( MQConnectionPool.class );
+
+    /**
+     * Holds the name of the property for the maximum number of connections per {@code Configuration}.
+     */
+    public static final String MAX_SIZE_PROPERTY = "mq.pool.maxSize";
+    /**
+     * Holds the name of the property for the number of idle connections kept per {@code Configuration}.
+     */
+    public static final String MIN_IDLE_PROPERTY = "mq.pool.minIdle";
+    /**
+     * Holds the name of the property for the number of seconds an idle connection is kept. {@code 0} means no pooling.
+     */
+    public static final String MAX_IDLE_SECONDS_PROPERTY = "mq.pool.maxIdleSeconds";
+    /**
+     * Holds the name of the property for the number of seconds to wait for a connection.
+     */
+    public static final String MAX_WAIT_SECONDS_PROPERTY = "mq.pool.maxWaitSeconds";
+
+    public static final int DEFAULT_MAX_SIZE = 4;
+    public static final int DEFAULT_MIN_IDLE = 1;
+    public static final int DEFAULT_MAX_IDLE_SECONDS = 300;
+    public static final int DEFAULT_MAX_WAIT_SECONDS = 30;
+
+    private static final long ONE_SECOND = 1000L;
+
+    /**
+     * Creates new - not yet connected - {@link MQ} instances.
+     */
+    public interface Factory {
+        MQ newMQ( MQ.Configuration configuration ) throws Exception;
+    }
+
+    private final Factory factory;
+    private final int maxSize;
+    private final int minIdle;
+    private final long maxIdleMillis;
+    private final long maxWaitMillis;
+
+    /**
+     * Holds a {@link Partition} per {@code Configuration}.
+     */
+    private final HashMap partitions = new HashMap();
+    private final Timer evictor;
+    private boolean drained = false;
+
+    public MQConnectionPool( final Factory factory, final int maxSize, final int minIdle, final long maxIdleMillis,
+            final long maxWaitMillis ) {
+        U.assertNotNull( factory, "Cannot pool without a factory!" );
+        U.assertTrue( maxSize > 0, "A pool must allow at least one connection!" );
+        this.factory = factory;
+        this.maxSize = maxSize;
+        this.minIdle = Math.max( 0, Math.min( minIdle, maxSize ) );
+        this.maxIdleMillis = maxIdleMillis;
+        this.maxWaitMillis = Math.max( 0L, maxWaitMillis );
+        if ( maxIdleMillis > 0 ) {
+            this.evictor = new Timer( true );
+            final long period = Math.max( ONE_SECOND, maxIdleMillis / 2 );
+            this.evictor.schedule( new TimerTask() {
+                public void run() {
+                    evictIdle();
+                }
+            }, period, period );
+        } else {
+            this.evictor = null;
+        }
+    }
+
+    /**
+     * Creates a pool configured by the {@code Properties} given.
+     * <p>
+     * Uses {@link #MAX_SIZE_PROPERTY}, {@link #MIN_IDLE_PROPERTY}, {@link #MAX_IDLE_SECONDS_PROPERTY} and
+     * {@link #MAX_WAIT_SECONDS_PROPERTY}. Falls back to the defaults for properties missing or not parsable.
+     *
+     * @param factory
+     *            factory for new connections
+     * @param properties
+     *            properties; may be {@code null}
+     * @return new pool
+     */
+    public static MQConnectionPool fromProperties( final Factory factory, final Properties properties ) {
+        final int maxSize = intProperty( properties, MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE );
+        final int minIdle = intProperty( properties, MIN_IDLE_PROPERTY, DEFAULT_MIN_IDLE );
+        final int maxIdleSeconds = intProperty( properties, MAX_IDLE_SECONDS_PROPERTY, DEFAULT_MAX_IDLE_SECONDS );
+        final int maxWaitSeconds = intProperty( properties, MAX_WAIT_SECONDS_PROPERTY, DEFAULT_MAX_WAIT_SECONDS );
+        return new MQConnectionPool( factory, Math.max( 1, maxSize ), minIdle, maxIdleSeconds * ONE_SECOND,
+                maxWaitSeconds * ONE_SECOND );
+    }
+
+    /**
+     * Gets an integer property.
+     *
+     * @param properties
+     *            properties; may be {@code null}
+     * @param name
+     *            name of the property
+     * @param defaultValue
+     *            value if the property is missing or not parsable
+     * @return the value
+     */
+    public static int intProperty( final Properties properties, final String name, final int defaultValue ) {
+        final String literal = (properties == null) ? null : properties.getProperty( name );
+        if ( U.isEmpty( literal ) ) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt( literal.trim() );
+        } catch ( NumberFormatException unparsable ) {
+            LOG.warn( "Cannot parse " + name + " " + U.w( literal ) + ". Using " + defaultValue );
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Borrows a connected {@link MQ} for the {@code Configuration} given.
+     * <p>
+     * Hands out the most recently given back idle connection still being connected. Connects a new one if there is
+     * none and the maximum size has not been reached yet. Waits for a connection being given back otherwise.
+     * The {@code MQ} must be given back with {@link #giveBack(MQ)} or {@link #invalidate(MQ)}.
+     *
+     * @param configuration
+     *            configuration to connect with
+     * @return connected MQ
+     * @throws ExhaustedException
+     *             if no connection becomes available in time
+     * @throws Exception
+     *             if connecting fails
+     */
+    public MQ borrow( final MQ.Configuration configuration ) throws Exception {
+        U.assertNotNull( configuration, "Cannot borrow a connection without configuration!" );
+        MQ candidate = null;
+        synchronized (this) {
+            if ( drained ) {
+                throw new IllegalStateException( this + " has been drained!" );
+            }
+            final Partition partition = partitionFor( configuration );
+            final long deadline = System.currentTimeMillis() + maxWaitMillis;
+            while ( partition.idle.isEmpty() && partition.borrowed >= maxSize ) {
+                final long toWait = deadline - System.currentTimeMillis();
+                if ( toWait <= 0 ) {
+                    throw new ExhaustedException( "No MQ connection available for " + configuration + " within "
+                            + maxWaitMillis + "ms!" );
+                }
+                wait( toWait );
+                if ( drained ) {
+                    throw new IllegalStateException( this + " has been drained!" );
+                }
+            }
+            if ( !partition.idle.isEmpty() ) {
+                candidate = ((Idle) partition.idle.removeLast()).mq;
+            }
+            partition.borrowed++;
+        }
+
+        if ( candidate != null ) {
+            if ( candidate.isConnected() ) {
+                return candidate;
+            }
+            LOG.info( "Discarding stale connection " + U.w( candidate ) );
+            disconnectQuietly( candidate );
+        }
+        try {
+            final MQ mq = factory.newMQ( configuration );
+            U.assertNotNull( mq, "Cannot create MQ for " + configuration );
+            mq.connect();
+            return mq;
+        } catch ( Exception connectFailed ) {
+            release( configuration );
+            throw connectFailed;
+        } catch ( Error fatal ) {
+            release( configuration );
+            throw fatal;
+        }
+    }
+
+    /**
+     * Gives a borrowed {@link MQ} back for reuse.
+     *
+     * @param mq
+     *            the MQ borrowed
+     */
+    public void giveBack( final MQ mq ) {
+        if ( mq == null ) {
+            return;
+        }
+        boolean keep = false;
+        synchronized (this) {
+            final Partition partition = (Partition) partitions.get( mq.getConfiguration() );
+            if ( partition != null && partition.borrowed > 0 ) {
+                partition.borrowed--;
+                keep = !drained && maxIdleMillis > 0;
+                if ( keep ) {
+                    partition.idle.addLast( new Idle( mq, System.currentTimeMillis() ) );
+                }
+                notifyAll();
+            }
+        }
+        if ( !keep ) {
+            disconnectQuietly( mq );
+        }
+    }
+
+    /**
+     * Disconnects a borrowed {@link MQ} which must not be reused - e.g. after an error.
+     *
+     * @param mq
+     *            the MQ borrowed
+     */
+    public void invalidate( final MQ mq ) {
+        if ( mq == null ) {
+            return;
+        }
+        release( mq.getConfiguration() );
+        disconnectQuietly( mq );
+    }
+
+    private synchronized void release( final MQ.Configuration configuration ) {
+        final Partition partition = (Partition) partitions.get( configuration );
+        if ( partition != null && partition.borrowed > 0 ) {
+            partition.borrowed--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Disconnects the connections idle for longer than {@code maxIdleMillis} - keeping {@code minIdle} connections
+     * per {@code Configuration}.
+     * <p>
+     * Run periodically by the pool.
+     */
+    public void evictIdle() {
+        final List victims = new ArrayList();
+        synchronized (this) {
+            final long idleSince = System.currentTimeMillis() - maxIdleMillis;
+            final Iterator all = partitions.values().iterator();
+            while ( all.hasNext() ) {
+                final Partition partition = (Partition) all.next();
+                while ( partition.idle.size() > minIdle && ((Idle) partition.idle.getFirst()).since <= idleSince ) {
+                    victims.add( ((Idle) partition.idle.removeFirst()).mq );
+                }
+            }
+        }
+        disconnectQuietly( victims );
+    }
+
+    /**
+     * Drains the pool.
+     * <p>
+     * Disconnects all idle connections. Connections still borrowed are disconnected when given back. The pool
+     * cannot be used afterwards.
+     */
+    public void drain() {
+        final List victims = new ArrayList();
+        synchronized (this) {
+            drained = true;
+            if ( evictor != null ) {
+                evictor.cancel();
+            }
+            final Iterator all = partitions.values().iterator();
+            while ( all.hasNext() ) {
+                final Partition partition = (Partition) all.next();
+                while ( !partition.idle.isEmpty() ) {
+                    victims.add( ((Idle) partition.idle.removeFirst()).mq );
+                }
+            }
+            notifyAll();
+        }
+        LOG.info( "Draining " + U.w( this ) + ". Disconnecting " + victims.size() + " idle connection(s)." );
+        disconnectQuietly( victims );
+    }
+
+    /**
+     * Gets the number of idle connections for the {@code Configuration} given.
+     *
+     * @param configuration
+     *            configuration
+     * @return number of idle connections
+     */
+    public synchronized int idleCount( final MQ.Configuration configuration ) {
+        final Partition partition = (Partition) partitions.get( configuration );
+        return partition == null ? 0 : partition.idle.size();
+    }
+
+    /**
+     * Gets the number of connections borrowed for the {@code Configuration} given.
+     *
+     * @param configuration
+     *            configuration
+     * @return number of connections borrowed
+     */
+    public synchronized int borrowedCount( final MQ.Configuration configuration ) {
+        final Partition partition = (Partition) partitions.get( configuration );
+        return partition == null ? 0 : partition.borrowed;
+    }
+
+    private Partition partitionFor( final MQ.Configuration configuration ) {
+        Partition partition = (Partition) partitions.get( configuration );
+        if ( partition == null ) {
+            partition = new Partition();
+            partitions.put( configuration, partition );
+        }
+        return partition;
+    }
+
+    private static void disconnectQuietly( final List mqs ) {
+        final Iterator all = mqs.iterator();
+        while ( all.hasNext() ) {
+            disconnectQuietly( (MQ) all.next() );
+        }
+    }
+
+    private static void disconnectQuietly( final MQ mq ) {
+        try {
+            mq.disconnect();
+        } catch ( Exception ignoredButLogged ) {
+            LOG.warn( "Error on disconnecting " + U.w( mq ), ignoredButLogged );
+        }
+    }
+
+    public String toString() {
+        return "MQConnectionPool(maxSize=" + maxSize + ", minIdle=" + minIdle + ", maxIdleMillis=" + maxIdleMillis
+                + ", maxWaitMillis=" + maxWaitMillis + ")";
+    }
+
+    /**
+     * The connections of one {@code Configuration}.
+     */
+    private static final class Partition {
+        /**
+         * Holds the idle connections. The most recently given back last.
+         */
+        private final LinkedList idle = new LinkedList();
+        private int borrowed = 0;
+    }
+
+    private static final class Idle {
+        private final MQ mq;
+        private final long since;
+
+        private Idle( final MQ mq, final long since ) {
+            this.mq = mq;
+            this.since = since;
+        }
+    }
+
+    /**
+     * Thrown if no connection becomes available in time. The queue manager may well be up - all connections to it are
+     * in use.
+     */
+    public static final class ExhaustedException extends Exception {
+        private ExhaustedException( final String message ) {
+            super( message );
+        }
+    }
+}
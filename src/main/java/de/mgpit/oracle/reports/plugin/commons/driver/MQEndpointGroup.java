@@ -0,0 +1,232 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.driver;
+
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+import de.mgpit.oracle.reports.plugin.commons.U;
+
+/**
+ * A group of equivalent MQ endpoints - e.g. the same queue on several queue managers.
+ * <p>
+ * Each distribution asks for the {@link #candidates() candidates} and uses the first one it can connect to.
+ * The candidates are ordered
+ * <ul>
+ * <li>{@link #ROUND_ROBIN} - rotating with each call (default)</li>
+ * <li>{@link #LEAST_LATENCY} - by the average put time measured, endpoints not measured yet first</li>
+ * </ul>
+ * An endpoint reported as {@link #failed(MQ.Configuration) failed} is left out for the cooldown time. So threads
+ * do not stall on connect timeouts of a queue manager known to be down. If all endpoints cool down - e.g. the only
+ * one - none is left out. Better trying again than failing distributions without even trying.
+ *
+ * @author mgp
+ *
+ */
+public final class MQEndpointGroup {
+    private static final Logger LOG = Logger.getLogger( MQEndpointGroup.class );
+
+    /**
+     * Holds the name of the property for choosing the order of the endpoints. One of {@link #ROUND_ROBIN},
+     * {@link #LEAST_LATENCY}.
+     */
+    public static final String BALANCING_PROPERTY = "mq.endpoints.balancing";
+    /**
+     * Holds the name of the property with the number of seconds a failed endpoint is left out.
+     */
+    public static final String COOLDOWN_SECONDS_PROPERTY = "mq.endpoints.cooldownSeconds";
+
+    public static final String ROUND_ROBIN = "roundrobin";
+    public static final String LEAST_LATENCY = "leastlatency";
+    public static final int DEFAULT_COOLDOWN_SECONDS = 30;
+
+    /**
+     * Holds the weight of a new measurement in the average put time.
+     */
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    private static final Comparator BY_LATENCY = new Comparator() {
+        public int compare( Object o1, Object o2 ) {
+            final double l1 = ((Endpoint) o1).averageLatency;
+            final double l2 = ((Endpoint) o2).averageLatency;
+            return (l1 < l2) ? -1 : ((l1 > l2) ? 1 : 0);
+        }
+    };
+
+    private final Endpoint[] endpoints;
+    private final boolean leastLatency;
+    private final long cooldownMillis;
+    private int next = 0;
+
+    public MQEndpointGroup( final MQ.Configuration[] configurations, final boolean leastLatency, final long cooldownMillis ) {
+        U.assertTrue( configurations != null && configurations.length > 0, "An endpoint group needs at least one endpoint!" );
+        this.endpoints = new Endpoint[configurations.length];
+        for ( int i = 0; i < configurations.length; i++ ) {
+            U.assertNotNull( configurations[i], "Endpoint must not be null!" );
+            this.endpoints[i] = new Endpoint( configurations[i] );
+        }
+        this.leastLatency = leastLatency;
+        this.cooldownMillis = Math.max( 0L, cooldownMillis );
+    }
+
+    /**
+     * Creates a group from a list of {@code wmq://} URIs separated by commas or white space.
+     *
+     * @param literal
+     *            list of URIs
+     * @param properties
+     *            properties with {@link #BALANCING_PROPERTY} and {@link #COOLDOWN_SECONDS_PROPERTY}; may be
+     *            {@code null}
+     * @return the group
+     * @throws URISyntaxException
+     *             if one of the URIs is invalid
+     */
+    public static MQEndpointGroup parse( final String literal, final Properties properties ) throws URISyntaxException {
+        U.assertNotEmpty( literal, "Cannot parse empty list of endpoints!" );
+        final String[] uriLiterals = literal.trim().split( "[,\\s]+" );
+        final MQ.Configuration[] configurations = new MQ.Configuration[uriLiterals.length];
+        for ( int i = 0; i < uriLiterals.length; i++ ) {
+            configurations[i] = MQ.Configuration.fromURILiteral( uriLiterals[i] );
+        }
+        final String balancing = (properties == null) ? null : properties.getProperty( BALANCING_PROPERTY );
+        final boolean leastLatency = LEAST_LATENCY.equalsIgnoreCase( balancing );
+        if ( !U.isEmpty( balancing ) && !leastLatency && !ROUND_ROBIN.equalsIgnoreCase( balancing ) ) {
+            LOG.warn( "Unknown balancing " + U.w( balancing ) + ". Using " + U.w( ROUND_ROBIN ) );
+        }
+        final int cooldownSeconds = MQConnectionPool.intProperty( properties, COOLDOWN_SECONDS_PROPERTY, DEFAULT_COOLDOWN_SECONDS );
+        return new MQEndpointGroup( configurations, leastLatency, cooldownSeconds * 1000L );
+    }
+
+    /**
+     * Gets the endpoints to try - in the order to try them. Endpoints cooling down are left out unless all cool down.
+     *
+     * @return the candidates; never empty
+     */
+    public synchronized MQ.Configuration[] candidates() {
+        final long now = System.currentTimeMillis();
+        final List available = new ArrayList( endpoints.length );
+        for ( int i = 0; i < endpoints.length; i++ ) {
+            final Endpoint endpoint = endpoints[(next + i) % endpoints.length];
+            if ( endpoint.coolUntil <= now ) {
+                available.add( endpoint );
+            }
+        }
+        if ( available.isEmpty() ) {
+            for ( int i = 0; i < endpoints.length; i++ ) {
+                available.add( endpoints[(next + i) % endpoints.length] );
+            }
+        }
+        next = (next + 1) % endpoints.length;
+        if ( leastLatency ) {
+            // stable - endpoints with equal latency stay in round robin order
+            Collections.sort( available, BY_LATENCY );
+        }
+        final MQ.Configuration[] candidates = new MQ.Configuration[available.size()];
+        for ( int i = 0; i < candidates.length; i++ ) {
+            candidates[i] = ((Endpoint) available.get( i )).configuration;
+        }
+        return candidates;
+    }
+
+    /**
+     * Gets the first endpoint of the group - regardless of cooldowns.
+     *
+     * @return the first endpoint
+     */
+    public MQ.Configuration primary() {
+        return endpoints[0].configuration;
+    }
+
+    /**
+     * Reports a successful put.
+     *
+     * @param configuration
+     *            the endpoint
+     * @param latencyMillis
+     *            time the put took in milliseconds
+     */
+    public synchronized void succeeded( final MQ.Configuration configuration, final long latencyMillis ) {
+        final Endpoint endpoint = find( configuration );
+        if ( endpoint == null ) {
+            return;
+        }
+        endpoint.coolUntil = 0L;
+        endpoint.averageLatency = (endpoint.averageLatency < 0) ? latencyMillis : LATENCY_WEIGHT * latencyMillis
+                + (1 - LATENCY_WEIGHT) * endpoint.averageLatency;
+    }
+
+    /**
+     * Reports a failed connect or put. The endpoint is left out for the cooldown time.
+     *
+     * @param configuration
+     *            the endpoint
+     */
+    public synchronized void failed( final MQ.Configuration configuration ) {
+        final Endpoint endpoint = find( configuration );
+        if ( endpoint == null ) {
+            return;
+        }
+        endpoint.coolUntil = System.currentTimeMillis() + cooldownMillis;
+        if ( endpoints.length > 1 ) {
+            LOG.warn( "Leaving out " + U.w( configuration ) + " for " + cooldownMillis + " ms." );
+        }
+    }
+
+    public int size() {
+        return endpoints.length;
+    }
+
+    private Endpoint find( final MQ.Configuration configuration ) {
+        for ( int i = 0; i < endpoints.length; i++ ) {
+            if ( endpoints[i].configuration.equals( configuration ) ) {
+                return endpoints[i];
+            }
+        }
+        return null;
+    }
+
+    public String toString() {
+        final StringBuffer buffer = new StringBuffer( "MQEndpointGroup(" ).append( leastLatency ? LEAST_LATENCY : ROUND_ROBIN );
+        for ( int i = 0; i < endpoints.length; i++ ) {
+            buffer.append( i == 0 ? ": " : ", " ).append( endpoints[i].configuration );
+        }
+        return buffer.append( ")" ).toString();
+    }
+
+    private static final class Endpoint {
+        final MQ.Configuration configuration;
+        long coolUntil = 0L;
+        /**
+         * Holds the average put time in milliseconds or a negative value if not measured yet.
+         */
+        double averageLatency = -1.0;
+
+        Endpoint( final MQ.Configuration configuration ) {
+            this.configuration = configuration;
+        }
+    }
+}
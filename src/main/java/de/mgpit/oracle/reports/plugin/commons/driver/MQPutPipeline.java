@@ -0,0 +1,510 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.driver;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.Units;
+import de.mgpit.oracle.reports.plugin.commons.concurrent.WorkerPool;
+import de.mgpit.oracle.reports.plugin.commons.io.AbortableOutputStream;
+import de.mgpit.oracle.reports.plugin.commons.io.ChunkedBuffer;
+
+/**
+ * Puts messages asynchronously.
+ * <p>
+ * A message is written to a spool - a {@link ChunkedBuffer} - first. On closing the spool the message is queued
+ * for being put by one of the sender threads using a connection from the {@link MQConnectionPool}. So the
+ * writing thread does not wait for the queue manager.
+ * <ul>
+ * <li>At most {@code capacity} messages are queued. Closing a spool blocks while the pipeline is full.</li>
+ * <li>Messages for the same {@link MQ.Configuration} are put in the order queued, one at a time.</li>
+ * <li>Each spool holds at most {@code spoolInMemoryLimit} bytes in memory and spills the rest to a temporary file.</li>
+ * </ul>
+ * A put failing is tried again up to {@code putAttempts} times in total, waiting {@code retryDelayMillis} in between.
+ * A message which still cannot be put is appended to the fallback {@link MQSpool} - and forwarded from there once the
+ * queue manager is available again. While messages for a {@code Configuration} are pending in the fallback spool,
+ * the following ones are appended there as well for keeping the order. Without a fallback spool a message which
+ * cannot be put is logged and discarded.
+ *
+ * @author mgp
+ *
+ */
+public final class MQPutPipeline {
+    private static final Logger LOG = Logger.getLogger( MQPutPipeline.class );
+
+    /**
+     * Holds the name of the property for the number of sender threads.
+     */
+    public static final String SENDERS_PROPERTY = "mq.async.senders";
+    /**
+     * Holds the name of the property for the maximum number of messages queued.
+     */
+    public static final String CAPACITY_PROPERTY = "mq.async.queueSize";
+    /**
+     * Holds the name of the property for the number of bytes of each message held in memory.
+     */
+    public static final String SPOOL_IN_MEMORY_LIMIT_PROPERTY = "mq.async.spoolInMemoryLimit";
+    /**
+     * Holds the name of the property for the number of attempts to put a message.
+     */
+    public static final String PUT_ATTEMPTS_PROPERTY = "mq.async.putAttempts";
+    /**
+     * Holds the name of the property for the time in milliseconds to wait before trying a failed put again.
+     */
+    public static final String RETRY_DELAY_MILLIS_PROPERTY = "mq.async.retryDelayMillis";
+
+    public static final int DEFAULT_SENDERS = 2;
+    public static final int DEFAULT_CAPACITY = 64;
+    public static final int DEFAULT_SPOOL_IN_MEMORY_LIMIT = Units.ONE_MEGABYTE;
+    public static final int DEFAULT_PUT_ATTEMPTS = 3;
+    public static final int DEFAULT_RETRY_DELAY_MILLIS = 1000;
+
+    private final MQConnectionPool pool;
+    private final MQSpool fallback;
+    private final WorkerPool senders;
+    private final int capacity;
+    private final int spoolInMemoryLimit;
+    private final int putAttempts;
+    private final long retryDelayMillis;
+
+    /**
+     * Holds a {@link Lane} per {@code Configuration}.
+     */
+    private final HashMap lanes = new HashMap();
+    private int pending = 0;
+    private boolean accepting = true;
+    /**
+     * Tells if the senders must not take any more messages - as shutting down has timed out.
+     */
+    private boolean terminated = false;
+    private long sent = 0L;
+    private long spooled = 0L;
+    private long failed = 0L;
+
+    public MQPutPipeline( final MQConnectionPool pool, final int numberOfSenders, final int capacity,
+            final int spoolInMemoryLimit ) {
+        this( pool, null, numberOfSenders, capacity, spoolInMemoryLimit, DEFAULT_PUT_ATTEMPTS, DEFAULT_RETRY_DELAY_MILLIS );
+    }
+
+    /**
+     * Creates a pipeline.
+     *
+     * @param pool
+     *            pool to take the connections from
+     * @param fallback
+     *            spool for the messages which cannot be put; may be {@code null}
+     * @param numberOfSenders
+     *            number of sender threads
+     * @param capacity
+     *            maximum number of messages queued
+     * @param spoolInMemoryLimit
+     *            number of bytes of each message held in memory
+     * @param putAttempts
+     *            number of attempts to put a message
+     * @param retryDelayMillis
+     *            time in milliseconds to wait before trying a failed put again
+     */
+    public MQPutPipeline( final MQConnectionPool pool, final MQSpool fallback, final int numberOfSenders,
+            final int capacity, final int spoolInMemoryLimit, final int putAttempts, final long retryDelayMillis ) {
+        U.assertNotNull( pool, "Cannot send without connection pool!" );
+        U.assertTrue( capacity > 0, "Capacity must be positive!" );
+        this.pool = pool;
+        this.fallback = fallback;
+        this.senders = new WorkerPool( "MQSender", Math.max( 1, numberOfSenders ) );
+        this.capacity = capacity;
+        this.spoolInMemoryLimit = spoolInMemoryLimit;
+        this.putAttempts = Math.max( 1, putAttempts );
+        this.retryDelayMillis = Math.max( 0L, retryDelayMillis );
+    }
+
+    /**
+     * Creates a pipeline configured by the {@code Properties} given.
+     * <p>
+     * Uses {@link #SENDERS_PROPERTY}, {@link #CAPACITY_PROPERTY}, {@link #SPOOL_IN_MEMORY_LIMIT_PROPERTY},
+     * {@link #PUT_ATTEMPTS_PROPERTY} and {@link #RETRY_DELAY_MILLIS_PROPERTY}. Falls back to the defaults for
+     * properties missing or not parsable.
+     *
+     * @param pool
+     *            pool to take the connections from
+     * @param fallback
+     *            spool for the messages which cannot be put; may be {@code null}
+     * @param properties
+     *            properties; may be {@code null}
+     * @return new pipeline
+     */
+    public static MQPutPipeline fromProperties( final MQConnectionPool pool, final MQSpool fallback,
+            final Properties properties ) {
+        final int numberOfSenders = MQConnectionPool.intProperty( properties, SENDERS_PROPERTY, DEFAULT_SENDERS );
+        final int capacity = MQConnectionPool.intProperty( properties, CAPACITY_PROPERTY, DEFAULT_CAPACITY );
+        final int spoolInMemoryLimit = MQConnectionPool.intProperty( properties, SPOOL_IN_MEMORY_LIMIT_PROPERTY,
+                DEFAULT_SPOOL_IN_MEMORY_LIMIT );
+        final int putAttempts = MQConnectionPool.intProperty( properties, PUT_ATTEMPTS_PROPERTY, DEFAULT_PUT_ATTEMPTS );
+        final int retryDelayMillis = MQConnectionPool.intProperty( properties, RETRY_DELAY_MILLIS_PROPERTY,
+                DEFAULT_RETRY_DELAY_MILLIS );
+        return new MQPutPipeline( pool, fallback, numberOfSenders, Math.max( 1, capacity ), spoolInMemoryLimit, putAttempts,
+                retryDelayMillis );
+    }
+
+    /**
+     * Gets a new message for the {@code Configuration} given.
+     * <p>
+     * The message is queued for being put when the stream is closed.
+     *
+     * @param configuration
+     *            configuration of the queue to put to
+     * @return {@code OutputStream} for writing the message
+     * @throws IOException
+     *             if the pipeline has been shut down
+     */
+    public OutputStream newMessage( final MQ.Configuration configuration ) throws IOException {
+        U.assertNotNull( configuration, "Cannot send without configuration!" );
+        synchronized (this) {
+            if ( !accepting ) {
+                throw new IOException( this + " has been shut down!" );
+            }
+        }
+        return new Spool( configuration );
+    }
+
+    /**
+     * Queues a message.
+     * <p>
+     * Blocks while the pipeline is full.
+     *
+     * @param message
+     *            message to queue
+     * @throws IOException
+     *             if the pipeline has been shut down or the thread has been interrupted
+     */
+    private synchronized void enqueue( final Message message ) throws IOException {
+        if ( accepting && pending >= capacity ) {
+            LOG.debug( this + " is full. Waiting ..." );
+        }
+        try {
+            while ( accepting && pending >= capacity ) {
+                wait();
+            }
+        } catch ( InterruptedException interrupted ) {
+            throw new IOException( "Interrupted while waiting for " + this );
+        }
+        if ( !accepting ) {
+            throw new IOException( this + " has been shut down!" );
+        }
+        pending++;
+        Lane lane = (Lane) lanes.get( message.configuration );
+        if ( lane == null ) {
+            lane = new Lane();
+            lanes.put( message.configuration, lane );
+        }
+        lane.messages.addLast( message );
+        if ( !lane.scheduled ) {
+            lane.scheduled = true;
+            senders.execute( lane );
+        }
+    }
+
+    /**
+     * Shuts the pipeline down.
+     * <p>
+     * No more messages are accepted. Waits for the messages queued to be put. The messages still queued when the
+     * timeout is exceeded are not put anymore but appended to the fallback spool - or counted as failed if there is
+     * none. Messages being put at that time are left to their sender.
+     *
+     * @param timeoutMillis
+     *            maximum time to wait in milliseconds
+     * @return {@code true} if all messages have been put, {@code false} if the timeout has been exceeded
+     */
+    public boolean shutdown( final long timeoutMillis ) {
+        final boolean drained;
+        final LinkedList remaining = new LinkedList();
+        synchronized (this) {
+            accepting = false;
+            notifyAll();
+            final long deadline = System.currentTimeMillis() + timeoutMillis;
+            long toWait = timeoutMillis;
+            try {
+                while ( pending > 0 && toWait > 0 ) {
+                    wait( toWait );
+                    toWait = deadline - System.currentTimeMillis();
+                }
+            } catch ( InterruptedException interrupted ) {
+                LOG.warn( "Interrupted while draining " + this );
+            }
+            drained = pending == 0;
+            if ( drained ) {
+                LOG.info( this + " drained. Sent " + sent + " message(s), " + spooled + " spooled, " + failed + " failed." );
+            } else {
+                LOG.warn( this + " not drained within " + timeoutMillis + "ms. " + pending + " message(s) still pending." );
+                terminated = true;
+                final Iterator queued = lanes.values().iterator();
+                while ( queued.hasNext() ) {
+                    final Lane lane = (Lane) queued.next();
+                    remaining.addAll( lane.messages );
+                    lane.messages.clear();
+                }
+                pending -= remaining.size();
+            }
+        }
+        senders.shutdown();
+        while ( !remaining.isEmpty() ) {
+            final Message message = (Message) remaining.removeFirst();
+            try {
+                spool( message, "as not put within " + timeoutMillis + "ms" );
+            } finally {
+                message.spool.release();
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Gets the number of messages queued or being put.
+     *
+     * @return number of messages
+     */
+    public synchronized int pendingCount() {
+        return pending;
+    }
+
+    public String toString() {
+        return "MQPutPipeline(senders=" + senders.size() + ", capacity=" + capacity + ")";
+    }
+
+    /**
+     * Gets the number of messages appended to the fallback spool.
+     *
+     * @return number of messages
+     */
+    public synchronized long spooledCount() {
+        return spooled;
+    }
+
+    /**
+     * Gets the number of messages which could neither be put nor spooled.
+     *
+     * @return number of messages
+     */
+    public synchronized long failedCount() {
+        return failed;
+    }
+
+    private void put( final Message message ) {
+        try {
+            if ( fallback != null && fallback.depth( message.configuration ) > 0 ) {
+                spool( message, "behind " + fallback.depth( message.configuration ) + " pending message(s)" );
+                return;
+            }
+            for ( int attempt = 1; attempt <= putAttempts; attempt++ ) {
+                try {
+                    putOnce( message );
+                    synchronized (this) {
+                        sent++;
+                    }
+                    return;
+                } catch ( Exception failedPut ) {
+                    LOG.warn( "Attempt " + attempt + " of " + putAttempts + " to put message of " + message.spool.size()
+                            + " bytes to " + message.configuration + " failed.", failedPut );
+                }
+                if ( attempt < putAttempts && !awaitRetry() ) {
+                    break;
+                }
+            }
+            spool( message, "after failed put" );
+        } finally {
+            message.spool.release();
+        }
+    }
+
+    private void putOnce( final Message message ) throws Exception {
+        MQ mq = pool.borrow( message.configuration );
+        try {
+            final OutputStream out = mq.newMessage( message.spool.size() );
+            boolean written = false;
+            try {
+                message.spool.writeTo( out );
+                written = true;
+            } finally {
+                if ( !written ) {
+                    AbortableOutputStream.abortIfPossible( out );
+                }
+            }
+            out.close();
+            pool.giveBack( mq );
+            mq = null;
+        } finally {
+            if ( mq != null ) {
+                pool.invalidate( mq );
+            }
+        }
+    }
+
+    /**
+     * Waits before trying a failed put again.
+     *
+     * @return {@code false} if interrupted
+     */
+    private boolean awaitRetry() {
+        try {
+            Thread.sleep( retryDelayMillis );
+            return true;
+        } catch ( InterruptedException interrupted ) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Appends a message to the fallback spool - or discards it if there is none or spooling fails.
+     */
+    private void spool( final Message message, final String reason ) {
+        if ( fallback == null ) {
+            LOG.error( "Cannot put message of " + message.spool.size() + " bytes to " + message.configuration
+                    + ". No spool to fall back to. Message discarded." );
+            synchronized (this) {
+                failed++;
+            }
+            return;
+        }
+        OutputStream out = null;
+        try {
+            out = fallback.newMessage( message.configuration, 0, false );
+            message.spool.writeTo( out );
+            out.close();
+            out = null;
+            LOG.info( "Spooled message of " + message.spool.size() + " bytes to " + message.configuration + " " + reason
+                    + "." );
+            synchronized (this) {
+                spooled++;
+            }
+        } catch ( Exception any ) {
+            LOG.error( "Cannot spool message of " + message.spool.size() + " bytes to " + message.configuration
+                    + ". Message discarded.", any );
+            synchronized (this) {
+                failed++;
+            }
+        } finally {
+            if ( out != null ) {
+                AbortableOutputStream.abortIfPossible( out );
+            }
+        }
+    }
+
+    /**
+     * The messages queued for one {@code Configuration}. Scheduled for at most one sender at a time.
+     */
+    private final class Lane implements Runnable {
+        private final LinkedList messages = new LinkedList();
+        private boolean scheduled = false;
+
+        public void run() {
+            final Message message;
+            synchronized (MQPutPipeline.this) {
+                if ( messages.isEmpty() ) {
+                    // taken over on shutdown
+                    scheduled = false;
+                    return;
+                }
+                message = (Message) messages.removeFirst();
+            }
+            try {
+                put( message );
+            } finally {
+                synchronized (MQPutPipeline.this) {
+                    pending--;
+                    MQPutPipeline.this.notifyAll();
+                    if ( messages.isEmpty() || terminated ) {
+                        scheduled = false;
+                    } else {
+                        senders.execute( this );
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Message {
+        private final MQ.Configuration configuration;
+        private final ChunkedBuffer spool;
+
+        private Message( final MQ.Configuration configuration, final ChunkedBuffer spool ) {
+            this.configuration = configuration;
+            this.spool = spool;
+        }
+    }
+
+    /**
+     * An {@code OutputStream} spooling a message. Closing queues the message, aborting discards it.
+     */
+    private final class Spool extends AbortableOutputStream {
+        private final MQ.Configuration configuration;
+        private final ChunkedBuffer buffer;
+        private boolean closed = false;
+        private boolean aborted = false;
+
+        private Spool( final MQ.Configuration configuration ) {
+            this.configuration = configuration;
+            this.buffer = new ChunkedBuffer( spoolInMemoryLimit, "mqspool" );
+        }
+
+        public void write( int b ) throws IOException {
+            if ( !aborted ) {
+                buffer.write( b );
+            }
+        }
+
+        public void write( byte[] b, int off, int len ) throws IOException {
+            if ( !aborted ) {
+                buffer.write( b, off, len );
+            }
+        }
+
+        public void close() throws IOException {
+            if ( closed ) {
+                return;
+            }
+            closed = true;
+            try {
+                buffer.close();
+                enqueue( new Message( configuration, buffer ) );
+            } catch ( IOException notQueued ) {
+                buffer.release();
+                throw notQueued;
+            }
+        }
+
+        public void abort() {
+            if ( closed ) {
+                return;
+            }
+            closed = true;
+            aborted = true;
+            buffer.release();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.driver;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+import de.mgpit.oracle.reports.plugin.commons.U;
+
+/**
+ * Connected {@link MQ} instances with group commit shared by concurrent distributions - one per
+ * {@link MQ.Configuration}.
+ * <p>
+ * The messages of all distributions to the same queue are put on one connection and committed together, see
+ * {@link MQ#enableGroupCommit(int, long)}. The queue manager forces its log once per commit instead of once
+ * per message.
+ *
+ * @author mgp
+ *
+ */
+public final class MQSharedConnections {
+    private static final Logger LOG = Logger.getLogger( MQSharedConnections.class );
+
+    /**
+     * Holds the name of the property for the maximum number of messages per commit.
+     */
+    public static final String MAX_BATCH_SIZE_PROPERTY = "mq.groupCommit.maxMessages";
+    /**
+     * Holds the name of the property for the maximum time in milliseconds a message waits for its commit.
+     */
+    public static final String MAX_DELAY_MILLIS_PROPERTY = "mq.groupCommit.maxDelayMillis";
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 50;
+    public static final int DEFAULT_MAX_DELAY_MILLIS = 20;
+
+    private final MQConnectionPool.Factory factory;
+    private final int maxBatchSize;
+    private final long maxDelayMillis;
+
+    /**
+     * Holds the shared {@link MQ} per {@code Configuration}.
+     */
+    private final HashMap connections = new HashMap();
+    private boolean drained = false;
+
+    public MQSharedConnections( final MQConnectionPool.Factory factory, final int maxBatchSize, final long maxDelayMillis ) {
+        U.assertNotNull( factory, "Cannot connect without a factory!" );
+        this.factory = factory;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Creates shared connections configured by the {@code Properties} given.
+     * <p>
+     * Uses {@link #MAX_BATCH_SIZE_PROPERTY} and {@link #MAX_DELAY_MILLIS_PROPERTY}.
+     *
+     * @param factory
+     *            factory for new connections
+     * @param properties
+     *            properties; may be {@code null}
+     * @return new shared connections
+     */
+    public static MQSharedConnections fromProperties( final MQConnectionPool.Factory factory, final Properties properties ) {
+        final int maxBatchSize = MQConnectionPool.intProperty( properties, MAX_BATCH_SIZE_PROPERTY, DEFAULT_MAX_BATCH_SIZE );
+        final int maxDelayMillis = MQConnectionPool.intProperty( properties, MAX_DELAY_MILLIS_PROPERTY, DEFAULT_MAX_DELAY_MILLIS );
+        return new MQSharedConnections( factory, maxBatchSize, maxDelayMillis );
+    }
+
+    /**
+     * Gets the shared connection for the {@code Configuration} given.
+     * <p>
+     * Connects a new one if there is none yet or the current one is no longer connected.
+     *
+     * @param configuration
+     *            configuration to connect with
+     * @return connected MQ with group commit enabled
+     * @throws Exception
+     *             if connecting fails or the MQ does not support group commit
+     */
+    public synchronized MQ get( final MQ.Configuration configuration ) throws Exception {
+        U.assertNotNull( configuration, "Cannot connect without configuration!" );
+        if ( drained ) {
+            throw new IllegalStateException( this + " has been drained!" );
+        }
+        final MQ current = (MQ) connections.get( configuration );
+        if ( current != null ) {
+            if ( current.isConnected() ) {
+                return current;
+            }
+            LOG.info( "Replacing stale shared connection " + U.w( current ) );
+            connections.remove( configuration );
+            disconnectQuietly( current );
+        }
+        final MQ mq = factory.newMQ( configuration );
+        U.assertNotNull( mq, "Cannot create MQ for " + configuration );
+        mq.connect();
+        if ( !mq.enableGroupCommit( maxBatchSize, maxDelayMillis ) ) {
+            disconnectQuietly( mq );
+            throw new UnsupportedOperationException( U.classname( mq ) + " does not support group commit!" );
+        }
+        connections.put( configuration, mq );
+        return mq;
+    }
+
+    /**
+     * Releases a shared connection after use. It is discarded if no longer connected.
+     *
+     * @param mq
+     *            the MQ got
+     */
+    public void release( final MQ mq ) {
+        if ( mq == null || mq.isConnected() ) {
+            return;
+        }
+        synchronized (this) {
+            if ( connections.get( mq.getConfiguration() ) == mq ) {
+                connections.remove( mq.getConfiguration() );
+            }
+        }
+        disconnectQuietly( mq );
+    }
+
+    /**
+     * Disconnects all shared connections. They cannot be used afterwards.
+     */
+    public void drain() {
+        final List victims = new ArrayList();
+        synchronized (this) {
+            drained = true;
+            victims.addAll( connections.values() );
+            connections.clear();
+        }
+        LOG.info( "Draining " + U.w( this ) + ". Disconnecting " + victims.size() + " connection(s)." );
+        final Iterator all = victims.iterator();
+        while ( all.hasNext() ) {
+            disconnectQuietly( (MQ) all.next() );
+        }
+    }
+
+    private static void disconnectQuietly( final MQ mq ) {
+        try {
+            mq.disconnect();
+        } catch ( Exception ignoredButLogged ) {
+            LOG.warn( "Error on disconnecting " + U.w( mq ), ignoredButLogged );
+        }
+    }
+
+    public String toString() {
+        return "MQSharedConnections(maxBatchSize=" + maxBatchSize + ", maxDelayMillis=" + maxDelayMillis + ")";
+    }
+}
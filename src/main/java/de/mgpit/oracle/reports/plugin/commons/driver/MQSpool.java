@@ -0,0 +1,986 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.driver;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.log4j.Logger;
+
+import de.mgpit.oracle.reports.plugin.commons.Magic;
+import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.Units;
+import de.mgpit.oracle.reports.plugin.commons.concurrent.GroupCommit;
+import de.mgpit.oracle.reports.plugin.commons.concurrent.WorkerPool;
+import de.mgpit.oracle.reports.plugin.commons.io.AbortableOutputStream;
+import de.mgpit.oracle.reports.plugin.commons.io.ChunkedBuffer;
+
+/**
+ * Durable local store for messages which cannot be put because the queue manager is not available.
+ * <p>
+ * Messages are appended to a journal together with their target {@link MQ.Configuration}. An append returns after
+ * the journal has been forced to disk. Concurrent appends share one force, see {@link GroupCommit}. The journal is
+ * split into segment files of about {@code mq.spool.segmentBytes} bytes.
+ * <p>
+ * A background forwarder replays the messages in the order spooled. It puts each message within a unit of work on
+ * a connection from the {@link MQConnectionPool} and waits {@code mq.spool.retrySeconds} - doubling up to
+ * {@link #MAX_RETRY_MILLIS} - before retrying a failed put. The position of the next message is kept in a
+ * checkpoint file, so forwarding resumes after a restart. Delivery is at least once: a message put but not yet
+ * checkpointed when the server stops is put again.
+ * <p>
+ * Failing to connect - an outage - is retried without limit. A message which cannot be put although connected is
+ * tried {@code mq.spool.maxAttempts} times. Then it is parked - moved to the file {@code parked.records} in the
+ * record format of the journal - so it does not block the messages behind it.
+ * <p>
+ * The messages pending are counted per target, see {@link #depth(MQ.Configuration)}. So a sender can keep the order
+ * of its target by spooling as long as messages for the target are pending - without holding back the others.
+ * <p>
+ * On startup the journal is scanned from the checkpoint on. An incomplete or corrupt record at the end - left by
+ * a crash during an append - is truncated.
+ *
+ * @author mgp
+ *
+ */
+public final class MQSpool {
+    private static final Logger LOG = Logger.getLogger( MQSpool.class );
+
+    /**
+     * Holds the name of the property with the directory of the journal. Spooling is enabled if set.
+     */
+    public static final String DIRECTORY_PROPERTY = "mq.spool.directory";
+    /**
+     * Holds the name of the property with the size in bytes from which on a new journal segment is started.
+     */
+    public static final String SEGMENT_BYTES_PROPERTY = "mq.spool.segmentBytes";
+    /**
+     * Holds the name of the property with the maximum number of appends forced to disk at once.
+     */
+    public static final String SYNC_BATCH_SIZE_PROPERTY = "mq.spool.syncBatchSize";
+    /**
+     * Holds the name of the property with the maximum time in milliseconds an append waits for others to join its
+     * force.
+     */
+    public static final String SYNC_DELAY_MILLIS_PROPERTY = "mq.spool.syncDelayMillis";
+    /**
+     * Holds the name of the property with the number of seconds to wait before retrying a failed forward.
+     */
+    public static final String RETRY_SECONDS_PROPERTY = "mq.spool.retrySeconds";
+    /**
+     * Holds the name of the property with the number of attempts to put a message before it is parked.
+     */
+    public static final String MAX_ATTEMPTS_PROPERTY = "mq.spool.maxAttempts";
+
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * Units.ONE_MEGABYTE;
+    public static final int DEFAULT_SYNC_BATCH_SIZE = 32;
+    public static final int DEFAULT_SYNC_DELAY_MILLIS = 10;
+    public static final int DEFAULT_RETRY_SECONDS = 5;
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+    public static final long MAX_RETRY_MILLIS = 60 * 1000L;
+
+    private static final int IN_MEMORY_LIMIT = Units.ONE_MEGABYTE;
+    private static final int RECORD_MAGIC = 0x4D515350; // "MQSP"
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String CHECKPOINT_TEMP = "checkpoint.tmp";
+    private static final String PARKED = "parked.records";
+
+    private final File directory;
+    private final MQConnectionPool pool;
+    private final long maxSegmentBytes;
+    private final long retryMillis;
+    private final int maxAttempts;
+    private final GroupCommit groupCommit;
+    private final WorkerPool forwarder;
+
+    /**
+     * Guards the writing side of the journal.
+     */
+    private final Object journalLock = new Object();
+    private FileOutputStream journalFile;
+    private DataOutputStream journal;
+    private boolean journalClosed = false;
+
+    /*
+     * Shared between appenders and the forwarder. Guarded by this.
+     */
+    private long writeSegment;
+    private long durablePosition;
+    private long depth;
+    /**
+     * Holds the number of messages pending per {@code Configuration} - including the ones being appended.
+     */
+    private final HashMap pending = new HashMap();
+    /**
+     * Holds the number of appends not completed yet.
+     */
+    private int appending = 0;
+    private long headTimestamp;
+    private long forwardedCount = 0L;
+    private long parkedCount = 0L;
+    private boolean running = true;
+
+    /*
+     * Reading side. Used by the forwarder only.
+     */
+    private long readSegment;
+    private long readPosition;
+    private int failedAttempts = 0;
+
+    /**
+     * Creates a spool - recovering the journal found in the directory given - and starts forwarding.
+     *
+     * @param directory
+     *            directory of the journal; created if not existing
+     * @param pool
+     *            pool for connecting to the targets
+     * @param maxSegmentBytes
+     *            size in bytes from which on a new segment is started
+     * @param syncBatchSize
+     *            maximum number of appends forced at once
+     * @param syncDelayMillis
+     *            maximum time in milliseconds an append waits for others to join its force
+     * @param retryMillis
+     *            time in milliseconds to wait before retrying a failed forward
+     * @throws IOException
+     *             if the journal cannot be recovered or opened
+     */
+    public MQSpool( final File directory, final MQConnectionPool pool, final long maxSegmentBytes, final int syncBatchSize,
+            final long syncDelayMillis, final long retryMillis ) throws IOException {
+        this( directory, pool, maxSegmentBytes, syncBatchSize, syncDelayMillis, retryMillis, DEFAULT_MAX_ATTEMPTS );
+    }
+
+    /**
+     * Creates a spool - recovering the journal found in the directory given - and starts forwarding.
+     *
+     * @param directory
+     *            directory of the journal; created if not existing
+     * @param pool
+     *            pool for connecting to the targets
+     * @param maxSegmentBytes
+     *            size in bytes from which on a new segment is started
+     * @param syncBatchSize
+     *            maximum number of appends forced at once
+     * @param syncDelayMillis
+     *            maximum time in milliseconds an append waits for others to join its force
+     * @param retryMillis
+     *            time in milliseconds to wait before retrying a failed forward
+     * @param maxAttempts
+     *            number of attempts to put a message before it is parked
+     * @throws IOException
+     *             if the journal cannot be recovered or opened
+     */
+    public MQSpool( final File directory, final MQConnectionPool pool, final long maxSegmentBytes, final int syncBatchSize,
+            final long syncDelayMillis, final long retryMillis, final int maxAttempts ) throws IOException {
+        U.assertNotNull( directory, "Cannot spool without directory!" );
+        U.assertNotNull( pool, "Cannot forward without connection pool!" );
+        if ( !directory.isDirectory() && !directory.mkdirs() ) {
+            throw new IOException( "Cannot create spool directory " + directory );
+        }
+        this.directory = directory;
+        this.pool = pool;
+        this.maxSegmentBytes = Math.max( 1L, maxSegmentBytes );
+        this.retryMillis = Math.max( 1L, retryMillis );
+        this.maxAttempts = Math.max( 1, maxAttempts );
+        this.groupCommit = new GroupCommit( new GroupCommit.Committable() {
+            public void commit() throws Exception {
+                forceJournal();
+            }
+
+            public void backout() throws Exception {
+                truncateJournal();
+            }
+        }, syncBatchSize, syncDelayMillis );
+
+        recover();
+        openJournal();
+        this.forwarder = new WorkerPool( "MQSpoolForwarder", 1 );
+        this.forwarder.execute( new Forwarder() );
+        LOG.info( "Started " + this + " with " + depth + " message(s) pending." );
+    }
+
+    /**
+     * Creates a spool configured by the {@code Properties} given.
+     *
+     * @param pool
+     *            pool for connecting to the targets
+     * @param properties
+     *            properties
+     * @return the spool or {@code null} if {@link #DIRECTORY_PROPERTY} is not set
+     * @throws IOException
+     *             if the journal cannot be recovered or opened
+     */
+    public static MQSpool fromProperties( final MQConnectionPool pool, final Properties properties ) throws IOException {
+        final String directoryName = (properties == null) ? null : properties.getProperty( DIRECTORY_PROPERTY );
+        if ( U.isEmpty( directoryName ) ) {
+            return null;
+        }
+        final int segmentBytes = MQConnectionPool.intProperty( properties, SEGMENT_BYTES_PROPERTY, DEFAULT_SEGMENT_BYTES );
+        final int syncBatchSize = MQConnectionPool.intProperty( properties, SYNC_BATCH_SIZE_PROPERTY, DEFAULT_SYNC_BATCH_SIZE );
+        final int syncDelayMillis = MQConnectionPool.intProperty( properties, SYNC_DELAY_MILLIS_PROPERTY, DEFAULT_SYNC_DELAY_MILLIS );
+        final int retrySeconds = MQConnectionPool.intProperty( properties, RETRY_SECONDS_PROPERTY, DEFAULT_RETRY_SECONDS );
+        final int maxAttempts = MQConnectionPool.intProperty( properties, MAX_ATTEMPTS_PROPERTY, DEFAULT_MAX_ATTEMPTS );
+        return new MQSpool( new File( directoryName.trim() ), pool, segmentBytes, syncBatchSize, syncDelayMillis,
+                retrySeconds * 1000L, maxAttempts );
+    }
+
+    /**
+     * Gets a new message to be spooled for the target given. The message is appended to the journal on close.
+     *
+     * @param configuration
+     *            target of the message
+     * @param segmentSize
+     *            maximum number of bytes per segment when forwarding or {@code 0} for not segmenting
+     * @param asGroup
+     *            {@code true} for forwarding the segments as message group
+     * @return {@code OutputStream} for writing the message
+     */
+    public OutputStream newMessage( final MQ.Configuration configuration, final int segmentSize, final boolean asGroup ) {
+        U.assertNotNull( configuration, "Cannot spool without configuration!" );
+        return new SpooledMessage( configuration, segmentSize, asGroup );
+    }
+
+    /**
+     * Gets the number of messages spooled but not forwarded yet.
+     *
+     * @return number of messages
+     */
+    public synchronized long depth() {
+        return depth;
+    }
+
+    /**
+     * Gets the number of messages for the target given spooled but not forwarded yet - including the ones being
+     * appended.
+     *
+     * @param configuration
+     *            target of the messages
+     * @return number of messages
+     */
+    public synchronized long depth( final MQ.Configuration configuration ) {
+        final Long count = (Long) pending.get( asJournaled( configuration ) );
+        return (count == null) ? 0L : count.longValue();
+    }
+
+    /**
+     * Adds to the number of messages pending for the target given. Must be called holding the lock on this.
+     */
+    private void countPending( final MQ.Configuration configuration, final long delta ) {
+        final MQ.Configuration key = asJournaled( configuration );
+        final Long count = (Long) pending.get( key );
+        final long newCount = ((count == null) ? 0L : count.longValue()) + delta;
+        if ( newCount > 0 ) {
+            pending.put( key, new Long( newCount ) );
+        } else {
+            pending.remove( key );
+        }
+    }
+
+    /**
+     * Gets the age of the oldest message not forwarded yet.
+     *
+     * @return age in milliseconds or {@code 0} if there is none
+     */
+    public synchronized long lagMillis() {
+        return (depth == 0 || headTimestamp == 0L) ? 0L : Math.max( 0L, System.currentTimeMillis() - headTimestamp );
+    }
+
+    /**
+     * Gets the number of messages forwarded since startup.
+     *
+     * @return number of messages
+     */
+    public synchronized long forwardedCount() {
+        return forwardedCount;
+    }
+
+    /**
+     * Gets the number of messages parked since startup.
+     *
+     * @return number of messages
+     */
+    public synchronized long parkedCount() {
+        return parkedCount;
+    }
+
+    /**
+     * Stops forwarding and closes the journal. Messages not forwarded yet stay in the journal.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        forwarder.shutdown();
+        synchronized (journalLock) {
+            journalClosed = true;
+            try {
+                journal.close();
+            } catch ( IOException ignoredButLogged ) {
+                LOG.warn( "Error on closing journal of " + this, ignoredButLogged );
+            }
+        }
+        LOG.info( "Shut down " + this + " with " + depth() + " message(s) pending." );
+    }
+
+    public String toString() {
+        return "MQSpool(" + directory + ")";
+    }
+
+    /*
+     * Writing side.
+     */
+
+    private void append( final ChunkedBuffer payload, final MQ.Configuration configuration, final int segmentSize,
+            final boolean asGroup ) throws Exception {
+        final long timestamp = System.currentTimeMillis();
+        // counted upfront, so the target is known to be pending before the forwarder may see the record
+        synchronized (this) {
+            countPending( configuration, 1 );
+            appending++;
+        }
+        boolean appended = false;
+        try {
+            groupCommit.doAndAwaitCommit( new GroupCommit.Work() {
+                public void perform() throws Exception {
+                    writeRecord( payload, configuration, segmentSize, asGroup, timestamp );
+                }
+            } );
+            appended = true;
+        } finally {
+            synchronized (this) {
+                appending--;
+                if ( appended ) {
+                    if ( depth == 0 ) {
+                        headTimestamp = timestamp;
+                    }
+                    depth++;
+                } else {
+                    countPending( configuration, -1 );
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private void writeRecord( final ChunkedBuffer payload, final MQ.Configuration configuration, final int segmentSize,
+            final boolean asGroup, final long timestamp ) throws IOException {
+        synchronized (journalLock) {
+            if ( journalClosed ) {
+                throw new IOException( this + " has been shut down!" );
+            }
+            if ( journalFile.getChannel().position() >= maxSegmentBytes ) {
+                rollJournal();
+            }
+            final long start = journalFile.getChannel().position();
+            try {
+                journal.writeInt( RECORD_MAGIC );
+                journal.writeLong( timestamp );
+                writeConfiguration( journal, configuration );
+                journal.writeInt( segmentSize );
+                journal.writeBoolean( asGroup );
+                journal.writeLong( payload.size() );
+                final CheckedOutputStream checked = new CheckedOutputStream( journal, new CRC32() );
+                payload.writeTo( checked );
+                journal.writeLong( checked.getChecksum().getValue() );
+                journal.flush();
+            } catch ( IOException failed ) {
+                // the partial record must not remain in the buffer nor in the file
+                try {
+                    journal.close();
+                } catch ( IOException ignored ) {
+                    // truncated below
+                }
+                openJournal();
+                journalFile.getChannel().truncate( start );
+                throw failed;
+            }
+        }
+    }
+
+    private void forceJournal() throws IOException {
+        synchronized (journalLock) {
+            journal.flush();
+            journalFile.getChannel().force( false );
+            final long position = journalFile.getChannel().position();
+            synchronized (this) {
+                durablePosition = position;
+                notifyAll();
+            }
+        }
+    }
+
+    private void truncateJournal() throws IOException {
+        synchronized (journalLock) {
+            final long position;
+            synchronized (this) {
+                position = durablePosition;
+            }
+            journalFile.getChannel().truncate( position );
+        }
+    }
+
+    private void rollJournal() throws IOException {
+        forceJournal();
+        journal.close();
+        synchronized (this) {
+            writeSegment++;
+            durablePosition = 0L;
+        }
+        openJournal();
+    }
+
+    private void openJournal() throws IOException {
+        final File segment = segmentFile( writeSegment );
+        journalFile = new FileOutputStream( segment, true );
+        journal = new DataOutputStream( new BufferedOutputStream( journalFile, 64 * Units.ONE_KILOBYTE ) );
+    }
+
+    /*
+     * Recovery.
+     */
+
+    private void recover() throws IOException {
+        final long[] segments = listSegments();
+        readCheckpoint();
+        if ( segments.length == 0 ) {
+            readSegment = Math.max( readSegment, 0L );
+            readPosition = 0L;
+            writeSegment = readSegment;
+            return;
+        }
+        if ( readSegment < segments[0] ) {
+            readSegment = segments[0];
+            readPosition = 0L;
+        }
+        long pending = 0L;
+        long lastSegment = readSegment;
+        for ( int i = 0; i < segments.length; i++ ) {
+            if ( segments[i] < readSegment ) {
+                LOG.info( "Deleting forwarded segment " + segmentFile( segments[i] ) );
+                segmentFile( segments[i] ).delete();
+                continue;
+            }
+            pending += scanSegment( segments[i], segments[i] == readSegment ? readPosition : 0L );
+            lastSegment = segments[i];
+        }
+        synchronized (this) {
+            depth = pending;
+            writeSegment = lastSegment;
+            durablePosition = segmentFile( lastSegment ).length();
+        }
+    }
+
+    /**
+     * Counts the complete records of a segment - truncating an incomplete or corrupt tail.
+     */
+    private long scanSegment( final long segment, final long from ) throws IOException {
+        final File file = segmentFile( segment );
+        final CountingInputStream counting = new CountingInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        final DataInputStream in = new DataInputStream( counting );
+        long records = 0L;
+        long validEnd = from;
+        final byte[] buffer = new byte[8 * Units.ONE_KILOBYTE];
+        try {
+            skipFully( in, from );
+            counting.count = from;
+            while ( true ) {
+                final int magic;
+                try {
+                    magic = in.readInt();
+                } catch ( EOFException endOfSegment ) {
+                    break;
+                }
+                if ( magic != RECORD_MAGIC ) {
+                    break;
+                }
+                in.readLong(); // timestamp
+                final MQ.Configuration configuration = readConfiguration( in );
+                in.readInt(); // segment size
+                in.readBoolean(); // as group
+                long remaining = in.readLong();
+                final CRC32 crc = new CRC32();
+                while ( remaining > 0 ) {
+                    final int bytesRead = in.read( buffer, 0, (int) Math.min( buffer.length, remaining ) );
+                    if ( bytesRead == Magic.END_OF_STREAM ) {
+                        throw new EOFException();
+                    }
+                    crc.update( buffer, 0, bytesRead );
+                    remaining -= bytesRead;
+                }
+                if ( in.readLong() != crc.getValue() ) {
+                    break;
+                }
+                synchronized (this) {
+                    countPending( configuration, 1 );
+                }
+                records++;
+                validEnd = counting.count;
+            }
+        } catch ( EOFException incomplete ) {
+            // incomplete record at the end
+        } finally {
+            in.close();
+        }
+        if ( validEnd < file.length() ) {
+            LOG.warn( "Truncating incomplete record(s) at position " + validEnd + " of " + file );
+            final RandomAccessFile truncating = new RandomAccessFile( file, "rw" );
+            try {
+                truncating.setLength( validEnd );
+            } finally {
+                truncating.close();
+            }
+        }
+        return records;
+    }
+
+    private long[] listSegments() {
+        final String[] names = directory.list( new FilenameFilter() {
+            public boolean accept( File dir, String name ) {
+                return name.startsWith( SEGMENT_PREFIX ) && name.endsWith( SEGMENT_SUFFIX );
+            }
+        } );
+        final long[] segments = new long[names == null ? 0 : names.length];
+        for ( int i = 0; i < segments.length; i++ ) {
+            segments[i] = Long.parseLong( names[i].substring( SEGMENT_PREFIX.length(), names[i].length()
+                    - SEGMENT_SUFFIX.length() ) );
+        }
+        Arrays.sort( segments );
+        return segments;
+    }
+
+    private File segmentFile( final long segment ) {
+        final String number = "0000000000" + segment;
+        return new File( directory, SEGMENT_PREFIX + number.substring( number.length() - 10 ) + SEGMENT_SUFFIX );
+    }
+
+    private void readCheckpoint() throws IOException {
+        File checkpoint = new File( directory, CHECKPOINT );
+        if ( !checkpoint.exists() ) {
+            // crashed between deleting the old and renaming the new checkpoint?
+            checkpoint = new File( directory, CHECKPOINT_TEMP );
+        }
+        readSegment = 0L;
+        readPosition = 0L;
+        if ( !checkpoint.exists() ) {
+            return;
+        }
+        final DataInputStream in = new DataInputStream( new FileInputStream( checkpoint ) );
+        try {
+            readSegment = in.readLong();
+            readPosition = in.readLong();
+        } catch ( EOFException incomplete ) {
+            LOG.warn( "Incomplete checkpoint " + checkpoint + ". Forwarding from the beginning of the spool." );
+            readSegment = 0L;
+            readPosition = 0L;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeCheckpoint() throws IOException {
+        final File temp = new File( directory, CHECKPOINT_TEMP );
+        final DataOutputStream out = new DataOutputStream( new FileOutputStream( temp ) );
+        try {
+            out.writeLong( readSegment );
+            out.writeLong( readPosition );
+        } finally {
+            out.close();
+        }
+        final File checkpoint = new File( directory, CHECKPOINT );
+        checkpoint.delete();
+        if ( !temp.renameTo( checkpoint ) ) {
+            throw new IOException( "Cannot rename " + temp + " to " + checkpoint );
+        }
+    }
+
+    /*
+     * Forwarding.
+     */
+
+    private synchronized boolean awaitRecord() throws InterruptedException {
+        while ( running ) {
+            if ( readSegment < writeSegment || readPosition < durablePosition ) {
+                return true;
+            }
+            if ( appending == 0 && (depth > 0 || !pending.isEmpty()) ) {
+                // all forwarded - records skipped as corrupt must not hold back their targets
+                depth = 0;
+                pending.clear();
+            }
+            wait();
+        }
+        return false;
+    }
+
+    private synchronized boolean awaitRetry( final long millis ) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + millis;
+        long toWait = millis;
+        while ( running && toWait > 0 ) {
+            wait( toWait );
+            toWait = deadline - System.currentTimeMillis();
+        }
+        return running;
+    }
+
+    /**
+     * Forwards the record at the current read position - or moves on to the next segment.
+     */
+    private void forwardNext() throws Exception {
+        final File segment = segmentFile( readSegment );
+        final boolean lastSegment;
+        synchronized (this) {
+            lastSegment = readSegment >= writeSegment;
+        }
+        if ( !lastSegment && readPosition >= segment.length() ) {
+            readSegment++;
+            readPosition = 0L;
+            writeCheckpoint();
+            LOG.info( "Deleting forwarded segment " + segment );
+            segment.delete();
+            return;
+        }
+
+        final CountingInputStream counting = new CountingInputStream( new BufferedInputStream( new FileInputStream( segment ) ) );
+        final DataInputStream in = new DataInputStream( counting );
+        final MQ.Configuration configuration;
+        boolean parked = false;
+        try {
+            skipFully( in, readPosition );
+            counting.count = readPosition;
+            if ( in.readInt() != RECORD_MAGIC ) {
+                LOG.error( "Corrupt record at position " + readPosition + " of " + segment + ". Skipping the rest of the segment." );
+                readPosition = Long.MAX_VALUE;
+                if ( lastSegment ) {
+                    // new records must not be appended behind the corruption
+                    synchronized (journalLock) {
+                        if ( !journalClosed ) {
+                            rollJournal();
+                        }
+                    }
+                }
+                return;
+            }
+            final long timestamp = in.readLong();
+            synchronized (this) {
+                headTimestamp = timestamp;
+            }
+            configuration = readConfiguration( in );
+            final int segmentSize = in.readInt();
+            final boolean asGroup = in.readBoolean();
+            final long payloadLength = in.readLong();
+            final long recordEnd = counting.count + payloadLength + 8; // payload and checksum
+            // failing to connect is an outage and retried without limit
+            final MQ mq = pool.borrow( configuration );
+            try {
+                put( mq, in, configuration, segmentSize, asGroup, payloadLength );
+                failedAttempts = 0;
+            } catch ( Exception failed ) {
+                failedAttempts++;
+                if ( failedAttempts < maxAttempts ) {
+                    throw failed;
+                }
+                LOG.error( "Cannot forward spooled message for " + U.w( configuration ) + " after " + failedAttempts
+                        + " attempts. Parking it in " + new File( directory, PARKED ), failed );
+                park( segment, readPosition, recordEnd );
+                failedAttempts = 0;
+                parked = true;
+            }
+            readPosition = recordEnd;
+        } finally {
+            in.close();
+        }
+        writeCheckpoint();
+        synchronized (this) {
+            depth = Math.max( 0L, depth - 1 );
+            countPending( configuration, -1 );
+            if ( parked ) {
+                parkedCount++;
+            } else {
+                forwardedCount++;
+            }
+        }
+    }
+
+    /**
+     * Appends a record of a segment to the file of parked messages.
+     *
+     * @param segment
+     *            the segment
+     * @param from
+     *            position of the record
+     * @param to
+     *            position behind the record
+     * @throws IOException
+     */
+    private void park( final File segment, final long from, final long to ) throws IOException {
+        final RandomAccessFile source = new RandomAccessFile( segment, "r" );
+        try {
+            final FileOutputStream target = new FileOutputStream( new File( directory, PARKED ), true );
+            try {
+                source.seek( from );
+                final byte[] buffer = new byte[64 * Units.ONE_KILOBYTE];
+                long remaining = to - from;
+                while ( remaining > 0 ) {
+                    final int bytesRead = source.read( buffer, 0, (int) Math.min( buffer.length, remaining ) );
+                    if ( bytesRead == Magic.END_OF_STREAM ) {
+                        throw new EOFException( "Unexpected end of record at position " + from + " of " + segment );
+                    }
+                    target.write( buffer, 0, bytesRead );
+                    remaining -= bytesRead;
+                }
+                target.getChannel().force( false );
+            } finally {
+                target.close();
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    private void put( final MQ mq, final DataInputStream in, final MQ.Configuration configuration, final int segmentSize,
+            final boolean asGroup, final long payloadLength ) throws Exception {
+        boolean reusable = false;
+        try {
+            mq.beginUnitOfWork();
+            final OutputStream message = (segmentSize > 0) ? mq.newSegmentedMessage( segmentSize, asGroup ) : mq
+                    .newMessage( payloadLength );
+            final CheckedOutputStream checked = new CheckedOutputStream( message, new CRC32() );
+            final byte[] buffer = new byte[64 * Units.ONE_KILOBYTE];
+            long remaining = payloadLength;
+            while ( remaining > 0 ) {
+                final int bytesRead = in.read( buffer, 0, (int) Math.min( buffer.length, remaining ) );
+                if ( bytesRead == Magic.END_OF_STREAM ) {
+                    throw new EOFException( "Unexpected end of spooled message for " + configuration );
+                }
+                checked.write( buffer, 0, bytesRead );
+                remaining -= bytesRead;
+            }
+            checked.close();
+            if ( in.readLong() == checked.getChecksum().getValue() ) {
+                mq.commit();
+                LOG.info( "Forwarded spooled message of " + payloadLength + " bytes to " + U.w( configuration ) );
+            } else {
+                mq.backout();
+                LOG.error( "Checksum mismatch of spooled message for " + U.w( configuration ) + ". Message discarded." );
+            }
+            reusable = true;
+        } finally {
+            if ( reusable ) {
+                pool.giveBack( mq );
+            } else {
+                try {
+                    mq.backout();
+                } catch ( Exception ignored ) {
+                    // connection is discarded anyway
+                }
+                pool.invalidate( mq );
+            }
+        }
+    }
+
+    private class Forwarder implements Runnable {
+        public void run() {
+            long backoff = retryMillis;
+            try {
+                while ( awaitRecord() ) {
+                    try {
+                        forwardNext();
+                        backoff = retryMillis;
+                    } catch ( Exception failed ) {
+                        LOG.warn( "Cannot forward spooled message. Retrying in " + backoff + " ms.", failed );
+                        if ( !awaitRetry( backoff ) ) {
+                            break;
+                        }
+                        backoff = Math.min( 2 * backoff, Math.max( retryMillis, MAX_RETRY_MILLIS ) );
+                    }
+                }
+            } catch ( InterruptedException interrupted ) {
+                LOG.warn( "Forwarder of " + MQSpool.this + " has been interrupted." );
+            }
+        }
+
+        public String toString() {
+            return "Forwarder of " + MQSpool.this;
+        }
+    }
+
+    /*
+     * Record format helpers.
+     */
+
+    private static void writeConfiguration( final DataOutputStream out, final MQ.Configuration configuration )
+            throws IOException {
+        out.writeUTF( emptyIfNull( configuration.getHostName() ) );
+        out.writeInt( configuration.getPort() );
+        out.writeUTF( emptyIfNull( configuration.getQueueManagerName() ) );
+        out.writeUTF( emptyIfNull( configuration.getChannelName() ) );
+        out.writeUTF( emptyIfNull( configuration.getQueueName() ) );
+        out.writeUTF( emptyIfNull( configuration.getUserId() ) );
+    }
+
+    private static MQ.Configuration readConfiguration( final DataInputStream in ) throws IOException {
+        final String hostName = nullIfEmpty( in.readUTF() );
+        final int port = in.readInt();
+        final String queueManagerName = nullIfEmpty( in.readUTF() );
+        final String channelName = nullIfEmpty( in.readUTF() );
+        final String queueName = nullIfEmpty( in.readUTF() );
+        final String userId = nullIfEmpty( in.readUTF() );
+        return new MQ.Configuration( hostName, port, queueManagerName, channelName, queueName, userId );
+    }
+
+    /**
+     * Gets the configuration given as read back from the journal - with empty names being {@code null}.
+     */
+    private static MQ.Configuration asJournaled( final MQ.Configuration configuration ) {
+        return new MQ.Configuration( nullIfEmpty( emptyIfNull( configuration.getHostName() ) ), configuration.getPort(),
+                nullIfEmpty( emptyIfNull( configuration.getQueueManagerName() ) ), nullIfEmpty( emptyIfNull( configuration
+                        .getChannelName() ) ), nullIfEmpty( emptyIfNull( configuration.getQueueName() ) ),
+                nullIfEmpty( emptyIfNull( configuration.getUserId() ) ) );
+    }
+
+    private static String emptyIfNull( final String s ) {
+        return (s == null) ? "" : s;
+    }
+
+    private static String nullIfEmpty( final String s ) {
+        return (s.length() == 0) ? null : s;
+    }
+
+    private static void skipFully( final InputStream in, long toSkip ) throws IOException {
+        while ( toSkip > 0 ) {
+            final long skipped = in.skip( toSkip );
+            if ( skipped <= 0 ) {
+                throw new EOFException();
+            }
+            toSkip -= skipped;
+        }
+    }
+
+    /**
+     * Counts the bytes read - for knowing where a record ends.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        long count = 0L;
+
+        CountingInputStream( final InputStream in ) {
+            super( in );
+        }
+
+        public int read() throws IOException {
+            final int b = super.read();
+            if ( b != Magic.END_OF_STREAM ) {
+                count++;
+            }
+            return b;
+        }
+
+        public int read( byte[] b, int off, int len ) throws IOException {
+            final int bytesRead = super.read( b, off, len );
+            if ( bytesRead > 0 ) {
+                count += bytesRead;
+            }
+            return bytesRead;
+        }
+
+        public long skip( long n ) throws IOException {
+            final long skipped = super.skip( n );
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * Collects a message and appends it to the journal on close. An aborted message is discarded without being
+     * journaled.
+     */
+    private final class SpooledMessage extends AbortableOutputStream {
+        private final MQ.Configuration configuration;
+        private final int segmentSize;
+        private final boolean asGroup;
+        private final ChunkedBuffer buffer = new ChunkedBuffer( IN_MEMORY_LIMIT, "mqspool" );
+        private boolean closed = false;
+        private boolean aborted = false;
+
+        SpooledMessage( final MQ.Configuration configuration, final int segmentSize, final boolean asGroup ) {
+            this.configuration = configuration;
+            this.segmentSize = segmentSize;
+            this.asGroup = asGroup;
+        }
+
+        public void write( int b ) throws IOException {
+            if ( !aborted ) {
+                buffer.write( b );
+            }
+        }
+
+        public void write( byte[] b, int off, int len ) throws IOException {
+            if ( !aborted ) {
+                buffer.write( b, off, len );
+            }
+        }
+
+        public void abort() {
+            if ( closed ) {
+                return;
+            }
+            closed = true;
+            aborted = true;
+            buffer.release();
+            LOG.warn( "Discarded aborted message for " + U.w( configuration ) + "." );
+        }
+
+        public void close() throws IOException {
+            if ( closed ) {
+                return;
+            }
+            closed = true;
+            try {
+                append( buffer, configuration, segmentSize, asGroup );
+            } catch ( IOException ioe ) {
+                throw ioe;
+            } catch ( Exception other ) {
+                final IOException wrapped = new IOException( "Cannot spool message! " + other.getMessage() );
+                wrapped.initCause( other );
+                throw wrapped;
+            } finally {
+                buffer.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.driver;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.concurrent.GroupCommit;
+import de.mgpit.oracle.reports.plugin.commons.concurrent.WorkerPool;
+import de.mgpit.oracle.reports.plugin.commons.io.IOUtility;
+import de.mgpit.oracle.reports.plugin.commons.io.ZipCompressionPolicy;
+import de.mgpit.types.Entryname;
+import de.mgpit.types.Filename;
+
+/**
+ * ZIP archives appended to by concurrent distributions - one writer per archive.
+ * <p>
+ * A distribution collects its files and {@link #append(Distribution) appends} them at once. The distributions
+ * arriving at the same archive within a short window are written by one archive update, see {@link GroupCommit}.
+ * Each caller returns once the update covering its files has been forced to disk. If the update fails every
+ * distribution of the batch gets the failure. Entries with the same name replace each other - the latest
+ * distribution wins.
+ * <p>
+ * An update holds an exclusive {@link FileLock} on {@code <archive>.lock}. So distributions running in other
+ * processes - e.g. a second Reports server sharing the file system - are serialized, too.
+ *
+ * @author mgp
+ *
+ */
+public final class SharedZipArchives {
+    private static final Logger LOG = Logger.getLogger( SharedZipArchives.class );
+
+    /**
+     * Holds the name of the property for the maximum number of distributions per archive update.
+     */
+    public static final String MAX_BATCH_SIZE_PROPERTY = "zip.batch.maxDistributions";
+    /**
+     * Holds the name of the property for the maximum time in milliseconds a distribution waits for its update.
+     */
+    public static final String MAX_DELAY_MILLIS_PROPERTY = "zip.batch.maxDelayMillis";
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 16;
+    public static final int DEFAULT_MAX_DELAY_MILLIS = 20;
+
+    private static final String LOCK_SUFFIX = ".lock";
+
+    private final boolean inPlace;
+    private final boolean parallelCompression;
+    private final int maxBatchSize;
+    private final long maxDelayMillis;
+    private ZipCompressionPolicy compressionPolicy = ZipCompressionPolicy.DEFLATE_ALL;
+
+    /**
+     * Holds the {@link Writer} per canonical archive path.
+     */
+    private final HashMap writers = new HashMap();
+
+    /**
+     * Creates the shared archives.
+     *
+     * @param inPlace
+     *            {@code true} for appending in place, see {@link ZipArchive#newOrExistingNamedInPlace(Filename)}
+     * @param parallelCompression
+     *            {@code true} for compressing on the {@link WorkerPool#shared() shared WorkerPool}, see
+     *            {@link ZipArchive#withParallelCompression(WorkerPool)}
+     * @param maxBatchSize
+     *            maximum number of distributions per archive update
+     * @param maxDelayMillis
+     *            maximum time a distribution waits for further distributions to join its update
+     */
+    public SharedZipArchives( final boolean inPlace, final boolean parallelCompression, final int maxBatchSize,
+            final long maxDelayMillis ) {
+        this.inPlace = inPlace;
+        this.parallelCompression = parallelCompression;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Creates shared archives configured by the {@code Properties} given.
+     * <p>
+     * Uses {@link #MAX_BATCH_SIZE_PROPERTY} and {@link #MAX_DELAY_MILLIS_PROPERTY}.
+     *
+     * @param inPlace
+     *            {@code true} for appending in place
+     * @param parallelCompression
+     *            {@code true} for compressing on the shared {@code WorkerPool}
+     * @param properties
+     *            properties; may be {@code null}
+     * @return new shared archives
+     */
+    public static SharedZipArchives fromProperties( final boolean inPlace, final boolean parallelCompression,
+            final Properties properties ) {
+        final int maxBatchSize = MQConnectionPool.intProperty( properties, MAX_BATCH_SIZE_PROPERTY, DEFAULT_MAX_BATCH_SIZE );
+        final int maxDelayMillis = MQConnectionPool.intProperty( properties, MAX_DELAY_MILLIS_PROPERTY, DEFAULT_MAX_DELAY_MILLIS );
+        return new SharedZipArchives( inPlace, parallelCompression, maxBatchSize, maxDelayMillis );
+    }
+
+    /**
+     * Sets the policy deciding how the entries are compressed.
+     *
+     * @param policy
+     *            the policy
+     * @return the receiving shared archives
+     */
+    public SharedZipArchives withCompressionPolicy( final ZipCompressionPolicy policy ) {
+        U.assertNotNull( policy, "Compression policy must not be null!" );
+        this.compressionPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Starts collecting the files of a distribution to the archive given.
+     *
+     * @param archiveName
+     *            file name of the ZIP archive
+     * @return the new distribution
+     */
+    public Distribution newDistribution( final Filename archiveName ) {
+        U.assertNotEmpty( archiveName, "archiveName must not be null or empty string!" );
+        return new Distribution( archiveName );
+    }
+
+    /**
+     * Appends the files of the distribution to its archive and waits until they are on disk.
+     *
+     * @param distribution
+     *            the distribution
+     * @throws Exception
+     *             if the archive update fails
+     */
+    public void append( final Distribution distribution ) throws Exception {
+        U.assertNotNull( distribution, "Cannot append null distribution!" );
+        if ( distribution.entries.isEmpty() ) {
+            return;
+        }
+        final Writer writer = writerFor( distribution.archiveName );
+        writer.groupCommit.doAndAwaitCommit( new GroupCommit.Work() {
+            public void perform() {
+                writer.add( distribution );
+            }
+        } );
+    }
+
+    /**
+     * Gets the number of archive updates done.
+     *
+     * @return number of updates over all archives
+     */
+    public synchronized long updateCount() {
+        long updates = 0L;
+        final Iterator all = writers.values().iterator();
+        while ( all.hasNext() ) {
+            updates += ((Writer) all.next()).groupCommit.commitCount();
+        }
+        return updates;
+    }
+
+    private synchronized Writer writerFor( final Filename archiveName ) throws IOException {
+        final File archiveFile = IOUtility.fileFromName( archiveName );
+        final String key = archiveFile.getCanonicalPath();
+        Writer writer = (Writer) writers.get( key );
+        if ( writer == null ) {
+            writer = new Writer( archiveName, new File( archiveFile.getPath() + LOCK_SUFFIX ) );
+            writers.put( key, writer );
+        }
+        return writer;
+    }
+
+    public String toString() {
+        return "SharedZipArchives(inPlace=" + inPlace + ", parallelCompression=" + parallelCompression + ", maxBatchSize=" + maxBatchSize + ", maxDelayMillis="
+                + maxDelayMillis + ")";
+    }
+
+    /**
+     * The files of one distribution.
+     */
+    public static final class Distribution {
+        private final Filename archiveName;
+        /**
+         * Holds the {@link Source} per entry name in the order added.
+         */
+        private final LinkedHashMap entries = new LinkedHashMap();
+
+        private Distribution( final Filename archiveName ) {
+            this.archiveName = archiveName;
+        }
+
+        /**
+         * Adds a file. The file must exist until the distribution has been {@link SharedZipArchives#append(Distribution)
+         * appended}.
+         *
+         * @param sourceFile
+         *            file to add
+         * @param entryName
+         *            name of the entry
+         * @return the receiving distribution
+         */
+        public Distribution add( final Filename sourceFile, final Entryname entryName ) {
+            return add( sourceFile, entryName, null );
+        }
+
+        /**
+         * Adds a file of a known mime type - see {@link ZipCompressionPolicy}.
+         *
+         * @param sourceFile
+         *            file to add
+         * @param entryName
+         *            name of the entry
+         * @param mimeType
+         *            mime type of the file; may be {@code null}
+         * @return the receiving distribution
+         */
+        public Distribution add( final Filename sourceFile, final Entryname entryName, final String mimeType ) {
+            U.assertNotEmpty( sourceFile, "sourceFile must not be null or empty string!" );
+            U.assertNotEmpty( entryName, "entryName must not be null or empty string!" );
+            entries.remove( entryName );
+            entries.put( entryName, new Source( sourceFile, mimeType ) );
+            return this;
+        }
+
+        public Filename getArchiveName() {
+            return archiveName;
+        }
+
+        public int size() {
+            return entries.size();
+        }
+    }
+
+    private static final class Source {
+        private final Filename file;
+        private final String mimeType;
+
+        private Source( final Filename file, final String mimeType ) {
+            this.file = file;
+            this.mimeType = mimeType;
+        }
+    }
+
+    /**
+     * Writes the batched distributions of one archive.
+     */
+    private final class Writer implements GroupCommit.Committable {
+        private final Filename archiveName;
+        private final File lockFile;
+        private final GroupCommit groupCommit;
+        /**
+         * Holds the {@link Source} per entry name in the order added.
+         */
+        private final LinkedHashMap pending = new LinkedHashMap();
+
+        private Writer( final Filename archiveName, final File lockFile ) {
+            this.archiveName = archiveName;
+            this.lockFile = lockFile;
+            this.groupCommit = new GroupCommit( this, maxBatchSize, maxDelayMillis );
+        }
+
+        private void add( final Distribution distribution ) {
+            final Iterator entries = distribution.entries.entrySet().iterator();
+            while ( entries.hasNext() ) {
+                final Map.Entry entry = (Map.Entry) entries.next();
+                // replaced entries move to the end
+                pending.remove( entry.getKey() );
+                pending.put( entry.getKey(), entry.getValue() );
+            }
+        }
+
+        public void commit() throws Exception {
+            final RandomAccessFile lockHolder = new RandomAccessFile( lockFile, "rw" );
+            try {
+                final FileLock lock = lockHolder.getChannel().lock();
+                try {
+                    update();
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                lockHolder.close();
+                pending.clear();
+            }
+        }
+
+        private void update() throws Exception {
+            final ZipArchive archive = inPlace ? ZipArchive.newOrExistingNamedInPlace( archiveName )
+                    : ZipArchive.newOrExistingNamed( archiveName );
+            archive.withCompressionPolicy( compressionPolicy );
+            if ( parallelCompression ) {
+                archive.withParallelCompression( WorkerPool.shared() );
+            }
+            try {
+                final Iterator entries = pending.entrySet().iterator();
+                while ( entries.hasNext() ) {
+                    final Map.Entry entry = (Map.Entry) entries.next();
+                    final Source source = (Source) entry.getValue();
+                    archive.addFile( source.file, (Entryname) entry.getKey(), source.mimeType );
+                }
+                archive.close();
+            } finally {
+                archive.abort();
+            }
+            LOG.info( "Updated " + U.w( archiveName ) + " with " + pending.size() + " entries." );
+        }
+
+        public void backout() {
+            pending.clear();
+        }
+    }
+}
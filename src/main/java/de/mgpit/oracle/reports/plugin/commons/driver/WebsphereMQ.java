@@ -20,11 +20,11 @@ package de.mgpit.oracle.reports.plugin.commons.driver;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Hashtable;
 
 import org.apache.log4j.Logger;
 
 import com.ibm.mq.MQC;
-import com.ibm.mq.MQEnvironment;
 import com.ibm.mq.MQException;
 import com.ibm.mq.MQMessage;
 import com.ibm.mq.MQPutMessageOptions;
@@ -32,6 +32,8 @@ import com.ibm.mq.MQQueue;
 import com.ibm.mq.MQQueueManager;
 
 import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.concurrent.GroupCommit;
+import de.mgpit.oracle.reports.plugin.commons.io.AbortableOutputStream;
 
 /**
  * Implements a Websphere MQ<sup>&reg;</sup> driver for
@@ -43,6 +45,7 @@ import de.mgpit.oracle.reports.plugin.commons.U;
  */
 public class WebsphereMQ extends MQ {
     private static final Logger LOG = Logger.getRootLogger();
+    private static final long UNKNOWN_LENGTH = -1L;
 
     public WebsphereMQ( Configuration configuration ) {
         super( configuration );
@@ -51,29 +54,32 @@ public class WebsphereMQ extends MQ {
     private MQQueueManager queueManager = null;
     private MQQueue destinationQueue = null;
 
+    /**
+     * Holds if a unit of work has been started by {@link #beginUnitOfWork()}.
+     */
+    private boolean inUnitOfWork = false;
+
+    /**
+     * Holds the group commit if enabled by {@link #enableGroupCommit(int, long)}.
+     */
+    private GroupCommit groupCommit = null;
+
     public void connect() throws Exception {
         try {
             LOG.info( "Connecting with " + configuration.toString() );
 
             /*
-             * From the {@code MQQueueManager(String) Javadoc:
-             * <quote>
-             * Creates a connection to the named queue manager.
-             * The host name, channel name and port to use during the connection request are specified
-             * in the MQEnvironmentclass.
-             * This must be done before calling this constructor.
-             * </quote>
+             * The MQQueueManager(String) constructor takes host name, channel name and port from the static
+             * fields of the MQEnvironment class. Concurrent connects to different queue managers would race
+             * on these. Hence the connection properties are passed per connection.
              */
-
-            // Hence ...
-            setMQEnvironment();
-            // ... could have used the MQQueueManager(String,Hashtable) constructor alternatively ...
+            final Hashtable connectionProperties = connectionProperties();
 
             final String queueManagerName = configuration.getQueueManagerName();
             final String queueName = configuration.getQueueName();
 
             final int openOptions = MQC.MQOO_FAIL_IF_QUIESCING | MQC.MQOO_OUTPUT;
-            queueManager = new MQQueueManager( queueManagerName );
+            queueManager = new MQQueueManager( queueManagerName, connectionProperties );
             destinationQueue = queueManager.accessQueue( queueName, openOptions, null, null, null );
 
         } catch ( MQException mqex ) {
@@ -84,26 +90,43 @@ public class WebsphereMQ extends MQ {
     }
 
     /**
-     * Applies the {@link MQ.Configuration Configuration} to the {@link MQEnvironment}.
+     * Gets the connection properties for this {@link MQ.Configuration Configuration}.
+     * <p>
+     * These are passed to the {@code MQQueueManager(String,Hashtable)} constructor instead of being set on the
+     * static {@code MQEnvironment}. Subclasses may add further properties.
+     * 
+     * @return a new {@code Hashtable} with the connection properties
      */
-    protected void setMQEnvironment() {
+    protected Hashtable connectionProperties() {
         final String hostname = configuration.getHostName();
         final int port = configuration.getPort();
         final String channel = configuration.getChannelName();
         final String userId = configuration.getUserId();
 
+        final Hashtable properties = new Hashtable();
+        properties.put( MQC.TRANSPORT_PROPERTY, MQC.TRANSPORT_MQSERIES_CLIENT );
         if ( !U.isEmpty( hostname ) ) {
-            MQEnvironment.hostname = hostname;
+            properties.put( MQC.HOST_NAME_PROPERTY, hostname );
         }
         if ( !U.isEmpty( channel ) ) {
-            MQEnvironment.channel = channel;
+            properties.put( MQC.CHANNEL_PROPERTY, channel );
         }
         if ( port > 0 ) {
-            MQEnvironment.port = port;
+            properties.put( MQC.PORT_PROPERTY, new Integer( port ) );
         }
         if ( !U.isEmpty( userId ) ) {
-            MQEnvironment.userID = userId;
+            properties.put( MQC.USER_ID_PROPERTY, userId );
         }
+        return properties;
+    }
+
+    /**
+     * Checks if the queue manager is still connected and the queue is still open.
+     * 
+     * @see de.mgpit.oracle.reports.plugin.commons.driver.MQ#isConnected()
+     */
+    public boolean isConnected() {
+        return queueManager != null && queueManager.isConnected() && destinationQueue != null && destinationQueue.isOpen();
     }
 
     public void disconnect() throws Exception {
@@ -117,6 +140,15 @@ public class WebsphereMQ extends MQ {
          */
         LOG.info( "Disconnecting from " + configuration.toString() );
         MQException lastMQExceptionOccured = null;
+        if ( inUnitOfWork ) {
+            // disconnecting would commit the pending unit of work
+            LOG.warn( "Backing out pending unit of work on " + configuration.toString() );
+            try {
+                backout();
+            } catch ( MQException mqex ) {
+                lastMQExceptionOccured = mqex;
+            }
+        }
         try { // Step 1
             if ( destinationQueue != null ) {
                 LOG.info( "Closing Queue " + destinationQueue.name ); // TODO: MQ6 style, with MQ7 getName();
@@ -162,12 +194,26 @@ public class WebsphereMQ extends MQ {
     }
 
     public OutputStream newMessage() throws Exception {
-        return new OutputStream() {
+        return newMessage( UNKNOWN_LENGTH );
+    }
+
+    /**
+     * Gets a new message.
+     * <p>
+     * If the length is known the message buffer is allocated upfront. So a large message is not grown and copied
+     * repeatedly while being written.
+     * 
+     * @see de.mgpit.oracle.reports.plugin.commons.driver.MQ#newMessage(long)
+     */
+    public OutputStream newMessage( final long expectedLength ) throws Exception {
+        final int presize = (expectedLength > 0 && expectedLength <= Integer.MAX_VALUE) ? (int) expectedLength : 0;
+        final MQMessage presized = newMQMessage( presize );
+        return new AbortableOutputStream() {
             private final MQMessage mqMessage;
             private boolean finished;
 
             {
-                mqMessage = new MQMessage();
+                mqMessage = presized;
                 mqMessage.correlationId = MQC.MQCI_NONE;
                 mqMessage.priority = 1;
                 finished = false;
@@ -183,6 +229,10 @@ public class WebsphereMQ extends MQ {
                 mqMessage.write( b );
             }
 
+            public void write( byte[] b, int off, int len ) throws IOException {
+                mqMessage.write( b, off, len );
+            }
+
             /**
              * Flushes this Output Stream.
              * <p>
@@ -204,10 +254,17 @@ public class WebsphereMQ extends MQ {
              * @throws IOException
              */
             private void finishWrite() throws IOException {
+                if ( !finished && WebsphereMQ.this.groupCommit != null && !WebsphereMQ.this.inUnitOfWork ) {
+                    putWithGroupCommit();
+                    finished = true;
+                }
                 if ( !finished ) {
                     MQPutMessageOptions putMessageOptions = new MQPutMessageOptions(); // Default: MQC.MQPMO_NO_SYNCPOINT, d.h. kein explizites Commit notwendig
+                    if ( WebsphereMQ.this.inUnitOfWork ) {
+                        putMessageOptions.options = MQC.MQPMO_SYNCPOINT | MQC.MQPMO_FAIL_IF_QUIESCING;
+                    }
                     try {
-                        WebsphereMQ.this.destinationQueue.put( mqMessage, putMessageOptions ); // 3. Durch MQPutMessageOptions zuverlssig Commit vermeiden
+                        WebsphereMQ.this.put( mqMessage, putMessageOptions ); // 3. Durch MQPutMessageOptions zuverlssig Commit vermeiden
                     } catch ( MQException mqex ) {
                         final String message = "MQException on flushing Message" + ". Reason code: " + mqex.reasonCode
                                 + " Completion code: " + mqex.completionCode;
@@ -219,11 +276,330 @@ public class WebsphereMQ extends MQ {
                 }
             }
 
+            /**
+             * Puts the message under syncpoint and waits for the group commit.
+             * 
+             * @throws IOException
+             */
+            private void putWithGroupCommit() throws IOException {
+                final MQPutMessageOptions putMessageOptions = new MQPutMessageOptions();
+                putMessageOptions.options = MQC.MQPMO_SYNCPOINT | MQC.MQPMO_FAIL_IF_QUIESCING;
+                try {
+                    WebsphereMQ.this.groupCommit.doAndAwaitCommit( new GroupCommit.Work() {
+                        public void perform() throws Exception {
+                            WebsphereMQ.this.put( mqMessage, putMessageOptions );
+                        }
+                    } );
+                } catch ( MQException mqex ) {
+                    final String message = "MQException on group commit of Message" + ". Reason code: " + mqex.reasonCode
+                            + " Completion code: " + mqex.completionCode;
+                    LOG.error( message, mqex );
+                    throw new IOException( message );
+                } catch ( Exception other ) {
+                    LOG.error( "Error on group commit of Message", other );
+                    throw new IOException( "Error on group commit of Message: " + other.getMessage() );
+                }
+            }
+
             public void close() throws IOException {
                 finishWrite();
                 super.close();
             }
+
+            /**
+             * Discards the message. Nothing has been put yet.
+             * 
+             * @see de.mgpit.oracle.reports.plugin.commons.io.AbortableOutputStream#abort()
+             */
+            public void abort() {
+                finished = true;
+            }
         };
     }
 
+    /**
+     * Enables group commit. The messages of concurrent threads are committed together on this connection.
+     * 
+     * @see de.mgpit.oracle.reports.plugin.commons.driver.MQ#enableGroupCommit(int, long)
+     */
+    public boolean enableGroupCommit( final int maxBatchSize, final long maxDelayMillis ) {
+        groupCommit = new GroupCommit( new GroupCommit.Committable() {
+            public void commit() throws Exception {
+                commitQueueManager();
+            }
+
+            public void backout() throws Exception {
+                backoutQueueManager();
+            }
+        }, maxBatchSize, maxDelayMillis );
+        LOG.info( "Enabled " + groupCommit + " on " + configuration.toString() );
+        return true;
+    }
+
+    /**
+     * Gets a new message which is put in pieces of the size given.
+     * <p>
+     * The pieces are put in logical order within a unit of work. Unless a unit of work has been started with
+     * {@link #beginUnitOfWork()} it is committed when the stream is closed.
+     * 
+     * @see de.mgpit.oracle.reports.plugin.commons.driver.MQ#newSegmentedMessage(int, boolean)
+     */
+    public OutputStream newSegmentedMessage( final int segmentSize, final boolean asGroup ) throws Exception {
+        U.assertTrue( segmentSize > 0, "Segment size must be positive!" );
+        final int pieceFlag = asGroup ? MQC.MQMF_MSG_IN_GROUP : MQC.MQMF_SEGMENT;
+        final int lastPieceFlag = asGroup ? MQC.MQMF_LAST_MSG_IN_GROUP : MQC.MQMF_LAST_SEGMENT;
+        return new SegmentingOutputStream( segmentSize, segmentSize, pieceFlag, lastPieceFlag );
+    }
+
+    /**
+     * Gets a new message as member of a message group.
+     * <p>
+     * The group is formed by the messages put in logical order to the queue. If segmented each segment carries the
+     * group flags of its message.
+     * 
+     * @see de.mgpit.oracle.reports.plugin.commons.driver.MQ#newGroupMessage(long, int, boolean)
+     */
+    public OutputStream newGroupMessage( final long expectedLength, final int segmentSize, final boolean lastInGroup )
+            throws Exception {
+        final int groupFlag = lastInGroup ? MQC.MQMF_LAST_MSG_IN_GROUP : MQC.MQMF_MSG_IN_GROUP;
+        if ( segmentSize > 0 ) {
+            return new SegmentingOutputStream( segmentSize, segmentSize, groupFlag | MQC.MQMF_SEGMENT,
+                    groupFlag | MQC.MQMF_LAST_SEGMENT );
+        }
+        final int presize = (expectedLength > 0 && expectedLength <= Integer.MAX_VALUE) ? (int) expectedLength : 0;
+        return new SegmentingOutputStream( Integer.MAX_VALUE, presize, groupFlag, groupFlag );
+    }
+
+    /**
+     * Creates a new {@code MQMessage} - with a buffer of the size given allocated upfront.
+     * 
+     * @param presize
+     *            number of bytes to allocate; nothing is allocated if not positive
+     * @return the message
+     * @throws IOException
+     */
+    protected MQMessage newMQMessage( final int presize ) throws IOException {
+        final MQMessage message = new MQMessage();
+        if ( presize > 0 ) {
+            message.resizeBuffer( presize );
+        }
+        return message;
+    }
+
+    /**
+     * Puts a message to the destination queue. All messages and pieces are put here.
+     * 
+     * @param message
+     *            the message
+     * @param putMessageOptions
+     *            the put options
+     * @throws MQException
+     */
+    protected void put( final MQMessage message, final MQPutMessageOptions putMessageOptions ) throws MQException {
+        destinationQueue.put( message, putMessageOptions );
+    }
+
+    /**
+     * Commits the unit of work of the queue manager. All commits are done here.
+     * 
+     * @throws MQException
+     */
+    protected void commitQueueManager() throws MQException {
+        queueManager.commit();
+    }
+
+    /**
+     * Backs out the unit of work of the queue manager - if connected. All backouts are done here.
+     * 
+     * @throws MQException
+     */
+    protected void backoutQueueManager() throws MQException {
+        if ( queueManager != null ) {
+            queueManager.backout();
+        }
+    }
+
+    public void beginUnitOfWork() throws Exception {
+        inUnitOfWork = true;
+    }
+
+    public void commit() throws Exception {
+        inUnitOfWork = false;
+        try {
+            commitQueueManager();
+        } catch ( MQException mqex ) {
+            LOG.error( "MQException on commit " + configuration.toString() + ". Reason code: " + mqex.reasonCode
+                    + " Completion code: " + mqex.completionCode, mqex );
+            throw mqex;
+        }
+    }
+
+    public void backout() throws MQException {
+        inUnitOfWork = false;
+        try {
+            backoutQueueManager();
+        } catch ( MQException mqex ) {
+            LOG.error( "MQException on backout " + configuration.toString() + ". Reason code: " + mqex.reasonCode
+                    + " Completion code: " + mqex.completionCode, mqex );
+            throw mqex;
+        }
+    }
+
+    /**
+     * An {@code OutputStream} putting the data written as segments of a logical message or as messages of a group.
+     * <p>
+     * Holds one {@code MQMessage} of up to {@code segmentSize} bytes which is reused for each piece. A full piece is
+     * put when the next data arrives, so the last piece can be flagged accordingly on close.
+     * <p>
+     * If not part of a unit of work started by {@link WebsphereMQ#beginUnitOfWork()} the pieces are committed on
+     * close - and backed out on {@link #abort()}. Otherwise backing out the pieces already put is left to the owner of
+     * the unit of work.
+     */
+    private final class SegmentingOutputStream extends AbortableOutputStream {
+        private final MQMessage segment;
+        private final MQPutMessageOptions putMessageOptions = new MQPutMessageOptions();
+        private final int segmentSize;
+        private final int pieceFlag;
+        private final int lastPieceFlag;
+        private final boolean ownUnitOfWork;
+        private final byte[] singleByte = new byte[1];
+        private int segmentLength = 0;
+        private int piecesPut = 0;
+        private boolean finished = false;
+        private boolean aborted = false;
+
+        /**
+         * Creates a new stream.
+         * 
+         * @param segmentSize
+         *            maximum number of bytes per piece
+         * @param presize
+         *            number of bytes to allocate for the message buffer upfront
+         * @param pieceFlag
+         *            message flags for each piece but the last
+         * @param lastPieceFlag
+         *            message flags for the last piece
+         * @throws IOException
+         */
+        private SegmentingOutputStream( final int segmentSize, final int presize, final int pieceFlag, final int lastPieceFlag )
+                throws IOException {
+            this.segmentSize = segmentSize;
+            this.pieceFlag = pieceFlag;
+            this.lastPieceFlag = lastPieceFlag;
+            this.ownUnitOfWork = !WebsphereMQ.this.inUnitOfWork;
+            this.putMessageOptions.options = MQC.MQPMO_LOGICAL_ORDER | MQC.MQPMO_SYNCPOINT | MQC.MQPMO_FAIL_IF_QUIESCING;
+            this.segment = newMQMessage( presize );
+            prepareSegment();
+        }
+
+        private void prepareSegment() throws IOException {
+            segment.clearMessage();
+            segment.messageId = MQC.MQMI_NONE;
+            segment.correlationId = MQC.MQCI_NONE;
+            segment.priority = 1;
+            segmentLength = 0;
+        }
+
+        public void write( int b ) throws IOException {
+            singleByte[0] = (byte) b;
+            write( singleByte, 0, 1 );
+        }
+
+        public void write( byte[] b, int off, int len ) throws IOException {
+            if ( aborted ) {
+                return;
+            }
+            if ( finished ) {
+                throw new IOException( "Stream has been closed!" );
+            }
+            while ( len > 0 ) {
+                if ( segmentLength == segmentSize ) {
+                    putSegment( pieceFlag );
+                }
+                final int bytesToWrite = Math.min( len, segmentSize - segmentLength );
+                segment.write( b, off, bytesToWrite );
+                segmentLength += bytesToWrite;
+                off += bytesToWrite;
+                len -= bytesToWrite;
+            }
+        }
+
+        private void putSegment( final int flags ) throws IOException {
+            segment.messageFlags = flags;
+            try {
+                WebsphereMQ.this.put( segment, putMessageOptions );
+            } catch ( MQException mqex ) {
+                final String message = "MQException on putting segment " + (piecesPut + 1) + ". Reason code: " + mqex.reasonCode
+                        + " Completion code: " + mqex.completionCode;
+                LOG.error( message, mqex );
+                backoutOwnUnitOfWork();
+                throw new IOException( message );
+            }
+            piecesPut++;
+            prepareSegment();
+        }
+
+        /**
+         * Does nothing. A segment is put when full or when the stream is closed.
+         * 
+         * @see java.io.OutputStream#flush()
+         */
+        public void flush() throws IOException {
+            // Don't flush ...
+        }
+
+        /**
+         * Puts the last segment and commits the unit of work - if not part of a unit of work started by
+         * {@link WebsphereMQ#beginUnitOfWork()}.
+         * 
+         * @see java.io.OutputStream#close()
+         */
+        public void close() throws IOException {
+            if ( finished ) {
+                return;
+            }
+            finished = true;
+            putSegment( lastPieceFlag );
+            if ( ownUnitOfWork ) {
+                try {
+                    WebsphereMQ.this.commitQueueManager();
+                } catch ( MQException mqex ) {
+                    final String message = "MQException on committing " + piecesPut + " segment(s)" + ". Reason code: "
+                            + mqex.reasonCode + " Completion code: " + mqex.completionCode;
+                    LOG.error( message, mqex );
+                    backoutOwnUnitOfWork();
+                    throw new IOException( message );
+                }
+            }
+            LOG.info( "Put message as " + piecesPut + " piece(s)." );
+        }
+
+        /**
+         * Discards the current piece without putting it and backs out the unit of work - if not part of a unit of work
+         * started by {@link WebsphereMQ#beginUnitOfWork()}.
+         * 
+         * @see de.mgpit.oracle.reports.plugin.commons.io.AbortableOutputStream#abort()
+         */
+        public void abort() {
+            if ( finished ) {
+                return;
+            }
+            aborted = true;
+            LOG.warn( "Aborting message after " + piecesPut + " piece(s)." );
+            backoutOwnUnitOfWork();
+        }
+
+        private void backoutOwnUnitOfWork() {
+            finished = true;
+            if ( ownUnitOfWork ) {
+                try {
+                    WebsphereMQ.this.backoutQueueManager();
+                } catch ( MQException mqex ) {
+                    LOG.error( "MQException on backing out. Reason code: " + mqex.reasonCode + " Completion code: "
+                            + mqex.completionCode, mqex );
+                }
+            }
+        }
+    }
+
 }
\ No newline at end of file
@@ -25,17 +25,21 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Enumeration;
+import java.io.RandomAccessFile;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 import org.apache.log4j.Logger;
 
 import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.concurrent.WorkerPool;
 import de.mgpit.oracle.reports.plugin.commons.io.IOUtility;
+import de.mgpit.oracle.reports.plugin.commons.io.PrecompressedEntry;
+import de.mgpit.oracle.reports.plugin.commons.io.ZipCompressionPolicy;
+import de.mgpit.oracle.reports.plugin.commons.io.ZipCentralDirectory;
+import de.mgpit.oracle.reports.plugin.commons.io.ZipWriter;
 import de.mgpit.types.Entryname;
 import de.mgpit.types.Filename;
 
@@ -56,7 +60,21 @@ import de.mgpit.types.Filename;
  * At the end clients of ZipArchive have to {@link #close()} the ZIP archive.
  * <p>
  * When appending to an existing archive the ZipArchive will be able to handle duplicate entries, meaning that
- * entries from the existing archive will be replaced by new entries with the same name.
+ * entries from the existing archive will be replaced by new entries with the same name. The other entries of the
+ * existing archive are copied in their compressed form - they are neither inflated nor deflated again.
+ * <p>
+ * An archive opened by {@link #newOrExistingNamedInPlace(Filename)} appends to the existing file in place instead:
+ * the new entries are written where the old central directory started and a merged central directory is written
+ * on close, so the cost depends on the new data only. Replaced entries stay in the file as unreferenced data.
+ * An append which did not complete is rolled back from its journal - see {@link ZipWriter#appendingTo(File)}.
+ * <p>
+ * With {@link #withParallelCompression(WorkerPool)} the entries are deflated concurrently by the workers of a
+ * {@link WorkerPool} into temporary files next to the archive. They are written to the archive in the order they
+ * have been added. At most two entries per worker are in flight; adding further entries waits for the oldest one.
+ * <p>
+ * By default every entry is deflated. A {@link #withCompressionPolicy(ZipCompressionPolicy) compression policy} lets
+ * entries be stored or deflated with another level - depending on the mime type passed to
+ * {@link #addFromStream(InputStream, Entryname, long, String)} or the extension of the entry name.
  * <p>
  * Any errors during processing will be wrapped in a {@link ArchivingException}.
  * 
@@ -68,14 +86,23 @@ public class ZipArchive {
 
     public static final String ZIP_SCHEME = "zip";
 
+    private static final String ENTRY_COMMENT = "Created by ZipArchive";
+
     private Filename fileName;
     private boolean appending = false;
+    private boolean inPlace = false;
+    private boolean writingInPlace = false;
     private boolean open = false;
-    private ZipOutputStream zipper;
+    private ZipWriter zipper;
     private File temporaryFile;
 
     private Map entriesCreated;
 
+    private ZipCompressionPolicy compressionPolicy = ZipCompressionPolicy.DEFLATE_ALL;
+    private WorkerPool compressionPool;
+    private int maxEntriesInFlight;
+    private final LinkedList entriesInFlight = new LinkedList();
+
     /**
      * Gets a new ZipArchive - factory method.
      * Will replace an existing ZIP archive with the same name.
@@ -110,6 +137,52 @@ public class ZipArchive {
         return archive;
     }
 
+    /**
+     * Gets a new ZipArchive appending in place - factory method.
+     * An existing ZIP archive will be extended in place. Entries with the same name as new entries will be
+     * replaced, but their data is not removed from the file.
+     * 
+     * @param fileName
+     * @return a ZipArchive instance
+     * 
+     * @throws Error
+     *             if fileName is provided as null or empty String
+     */
+    public static ZipArchive newOrExistingNamedInPlace( final Filename fileName ) {
+        U.assertNotEmpty( fileName, "fileName must not be null or empty string!" );
+        ZipArchive archive = new ZipArchive( fileName ).forAppending();
+        archive.inPlace = true;
+        return archive;
+    }
+
+    /**
+     * Lets the entries be deflated concurrently by the workers of the pool given.
+     * 
+     * @param pool
+     *            pool to compress on, e.g. {@link WorkerPool#shared()}
+     * @return the receiving ZipArchive instance
+     */
+    public ZipArchive withParallelCompression( final WorkerPool pool ) {
+        U.assertNotNull( pool, "Cannot compress without WorkerPool!" );
+        U.assertTrue( !isOpen(), "Cannot change compression of open archive!" );
+        this.compressionPool = pool;
+        this.maxEntriesInFlight = 2 * pool.size();
+        return this;
+    }
+
+    /**
+     * Sets the policy deciding how the entries are compressed.
+     * 
+     * @param policy
+     *            the policy
+     * @return the receiving ZipArchive instance
+     */
+    public ZipArchive withCompressionPolicy( final ZipCompressionPolicy policy ) {
+        U.assertNotNull( policy, "Compression policy must not be null!" );
+        this.compressionPolicy = policy;
+        return this;
+    }
+
     private ZipArchive forAppending() {
         this.appending = true;
         return this;
@@ -151,6 +224,10 @@ public class ZipArchive {
             return this;
         }
 
+        writeEntriesInFlight();
+        if ( writingInPlace ) {
+            return closeInPlace();
+        }
         try {
             final File destinationFile = IOUtility.fileFromName( getFileName() );
             if ( destinationFile.exists() ) {
@@ -171,35 +248,84 @@ public class ZipArchive {
         return this;
     }
 
+    /**
+     * Abandons the entries added so far. An archive appended to in place is restored, a temporary file is removed.
+     * The existing archive is left as it was.
+     * 
+     * @return the receiving ZipArchive instance
+     */
+    public ZipArchive abort() {
+        if ( !this.isOpen() ) {
+            return this;
+        }
+        discardEntriesInFlight();
+        this.zipper.abort();
+        markClosed();
+        if ( !writingInPlace ) {
+            temporaryFile.delete();
+        }
+        LOG.info( "Creation of " + getFileName() + " has been aborted." );
+        return this;
+    }
+
+    /**
+     * Closes a ZIP archive appended to in place. Existing entries replaced by new ones are dropped from the central
+     * directory.
+     * 
+     * @return the receiving ZipArchive instance
+     * @throws ArchivingException
+     *             on any error when writing the central directory
+     */
+    private ZipArchive closeInPlace() throws ArchivingException {
+        try {
+            final Iterator entries = this.zipper.existingEntries().iterator();
+            while ( entries.hasNext() ) {
+                final ZipCentralDirectory.Entry anEntry = (ZipCentralDirectory.Entry) entries.next();
+                if ( hasEntry( anEntry ) ) {
+                    LOG.debug( " *** Dropping entry " + anEntry + ". Newer version exists." );
+                    this.zipper.dropExistingEntry( anEntry );
+                }
+            }
+            this.zipper.close();
+            markClosed();
+            LOG.info( "Append in place to " + getFileName() + " was successful." );
+        } catch ( IOException ioException ) {
+            markClosed();
+            final String message = "Error when closing Zip archive " + getFileName();
+            LOG.error( message, ioException );
+            throw new ArchivingException( message, ioException );
+        }
+        return this;
+    }
+
     /**
      * 
      * Copies the entries from the existing archive to the temporary ZIP archive.
+     * <p>
+     * The entries are copied byte by byte in their compressed form - including local header, CRC and sizes.
      * 
      * @param existingZipFile
      *            the already existing ZIP file
-     * @param zipper
-     *            the temporary ZIP file used during creation
      * @throws IOException
      */
     private void copyExistingEntries( final File existingZipFile ) throws IOException {
         LOG.info( "About to copy entries from existing ZIP archive ..." );
-        final ZipFile zipFile = new ZipFile( existingZipFile );
-        final Enumeration entries = zipFile.entries();
-        while ( entries.hasMoreElements() ) {
-            final ZipEntry anEntry = (ZipEntry) entries.nextElement();
-            if ( !hasEntry( anEntry ) ) {
-                LOG.debug( " *** Copying entry " + anEntry + " from existing archive ..." );
-                if ( !anEntry.isDirectory() ) {
-                    InputStream zipped = zipFile.getInputStream( anEntry );
-                    createEntry( anEntry, zipped );
+        final RandomAccessFile zipFile = new RandomAccessFile( existingZipFile, "r" );
+        try {
+            final ZipCentralDirectory centralDirectory = ZipCentralDirectory.read( zipFile.getChannel() );
+            final Iterator entries = centralDirectory.entries().iterator();
+            while ( entries.hasNext() ) {
+                final ZipCentralDirectory.Entry anEntry = (ZipCentralDirectory.Entry) entries.next();
+                if ( !hasEntry( anEntry ) ) {
+                    LOG.debug( " *** Copying entry " + anEntry + " from existing archive ..." );
+                    this.zipper.copyRawEntry( zipFile.getChannel(), anEntry );
                 } else {
-                    this.zipper.closeEntry();
+                    LOG.debug( " *** Skipping entry " + anEntry + ". Newer version exists." );
                 }
-            } else {
-                LOG.debug( " *** Skipping entry " + anEntry + ". Newer version exists." );
             }
+        } finally {
+            zipFile.close();
         }
-        zipFile.close();
     }
 
     /**
@@ -217,12 +343,33 @@ public class ZipArchive {
      *             if one of the parameters is provided as null or empty String.
      */
     public ZipArchive addFile( final Filename sourceFileFilename, final Entryname entryName ) throws ArchivingException {
+        return addFile( sourceFileFilename, entryName, null );
+    }
+
+    /**
+     * Creates a new entry in the ZIP archive using the file's content.
+     * 
+     * @param sourceFileFilename
+     *            full file name of the source file to be put into the archive
+     * @param entryName
+     *            entry name the file will have in the ZIP archive.
+     * @param mimeType
+     *            mime type of the file for the compression policy; may be {@code null}
+     * @return the receiving ZipArchive instance
+     * 
+     * @throws ArchivingException
+     *             if an error occurs during adding.
+     * @throws Error
+     *             if one of the parameters is provided as null or empty String.
+     */
+    public ZipArchive addFile( final Filename sourceFileFilename, final Entryname entryName, final String mimeType )
+            throws ArchivingException {
         U.assertNotEmpty( sourceFileFilename, "sourceFileName must not be null or empty string!" );
         U.assertNotEmpty( entryName, "entryName must not be null or empty string!" );
         try {
             File sourceFile = IOUtility.fileFromName( sourceFileFilename );
             final FileInputStream fileInput = IOUtility.inputStreamFromFile( sourceFile );
-            addFromStream( fileInput, entryName, sourceFile.lastModified() );
+            addFromStream( fileInput, entryName, sourceFile.lastModified(), mimeType );
         } catch ( FileNotFoundException notfound ) {
             final String message = "Error when creating a new Entry from file!";
             LOG.error( message, notfound );
@@ -266,12 +413,40 @@ public class ZipArchive {
      *             if one of the parameters is provided as null or empty String.
      */
     public ZipArchive addFromStream( final InputStream source, final Entryname entryName, long time ) throws ArchivingException {
+        return addFromStream( source, entryName, time, null );
+    }
+
+    /**
+     * Creates a new entry in the ZIP archive using the content provided by the InputStream.
+     * 
+     * @param source
+     *            an Input stream providing the content to be put into the archive
+     * @param entryName
+     *            entry name the file will have in the ZIP archive.
+     * @param time
+     *            the modification date to set for the entry
+     * @param mimeType
+     *            mime type of the content for the compression policy; may be {@code null}
+     * @return the receiving ZipArchive instance
+     * 
+     * @throws ArchivingException
+     *             if an error occurs during adding.
+     * @throws Error
+     *             if one of the parameters is provided as null or empty String.
+     */
+    public ZipArchive addFromStream( final InputStream source, final Entryname entryName, long time, final String mimeType )
+            throws ArchivingException {
         U.assertNotNull( source, "Input stream must not be null!" );
         U.assertNotEmpty( entryName, "entryName must not be null or empty string!" );
         if ( !isOpen() ) {
-            openTemporaryZipArchive();
+            openZipArchive();
+        }
+        final int level = compressionPolicy.levelFor( mimeType, entryName.toString() );
+        if ( compressionPool != null ) {
+            submitForCompression( source, entryName, time, level );
+        } else {
+            createEntryFromInputStream( source, entryName, time, level );
         }
-        createEntryFromInputStream( source, entryName, time );
         registerEntry( entryName );
         return this;
     }
@@ -289,7 +464,7 @@ public class ZipArchive {
         entriesCreated.put( entryname, Boolean.TRUE );
     }
 
-    private boolean hasEntry( final ZipEntry entry ) {
+    private boolean hasEntry( final ZipCentralDirectory.Entry entry ) {
         return hasEntry( Entryname.of( entry.getName() ) );
     }
 
@@ -304,6 +479,38 @@ public class ZipArchive {
         return (entriesCreated == null) ? false : entriesCreated.containsKey( entryName );
     }
 
+    /**
+     * Opens the ZipArchive. Appends in place if requested and the archive exists, else opens a new temporary
+     * ZipArchive.
+     * 
+     * @throws ArchivingException
+     */
+    private void openZipArchive() throws ArchivingException {
+        final File destinationFile = IOUtility.fileFromName( getFileName() );
+        if ( inPlace && destinationFile.exists() ) {
+            openInPlace( destinationFile );
+        } else {
+            openTemporaryZipArchive();
+        }
+    }
+
+    /**
+     * Opens the existing ZipArchive for appending in place
+     * 
+     * @throws ArchivingException
+     */
+    private void openInPlace( final File destinationFile ) throws ArchivingException {
+        try {
+            this.zipper = ZipWriter.appendingTo( destinationFile, compressionPolicy.deflateLevel() );
+        } catch ( IOException cannotOpen ) {
+            final String message = "Error when opening Zip Archive " + getFileName() + " for appending in place";
+            LOG.error( message, cannotOpen );
+            throw new ArchivingException( message, cannotOpen );
+        }
+        this.writingInPlace = true;
+        markOpened();
+    }
+
     /**
      * Opens a new temporary ZipArchive
      * 
@@ -311,11 +518,11 @@ public class ZipArchive {
      */
     private void openTemporaryZipArchive() throws ArchivingException {
         try {
-            this.zipper = new ZipOutputStream( IOUtility.outputStreamFromFile( temporaryFile ) );
-        } catch ( FileNotFoundException fileNotFound ) {
+            this.zipper = new ZipWriter( temporaryFile, compressionPolicy.deflateLevel() );
+        } catch ( IOException cannotOpen ) {
             final String message = "Error when opening Zip Archive on " + getTemporaryFileName();
-            LOG.error( message, fileNotFound );
-            throw new ArchivingException( message, fileNotFound );
+            LOG.error( message, cannotOpen );
+            throw new ArchivingException( message, cannotOpen );
         }
         markOpened();
     }
@@ -329,16 +536,14 @@ public class ZipArchive {
      *            name of the new entry to create
      * @param entrysTimestamp
      *            timestamp to set for the new entry to create
+     * @param level
+     *            compression as decided by the policy
      * @throws ArchivingException
      */
-    private void createEntryFromInputStream( final InputStream source, final Entryname entryName, long entrysTimestamp )
-            throws ArchivingException {
-        final ZipEntry zipEntry = new ZipEntry( entryName.toString() );
-
+    private void createEntryFromInputStream( final InputStream source, final Entryname entryName, long entrysTimestamp,
+            final int level ) throws ArchivingException {
         try {
-            zipEntry.setTime( entrysTimestamp );
-            zipEntry.setComment( "Created by ZipArchive" );
-            createEntry( zipEntry, source );
+            createEntry( entryName.toString(), entrysTimestamp, source, level );
         } catch ( IOException ioException ) {
             final String message = "Error when creating a new Entry from file!";
             LOG.error( message, ioException );
@@ -346,21 +551,85 @@ public class ZipArchive {
         }
     }
 
+    /**
+     * Hands an entry to the compression pool. Writes the entries compressed meanwhile first - and waits for the
+     * oldest entry if too many entries are in flight.
+     * 
+     * @param source
+     *            input stream to add
+     * @param entryName
+     *            name of the new entry to create
+     * @param entrysTimestamp
+     *            timestamp to set for the new entry to create
+     * @param level
+     *            compression as decided by the policy
+     * @throws ArchivingException
+     */
+    private void submitForCompression( final InputStream source, final Entryname entryName, long entrysTimestamp,
+            final int level ) throws ArchivingException {
+        while ( !entriesInFlight.isEmpty()
+                && (entriesInFlight.size() >= maxEntriesInFlight || ((PrecompressedEntry) entriesInFlight.getFirst()).isDone()) ) {
+            writeOldestEntryInFlight();
+        }
+        final PrecompressedEntry entry = new PrecompressedEntry( entryName.toString(), entrysTimestamp, ENTRY_COMMENT, source,
+                level, compressionPolicy.deflateLevel(), temporaryFile.getAbsoluteFile().getParentFile() );
+        entriesInFlight.addLast( entry );
+        compressionPool.execute( entry );
+    }
+
+    /**
+     * Writes all entries in flight in the order they have been added.
+     * 
+     * @throws ArchivingException
+     */
+    private void writeEntriesInFlight() throws ArchivingException {
+        try {
+            while ( !entriesInFlight.isEmpty() ) {
+                writeOldestEntryInFlight();
+            }
+        } catch ( ArchivingException failed ) {
+            discardEntriesInFlight();
+            throw failed;
+        }
+    }
+
+    private void writeOldestEntryInFlight() throws ArchivingException {
+        final PrecompressedEntry entry = (PrecompressedEntry) entriesInFlight.removeFirst();
+        try {
+            entry.await();
+            this.zipper.writePrecompressedEntry( entry );
+        } catch ( Exception failed ) {
+            final String message = "Error when creating entry " + U.w( entry.getName() ) + "!";
+            LOG.error( message, failed );
+            throw new ArchivingException( message, failed );
+        } finally {
+            entry.discard();
+        }
+    }
+
+    private void discardEntriesInFlight() {
+        while ( !entriesInFlight.isEmpty() ) {
+            ((PrecompressedEntry) entriesInFlight.removeFirst()).discard();
+        }
+    }
+
     /**
      * Creates a new entry in this archive.
      * 
-     * @param zipEntry
-     *            the new entry
+     * @param name
+     *            name of the new entry
+     * @param time
+     *            timestamp of the new entry
      * @param contentSource
      *            input stream on the source file
+     * @param level
+     *            compression as decided by the policy
      * @throws IOException
      */
-    private void createEntry( ZipEntry zipEntry, InputStream contentSource ) throws IOException {
+    private void createEntry( String name, long time, InputStream contentSource, int level ) throws IOException {
         try {
-            this.zipper.putNextEntry( zipEntry );
-            IOUtility.copyFromTo( contentSource, this.zipper );
+            this.zipper.writeEntry( name, time, ENTRY_COMMENT, contentSource, level );
         } finally {
-            this.zipper.closeEntry();
             contentSource.close();
         }
     }
@@ -392,6 +661,15 @@ public class ZipArchive {
         return this.appending;
     }
 
+    /**
+     * Gets if this ZipArchive appends to an existing archive in place.
+     * 
+     * @return {@code true} if this archive appends in place, else {@code false}
+     */
+    public boolean isAppendingInPlace() {
+        return this.inPlace;
+    }
+
     /**
      * Marks this ZipArchive as openend.
      */
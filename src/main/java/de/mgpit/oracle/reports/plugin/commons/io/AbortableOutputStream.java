@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.OutputStream;
+
+/**
+ * An {@code OutputStream} delivering its data on close which can be aborted instead.
+ * <p>
+ * Used for messages: closing puts the message, aborting discards it. So a failure while writing does not leave a
+ * truncated message on the queue. Once aborted further writes are ignored and closing does nothing - the streams
+ * wrapping this one can still be closed for releasing their resources.
+ *
+ * @author mgp
+ *
+ */
+public abstract class AbortableOutputStream extends OutputStream {
+
+    /**
+     * Discards the data written and releases the resources held. Does nothing if the stream has been closed
+     * already.
+     */
+    public abstract void abort();
+
+    /**
+     * Aborts the stream given if it can be aborted.
+     *
+     * @param out
+     *            the stream
+     * @return {@code true} if the stream has been aborted, {@code false} if it is not an
+     *         {@code AbortableOutputStream}
+     */
+    public static boolean abortIfPossible( final OutputStream out ) {
+        if ( out instanceof AbortableOutputStream ) {
+            ((AbortableOutputStream) out).abort();
+            return true;
+        }
+        return false;
+    }
+}
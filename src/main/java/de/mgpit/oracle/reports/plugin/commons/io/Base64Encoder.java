@@ -0,0 +1,215 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+/**
+ * Streaming BASE64 encoder.
+ * <p>
+ * Encodes the data passed in pieces of arbitrary size into a caller provided buffer. Up to two bytes not forming a
+ * complete 3 byte group are kept until the next call or until {@link #finish(byte[], int) finish}. Whole 3 byte
+ * groups are encoded in bulk using a table with the two characters of each 12 bit value.
+ * <p>
+ * An encoder is not thread safe. Use one encoder per stream.
+ *
+ * @author mgp
+ *
+ */
+public final class Base64Encoder {
+    private static final byte PAD = '=';
+
+    private final Base64Encoding encoding;
+    private final byte[] pairs;
+    private final byte[] separator;
+    private final int lineLength;
+
+    private final byte[] pending = new byte[2];
+    private int pendingCount = 0;
+    /**
+     * Holds the number of characters in the current line.
+     */
+    private int column = 0;
+    private long encodedCount = 0L;
+
+    Base64Encoder( final Base64Encoding encoding ) {
+        this.encoding = encoding;
+        this.pairs = encoding.pairs();
+        this.separator = encoding.separator();
+        this.lineLength = encoding.lineLength();
+    }
+
+    public Base64Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Gets the number of bytes produced so far.
+     *
+     * @return number of bytes
+     */
+    public long encodedCount() {
+        return encodedCount;
+    }
+
+    /**
+     * Encodes bytes.
+     * <p>
+     * The destination must have room for {@link Base64Encoding#maxEncodedLength(int) maxEncodedLength(len)} bytes.
+     *
+     * @param src
+     *            bytes to encode
+     * @param off
+     *            offset of the first byte
+     * @param len
+     *            number of bytes
+     * @param dst
+     *            destination
+     * @param dstOff
+     *            offset in the destination to start at
+     * @return number of bytes written to the destination
+     */
+    public int encode( final byte[] src, int off, int len, final byte[] dst, final int dstOff ) {
+        int position = dstOff;
+        if ( pendingCount > 0 ) {
+            while ( pendingCount < 2 && len > 0 ) {
+                pending[pendingCount++] = src[off++];
+                len--;
+            }
+            if ( len == 0 ) {
+                return 0;
+            }
+            // complete the group with the first byte given
+            position = startGroup( dst, position );
+            position = encodeGroup( pending[0], pending[1], src[off++], dst, position );
+            len--;
+            pendingCount = 0;
+        }
+
+        while ( len >= 3 ) {
+            int groups = len / 3;
+            if ( lineLength > 0 ) {
+                if ( column == lineLength ) {
+                    position = newLine( dst, position );
+                }
+                groups = Math.min( groups, (lineLength - column) >> 2 );
+                column += groups << 2;
+            }
+            position = encodeGroups( src, off, groups, dst, position );
+            off += groups * 3;
+            len -= groups * 3;
+        }
+
+        while ( len > 0 ) {
+            pending[pendingCount++] = src[off++];
+            len--;
+        }
+        encodedCount += position - dstOff;
+        return position - dstOff;
+    }
+
+    /**
+     * Finishes the encoding.
+     * <p>
+     * Encodes the pending bytes - if any - and terminates the last line. The destination must have room for
+     * {@link Base64Encoding#maxEncodedLength(int) maxEncodedLength(0)} bytes. The encoder can be used for new data
+     * afterwards.
+     *
+     * @param dst
+     *            destination
+     * @param dstOff
+     *            offset in the destination to start at
+     * @return number of bytes written to the destination
+     */
+    public int finish( final byte[] dst, final int dstOff ) {
+        int position = dstOff;
+        if ( pendingCount > 0 ) {
+            position = startGroup( dst, position );
+            final int b0 = pending[0] & 0xFF;
+            if ( pendingCount == 1 ) {
+                dst[position++] = encoding.character( b0 >>> 2 );
+                dst[position++] = encoding.character( (b0 << 4) & 0x3F );
+                if ( encoding.isPadded() ) {
+                    dst[position++] = PAD;
+                    dst[position++] = PAD;
+                }
+            } else {
+                final int b1 = pending[1] & 0xFF;
+                dst[position++] = encoding.character( b0 >>> 2 );
+                dst[position++] = encoding.character( ((b0 << 4) | (b1 >>> 4)) & 0x3F );
+                dst[position++] = encoding.character( (b1 << 2) & 0x3F );
+                if ( encoding.isPadded() ) {
+                    dst[position++] = PAD;
+                }
+            }
+            pendingCount = 0;
+        }
+        if ( lineLength > 0 && column > 0 ) {
+            System.arraycopy( separator, 0, dst, position, separator.length );
+            position += separator.length;
+        }
+        column = 0;
+        encodedCount += position - dstOff;
+        return position - dstOff;
+    }
+
+    private int startGroup( final byte[] dst, int position ) {
+        if ( lineLength > 0 ) {
+            if ( column == lineLength ) {
+                position = newLine( dst, position );
+            }
+            column += 4;
+        }
+        return position;
+    }
+
+    private int newLine( final byte[] dst, final int position ) {
+        System.arraycopy( separator, 0, dst, position, separator.length );
+        column = 0;
+        return position + separator.length;
+    }
+
+    private int encodeGroup( final byte b0, final byte b1, final byte b2, final byte[] dst, int position ) {
+        final int bits = ((b0 & 0xFF) << 16) | ((b1 & 0xFF) << 8) | (b2 & 0xFF);
+        final int high = (bits >>> 12) << 1;
+        final int low = (bits & 0xFFF) << 1;
+        dst[position++] = pairs[high];
+        dst[position++] = pairs[high + 1];
+        dst[position++] = pairs[low];
+        dst[position++] = pairs[low + 1];
+        return position;
+    }
+
+    private int encodeGroups( final byte[] src, int off, final int groups, final byte[] dst, int position ) {
+        final byte[] table = this.pairs;
+        final int end = off + groups * 3;
+        while ( off < end ) {
+            final int bits = ((src[off] & 0xFF) << 16) | ((src[off + 1] & 0xFF) << 8) | (src[off + 2] & 0xFF);
+            final int high = (bits >>> 12) << 1;
+            final int low = (bits & 0xFFF) << 1;
+            dst[position] = table[high];
+            dst[position + 1] = table[high + 1];
+            dst[position + 2] = table[low];
+            dst[position + 3] = table[low + 1];
+            off += 3;
+            position += 4;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+import de.mgpit.oracle.reports.plugin.commons.U;
+
+/**
+ * A BASE64 encoding variant.
+ * <p>
+ * Defines the alphabet, the line length, the line separator and if the output is padded. Predefined variants are
+ * <ul>
+ * <li>{@link #MIME} - standard alphabet, lines of 76 characters separated by CRLF, padded. This is what
+ * the commons codec {@code Base64OutputStream} produces</li>
+ * <li>{@link #STANDARD} - standard alphabet, no line breaks, padded</li>
+ * <li>{@link #URL_SAFE} - URL and filename safe alphabet, no line breaks, not padded</li>
+ * </ul>
+ * A variant can be chosen and adjusted via {@code Properties}, see {@link #fromProperties(Properties)}.
+ *
+ * @author mgp
+ *
+ */
+public final class Base64Encoding {
+
+    /**
+     * Holds the name of the property for choosing the variant. One of {@code mime}, {@code standard}, {@code urlsafe}.
+     */
+    public static final String VARIANT_PROPERTY = "base64.variant";
+    /**
+     * Holds the name of the property for setting the line length. {@code 0} means no line breaks.
+     */
+    public static final String LINE_LENGTH_PROPERTY = "base64.lineLength";
+    /**
+     * Holds the name of the property for setting the line separator. One of {@code CRLF}, {@code LF}.
+     */
+    public static final String LINE_SEPARATOR_PROPERTY = "base64.lineSeparator";
+
+    public static final int MIME_LINE_LENGTH = 76;
+    public static final int NO_LINE_BREAKS = 0;
+
+    private static final byte[] CRLF = { '\r', '\n' };
+    private static final byte[] LF = { '\n' };
+
+    private static final String STANDARD_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    private static final String URL_SAFE_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+
+    public static final Base64Encoding MIME = new Base64Encoding( "mime", STANDARD_ALPHABET, MIME_LINE_LENGTH, CRLF, true );
+    public static final Base64Encoding STANDARD = new Base64Encoding( "standard", STANDARD_ALPHABET, NO_LINE_BREAKS, CRLF, true );
+    public static final Base64Encoding URL_SAFE = new Base64Encoding( "urlsafe", URL_SAFE_ALPHABET, NO_LINE_BREAKS, CRLF, false );
+
+    private final String name;
+    private final String alphabet;
+    private final int lineLength;
+    private final byte[] lineSeparator;
+    private final boolean padded;
+
+    /**
+     * Holds the two characters for each 12 bit value. Encoding a 3 byte group takes two lookups.
+     */
+    private final byte[] pairs;
+
+    private Base64Encoding( final String name, final String alphabet, final int lineLength, final byte[] lineSeparator,
+            final boolean padded ) {
+        this.name = name;
+        this.alphabet = alphabet;
+        // as commons codec does: lines hold whole 4 character groups only
+        this.lineLength = (lineLength > 0) ? (lineLength / 4) * 4 : NO_LINE_BREAKS;
+        this.lineSeparator = lineSeparator;
+        this.padded = padded;
+        this.pairs = new byte[2 * 4096];
+        for ( int i = 0; i < 4096; i++ ) {
+            pairs[2 * i] = (byte) alphabet.charAt( i >>> 6 );
+            pairs[2 * i + 1] = (byte) alphabet.charAt( i & 0x3F );
+        }
+    }
+
+    /**
+     * Gets the variant specified by the {@code Properties} given.
+     * <p>
+     * The variant is chosen by {@link #VARIANT_PROPERTY}. Its line length and line separator can be changed
+     * with {@link #LINE_LENGTH_PROPERTY} and {@link #LINE_SEPARATOR_PROPERTY}. Defaults to {@link #MIME}.
+     *
+     * @param parameters
+     *            properties; may be {@code null}
+     * @return the variant
+     */
+    public static Base64Encoding fromProperties( final Properties parameters ) {
+        if ( parameters == null ) {
+            return MIME;
+        }
+        Base64Encoding variant = MIME;
+        final String variantName = parameters.getProperty( VARIANT_PROPERTY );
+        if ( !U.isEmpty( variantName ) ) {
+            if ( STANDARD.name.equalsIgnoreCase( variantName ) ) {
+                variant = STANDARD;
+            } else if ( URL_SAFE.name.equalsIgnoreCase( variantName ) ) {
+                variant = URL_SAFE;
+            } else if ( !MIME.name.equalsIgnoreCase( variantName ) ) {
+                Logger.getRootLogger().warn( "Unknown BASE64 variant " + U.w( variantName ) + ". Using " + U.w( MIME.name ) );
+            }
+        }
+
+        int lineLength = variant.lineLength;
+        final String lineLengthLiteral = parameters.getProperty( LINE_LENGTH_PROPERTY );
+        if ( !U.isEmpty( lineLengthLiteral ) ) {
+            try {
+                lineLength = Integer.parseInt( lineLengthLiteral.trim() );
+            } catch ( NumberFormatException unparsable ) {
+                Logger.getRootLogger().warn( "Cannot parse BASE64 line length " + U.w( lineLengthLiteral ) );
+            }
+        }
+        byte[] lineSeparator = variant.lineSeparator;
+        final String lineSeparatorLiteral = parameters.getProperty( LINE_SEPARATOR_PROPERTY );
+        if ( !U.isEmpty( lineSeparatorLiteral ) ) {
+            if ( "LF".equalsIgnoreCase( lineSeparatorLiteral.trim() ) ) {
+                lineSeparator = LF;
+            } else if ( "CRLF".equalsIgnoreCase( lineSeparatorLiteral.trim() ) ) {
+                lineSeparator = CRLF;
+            } else {
+                Logger.getRootLogger().warn( "Unknown BASE64 line separator " + U.w( lineSeparatorLiteral ) );
+            }
+        }
+        if ( lineLength == variant.lineLength && lineSeparator == variant.lineSeparator ) {
+            return variant;
+        }
+        return new Base64Encoding( variant.name, variant.alphabet, lineLength, lineSeparator, variant.padded );
+    }
+
+    /**
+     * Gets the line length.
+     *
+     * @return number of characters per line or {@link #NO_LINE_BREAKS}
+     */
+    public int lineLength() {
+        return lineLength;
+    }
+
+    public boolean hasLineBreaks() {
+        return lineLength > 0;
+    }
+
+    /**
+     * Gets a copy of the line separator.
+     *
+     * @return line separator
+     */
+    public byte[] lineSeparator() {
+        final byte[] copy = new byte[lineSeparator.length];
+        System.arraycopy( lineSeparator, 0, copy, 0, copy.length );
+        return copy;
+    }
+
+    public boolean isPadded() {
+        return padded;
+    }
+
+    /**
+     * Gets the length of the encoded data.
+     * <p>
+     * With line breaks each line - including the last one - is terminated by the line separator.
+     *
+     * @param inputLength
+     *            number of bytes to encode
+     * @return number of bytes produced
+     */
+    public long encodedLength( final long inputLength ) {
+        final long encodedCharacters = padded ? 4L * ((inputLength + 2) / 3) : (4L * inputLength + 2) / 3;
+        if ( !hasLineBreaks() ) {
+            return encodedCharacters;
+        }
+        final long lines = (encodedCharacters + lineLength - 1) / lineLength;
+        return encodedCharacters + lines * lineSeparator.length;
+    }
+
+    /**
+     * Gets the maximum number of bytes one call of {@link Base64Encoder#encode(byte[], int, int, byte[], int)} plus
+     * the final {@link Base64Encoder#finish(byte[], int)} can produce for the number of bytes given.
+     *
+     * @param inputLength
+     *            number of bytes passed
+     * @return maximum number of bytes produced
+     */
+    public int maxEncodedLength( final int inputLength ) {
+        // two bytes may be pending from the previous call, the last group may be incomplete
+        final int encodedCharacters = 4 * ((inputLength + 2) / 3 + 1);
+        if ( !hasLineBreaks() ) {
+            return encodedCharacters;
+        }
+        return encodedCharacters + (encodedCharacters / lineLength + 2) * lineSeparator.length;
+    }
+
+    /**
+     * Creates a new encoder for this variant.
+     *
+     * @return the encoder
+     */
+    public Base64Encoder newEncoder() {
+        return new Base64Encoder( this );
+    }
+
+    byte[] pairs() {
+        return pairs;
+    }
+
+    byte[] separator() {
+        return lineSeparator;
+    }
+
+    byte character( final int sixBits ) {
+        return (byte) alphabet.charAt( sixBits );
+    }
+
+    public String toString() {
+        return name + "(lineLength=" + lineLength + ", lineSeparator=" + (lineSeparator.length == 2 ? "CRLF" : "LF") + ", padded="
+                + padded + ")";
+    }
+}
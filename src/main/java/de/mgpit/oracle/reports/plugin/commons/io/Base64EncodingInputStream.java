@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import de.mgpit.oracle.reports.plugin.commons.Magic;
+import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.Units;
+
+/**
+ * An {@code InputStream} providing the BASE64 encoded data of the stream it wraps.
+ * <p>
+ * Reads the wrapped stream in slices into a preallocated buffer and encodes each slice at once.
+ *
+ * @author mgp
+ *
+ */
+public class Base64EncodingInputStream extends FilterInputStream {
+    /**
+     * Holds the maximum number of bytes read and encoded at once. A multiple of 3.
+     */
+    private static final int SLICE_SIZE = 3 * 16 * Units.ONE_KILOBYTE;
+
+    private final Base64Encoder encoder;
+    private final byte[] slice = new byte[SLICE_SIZE];
+    private final byte[] encoded;
+    private int encodedPosition = 0;
+    private int encodedLimit = 0;
+    private boolean endOfInput = false;
+    private final byte[] singleByte = new byte[1];
+
+    public Base64EncodingInputStream( final InputStream toWrap ) {
+        this( toWrap, Base64Encoding.MIME );
+    }
+
+    public Base64EncodingInputStream( final InputStream toWrap, final Base64Encoding encoding ) {
+        super( toWrap );
+        U.assertNotNull( toWrap, "Cannot wrap a null InputStream!" );
+        U.assertNotNull( encoding, "Cannot encode without encoding!" );
+        this.encoder = encoding.newEncoder();
+        this.encoded = new byte[encoding.maxEncodedLength( SLICE_SIZE )];
+    }
+
+    public int read() throws IOException {
+        final int bytesRead = read( singleByte, 0, 1 );
+        return (bytesRead == Magic.END_OF_STREAM) ? Magic.END_OF_STREAM : (singleByte[0] & 0xFF);
+    }
+
+    public int read( byte[] b, int off, int len ) throws IOException {
+        if ( b == null ) {
+            throw new NullPointerException();
+        } else if ( off < 0 || len < 0 || len > b.length - off ) {
+            throw new IndexOutOfBoundsException();
+        } else if ( len == 0 ) {
+            return 0;
+        }
+        while ( encodedPosition == encodedLimit ) {
+            if ( endOfInput ) {
+                return Magic.END_OF_STREAM;
+            }
+            fill();
+        }
+        final int bytesToCopy = Math.min( len, encodedLimit - encodedPosition );
+        System.arraycopy( encoded, encodedPosition, b, off, bytesToCopy );
+        encodedPosition += bytesToCopy;
+        return bytesToCopy;
+    }
+
+    /**
+     * Reads the next slice from the wrapped stream and encodes it.
+     *
+     * @throws IOException
+     */
+    private void fill() throws IOException {
+        encodedPosition = 0;
+        final int bytesRead = in.read( slice, 0, slice.length );
+        if ( bytesRead == Magic.END_OF_STREAM ) {
+            endOfInput = true;
+            encodedLimit = encoder.finish( encoded, 0 );
+        } else {
+            encodedLimit = encoder.encode( slice, 0, bytesRead, encoded, 0 );
+        }
+    }
+
+    public long skip( long n ) throws IOException {
+        long skipped = 0;
+        while ( skipped < n ) {
+            final int bytesRead = read( slice, 0, (int) Math.min( slice.length, n - skipped ) );
+            if ( bytesRead == Magic.END_OF_STREAM ) {
+                break;
+            }
+            skipped += bytesRead;
+        }
+        return skipped;
+    }
+
+    public int available() throws IOException {
+        return encodedLimit - encodedPosition;
+    }
+
+    public boolean markSupported() {
+        return false;
+    }
+
+    public synchronized void mark( int readlimit ) {}
+
+    public synchronized void reset() throws IOException {
+        throw new IOException( "mark/reset not supported" );
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.Units;
+
+/**
+ * An {@code OutputStream} BASE64 encoding the data written to it.
+ * <p>
+ * The encoded data is collected in a preallocated buffer and passed to the wrapped stream when the buffer is full,
+ * on {@link #flush()} and on {@link #close()}. Closing finishes the encoding.
+ *
+ * @author mgp
+ *
+ */
+public class Base64EncodingOutputStream extends FilterOutputStream {
+    /**
+     * Holds the maximum number of bytes encoded at once. A multiple of 3.
+     */
+    private static final int SLICE_SIZE = 3 * 16 * Units.ONE_KILOBYTE;
+
+    private final Base64Encoder encoder;
+    private final byte[] encoded;
+    private int encodedCount = 0;
+    private final byte[] singleByte = new byte[1];
+    private boolean closed = false;
+
+    public Base64EncodingOutputStream( final OutputStream toWrap ) {
+        this( toWrap, Base64Encoding.MIME );
+    }
+
+    public Base64EncodingOutputStream( final OutputStream toWrap, final Base64Encoding encoding ) {
+        super( toWrap );
+        U.assertNotNull( toWrap, "Cannot wrap a null OutputStream!" );
+        U.assertNotNull( encoding, "Cannot encode without encoding!" );
+        this.encoder = encoding.newEncoder();
+        this.encoded = new byte[encoding.maxEncodedLength( SLICE_SIZE )];
+    }
+
+    public void write( int b ) throws IOException {
+        singleByte[0] = (byte) b;
+        write( singleByte, 0, 1 );
+    }
+
+    public void write( byte[] b, int off, int len ) throws IOException {
+        if ( (off | len | (b.length - (len + off)) | (off + len)) < 0 ) {
+            throw new IndexOutOfBoundsException();
+        }
+        if ( closed ) {
+            throw new IOException( "Stream has been closed!" );
+        }
+        while ( len > 0 ) {
+            final int slice = Math.min( len, SLICE_SIZE );
+            if ( encodedCount + encoder.getEncoding().maxEncodedLength( slice ) > encoded.length ) {
+                flushEncoded();
+            }
+            encodedCount += encoder.encode( b, off, slice, encoded, encodedCount );
+            off += slice;
+            len -= slice;
+        }
+    }
+
+    /**
+     * Passes the data encoded so far to the wrapped stream and flushes it.
+     * <p>
+     * Up to two bytes may still be pending as they cannot be encoded before the next bytes or the end of the data
+     * are known.
+     *
+     * @see java.io.FilterOutputStream#flush()
+     */
+    public void flush() throws IOException {
+        flushEncoded();
+        out.flush();
+    }
+
+    private void flushEncoded() throws IOException {
+        if ( encodedCount > 0 ) {
+            out.write( encoded, 0, encodedCount );
+            encodedCount = 0;
+        }
+    }
+
+    /**
+     * Finishes the encoding and closes the wrapped stream.
+     *
+     * @see java.io.FilterOutputStream#close()
+     */
+    public void close() throws IOException {
+        if ( closed ) {
+            return;
+        }
+        closed = true;
+        try {
+            if ( encodedCount + encoder.getEncoding().maxEncodedLength( 0 ) > encoded.length ) {
+                flushEncoded();
+            }
+            encodedCount += encoder.finish( encoded, encodedCount );
+            flushEncoded();
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+}
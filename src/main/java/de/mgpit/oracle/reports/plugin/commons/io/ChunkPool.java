@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.util.LinkedList;
+
+import de.mgpit.oracle.reports.plugin.commons.Units;
+
+/**
+ * Pool of fixed size byte arrays (<em>chunks</em>).
+ * <p>
+ * Chunks are shared between all buffers of the Reports Server process. A chunk not available in the pool
+ * will be allocated. Released chunks are kept for reuse up to {@link #MAX_POOLED_CHUNKS}, any chunk beyond
+ * this limit is left to the garbage collector.
+ *
+ * @author mgp
+ *
+ */
+public final class ChunkPool {
+    /**
+     * Holds the size of each chunk in bytes.
+     */
+    public static final int CHUNK_SIZE = Units.SIXTYFOUR_KILOBYTE;
+
+    /**
+     * Holds the maximum number of chunks kept in the pool.
+     */
+    public static final int MAX_POOLED_CHUNKS = 256;
+
+    private static final LinkedList POOL = new LinkedList();
+
+    private ChunkPool() {}
+
+    /**
+     * Gets a chunk from the pool.
+     * <p>
+     * The chunk's content is undefined.
+     *
+     * @return chunk of {@link #CHUNK_SIZE} bytes
+     */
+    public static byte[] acquire() {
+        synchronized (POOL) {
+            if ( !POOL.isEmpty() ) {
+                return (byte[]) POOL.removeFirst();
+            }
+        }
+        return new byte[CHUNK_SIZE];
+    }
+
+    /**
+     * Returns a chunk to the pool.
+     * <p>
+     * The chunk must not be used by the caller after having been released. Arrays not being of
+     * {@link #CHUNK_SIZE} will be ignored.
+     *
+     * @param chunk
+     *            chunk to return
+     */
+    public static void release( final byte[] chunk ) {
+        if ( chunk == null || chunk.length != CHUNK_SIZE ) {
+            return;
+        }
+        synchronized (POOL) {
+            if ( POOL.size() < MAX_POOLED_CHUNKS ) {
+                POOL.addLast( chunk );
+            }
+        }
+    }
+
+    /**
+     * Gets the number of chunks currently available for reuse.
+     *
+     * @return number of pooled chunks
+     */
+    public static int available() {
+        synchronized (POOL) {
+            return POOL.size();
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import de.mgpit.oracle.reports.plugin.commons.Magic;
+import de.mgpit.oracle.reports.plugin.commons.U;
+
+/**
+ * An {@code OutputStream} buffering all data written to it for replaying it later.
+ * <p>
+ * The data is kept in chunks taken from the {@link ChunkPool}. If the data exceeds the in memory limit, the
+ * chunks are spilled to a temporary file and from then on only one chunk is held in memory. So heap usage
+ * is bounded by the in memory limit, regardless of the amount of data buffered.
+ * <p>
+ * Usage:
+ * <ol>
+ * <li>write the data</li>
+ * <li>{@link #writeTo(OutputStream) replay} the data (this will close the buffer for writing)</li>
+ * <li>{@link #release() release} the buffer</li>
+ * </ol>
+ *
+ * @author mgp
+ *
+ */
+public class ChunkedBuffer extends OutputStream {
+    private static final Logger LOG = Logger.getLogger( ChunkedBuffer.class );
+
+    private final int inMemoryLimit;
+    private final String spillFilePrefix;
+
+    private final List chunks = new ArrayList();
+    private byte[] current;
+    private int position;
+    private long size;
+
+    private File spillFile;
+    private FileOutputStream spillStream;
+    private FileChannel spillChannel;
+
+    private boolean closed = false;
+    private boolean released = false;
+
+    /**
+     * Creates a new buffer.
+     *
+     * @param inMemoryLimit
+     *            number of bytes to keep in memory before spilling to a temporary file
+     * @param spillFilePrefix
+     *            prefix for the temporary file's name
+     */
+    public ChunkedBuffer( final int inMemoryLimit, final String spillFilePrefix ) {
+        super();
+        U.assertTrue( inMemoryLimit > 0, "In memory limit must be positive!" );
+        U.assertNotNull( spillFilePrefix, "Cannot create spill file without prefix!" );
+        this.inMemoryLimit = inMemoryLimit;
+        this.spillFilePrefix = spillFilePrefix;
+        this.size = 0L;
+    }
+
+    public void write( int b ) throws IOException {
+        ensureWritable();
+        if ( current == null || position == current.length ) {
+            nextChunk();
+        }
+        current[position++] = (byte) b;
+        size++;
+    }
+
+    public void write( byte[] b, int off, int len ) throws IOException {
+        if ( (off | len | (b.length - (len + off)) | (off + len)) < 0 ) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureWritable();
+        while ( len > 0 ) {
+            if ( current == null || position == current.length ) {
+                nextChunk();
+            }
+            final int bytesToCopy = Math.min( len, current.length - position );
+            System.arraycopy( b, off, current, position, bytesToCopy );
+            position += bytesToCopy;
+            off += bytesToCopy;
+            len -= bytesToCopy;
+            size += bytesToCopy;
+        }
+    }
+
+    /**
+     * Gets the number of bytes written to this buffer.
+     *
+     * @return number of bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Answers if the data has been spilled to a temporary file.
+     *
+     * @return {@code true} if the data is held in a file, {@code false} if it is held in memory.
+     */
+    public boolean isSpilled() {
+        return spillChannel != null;
+    }
+
+    /**
+     * Closes this buffer for writing.
+     * <p>
+     * Data still held in memory in spilled mode will be written to the temporary file. The data
+     * buffered will be retained until this buffer is {@link #release() released}.
+     *
+     * @see java.io.OutputStream#close()
+     */
+    public void close() throws IOException {
+        if ( closed ) {
+            return;
+        }
+        closed = true;
+        if ( isSpilled() ) {
+            try {
+                if ( position > 0 ) {
+                    writeFully( new ByteBuffer[] { ByteBuffer.wrap( current, 0, position ) } );
+                    position = 0;
+                }
+            } finally {
+                spillStream.close();
+            }
+        }
+    }
+
+    /**
+     * Replays the data buffered to the destination given.
+     * <p>
+     * Closes this buffer for writing. In memory chunks are passed to the destination as they are, spilled
+     * data is read back chunk-wise through a {@code FileChannel}. Can be called more than once until the buffer
+     * is {@link #release() released}.
+     * <p>
+     * The temporary file is read via a channel rather than a memory mapped buffer, as on Windows a mapped file
+     * cannot be deleted before the mapping has been garbage collected.
+     *
+     * @param destination
+     *            {@code OutputStream} to write to
+     * @throws IOException
+     */
+    public void writeTo( final OutputStream destination ) throws IOException {
+        U.assertNotNull( destination, "Cannot write to null OutputStream!" );
+        if ( released ) {
+            throw new IOException( "Buffer has been released!" );
+        }
+        close();
+        if ( !isSpilled() ) {
+            final int lastChunk = chunks.size() - 1;
+            for ( int i = 0; i <= lastChunk; i++ ) {
+                final byte[] chunk = (byte[]) chunks.get( i );
+                destination.write( chunk, 0, (i == lastChunk) ? position : chunk.length );
+            }
+            return;
+        }
+
+        final FileInputStream source = new FileInputStream( spillFile );
+        try {
+            final FileChannel channel = source.getChannel();
+            final ByteBuffer buffer = ByteBuffer.wrap( current );
+            while ( channel.read( buffer ) != Magic.END_OF_STREAM ) {
+                destination.write( current, 0, buffer.position() );
+                buffer.clear();
+            }
+        } finally {
+            try {
+                source.close();
+            } catch ( IOException ignore ) {}
+        }
+    }
+
+    /**
+     * Releases all resources held by this buffer.
+     * <p>
+     * Returns the chunks to the {@link ChunkPool} and deletes the temporary file. The data buffered
+     * is lost afterwards.
+     */
+    public void release() {
+        if ( released ) {
+            return;
+        }
+        released = true;
+        closed = true;
+        for ( int i = 0; i < chunks.size(); i++ ) {
+            ChunkPool.release( (byte[]) chunks.get( i ) );
+        }
+        chunks.clear();
+        current = null;
+        if ( spillStream != null ) {
+            try {
+                spillStream.close();
+            } catch ( IOException ignore ) {}
+        }
+        if ( spillFile != null ) {
+            try {
+                spillFile.delete();
+            } catch ( Exception ignore ) {}
+        }
+    }
+
+    private void ensureWritable() throws IOException {
+        if ( closed ) {
+            throw new IOException( "Buffer has been closed!" );
+        }
+    }
+
+    /**
+     * Provides an empty chunk for writing.
+     * <p>
+     * In memory a new chunk is taken from the pool. If the in memory limit has been reached all chunks are
+     * spilled to the temporary file. When spilled the current chunk is written to the temporary file and
+     * reused.
+     *
+     * @throws IOException
+     */
+    private void nextChunk() throws IOException {
+        if ( isSpilled() ) {
+            writeFully( new ByteBuffer[] { ByteBuffer.wrap( current, 0, position ) } );
+            position = 0;
+            return;
+        }
+        if ( current != null && ((long) chunks.size()) * ChunkPool.CHUNK_SIZE >= inMemoryLimit ) {
+            spill();
+            return;
+        }
+        current = ChunkPool.acquire();
+        chunks.add( current );
+        position = 0;
+    }
+
+    /**
+     * Writes all chunks with one gathering write to the temporary file and returns all but the current chunk
+     * to the pool.
+     *
+     * @throws IOException
+     */
+    private void spill() throws IOException {
+        LOG.info( "Switching from In Memory Buffer to File Buffer at size " + U.w( size ) );
+        spillFile = File.createTempFile( spillFilePrefix, ".buf" );
+        spillStream = new FileOutputStream( spillFile );
+        spillChannel = spillStream.getChannel();
+
+        final ByteBuffer[] buffers = new ByteBuffer[chunks.size()];
+        for ( int i = 0; i < buffers.length; i++ ) {
+            buffers[i] = ByteBuffer.wrap( (byte[]) chunks.get( i ) );
+        }
+        writeFully( buffers );
+
+        for ( int i = 0; i < chunks.size(); i++ ) {
+            final byte[] chunk = (byte[]) chunks.get( i );
+            if ( chunk != current ) {
+                ChunkPool.release( chunk );
+            }
+        }
+        chunks.clear();
+        chunks.add( current );
+        position = 0;
+    }
+
+    private void writeFully( final ByteBuffer[] buffers ) throws IOException {
+        final ByteBuffer last = buffers[buffers.length - 1];
+        while ( last.hasRemaining() ) {
+            spillChannel.write( buffers );
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import de.mgpit.oracle.reports.plugin.commons.Magic;
+import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.Units;
+
+/**
+ * An {@code InputStream} providing the compressed data of the stream it wraps - either as {@code GZIP} or as raw
+ * {@code DEFLATE}.
+ * <p>
+ * Compresses directly into the caller's buffer. The native resources of the {@code Deflater} are released on
+ * {@link #close()}.
+ *
+ * @author mgp
+ *
+ */
+public class CompressingInputStream extends FilterInputStream {
+    private final Deflater deflater;
+    private final boolean gzip;
+    private final CRC32 crc = new CRC32();
+    private long uncompressedSize = 0L;
+    private final byte[] input = new byte[Units.SIXTYFOUR_KILOBYTE];
+    private boolean endOfInput = false;
+
+    /**
+     * Holds header or trailer bytes still to be served.
+     */
+    private final byte[] frame = new byte[Math.max( Gzip.HEADER_LENGTH, Gzip.TRAILER_LENGTH )];
+    private int framePosition = 0;
+    private int frameLimit = 0;
+    private boolean trailerServed = false;
+    private final byte[] singleByte = new byte[1];
+
+    /**
+     * Creates a compressing stream.
+     *
+     * @param toWrap
+     *            stream providing the data to compress
+     * @param level
+     *            compression level from 0 to 9
+     * @param gzip
+     *            {@code true} for the {@code GZIP} format, {@code false} for raw {@code DEFLATE}
+     */
+    public CompressingInputStream( final InputStream toWrap, final int level, final boolean gzip ) {
+        super( toWrap );
+        U.assertNotNull( toWrap, "Cannot wrap a null InputStream!" );
+        this.deflater = Gzip.newRawDeflater( level );
+        this.gzip = gzip;
+        if ( gzip ) {
+            frameLimit = Gzip.header( frame, 0 );
+        }
+    }
+
+    public int read() throws IOException {
+        final int bytesRead = read( singleByte, 0, 1 );
+        return (bytesRead == Magic.END_OF_STREAM) ? Magic.END_OF_STREAM : (singleByte[0] & 0xFF);
+    }
+
+    public int read( byte[] b, int off, int len ) throws IOException {
+        if ( b == null ) {
+            throw new NullPointerException();
+        } else if ( off < 0 || len < 0 || len > b.length - off ) {
+            throw new IndexOutOfBoundsException();
+        } else if ( len == 0 ) {
+            return 0;
+        }
+        if ( framePosition < frameLimit ) {
+            final int bytesToCopy = Math.min( len, frameLimit - framePosition );
+            System.arraycopy( frame, framePosition, b, off, bytesToCopy );
+            framePosition += bytesToCopy;
+            return bytesToCopy;
+        }
+        while ( !deflater.finished() ) {
+            if ( deflater.needsInput() && !endOfInput ) {
+                fill();
+            }
+            final int compressed = deflater.deflate( b, off, len );
+            if ( compressed > 0 ) {
+                return compressed;
+            }
+        }
+        if ( gzip && !trailerServed ) {
+            trailerServed = true;
+            framePosition = 0;
+            frameLimit = Gzip.trailer( crc, uncompressedSize, frame, 0 );
+            return read( b, off, len );
+        }
+        return Magic.END_OF_STREAM;
+    }
+
+    private void fill() throws IOException {
+        final int bytesRead = in.read( input, 0, input.length );
+        if ( bytesRead == Magic.END_OF_STREAM ) {
+            endOfInput = true;
+            deflater.finish();
+        } else {
+            if ( gzip ) {
+                crc.update( input, 0, bytesRead );
+            }
+            uncompressedSize += bytesRead;
+            deflater.setInput( input, 0, bytesRead );
+        }
+    }
+
+    public long skip( long n ) throws IOException {
+        final byte[] skipped = new byte[(int) Math.min( Units.EIGHT_KILOBYTE, Math.max( n, 0 ) )];
+        long total = 0;
+        while ( total < n ) {
+            final int bytesRead = read( skipped, 0, (int) Math.min( skipped.length, n - total ) );
+            if ( bytesRead == Magic.END_OF_STREAM ) {
+                break;
+            }
+            total += bytesRead;
+        }
+        return total;
+    }
+
+    public int available() throws IOException {
+        return frameLimit - framePosition;
+    }
+
+    public boolean markSupported() {
+        return false;
+    }
+
+    public synchronized void mark( int readlimit ) {}
+
+    public synchronized void reset() throws IOException {
+        throw new IOException( "mark/reset not supported" );
+    }
+
+    /**
+     * Releases the {@code Deflater} and closes the wrapped stream.
+     *
+     * @see java.io.FilterInputStream#close()
+     */
+    public void close() throws IOException {
+        try {
+            deflater.end();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.Units;
+
+/**
+ * An {@code OutputStream} compressing the data written to it - either as {@code GZIP} or as raw {@code DEFLATE}.
+ * <p>
+ * Unlike {@code java.util.zip.GZIPOutputStream} the compression level can be chosen. The native resources of the
+ * {@code Deflater} are released on {@link #close()}.
+ *
+ * @author mgp
+ *
+ */
+public class CompressingOutputStream extends FilterOutputStream {
+    private final Deflater deflater;
+    private final boolean gzip;
+    private final CRC32 crc = new CRC32();
+    private long uncompressedSize = 0L;
+    private final byte[] buffer = new byte[Units.SIXTYFOUR_KILOBYTE];
+    private final byte[] singleByte = new byte[1];
+    private boolean headerWritten = false;
+    private boolean closed = false;
+
+    /**
+     * Creates a compressing stream.
+     *
+     * @param toWrap
+     *            stream to write the compressed data to
+     * @param level
+     *            compression level from 0 to 9
+     * @param gzip
+     *            {@code true} for the {@code GZIP} format, {@code false} for raw {@code DEFLATE}
+     */
+    public CompressingOutputStream( final OutputStream toWrap, final int level, final boolean gzip ) {
+        super( toWrap );
+        U.assertNotNull( toWrap, "Cannot wrap a null OutputStream!" );
+        this.deflater = Gzip.newRawDeflater( level );
+        this.gzip = gzip;
+    }
+
+    public void write( int b ) throws IOException {
+        singleByte[0] = (byte) b;
+        write( singleByte, 0, 1 );
+    }
+
+    public void write( byte[] b, int off, int len ) throws IOException {
+        if ( (off | len | (b.length - (len + off)) | (off + len)) < 0 ) {
+            throw new IndexOutOfBoundsException();
+        }
+        if ( closed ) {
+            throw new IOException( "Stream has been closed!" );
+        }
+        if ( len == 0 ) {
+            return;
+        }
+        ensureHeaderWritten();
+        if ( gzip ) {
+            crc.update( b, off, len );
+        }
+        uncompressedSize += len;
+        deflater.setInput( b, off, len );
+        while ( !deflater.needsInput() ) {
+            deflate();
+        }
+    }
+
+    private void ensureHeaderWritten() throws IOException {
+        if ( !headerWritten ) {
+            headerWritten = true;
+            if ( gzip ) {
+                out.write( buffer, 0, Gzip.header( buffer, 0 ) );
+            }
+        }
+    }
+
+    private void deflate() throws IOException {
+        final int compressed = deflater.deflate( buffer, 0, buffer.length );
+        if ( compressed > 0 ) {
+            out.write( buffer, 0, compressed );
+        }
+    }
+
+    /**
+     * Finishes the compression, writes the trailer and closes the wrapped stream.
+     *
+     * @see java.io.FilterOutputStream#close()
+     */
+    public void close() throws IOException {
+        if ( closed ) {
+            return;
+        }
+        closed = true;
+        try {
+            ensureHeaderWritten();
+            deflater.finish();
+            while ( !deflater.finished() ) {
+                deflate();
+            }
+            if ( gzip ) {
+                out.write( buffer, 0, Gzip.trailer( crc, uncompressedSize, buffer, 0 ) );
+            }
+            out.flush();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@code OutputStream} counting the bytes written to it.
+ * <p>
+ * The bytes are discarded.
+ *
+ * @author mgp
+ *
+ */
+public class CountingOutputStream extends OutputStream {
+    private long count = 0L;
+
+    public void write( int b ) throws IOException {
+        count++;
+    }
+
+    public void write( byte[] b, int off, int len ) throws IOException {
+        if ( (off | len | (b.length - (len + off)) | (off + len)) < 0 ) {
+            throw new IndexOutOfBoundsException();
+        }
+        count += len;
+    }
+
+    /**
+     * Gets the number of bytes written.
+     *
+     * @return number of bytes
+     */
+    public long count() {
+        return count;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Constants and helpers for writing {@code DEFLATE} compressed data in the {@code GZIP} file format (RFC 1952).
+ * <p>
+ * All compressing streams use a raw {@code Deflater}. The {@code GZIP} header and trailer are written around the raw
+ * data.
+ *
+ * @author mgp
+ *
+ */
+public final class Gzip {
+    /**
+     * Holds the header of a {@code GZIP} member without file name, modification time and comment - as written by
+     * {@code java.util.zip.GZIPOutputStream}.
+     */
+    private static final byte[] HEADER = { (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+    public static final int HEADER_LENGTH = HEADER.length;
+    public static final int TRAILER_LENGTH = 8;
+
+    public static final int DEFAULT_LEVEL = 6;
+
+    private Gzip() {
+    }
+
+    /**
+     * Copies the header to the buffer given.
+     *
+     * @param buffer
+     *            destination
+     * @param offset
+     *            offset in the destination
+     * @return number of bytes copied
+     */
+    public static int header( final byte[] buffer, final int offset ) {
+        System.arraycopy( HEADER, 0, buffer, offset, HEADER.length );
+        return HEADER.length;
+    }
+
+    /**
+     * Writes the trailer - the CRC32 and the uncompressed size modulo 2^32, both little endian - to the buffer given.
+     *
+     * @param crc
+     *            checksum of the uncompressed data
+     * @param uncompressedSize
+     *            number of uncompressed bytes
+     * @param buffer
+     *            destination
+     * @param offset
+     *            offset in the destination
+     * @return number of bytes written
+     */
+    public static int trailer( final CRC32 crc, final long uncompressedSize, final byte[] buffer, final int offset ) {
+        writeIntLE( crc.getValue(), buffer, offset );
+        writeIntLE( uncompressedSize, buffer, offset + 4 );
+        return TRAILER_LENGTH;
+    }
+
+    /**
+     * Creates a raw {@code Deflater} - one without {@code ZLIB} header and checksum.
+     *
+     * @param level
+     *            compression level from 0 to 9; any other value gives the {@link #DEFAULT_LEVEL}
+     * @return the deflater
+     */
+    public static Deflater newRawDeflater( final int level ) {
+        return new Deflater( (level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION) ? level : DEFAULT_LEVEL, true );
+    }
+
+    private static void writeIntLE( final long value, final byte[] buffer, final int offset ) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >>> 8);
+        buffer[offset + 2] = (byte) (value >>> 16);
+        buffer[offset + 3] = (byte) (value >>> 24);
+    }
+}
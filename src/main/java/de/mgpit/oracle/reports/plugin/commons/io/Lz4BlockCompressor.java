@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.util.Arrays;
+
+/**
+ * Compresses blocks of up to 64 KB in the {@code LZ4} block format.
+ * <p>
+ * A greedy single pass over the block finding matches of at least 4 bytes via a hash table of the positions of the
+ * last 4 byte sequences seen - like the reference implementation's fast mode. Follows the rules of the format: the
+ * last 5 bytes of a block are literals, the last match starts at least 12 bytes before the end of the block.
+ * <p>
+ * A compressor is not thread safe. Use one compressor per stream.
+ *
+ * @author mgp
+ *
+ */
+public final class Lz4BlockCompressor {
+    public static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MIN_LENGTH = MF_LIMIT + 1;
+    private static final int MAX_OFFSET = 65535;
+    private static final int RUN_MASK = 15;
+    private static final int HASH_LOG = 12;
+    private static final int SKIP_TRIGGER = 6;
+
+    private final int[] positions = new int[1 << HASH_LOG];
+
+    /**
+     * Gets the maximum size of the compressed data for the number of bytes given.
+     *
+     * @param length
+     *            number of bytes to compress
+     * @return maximum size in bytes
+     */
+    public static int maxCompressedLength( final int length ) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses a block.
+     *
+     * @param src
+     *            data to compress
+     * @param off
+     *            offset of the first byte
+     * @param len
+     *            number of bytes; at most {@link #MAX_BLOCK_SIZE}
+     * @param dst
+     *            destination with room for {@link #maxCompressedLength(int) maxCompressedLength(len)} bytes
+     * @param dstOff
+     *            offset in the destination
+     * @return size of the compressed block
+     */
+    public int compress( final byte[] src, final int off, final int len, final byte[] dst, final int dstOff ) {
+        if ( len > MAX_BLOCK_SIZE ) {
+            throw new IllegalArgumentException( "Block of " + len + " bytes exceeds " + MAX_BLOCK_SIZE + " bytes!" );
+        }
+        final int end = off + len;
+        int anchor = off;
+        int position = dstOff;
+
+        if ( len >= MIN_LENGTH ) {
+            Arrays.fill( positions, -1 );
+            final int matchStartLimit = end - MF_LIMIT;
+            final int matchEndLimit = end - LAST_LITERALS;
+            int ip = off;
+            int searchCount = 1 << SKIP_TRIGGER;
+            while ( ip <= matchStartLimit ) {
+                final int sequence = XXHash32.readIntLE( src, ip );
+                final int hash = hash( sequence );
+                int ref = positions[hash];
+                positions[hash] = ip;
+                if ( ref < 0 || ip - ref > MAX_OFFSET || XXHash32.readIntLE( src, ref ) != sequence ) {
+                    // skip faster over data not matching
+                    ip += searchCount++ >>> SKIP_TRIGGER;
+                    continue;
+                }
+                searchCount = 1 << SKIP_TRIGGER;
+
+                int matchStart = ip;
+                while ( matchStart > anchor && ref > off && src[matchStart - 1] == src[ref - 1] ) {
+                    matchStart--;
+                    ref--;
+                }
+                int matchEnd = matchStart + MIN_MATCH;
+                int refEnd = ref + MIN_MATCH;
+                while ( matchEnd < matchEndLimit && src[matchEnd] == src[refEnd] ) {
+                    matchEnd++;
+                    refEnd++;
+                }
+                position = writeSequence( src, anchor, matchStart - anchor, matchStart - ref, matchEnd - matchStart, dst,
+                        position );
+                anchor = matchEnd;
+                ip = matchEnd;
+                if ( ip - 2 <= matchStartLimit ) {
+                    positions[hash( XXHash32.readIntLE( src, ip - 2 ) )] = ip - 2;
+                }
+            }
+        }
+        return writeLastLiterals( src, anchor, end - anchor, dst, position ) - dstOff;
+    }
+
+    private static int hash( final int sequence ) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int writeSequence( final byte[] src, final int literalOff, final int literalLength, final int offset,
+            final int matchLength, final byte[] dst, int position ) {
+        final int tokenPosition = position++;
+        final int matchCode = matchLength - MIN_MATCH;
+        dst[tokenPosition] = (byte) ((Math.min( literalLength, RUN_MASK ) << 4) | Math.min( matchCode, RUN_MASK ));
+        position = writeLength( literalLength, dst, position );
+        System.arraycopy( src, literalOff, dst, position, literalLength );
+        position += literalLength;
+        dst[position++] = (byte) offset;
+        dst[position++] = (byte) (offset >>> 8);
+        return writeLength( matchCode, dst, position );
+    }
+
+    private static int writeLastLiterals( final byte[] src, final int literalOff, final int literalLength, final byte[] dst,
+            int position ) {
+        dst[position++] = (byte) (Math.min( literalLength, RUN_MASK ) << 4);
+        position = writeLength( literalLength, dst, position );
+        System.arraycopy( src, literalOff, dst, position, literalLength );
+        return position + literalLength;
+    }
+
+    /**
+     * Writes the bytes following the token for lengths of 15 and more.
+     */
+    private static int writeLength( final int length, final byte[] dst, int position ) {
+        if ( length >= RUN_MASK ) {
+            int remaining = length - RUN_MASK;
+            while ( remaining >= 255 ) {
+                dst[position++] = (byte) 255;
+                remaining -= 255;
+            }
+            dst[position++] = (byte) remaining;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+/**
+ * Writes the {@code LZ4} frame format.
+ * <p>
+ * Frames have independent blocks of at most 64 KB and a content checksum; neither block checksums nor the content
+ * size are written. Blocks which do not compress are stored uncompressed.
+ * <p>
+ * An encoder is not thread safe. Use one encoder per stream.
+ *
+ * @author mgp
+ *
+ */
+public final class Lz4FrameEncoder {
+    public static final int MAGIC = 0x184D2204;
+    public static final int BLOCK_SIZE = Lz4BlockCompressor.MAX_BLOCK_SIZE;
+    public static final int HEADER_LENGTH = 7;
+    public static final int TRAILER_LENGTH = 8;
+
+    /**
+     * Holds the frame descriptor flags: version 01, independent blocks, content checksum.
+     */
+    private static final byte FLG = 0x64;
+    /**
+     * Holds the block descriptor: maximum block size 64 KB.
+     */
+    private static final byte BD = 0x40;
+    private static final int UNCOMPRESSED_BLOCK = 0x80000000;
+
+    private final Lz4BlockCompressor compressor = new Lz4BlockCompressor();
+    private final XXHash32 contentChecksum = new XXHash32( 0 );
+
+    /**
+     * Gets the maximum number of bytes {@link #encodeBlock(byte[], int, int, byte[], int)} produces.
+     *
+     * @param length
+     *            number of bytes of the block
+     * @return maximum number of bytes produced
+     */
+    public static int maxEncodedBlockLength( final int length ) {
+        return 4 + Lz4BlockCompressor.maxCompressedLength( length );
+    }
+
+    /**
+     * Writes the frame header.
+     *
+     * @param dst
+     *            destination
+     * @param dstOff
+     *            offset in the destination
+     * @return number of bytes written
+     */
+    public int header( final byte[] dst, final int dstOff ) {
+        contentChecksum.reset();
+        writeIntLE( MAGIC, dst, dstOff );
+        dst[dstOff + 4] = FLG;
+        dst[dstOff + 5] = BD;
+        dst[dstOff + 6] = (byte) (XXHash32.hash( dst, dstOff + 4, 2, 0 ) >>> 8);
+        return HEADER_LENGTH;
+    }
+
+    /**
+     * Compresses and writes a block.
+     *
+     * @param src
+     *            data
+     * @param off
+     *            offset of the first byte
+     * @param len
+     *            number of bytes; at most {@link #BLOCK_SIZE}
+     * @param dst
+     *            destination with room for {@link #maxEncodedBlockLength(int) maxEncodedBlockLength(len)} bytes
+     * @param dstOff
+     *            offset in the destination
+     * @return number of bytes written
+     */
+    public int encodeBlock( final byte[] src, final int off, final int len, final byte[] dst, final int dstOff ) {
+        if ( len == 0 ) {
+            return 0;
+        }
+        contentChecksum.update( src, off, len );
+        final int compressedLength = compressor.compress( src, off, len, dst, dstOff + 4 );
+        if ( compressedLength < len ) {
+            writeIntLE( compressedLength, dst, dstOff );
+            return 4 + compressedLength;
+        }
+        writeIntLE( UNCOMPRESSED_BLOCK | len, dst, dstOff );
+        System.arraycopy( src, off, dst, dstOff + 4, len );
+        return 4 + len;
+    }
+
+    /**
+     * Writes the end mark and the content checksum.
+     *
+     * @param dst
+     *            destination
+     * @param dstOff
+     *            offset in the destination
+     * @return number of bytes written
+     */
+    public int finish( final byte[] dst, final int dstOff ) {
+        writeIntLE( 0, dst, dstOff );
+        writeIntLE( contentChecksum.getValue(), dst, dstOff + 4 );
+        return TRAILER_LENGTH;
+    }
+
+    private static void writeIntLE( final int value, final byte[] dst, final int off ) {
+        dst[off] = (byte) value;
+        dst[off + 1] = (byte) (value >>> 8);
+        dst[off + 2] = (byte) (value >>> 16);
+        dst[off + 3] = (byte) (value >>> 24);
+    }
+}
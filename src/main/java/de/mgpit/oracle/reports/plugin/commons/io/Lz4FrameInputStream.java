@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import de.mgpit.oracle.reports.plugin.commons.Magic;
+import de.mgpit.oracle.reports.plugin.commons.U;
+
+/**
+ * An {@code InputStream} providing the data of the stream it wraps compressed into an {@code LZ4} frame.
+ * <p>
+ * Reads the wrapped stream block by block and compresses each block at once.
+ *
+ * @see Lz4FrameEncoder
+ *
+ * @author mgp
+ *
+ */
+public class Lz4FrameInputStream extends FilterInputStream {
+    private final Lz4FrameEncoder encoder = new Lz4FrameEncoder();
+    private final byte[] block = new byte[Lz4FrameEncoder.BLOCK_SIZE];
+    private final byte[] encoded = new byte[Lz4FrameEncoder.maxEncodedBlockLength( Lz4FrameEncoder.BLOCK_SIZE )];
+    private int encodedPosition = 0;
+    private int encodedLimit = 0;
+    private boolean endOfInput = false;
+    private final byte[] singleByte = new byte[1];
+
+    public Lz4FrameInputStream( final InputStream toWrap ) {
+        super( toWrap );
+        U.assertNotNull( toWrap, "Cannot wrap a null InputStream!" );
+        encodedLimit = encoder.header( encoded, 0 );
+    }
+
+    public int read() throws IOException {
+        final int bytesRead = read( singleByte, 0, 1 );
+        return (bytesRead == Magic.END_OF_STREAM) ? Magic.END_OF_STREAM : (singleByte[0] & 0xFF);
+    }
+
+    public int read( byte[] b, int off, int len ) throws IOException {
+        if ( b == null ) {
+            throw new NullPointerException();
+        } else if ( off < 0 || len < 0 || len > b.length - off ) {
+            throw new IndexOutOfBoundsException();
+        } else if ( len == 0 ) {
+            return 0;
+        }
+        while ( encodedPosition == encodedLimit ) {
+            if ( endOfInput ) {
+                return Magic.END_OF_STREAM;
+            }
+            fill();
+        }
+        final int bytesToCopy = Math.min( len, encodedLimit - encodedPosition );
+        System.arraycopy( encoded, encodedPosition, b, off, bytesToCopy );
+        encodedPosition += bytesToCopy;
+        return bytesToCopy;
+    }
+
+    /**
+     * Reads the next block from the wrapped stream and compresses it. Ends the frame at the end of the wrapped stream.
+     *
+     * @throws IOException
+     */
+    private void fill() throws IOException {
+        int blockLength = 0;
+        while ( blockLength < block.length ) {
+            final int bytesRead = in.read( block, blockLength, block.length - blockLength );
+            if ( bytesRead == Magic.END_OF_STREAM ) {
+                endOfInput = true;
+                break;
+            }
+            blockLength += bytesRead;
+        }
+        encodedPosition = 0;
+        encodedLimit = encoder.encodeBlock( block, 0, blockLength, encoded, 0 );
+        if ( endOfInput ) {
+            encodedLimit += encoder.finish( encoded, encodedLimit );
+        }
+    }
+
+    public long skip( long n ) throws IOException {
+        long skipped = 0;
+        while ( skipped < n ) {
+            final int bytesRead = read( block, 0, (int) Math.min( block.length, n - skipped ) );
+            if ( bytesRead == Magic.END_OF_STREAM ) {
+                break;
+            }
+            skipped += bytesRead;
+        }
+        return skipped;
+    }
+
+    public int available() throws IOException {
+        return encodedLimit - encodedPosition;
+    }
+
+    public boolean markSupported() {
+        return false;
+    }
+
+    public synchronized void mark( int readlimit ) {}
+
+    public synchronized void reset() throws IOException {
+        throw new IOException( "mark/reset not supported" );
+    }
+}
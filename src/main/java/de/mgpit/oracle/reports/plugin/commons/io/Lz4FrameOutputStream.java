@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import de.mgpit.oracle.reports.plugin.commons.U;
+
+/**
+ * An {@code OutputStream} compressing the data written to it into an {@code LZ4} frame.
+ *
+ * @see Lz4FrameEncoder
+ *
+ * @author mgp
+ *
+ */
+public class Lz4FrameOutputStream extends FilterOutputStream {
+    private final Lz4FrameEncoder encoder = new Lz4FrameEncoder();
+    private final byte[] block = new byte[Lz4FrameEncoder.BLOCK_SIZE];
+    private int blockLength = 0;
+    private final byte[] encoded = new byte[Lz4FrameEncoder.maxEncodedBlockLength( Lz4FrameEncoder.BLOCK_SIZE )];
+    private final byte[] singleByte = new byte[1];
+    private boolean headerWritten = false;
+    private boolean closed = false;
+
+    public Lz4FrameOutputStream( final OutputStream toWrap ) {
+        super( toWrap );
+        U.assertNotNull( toWrap, "Cannot wrap a null OutputStream!" );
+    }
+
+    public void write( int b ) throws IOException {
+        singleByte[0] = (byte) b;
+        write( singleByte, 0, 1 );
+    }
+
+    public void write( byte[] b, int off, int len ) throws IOException {
+        if ( (off | len | (b.length - (len + off)) | (off + len)) < 0 ) {
+            throw new IndexOutOfBoundsException();
+        }
+        if ( closed ) {
+            throw new IOException( "Stream has been closed!" );
+        }
+        ensureHeaderWritten();
+        while ( len > 0 ) {
+            if ( blockLength == 0 && len >= block.length ) {
+                // compress straight from the caller's buffer
+                writeBlock( b, off, block.length );
+                off += block.length;
+                len -= block.length;
+                continue;
+            }
+            final int bytesToCopy = Math.min( len, block.length - blockLength );
+            System.arraycopy( b, off, block, blockLength, bytesToCopy );
+            blockLength += bytesToCopy;
+            off += bytesToCopy;
+            len -= bytesToCopy;
+            if ( blockLength == block.length ) {
+                writeBlock( block, 0, blockLength );
+                blockLength = 0;
+            }
+        }
+    }
+
+    private void ensureHeaderWritten() throws IOException {
+        if ( !headerWritten ) {
+            headerWritten = true;
+            out.write( encoded, 0, encoder.header( encoded, 0 ) );
+        }
+    }
+
+    private void writeBlock( final byte[] b, final int off, final int len ) throws IOException {
+        out.write( encoded, 0, encoder.encodeBlock( b, off, len, encoded, 0 ) );
+    }
+
+    /**
+     * Writes the data collected so far as a block and flushes the wrapped stream.
+     *
+     * @see java.io.FilterOutputStream#flush()
+     */
+    public void flush() throws IOException {
+        if ( !closed && blockLength > 0 ) {
+            ensureHeaderWritten();
+            writeBlock( block, 0, blockLength );
+            blockLength = 0;
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the last block and the end of the frame and closes the wrapped stream.
+     *
+     * @see java.io.FilterOutputStream#close()
+     */
+    public void close() throws IOException {
+        if ( closed ) {
+            return;
+        }
+        try {
+            ensureHeaderWritten();
+            if ( blockLength > 0 ) {
+                writeBlock( block, 0, blockLength );
+                blockLength = 0;
+            }
+            out.write( encoded, 0, encoder.finish( encoded, 0 ) );
+            out.flush();
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+
+import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.Units;
+import de.mgpit.oracle.reports.plugin.commons.concurrent.Job;
+import de.mgpit.oracle.reports.plugin.commons.concurrent.WorkerPool;
+
+/**
+ * An {@code OutputStream} BASE64 encoding the data written to it using several threads.
+ * <p>
+ * The data is collected in blocks holding whole lines of the encoded output - or whole 3 byte groups if the encoding
+ * has no line breaks. So each block can be encoded on its own by a {@link WorkerPool} worker. The encoded blocks are
+ * written to the wrapped stream in the order the data has been written. At most two blocks per worker are in flight;
+ * writing blocks once this limit is reached waits for the oldest block to be encoded.
+ * <p>
+ * Produces the same output as {@link Base64EncodingOutputStream}.
+ *
+ * @author mgp
+ *
+ */
+public class ParallelBase64EncodingOutputStream extends FilterOutputStream {
+    /**
+     * Holds the approximate number of bytes per block.
+     */
+    private static final int BLOCK_SIZE = 3 * Units.SIXTYFOUR_KILOBYTE;
+
+    private final Base64Encoding encoding;
+    private final WorkerPool pool;
+    private final int blockSize;
+    private final int maxBlocksInFlight;
+    private final LinkedList blocksInFlight = new LinkedList();
+    private final LinkedList freeBlocks = new LinkedList();
+    private EncodingBlock current = null;
+    private final byte[] singleByte = new byte[1];
+    private boolean closed = false;
+
+    public ParallelBase64EncodingOutputStream( final OutputStream toWrap, final Base64Encoding encoding ) {
+        this( toWrap, encoding, WorkerPool.shared() );
+    }
+
+    public ParallelBase64EncodingOutputStream( final OutputStream toWrap, final Base64Encoding encoding, final WorkerPool pool ) {
+        super( toWrap );
+        U.assertNotNull( toWrap, "Cannot wrap a null OutputStream!" );
+        U.assertNotNull( encoding, "Cannot encode without encoding!" );
+        U.assertNotNull( pool, "Cannot encode without WorkerPool!" );
+        this.encoding = encoding;
+        this.pool = pool;
+        final int bytesPerLine = encoding.hasLineBreaks() ? (encoding.lineLength() / 4) * 3 : 3;
+        this.blockSize = Math.max( 1, BLOCK_SIZE / bytesPerLine ) * bytesPerLine;
+        this.maxBlocksInFlight = 2 * pool.size();
+    }
+
+    public void write( int b ) throws IOException {
+        singleByte[0] = (byte) b;
+        write( singleByte, 0, 1 );
+    }
+
+    public void write( byte[] b, int off, int len ) throws IOException {
+        if ( (off | len | (b.length - (len + off)) | (off + len)) < 0 ) {
+            throw new IndexOutOfBoundsException();
+        }
+        if ( closed ) {
+            throw new IOException( "Stream has been closed!" );
+        }
+        while ( len > 0 ) {
+            if ( current == null ) {
+                current = obtainBlock();
+            }
+            final int bytesToCopy = Math.min( len, blockSize - current.length );
+            System.arraycopy( b, off, current.input, current.length, bytesToCopy );
+            current.length += bytesToCopy;
+            off += bytesToCopy;
+            len -= bytesToCopy;
+            if ( current.length == blockSize ) {
+                submit( current );
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * Writes all blocks submitted so far to the wrapped stream and flushes it.
+     * <p>
+     * The data of the block not yet complete is kept as it cannot be encoded before the block is full or the stream
+     * is closed.
+     *
+     * @see java.io.FilterOutputStream#flush()
+     */
+    public void flush() throws IOException {
+        while ( !blocksInFlight.isEmpty() ) {
+            writeOldestBlock();
+        }
+        out.flush();
+    }
+
+    /**
+     * Encodes the last block, writes all blocks to the wrapped stream and closes it.
+     *
+     * @see java.io.FilterOutputStream#close()
+     */
+    public void close() throws IOException {
+        if ( closed ) {
+            return;
+        }
+        closed = true;
+        try {
+            if ( current != null && current.length > 0 ) {
+                submit( current );
+            }
+            current = null;
+            while ( !blocksInFlight.isEmpty() ) {
+                writeOldestBlock();
+            }
+            out.flush();
+        } finally {
+            freeBlocks.clear();
+            out.close();
+        }
+    }
+
+    private EncodingBlock obtainBlock() {
+        if ( !freeBlocks.isEmpty() ) {
+            return (EncodingBlock) freeBlocks.removeFirst();
+        }
+        return new EncodingBlock( blockSize, encoding );
+    }
+
+    private void submit( final EncodingBlock block ) throws IOException {
+        if ( blocksInFlight.size() >= maxBlocksInFlight ) {
+            writeOldestBlock();
+        }
+        block.prepare();
+        blocksInFlight.addLast( block );
+        pool.execute( block );
+    }
+
+    private void writeOldestBlock() throws IOException {
+        final EncodingBlock block = (EncodingBlock) blocksInFlight.removeFirst();
+        try {
+            block.await();
+        } catch ( InterruptedException interrupted ) {
+            throw new InterruptedIOException( "Interrupted while waiting for BASE64 encoding!" );
+        } catch ( IOException ioException ) {
+            throw ioException;
+        } catch ( Exception any ) {
+            final IOException failed = new IOException( "BASE64 encoding failed!" );
+            failed.initCause( any );
+            throw failed;
+        }
+        out.write( block.output, 0, block.outputLength );
+        block.length = 0;
+        freeBlocks.addLast( block );
+    }
+
+    /**
+     * A block of data encoded on its own.
+     */
+    private static final class EncodingBlock extends Job {
+        private final byte[] input;
+        private int length = 0;
+        private final byte[] output;
+        private int outputLength = 0;
+        private final Base64Encoder encoder;
+
+        EncodingBlock( final int blockSize, final Base64Encoding encoding ) {
+            this.input = new byte[blockSize];
+            this.output = new byte[encoding.maxEncodedLength( blockSize )];
+            this.encoder = encoding.newEncoder();
+        }
+
+        void prepare() {
+            reset();
+            outputLength = 0;
+        }
+
+        /**
+         * Encodes the block. As the block holds whole lines finishing the encoding terminates the last line - exactly
+         * like continuing to encode would do.
+         */
+        protected void compute() {
+            int position = encoder.encode( input, 0, length, output, 0 );
+            position += encoder.finish( output, position );
+            outputLength = position;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.Units;
+import de.mgpit.oracle.reports.plugin.commons.concurrent.Job;
+import de.mgpit.oracle.reports.plugin.commons.concurrent.WorkerPool;
+
+/**
+ * An {@code OutputStream} compressing the data written to it as {@code GZIP} using several threads.
+ * <p>
+ * The data is collected in blocks. Each block is compressed on its own by a {@link WorkerPool} worker into a complete
+ * {@code GZIP} member. The members are written to the wrapped stream in the order the data has been written. A
+ * sequence of members is a valid {@code GZIP} stream (RFC 1952, section 2.2) - {@code gunzip} and other decompressors
+ * yield the concatenated data.
+ * <p>
+ * At most two blocks per worker are in flight; writing blocks once this limit is reached waits for the oldest block to
+ * be compressed.
+ *
+ * @author mgp
+ *
+ */
+public class ParallelGzipOutputStream extends FilterOutputStream {
+    /**
+     * Holds the number of uncompressed bytes per block - as {@code pigz} does.
+     */
+    public static final int BLOCK_SIZE = 2 * Units.SIXTYFOUR_KILOBYTE;
+
+    private final int level;
+    private final WorkerPool pool;
+    private final int maxBlocksInFlight;
+    private final LinkedList blocksInFlight = new LinkedList();
+    private final LinkedList freeBlocks = new LinkedList();
+    private MemberBlock current = null;
+    private final byte[] singleByte = new byte[1];
+    private boolean anyBlockWritten = false;
+    private boolean closed = false;
+
+    public ParallelGzipOutputStream( final OutputStream toWrap, final int level ) {
+        this( toWrap, level, WorkerPool.shared() );
+    }
+
+    public ParallelGzipOutputStream( final OutputStream toWrap, final int level, final WorkerPool pool ) {
+        super( toWrap );
+        U.assertNotNull( toWrap, "Cannot wrap a null OutputStream!" );
+        U.assertNotNull( pool, "Cannot compress without WorkerPool!" );
+        this.level = level;
+        this.pool = pool;
+        this.maxBlocksInFlight = 2 * pool.size();
+    }
+
+    public void write( int b ) throws IOException {
+        singleByte[0] = (byte) b;
+        write( singleByte, 0, 1 );
+    }
+
+    public void write( byte[] b, int off, int len ) throws IOException {
+        if ( (off | len | (b.length - (len + off)) | (off + len)) < 0 ) {
+            throw new IndexOutOfBoundsException();
+        }
+        if ( closed ) {
+            throw new IOException( "Stream has been closed!" );
+        }
+        while ( len > 0 ) {
+            if ( current == null ) {
+                current = obtainBlock();
+            }
+            final int bytesToCopy = Math.min( len, BLOCK_SIZE - current.length );
+            System.arraycopy( b, off, current.input, current.length, bytesToCopy );
+            current.length += bytesToCopy;
+            off += bytesToCopy;
+            len -= bytesToCopy;
+            if ( current.length == BLOCK_SIZE ) {
+                submit( current );
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * Writes all blocks submitted so far to the wrapped stream and flushes it.
+     * <p>
+     * The data of the block not yet complete is kept.
+     *
+     * @see java.io.FilterOutputStream#flush()
+     */
+    public void flush() throws IOException {
+        while ( !blocksInFlight.isEmpty() ) {
+            writeOldestBlock();
+        }
+        out.flush();
+    }
+
+    /**
+     * Compresses the last block, writes all members to the wrapped stream and closes it.
+     * <p>
+     * Empty data gives a single empty member.
+     *
+     * @see java.io.FilterOutputStream#close()
+     */
+    public void close() throws IOException {
+        if ( closed ) {
+            return;
+        }
+        closed = true;
+        try {
+            if ( current == null && !anyBlockWritten && blocksInFlight.isEmpty() ) {
+                current = obtainBlock();
+            }
+            if ( current != null && (current.length > 0 || !anyBlockWritten) ) {
+                submit( current );
+            }
+            current = null;
+            while ( !blocksInFlight.isEmpty() ) {
+                writeOldestBlock();
+            }
+            out.flush();
+        } finally {
+            releaseBlocks();
+            out.close();
+        }
+    }
+
+    private MemberBlock obtainBlock() {
+        if ( !freeBlocks.isEmpty() ) {
+            return (MemberBlock) freeBlocks.removeFirst();
+        }
+        return new MemberBlock( level );
+    }
+
+    private void submit( final MemberBlock block ) throws IOException {
+        if ( blocksInFlight.size() >= maxBlocksInFlight ) {
+            writeOldestBlock();
+        }
+        block.prepare();
+        blocksInFlight.addLast( block );
+        anyBlockWritten = true;
+        pool.execute( block );
+    }
+
+    private void writeOldestBlock() throws IOException {
+        final MemberBlock block = (MemberBlock) blocksInFlight.removeFirst();
+        awaitCompression( block );
+        out.write( block.output, 0, block.outputLength );
+        block.length = 0;
+        freeBlocks.addLast( block );
+    }
+
+    private static void awaitCompression( final MemberBlock block ) throws IOException {
+        try {
+            block.await();
+        } catch ( InterruptedException interrupted ) {
+            throw new InterruptedIOException( "Interrupted while waiting for compression!" );
+        } catch ( IOException ioException ) {
+            throw ioException;
+        } catch ( Exception any ) {
+            final IOException failed = new IOException( "Compression failed!" );
+            failed.initCause( any );
+            throw failed;
+        }
+    }
+
+    /**
+     * Releases the {@code Deflater}s. Blocks possibly still being compressed after a failure are waited for.
+     */
+    private void releaseBlocks() {
+        for ( Iterator blocks = blocksInFlight.iterator(); blocks.hasNext(); ) {
+            final MemberBlock block = (MemberBlock) blocks.next();
+            try {
+                awaitCompression( block );
+            } catch ( IOException ignore ) {}
+            block.end();
+        }
+        blocksInFlight.clear();
+        for ( Iterator blocks = freeBlocks.iterator(); blocks.hasNext(); ) {
+            ((MemberBlock) blocks.next()).end();
+        }
+        freeBlocks.clear();
+        if ( current != null ) {
+            current.end();
+            current = null;
+        }
+    }
+
+    /**
+     * A block of data compressed into a {@code GZIP} member on its own.
+     */
+    private static final class MemberBlock extends Job {
+        private final byte[] input = new byte[BLOCK_SIZE];
+        private int length = 0;
+        private byte[] output = new byte[BLOCK_SIZE + BLOCK_SIZE / 8];
+        private int outputLength = 0;
+        private final Deflater deflater;
+        private final CRC32 crc = new CRC32();
+
+        MemberBlock( final int level ) {
+            this.deflater = Gzip.newRawDeflater( level );
+        }
+
+        void prepare() {
+            reset();
+            outputLength = 0;
+        }
+
+        protected void compute() {
+            deflater.reset();
+            crc.reset();
+            crc.update( input, 0, length );
+            int position = Gzip.header( output, 0 );
+            deflater.setInput( input, 0, length );
+            deflater.finish();
+            while ( !deflater.finished() ) {
+                if ( position == output.length ) {
+                    grow();
+                }
+                position += deflater.deflate( output, position, output.length - position );
+            }
+            if ( output.length - position < Gzip.TRAILER_LENGTH ) {
+                grow();
+            }
+            position += Gzip.trailer( crc, length, output, position );
+            outputLength = position;
+        }
+
+        private void grow() {
+            final byte[] larger = new byte[output.length + output.length / 2];
+            System.arraycopy( output, 0, larger, 0, output.length );
+            output = larger;
+        }
+
+        void end() {
+            deflater.end();
+        }
+    }
+}
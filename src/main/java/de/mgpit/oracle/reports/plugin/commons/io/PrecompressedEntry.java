@@ -0,0 +1,263 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import de.mgpit.oracle.reports.plugin.commons.Magic;
+import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.Units;
+import de.mgpit.oracle.reports.plugin.commons.concurrent.Job;
+
+/**
+ * A ZIP entry deflated ahead of writing - e.g. by a {@link de.mgpit.oracle.reports.plugin.commons.concurrent.WorkerPool
+ * WorkerPool} worker.
+ * <p>
+ * Running the job reads the content to its end, closes it and deflates it into a temporary file - or copies it if
+ * the compression level is {@link ZipCompressionPolicy#STORED} or probing decides so. CRC and sizes are
+ * known afterwards, so {@link ZipWriter#writePrecompressedEntry(PrecompressedEntry)} writes the entry without a data
+ * descriptor by copying the temporary file. The temporary file is deleted once written or {@link #discard()
+ * discarded}.
+ *
+ * @author mgp
+ *
+ */
+public final class PrecompressedEntry extends Job {
+    private final String name;
+    private final long time;
+    private final String comment;
+    private final InputStream content;
+    private final int compressionLevel;
+    private final int deflateLevel;
+    private final File directory;
+
+    private File deflatedFile;
+    private long crc;
+    private long size;
+    private long compressedSize;
+    private boolean stored;
+
+    /**
+     * Creates the entry.
+     *
+     * @param name
+     *            name of the entry
+     * @param time
+     *            modification time of the entry
+     * @param comment
+     *            comment of the entry; may be {@code null}
+     * @param content
+     *            the content; will be closed
+     * @param compressionLevel
+     *            {@link ZipCompressionPolicy#STORED}, {@link ZipCompressionPolicy#PROBE} or a {@code Deflater} level
+     * @param deflateLevel
+     *            {@code Deflater} level of the archive - used if probing decides to deflate
+     * @param directory
+     *            directory for the temporary file; {@code null} for the default temporary directory
+     */
+    public PrecompressedEntry( final String name, final long time, final String comment, final InputStream content,
+            final int compressionLevel, final int deflateLevel, final File directory ) {
+        U.assertNotEmpty( name, "Entry name must not be empty!" );
+        U.assertNotNull( content, "Content must not be null!" );
+        this.name = name;
+        this.time = time;
+        this.comment = comment;
+        this.content = content;
+        this.compressionLevel = compressionLevel;
+        this.deflateLevel = deflateLevel;
+        this.directory = directory;
+    }
+
+    protected void compute() throws Exception {
+        InputStream content = this.content;
+        try {
+            final File file = File.createTempFile( "zipentry", ".deflated", directory );
+            synchronized (this) {
+                deflatedFile = file;
+            }
+            int level = compressionLevel;
+            if ( level == ZipCompressionPolicy.PROBE ) {
+                final ZipCompressionPolicy.Probe probe = ZipCompressionPolicy.probe( content, deflateLevel );
+                content = probe.content();
+                level = probe.level();
+            }
+            if ( level == ZipCompressionPolicy.STORED ) {
+                copy( file, content );
+            } else {
+                deflate( file, content, level );
+            }
+        } finally {
+            content.close();
+        }
+    }
+
+    private void deflate( final File file, final InputStream content, final int level ) throws IOException {
+        final byte[] input = new byte[64 * Units.ONE_KILOBYTE];
+        final byte[] deflated = new byte[64 * Units.ONE_KILOBYTE];
+        final CRC32 checksum = new CRC32();
+        final Deflater deflater = new Deflater( level, true );
+        final FileOutputStream out = new FileOutputStream( file );
+        long bytesIn = 0L;
+        long bytesOut = 0L;
+        try {
+            int bytesRead;
+            while ( (bytesRead = content.read( input, 0, input.length )) != Magic.END_OF_STREAM ) {
+                checksum.update( input, 0, bytesRead );
+                bytesIn += bytesRead;
+                deflater.setInput( input, 0, bytesRead );
+                while ( !deflater.needsInput() ) {
+                    final int length = deflater.deflate( deflated, 0, deflated.length );
+                    out.write( deflated, 0, length );
+                    bytesOut += length;
+                }
+            }
+            deflater.finish();
+            while ( !deflater.finished() ) {
+                final int length = deflater.deflate( deflated, 0, deflated.length );
+                out.write( deflated, 0, length );
+                bytesOut += length;
+            }
+        } finally {
+            deflater.end();
+            out.close();
+        }
+        synchronized (this) {
+            crc = checksum.getValue();
+            size = bytesIn;
+            compressedSize = bytesOut;
+        }
+    }
+
+    private void copy( final File file, final InputStream content ) throws IOException {
+        final byte[] input = new byte[64 * Units.ONE_KILOBYTE];
+        final CRC32 checksum = new CRC32();
+        final FileOutputStream out = new FileOutputStream( file );
+        long bytesIn = 0L;
+        try {
+            int bytesRead;
+            while ( (bytesRead = content.read( input, 0, input.length )) != Magic.END_OF_STREAM ) {
+                checksum.update( input, 0, bytesRead );
+                out.write( input, 0, bytesRead );
+                bytesIn += bytesRead;
+            }
+        } finally {
+            out.close();
+        }
+        synchronized (this) {
+            crc = checksum.getValue();
+            size = bytesIn;
+            compressedSize = bytesIn;
+            stored = true;
+        }
+    }
+
+    /**
+     * Deletes the temporary file. Waits for the job if it is still running.
+     */
+    public void discard() {
+        try {
+            await();
+        } catch ( Exception ignored ) {
+            // the temporary file is deleted anyway
+        }
+        synchronized (this) {
+            if ( deflatedFile != null ) {
+                deflatedFile.delete();
+                deflatedFile = null;
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    long getTime() {
+        return time;
+    }
+
+    String getComment() {
+        return comment;
+    }
+
+    synchronized long getCrc() {
+        return crc;
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    synchronized long getCompressedSize() {
+        return compressedSize;
+    }
+
+    /**
+     * Gets if the entry is stored as is.
+     *
+     * @return {@code true} if stored, {@code false} if deflated
+     */
+    public synchronized boolean isStored() {
+        return stored;
+    }
+
+    /**
+     * Copies the deflated data to the channel given.
+     *
+     * @param target
+     *            channel to copy to
+     * @throws IOException
+     */
+    void transferTo( final FileChannel target ) throws IOException {
+        final File file;
+        synchronized (this) {
+            file = deflatedFile;
+        }
+        if ( file == null ) {
+            throw new IOException( "Entry " + U.w( name ) + " has not been compressed or has been discarded!" );
+        }
+        final RandomAccessFile source = new RandomAccessFile( file, "r" );
+        try {
+            final FileChannel channel = source.getChannel();
+            long transferred = 0L;
+            while ( transferred < compressedSize ) {
+                final long count = channel.transferTo( transferred, compressedSize - transferred, target );
+                if ( count <= 0 ) {
+                    throw new IOException( "Cannot copy entry " + U.w( name ) + " - unexpected end of " + file );
+                }
+                transferred += count;
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    public String toString() {
+        return "PrecompressedEntry " + name;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+/**
+ * The 32 bit {@code xxHash} checksum as used by the {@code LZ4} frame format.
+ * <p>
+ * Can be computed at once with {@link #hash(byte[], int, int, int)} or over data passed in pieces with
+ * {@link #update(byte[], int, int)} and {@link #getValue()}.
+ *
+ * @author mgp
+ *
+ */
+public final class XXHash32 {
+    private static final int PRIME1 = 0x9E3779B1;
+    private static final int PRIME2 = 0x85EBCA77;
+    private static final int PRIME3 = 0xC2B2AE3D;
+    private static final int PRIME4 = 0x27D4EB2F;
+    private static final int PRIME5 = 0x165667B1;
+
+    private final int seed;
+    private int v1;
+    private int v2;
+    private int v3;
+    private int v4;
+    private long totalLength;
+    /**
+     * Holds the bytes not yet forming a complete 16 byte stripe.
+     */
+    private final byte[] stripe = new byte[16];
+    private int stripeCount;
+
+    public XXHash32( final int seed ) {
+        this.seed = seed;
+        reset();
+    }
+
+    public void reset() {
+        v1 = seed + PRIME1 + PRIME2;
+        v2 = seed + PRIME2;
+        v3 = seed;
+        v4 = seed - PRIME1;
+        totalLength = 0L;
+        stripeCount = 0;
+    }
+
+    public void update( final byte[] b, int off, int len ) {
+        totalLength += len;
+        if ( stripeCount > 0 ) {
+            final int bytesToCopy = Math.min( len, 16 - stripeCount );
+            System.arraycopy( b, off, stripe, stripeCount, bytesToCopy );
+            stripeCount += bytesToCopy;
+            off += bytesToCopy;
+            len -= bytesToCopy;
+            if ( stripeCount < 16 ) {
+                return;
+            }
+            processStripes( stripe, 0, 16 );
+            stripeCount = 0;
+        }
+        final int whole = len & ~15;
+        processStripes( b, off, whole );
+        System.arraycopy( b, off + whole, stripe, 0, len - whole );
+        stripeCount = len - whole;
+    }
+
+    private void processStripes( final byte[] b, int off, final int len ) {
+        final int end = off + len;
+        int a1 = v1, a2 = v2, a3 = v3, a4 = v4;
+        while ( off < end ) {
+            a1 = rotl( a1 + readIntLE( b, off ) * PRIME2, 13 ) * PRIME1;
+            a2 = rotl( a2 + readIntLE( b, off + 4 ) * PRIME2, 13 ) * PRIME1;
+            a3 = rotl( a3 + readIntLE( b, off + 8 ) * PRIME2, 13 ) * PRIME1;
+            a4 = rotl( a4 + readIntLE( b, off + 12 ) * PRIME2, 13 ) * PRIME1;
+            off += 16;
+        }
+        v1 = a1;
+        v2 = a2;
+        v3 = a3;
+        v4 = a4;
+    }
+
+    /**
+     * Gets the checksum of the data passed so far.
+     *
+     * @return the checksum
+     */
+    public int getValue() {
+        int h;
+        if ( totalLength >= 16 ) {
+            h = rotl( v1, 1 ) + rotl( v2, 7 ) + rotl( v3, 12 )
+                    + rotl( v4, 18 );
+        } else {
+            h = seed + PRIME5;
+        }
+        h += (int) totalLength;
+        return finish( h, stripe, 0, stripeCount );
+    }
+
+    /**
+     * Computes the checksum of the data given.
+     *
+     * @param b
+     *            data
+     * @param off
+     *            offset of the first byte
+     * @param len
+     *            number of bytes
+     * @param seed
+     *            seed
+     * @return the checksum
+     */
+    public static int hash( final byte[] b, final int off, final int len, final int seed ) {
+        final XXHash32 xxHash = new XXHash32( seed );
+        xxHash.update( b, off, len );
+        return xxHash.getValue();
+    }
+
+    private static int finish( int h, final byte[] b, int off, final int len ) {
+        final int end = off + len;
+        while ( off + 4 <= end ) {
+            h = rotl( h + readIntLE( b, off ) * PRIME3, 17 ) * PRIME4;
+            off += 4;
+        }
+        while ( off < end ) {
+            h = rotl( h + (b[off] & 0xFF) * PRIME5, 11 ) * PRIME1;
+            off++;
+        }
+        h ^= h >>> 15;
+        h *= PRIME2;
+        h ^= h >>> 13;
+        h *= PRIME3;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int rotl( final int value, final int distance ) {
+        return (value << distance) | (value >>> (32 - distance));
+    }
+
+    static int readIntLE( final byte[] b, final int off ) {
+        return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8) | ((b[off + 2] & 0xFF) << 16) | ((b[off + 3] & 0xFF) << 24);
+    }
+}
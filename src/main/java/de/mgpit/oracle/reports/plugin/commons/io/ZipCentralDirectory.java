@@ -0,0 +1,296 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The central directory of a ZIP file.
+ * <p>
+ * Reads the entries' metadata only - no content is inflated. Together with the {@link ZipWriter} this allows
+ * copying entries from one archive to another in their compressed form.
+ * <p>
+ * ZIP64 archives and archives spanning multiple disks are not supported.
+ *
+ * @author mgp
+ *
+ */
+public final class ZipCentralDirectory {
+
+    static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+    static final int CENTRAL_DIRECTORY_HEADER_LENGTH = 46;
+    static final int MAX_COMMENT_LENGTH = 0xFFFF;
+    static final int UTF8_FLAG = 0x0800;
+
+    private final List entries;
+    private final long offset;
+    private final long length;
+
+    private ZipCentralDirectory( final List entries, final long offset, final long length ) {
+        this.entries = entries;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Reads the central directory of the ZIP file given.
+     *
+     * @param channel
+     *            channel on the ZIP file
+     * @return the central directory
+     * @throws IOException
+     *             if the file is not a ZIP file or cannot be read
+     */
+    public static ZipCentralDirectory read( final FileChannel channel ) throws IOException {
+        final long fileLength = channel.size();
+        final int tailLength = (int) Math.min( fileLength, END_OF_CENTRAL_DIRECTORY_LENGTH + MAX_COMMENT_LENGTH );
+        final ByteBuffer tail = readFully( channel, fileLength - tailLength, tailLength );
+        int end = -1;
+        for ( int i = tailLength - END_OF_CENTRAL_DIRECTORY_LENGTH; i >= 0; i-- ) {
+            if ( tail.getInt( i ) == END_OF_CENTRAL_DIRECTORY_SIGNATURE ) {
+                end = i;
+                break;
+            }
+        }
+        if ( end < 0 ) {
+            throw new IOException( "Not a ZIP file - end of central directory not found!" );
+        }
+        final int numberOfEntries = tail.getShort( end + 10 ) & 0xFFFF;
+        final long directoryLength = tail.getInt( end + 12 ) & 0xFFFFFFFFL;
+        final long directoryOffset = tail.getInt( end + 16 ) & 0xFFFFFFFFL;
+        if ( numberOfEntries == 0xFFFF || directoryLength == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL ) {
+            throw new IOException( "ZIP64 archives are not supported!" );
+        }
+        if ( directoryOffset + directoryLength > fileLength - tailLength + end ) {
+            throw new IOException( "Invalid central directory offset " + directoryOffset );
+        }
+
+        final ByteBuffer directory = readFully( channel, directoryOffset, (int) directoryLength );
+        final List entries = new ArrayList( numberOfEntries );
+        int position = 0;
+        for ( int i = 0; i < numberOfEntries; i++ ) {
+            if ( directory.getInt( position ) != CENTRAL_DIRECTORY_SIGNATURE ) {
+                throw new IOException( "Invalid central directory header of entry " + i );
+            }
+            final Entry entry = new Entry();
+            entry.versionMadeBy = directory.getShort( position + 4 ) & 0xFFFF;
+            entry.versionNeeded = directory.getShort( position + 6 ) & 0xFFFF;
+            entry.flags = directory.getShort( position + 8 ) & 0xFFFF;
+            entry.method = directory.getShort( position + 10 ) & 0xFFFF;
+            entry.dosTime = directory.getInt( position + 12 ) & 0xFFFFFFFFL;
+            entry.crc = directory.getInt( position + 16 ) & 0xFFFFFFFFL;
+            entry.compressedSize = directory.getInt( position + 20 ) & 0xFFFFFFFFL;
+            entry.size = directory.getInt( position + 24 ) & 0xFFFFFFFFL;
+            final int nameLength = directory.getShort( position + 28 ) & 0xFFFF;
+            final int extraLength = directory.getShort( position + 30 ) & 0xFFFF;
+            final int commentLength = directory.getShort( position + 32 ) & 0xFFFF;
+            entry.internalAttributes = directory.getShort( position + 36 ) & 0xFFFF;
+            entry.externalAttributes = directory.getInt( position + 38 ) & 0xFFFFFFFFL;
+            entry.localHeaderOffset = directory.getInt( position + 42 ) & 0xFFFFFFFFL;
+            position += CENTRAL_DIRECTORY_HEADER_LENGTH;
+            entry.nameBytes = bytes( directory, position, nameLength );
+            position += nameLength;
+            entry.extra = bytes( directory, position, extraLength );
+            position += extraLength;
+            entry.comment = bytes( directory, position, commentLength );
+            position += commentLength;
+            entry.name = decode( entry.nameBytes );
+            entries.add( entry );
+        }
+
+        // bytes between entries - e.g. left by other tools - are not part of an entry and must not be copied
+        final Entry[] byOffset = (Entry[]) entries.toArray( new Entry[entries.size()] );
+        Arrays.sort( byOffset, BY_OFFSET );
+        for ( int i = 0; i < byOffset.length; i++ ) {
+            final long next = (i + 1 < byOffset.length) ? byOffset[i + 1].localHeaderOffset : directoryOffset;
+            byOffset[i].rawLength = rawLengthOf( channel, byOffset[i] );
+            if ( byOffset[i].localHeaderOffset + byOffset[i].rawLength > next ) {
+                throw new IOException( "Entry " + byOffset[i].name + " overlaps the next entry or the central directory!" );
+            }
+        }
+        return new ZipCentralDirectory( Collections.unmodifiableList( entries ), directoryOffset, directoryLength );
+    }
+
+    /**
+     * Gets the number of bytes of an entry as stored - the local header, the compressed data and the data descriptor,
+     * if any.
+     *
+     * @param channel
+     *            channel on the ZIP file
+     * @param entry
+     *            the entry as read from the central directory
+     * @return number of bytes
+     * @throws IOException
+     *             if the local header is invalid or cannot be read
+     */
+    private static long rawLengthOf( final FileChannel channel, final Entry entry ) throws IOException {
+        final ByteBuffer localHeader = readFully( channel, entry.localHeaderOffset, ZipWriter.LOCAL_HEADER_LENGTH );
+        if ( localHeader.getInt( 0 ) != ZipWriter.LOCAL_HEADER_SIGNATURE ) {
+            throw new IOException( "Invalid local header of entry " + entry.name );
+        }
+        // name and extra field of the local header may differ from the central directory's
+        final int nameLength = localHeader.getShort( 26 ) & 0xFFFF;
+        final int extraLength = localHeader.getShort( 28 ) & 0xFFFF;
+        final long dataEnd = entry.localHeaderOffset + ZipWriter.LOCAL_HEADER_LENGTH + nameLength + extraLength
+                + entry.compressedSize;
+        long descriptorLength = 0L;
+        if ( (entry.flags & ZipWriter.DATA_DESCRIPTOR_FLAG) != 0 ) {
+            // the signature of the data descriptor is optional
+            final boolean signed = readFully( channel, dataEnd, 4 ).getInt( 0 ) == ZipWriter.DATA_DESCRIPTOR_SIGNATURE;
+            descriptorLength = signed ? 16L : 12L;
+        }
+        return dataEnd + descriptorLength - entry.localHeaderOffset;
+    }
+
+    /**
+     * Gets the entries in the order of the central directory.
+     *
+     * @return list of {@link Entry}
+     */
+    public List entries() {
+        return entries;
+    }
+
+    /**
+     * Gets the position of the central directory in the file - which is where the data of the entries ends.
+     *
+     * @return offset in bytes
+     */
+    public long offset() {
+        return offset;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    private static final Comparator BY_OFFSET = new Comparator() {
+        public int compare( Object o1, Object o2 ) {
+            final long offset1 = ((Entry) o1).localHeaderOffset;
+            final long offset2 = ((Entry) o2).localHeaderOffset;
+            return (offset1 < offset2) ? -1 : ((offset1 > offset2) ? 1 : 0);
+        }
+    };
+
+    static ByteBuffer readFully( final FileChannel channel, long position, final int length ) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate( length );
+        buffer.order( ByteOrder.LITTLE_ENDIAN );
+        while ( buffer.hasRemaining() ) {
+            final int bytesRead = channel.read( buffer, position );
+            if ( bytesRead < 0 ) {
+                throw new IOException( "Unexpected end of ZIP file!" );
+            }
+            position += bytesRead;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] bytes( final ByteBuffer buffer, final int position, final int length ) {
+        final byte[] bytes = new byte[length];
+        for ( int i = 0; i < length; i++ ) {
+            bytes[i] = buffer.get( position + i );
+        }
+        return bytes;
+    }
+
+    static String decode( final byte[] nameBytes ) {
+        try {
+            return new String( nameBytes, "UTF-8" );
+        } catch ( UnsupportedEncodingException cannotHappen ) {
+            return new String( nameBytes );
+        }
+    }
+
+    /**
+     * An entry of the central directory.
+     */
+    public static final class Entry {
+        String name;
+        byte[] nameBytes;
+        int versionMadeBy;
+        int versionNeeded;
+        int flags;
+        int method;
+        long dosTime;
+        long crc;
+        long compressedSize;
+        long size;
+        byte[] extra;
+        byte[] comment;
+        int internalAttributes;
+        long externalAttributes;
+        long localHeaderOffset;
+        /**
+         * Holds the number of bytes from the local header up to the end of the data - including a data descriptor.
+         */
+        long rawLength;
+
+        Entry() {}
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith( "/" );
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLocalHeaderOffset() {
+            return localHeaderOffset;
+        }
+
+        public long getRawLength() {
+            return rawLength;
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.StringTokenizer;
+import java.util.zip.Deflater;
+
+import org.apache.log4j.Logger;
+
+import de.mgpit.oracle.reports.plugin.commons.Magic;
+import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.Units;
+
+/**
+ * Decides how the entries of a ZIP file are compressed - by mime type or by file name extension.
+ * <p>
+ * An entry is either {@link #STORED} as is, deflated with a {@code Deflater} level or {@link #PROBE probed}: the first
+ * block is deflated with {@link Deflater#BEST_SPEED} and the entry is stored if this saves less than 10%. PDF, PNG,
+ * JPEG and already zipped content gain next to nothing from deflating.
+ * <p>
+ * A policy can be configured via {@code Properties}, see {@link #fromProperties(Properties)}. Without any mapping
+ * configured images and ZIP based formats are stored and PDF is probed - Reports may write PDF with or without
+ * compressed streams.
+ *
+ * @author mgp
+ *
+ */
+public final class ZipCompressionPolicy {
+    private static final Logger LOG = Logger.getLogger( ZipCompressionPolicy.class );
+
+    /**
+     * Holds the name of the property listing the mime types and extensions to store.
+     */
+    public static final String STORED_PROPERTY = "zip.policy.stored";
+    /**
+     * Holds the name of the property listing the mime types and extensions to probe.
+     */
+    public static final String PROBE_PROPERTY = "zip.policy.probe";
+    /**
+     * Holds the prefix of the properties listing the mime types and extensions to deflate with a level -
+     * {@code zip.policy.deflate.0} to {@code zip.policy.deflate.9}.
+     */
+    public static final String DEFLATE_PROPERTY_PREFIX = "zip.policy.deflate.";
+    /**
+     * Holds the name of the property for all other entries. One of {@code stored}, {@code probe}, {@code deflate} or a
+     * level {@code 0} to {@code 9}.
+     */
+    public static final String DEFAULT_PROPERTY = "zip.policy.default";
+
+    /**
+     * Stores the entry as is.
+     */
+    public static final int STORED = -2;
+    /**
+     * Probes the first block of the entry.
+     */
+    public static final int PROBE = -3;
+
+    public static final String DEFAULT_STORED = "image/png, image/jpeg, image/gif, application/zip, application/x-gzip,"
+            + " .png, .jpg, .jpeg, .gif, .zip, .gz, .jar, .docx, .xlsx, .pptx, .odt, .ods";
+    public static final String DEFAULT_PROBE = "application/pdf, .pdf";
+
+    /**
+     * Deflates every entry with the default level - like {@code ZipOutputStream} does.
+     */
+    public static final ZipCompressionPolicy DEFLATE_ALL = new ZipCompressionPolicy( Deflater.DEFAULT_COMPRESSION );
+
+    private static final int PROBE_BLOCK_SIZE = 64 * Units.ONE_KILOBYTE;
+    private static final int PROBE_PERCENT = 90;
+
+    /**
+     * Holds the decision per lower case mime type or extension.
+     */
+    private final HashMap levels = new HashMap();
+    private final int defaultLevel;
+
+    private ZipCompressionPolicy( final int defaultLevel ) {
+        this.defaultLevel = defaultLevel;
+    }
+
+    /**
+     * Creates the policy configured by the {@code Properties} given.
+     * <p>
+     * Uses {@link #STORED_PROPERTY}, {@link #PROBE_PROPERTY}, {@link #DEFLATE_PROPERTY_PREFIX}<em>level</em> and
+     * {@link #DEFAULT_PROPERTY}. Each lists mime types like {@code application/pdf} and extensions like {@code .pdf}
+     * separated by comma or blank. Without stored and probe lists {@link #DEFAULT_STORED} and {@link #DEFAULT_PROBE}
+     * apply.
+     *
+     * @param properties
+     *            properties; may be {@code null}
+     * @return the policy
+     */
+    public static ZipCompressionPolicy fromProperties( final Properties properties ) {
+        final Properties given = (properties == null) ? new Properties() : properties;
+        final ZipCompressionPolicy policy = new ZipCompressionPolicy( parseLevel( given.getProperty( DEFAULT_PROPERTY ),
+                Deflater.DEFAULT_COMPRESSION ) );
+        final boolean configured = given.getProperty( STORED_PROPERTY ) != null || given.getProperty( PROBE_PROPERTY ) != null;
+        policy.map( configured ? given.getProperty( STORED_PROPERTY ) : DEFAULT_STORED, STORED );
+        policy.map( configured ? given.getProperty( PROBE_PROPERTY ) : DEFAULT_PROBE, PROBE );
+        for ( int level = Deflater.NO_COMPRESSION; level <= Deflater.BEST_COMPRESSION; level++ ) {
+            policy.map( given.getProperty( DEFLATE_PROPERTY_PREFIX + level ), level );
+        }
+        return policy;
+    }
+
+    private void map( final String list, final int level ) {
+        if ( U.isEmpty( list ) ) {
+            return;
+        }
+        final StringTokenizer keys = new StringTokenizer( list, ", \t" );
+        while ( keys.hasMoreTokens() ) {
+            levels.put( keys.nextToken().toLowerCase(), new Integer( level ) );
+        }
+    }
+
+    private static int parseLevel( final String literal, final int defaultLevel ) {
+        if ( U.isEmpty( literal ) ) {
+            return defaultLevel;
+        }
+        final String value = literal.trim();
+        if ( "stored".equalsIgnoreCase( value ) ) {
+            return STORED;
+        }
+        if ( "probe".equalsIgnoreCase( value ) ) {
+            return PROBE;
+        }
+        if ( "deflate".equalsIgnoreCase( value ) ) {
+            return Deflater.DEFAULT_COMPRESSION;
+        }
+        try {
+            final int level = Integer.parseInt( value );
+            if ( level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION ) {
+                return level;
+            }
+        } catch ( NumberFormatException unparsable ) {
+            // warned below
+        }
+        LOG.warn( "Cannot parse compression " + U.w( literal ) + ". Using " + defaultLevel );
+        return defaultLevel;
+    }
+
+    /**
+     * Gets the compression for an entry. The mime type takes precedence over the extension of the entry name.
+     *
+     * @param mimeType
+     *            mime type of the content; may be {@code null}
+     * @param entryName
+     *            name of the entry
+     * @return {@link #STORED}, {@link #PROBE} or a {@code Deflater} level
+     */
+    public int levelFor( final String mimeType, final String entryName ) {
+        if ( !U.isEmpty( mimeType ) ) {
+            final Integer level = (Integer) levels.get( mimeType.trim().toLowerCase() );
+            if ( level != null ) {
+                return level.intValue();
+            }
+        }
+        if ( entryName != null ) {
+            final int dot = entryName.lastIndexOf( '.' );
+            if ( dot >= 0 && dot > entryName.lastIndexOf( '/' ) ) {
+                final Integer level = (Integer) levels.get( entryName.substring( dot ).toLowerCase() );
+                if ( level != null ) {
+                    return level.intValue();
+                }
+            }
+        }
+        return defaultLevel;
+    }
+
+    /**
+     * Gets the {@code Deflater} level to use for entries to deflate without a level of their own - e.g. entries
+     * probed and found worth deflating.
+     *
+     * @return the default level if it is a {@code Deflater} level, {@code Deflater.DEFAULT_COMPRESSION} else
+     */
+    public int deflateLevel() {
+        return (defaultLevel >= Deflater.DEFAULT_COMPRESSION) ? defaultLevel : Deflater.DEFAULT_COMPRESSION;
+    }
+
+    /**
+     * Probes the first block of the content.
+     *
+     * @param content
+     *            the content
+     * @param deflateLevel
+     *            level to use if deflating pays off
+     * @return the decision and the content to write - including the block probed
+     * @throws IOException
+     */
+    public static Probe probe( final InputStream content, final int deflateLevel ) throws IOException {
+        final byte[] block = new byte[PROBE_BLOCK_SIZE];
+        int length = 0;
+        int bytesRead;
+        while ( length < block.length && (bytesRead = content.read( block, length, block.length - length )) != Magic.END_OF_STREAM ) {
+            length += bytesRead;
+        }
+        final Deflater deflater = new Deflater( Deflater.BEST_SPEED, true );
+        long deflatedLength = 0L;
+        try {
+            final byte[] deflated = new byte[PROBE_BLOCK_SIZE];
+            deflater.setInput( block, 0, length );
+            deflater.finish();
+            while ( !deflater.finished() ) {
+                deflatedLength += deflater.deflate( deflated, 0, deflated.length );
+            }
+        } finally {
+            deflater.end();
+        }
+        final boolean worthDeflating = length > 0 && deflatedLength * 100 < (long) length * PROBE_PERCENT;
+        final InputStream replayed = new SequenceInputStream( new ByteArrayInputStream( block, 0, length ), content );
+        return new Probe( worthDeflating ? deflateLevel : STORED, replayed );
+    }
+
+    public String toString() {
+        return "ZipCompressionPolicy(default=" + defaultLevel + ", " + levels + ")";
+    }
+
+    /**
+     * The outcome of {@link ZipCompressionPolicy#probe(InputStream, int)}.
+     */
+    public static final class Probe {
+        private final int level;
+        private final InputStream content;
+
+        private Probe( final int level, final InputStream content ) {
+            this.level = level;
+            this.content = content;
+        }
+
+        /**
+         * Gets the decision.
+         *
+         * @return {@link ZipCompressionPolicy#STORED} or the {@code Deflater} level
+         */
+        public int level() {
+            return level;
+        }
+
+        /**
+         * Gets the content to write. Closing it closes the content probed.
+         *
+         * @return the content
+         */
+        public InputStream content() {
+            return content;
+        }
+    }
+}
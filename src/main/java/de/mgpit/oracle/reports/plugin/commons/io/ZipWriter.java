@@ -0,0 +1,763 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import de.mgpit.oracle.reports.plugin.commons.Magic;
+import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.Units;
+
+/**
+ * Writes a ZIP file.
+ * <p>
+ * Other than {@code java.util.zip.ZipOutputStream} it can {@link #copyRawEntry(FileChannel, ZipCentralDirectory.Entry)
+ * copy entries} of another archive in their compressed form - local header, data and data descriptor byte by byte.
+ * The copy is done by the file system via {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * without inflating and deflating again.
+ * <p>
+ * New entries are deflated and written with a data descriptor - like {@code ZipOutputStream} does. Entries can be
+ * stored instead, see {@link ZipCompressionPolicy}. Stored entries are written in one pass as well: CRC and size are
+ * computed while writing and patched into the local header afterwards. Entry names are encoded in UTF-8. ZIP64 is not supported - an archive is limited to 4 GB and 65535 entries.
+ * <p>
+ * An existing archive can be {@link #appendingTo(File) appended to in place}. The new entries overwrite the old
+ * central directory and a merged central directory is written on close. Before anything is overwritten, the old
+ * central directory is saved to a journal next to the archive. If the append does not complete, the next
+ * {@link #rollBackPendingAppend(File) recovery} restores the archive from the journal. A completed append marks its
+ * journal as committed before deleting it, so recovery never restores over the entries of a completed append.
+ *
+ * @author mgp
+ *
+ */
+public final class ZipWriter {
+
+    static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    static final int LOCAL_HEADER_LENGTH = 30;
+    static final int DATA_DESCRIPTOR_FLAG = 0x0008;
+    static final int VERSION_DEFLATED = 20;
+    static final int VERSION_STORED = 10;
+    static final int DEFLATED = 8;
+    static final int STORED = 0;
+    /**
+     * Holds the offset of the CRC within the local header.
+     */
+    static final int LOCAL_HEADER_CRC_OFFSET = 14;
+
+    private static final long MAX_32_BIT = 0xFFFFFFFFL;
+    private static final int MAX_ENTRIES = 0xFFFF;
+    private static final long JOURNAL_MAGIC = 0x5A49504A524E4C31L; // "ZIPJRNL1"
+    private static final long JOURNAL_COMMITTED = 0x5A49504A524E4C43L; // "ZIPJRNLC"
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate( 64 * Units.ONE_KILOBYTE );
+    private final List centralDirectory = new ArrayList();
+    private final int compressionLevel;
+    /**
+     * Holds the entries of the archive appended to or an empty list for a new archive.
+     */
+    private final List existing;
+    /**
+     * Holds the journal of an append in place or {@code null}.
+     */
+    private final File journal;
+    private final byte[] input = new byte[64 * Units.ONE_KILOBYTE];
+    private final byte[] deflated = new byte[64 * Units.ONE_KILOBYTE];
+    private boolean closed = false;
+
+    /**
+     * Creates a writer for a new ZIP file - replacing an existing file.
+     *
+     * @param zipFile
+     *            the file
+     * @throws IOException
+     */
+    public ZipWriter( final File zipFile ) throws IOException {
+        this( zipFile, Deflater.DEFAULT_COMPRESSION );
+    }
+
+    public ZipWriter( final File zipFile, final int compressionLevel ) throws IOException {
+        this( openTruncated( zipFile ), compressionLevel, new ArrayList(), null );
+    }
+
+    private ZipWriter( final RandomAccessFile file, final int compressionLevel, final List existing, final File journal ) {
+        this.file = file;
+        this.channel = file.getChannel();
+        this.compressionLevel = compressionLevel;
+        this.existing = existing;
+        this.journal = journal;
+        this.buffer.order( ByteOrder.LITTLE_ENDIAN );
+    }
+
+    private static RandomAccessFile openTruncated( final File zipFile ) throws IOException {
+        U.assertNotNull( zipFile, "Cannot write to null file!" );
+        final RandomAccessFile file = new RandomAccessFile( zipFile, "rw" );
+        file.setLength( 0L );
+        return file;
+    }
+
+    /**
+     * Creates a writer appending to an existing archive in place.
+     * <p>
+     * A pending append left by a crash is rolled back first. Then the old central directory is saved to the
+     * journal and the new entries are written from where the old central directory started.
+     *
+     * @param zipFile
+     *            the existing archive
+     * @return the writer
+     * @throws IOException
+     *             if the archive cannot be read or the journal cannot be written
+     */
+    public static ZipWriter appendingTo( final File zipFile ) throws IOException {
+        return appendingTo( zipFile, Deflater.DEFAULT_COMPRESSION );
+    }
+
+    public static ZipWriter appendingTo( final File zipFile, final int compressionLevel ) throws IOException {
+        U.assertNotNull( zipFile, "Cannot append to null file!" );
+        rollBackPendingAppend( zipFile );
+        final RandomAccessFile file = new RandomAccessFile( zipFile, "rw" );
+        try {
+            final FileChannel channel = file.getChannel();
+            final ZipCentralDirectory centralDirectory = ZipCentralDirectory.read( channel );
+            final long originalLength = channel.size();
+            final long tailLength = originalLength - centralDirectory.offset();
+            final ByteBuffer tail = ZipCentralDirectory.readFully( channel, centralDirectory.offset(), (int) tailLength );
+            final File journal = journalOf( zipFile );
+            writeJournal( journal, originalLength, centralDirectory.offset(), tail );
+            channel.position( centralDirectory.offset() );
+            return new ZipWriter( file, compressionLevel, new ArrayList( centralDirectory.entries() ), journal );
+        } catch ( IOException failed ) {
+            file.close();
+            throw failed;
+        }
+    }
+
+    /**
+     * Restores an archive from the journal of an append which did not complete.
+     * <p>
+     * The journal of a completed append which could not be deleted is deleted without restoring anything.
+     *
+     * @param zipFile
+     *            the archive
+     * @return {@code true} if the archive has been restored, {@code false} if there was nothing to restore
+     * @throws IOException
+     *             if the archive cannot be restored
+     */
+    public static boolean rollBackPendingAppend( final File zipFile ) throws IOException {
+        final File journal = journalOf( zipFile );
+        if ( !journal.exists() ) {
+            return false;
+        }
+        final DataInputStream in = new DataInputStream( new FileInputStream( journal ) );
+        long originalLength;
+        long offset;
+        byte[] tail;
+        try {
+            final CRC32 crc = new CRC32();
+            final long magic = in.readLong();
+            if ( magic == JOURNAL_COMMITTED ) {
+                in.close();
+                deleteJournal( journal );
+                return false;
+            }
+            if ( magic != JOURNAL_MAGIC ) {
+                throw new EOFException();
+            }
+            originalLength = in.readLong();
+            offset = in.readLong();
+            tail = new byte[in.readInt()];
+            in.readFully( tail );
+            crc.update( tail );
+            if ( in.readLong() != crc.getValue() ) {
+                throw new EOFException();
+            }
+        } catch ( EOFException incomplete ) {
+            // the journal is written completely before the archive is touched
+            in.close();
+            journal.delete();
+            return false;
+        } finally {
+            in.close();
+        }
+        final RandomAccessFile file = new RandomAccessFile( zipFile, "rw" );
+        try {
+            file.seek( offset );
+            file.write( tail );
+            file.setLength( originalLength );
+            file.getChannel().force( true );
+        } finally {
+            file.close();
+        }
+        deleteJournal( journal );
+        return true;
+    }
+
+    /**
+     * Marks the journal of a completed append as committed and deletes it.
+     *
+     * @param journal
+     *            the journal
+     * @throws IOException
+     *             if the journal cannot be marked or deleted
+     */
+    private static void commitJournal( final File journal ) throws IOException {
+        markCommitted( journal );
+        deleteJournal( journal );
+    }
+
+    /**
+     * Marks a journal as committed. Recovery will delete it instead of restoring from it.
+     *
+     * @param journal
+     *            the journal
+     * @throws IOException
+     */
+    static void markCommitted( final File journal ) throws IOException {
+        final RandomAccessFile journalFile = new RandomAccessFile( journal, "rw" );
+        try {
+            journalFile.writeLong( JOURNAL_COMMITTED );
+            journalFile.getFD().sync();
+        } finally {
+            journalFile.close();
+        }
+    }
+
+    private static void deleteJournal( final File journal ) throws IOException {
+        if ( !journal.delete() ) {
+            throw new IOException( "Cannot delete journal " + journal );
+        }
+    }
+
+    private static File journalOf( final File zipFile ) {
+        return new File( zipFile.getPath() + JOURNAL_SUFFIX );
+    }
+
+    private static void writeJournal( final File journal, final long originalLength, final long offset, final ByteBuffer tail )
+            throws IOException {
+        final FileOutputStream journalFile = new FileOutputStream( journal );
+        try {
+            final DataOutputStream out = new DataOutputStream( journalFile );
+            final byte[] tailBytes = new byte[tail.remaining()];
+            tail.get( tailBytes );
+            final CRC32 crc = new CRC32();
+            crc.update( tailBytes );
+            out.writeLong( JOURNAL_MAGIC );
+            out.writeLong( originalLength );
+            out.writeLong( offset );
+            out.writeInt( tailBytes.length );
+            out.write( tailBytes );
+            out.writeLong( crc.getValue() );
+            out.flush();
+            journalFile.getFD().sync();
+        } finally {
+            journalFile.close();
+        }
+    }
+
+    /**
+     * Gets the entries of the archive appended to.
+     *
+     * @return list of {@link ZipCentralDirectory.Entry}; empty for a new archive
+     */
+    public List existingEntries() {
+        return Collections.unmodifiableList( new ArrayList( existing ) );
+    }
+
+    /**
+     * Drops an entry of the archive appended to - e.g. as it is replaced by a new entry with the same name. Its
+     * data stays in the file but is no longer referenced by the central directory.
+     *
+     * @param entry
+     *            one of the {@link #existingEntries() existing entries}
+     */
+    public void dropExistingEntry( final ZipCentralDirectory.Entry entry ) {
+        existing.remove( entry );
+    }
+
+    /**
+     * Writes a new entry deflating the content given with the writer's level. The content stream is read to its end
+     * but not closed.
+     *
+     * @param name
+     *            name of the entry
+     * @param time
+     *            modification time of the entry
+     * @param comment
+     *            comment of the entry; may be {@code null}
+     * @param content
+     *            the content
+     * @throws IOException
+     */
+    public void writeEntry( final String name, final long time, final String comment, final InputStream content )
+            throws IOException {
+        writeEntry( name, time, comment, content, compressionLevel );
+    }
+
+    /**
+     * Writes a new entry compressed as given. The content stream is read to its end but not closed.
+     *
+     * @param name
+     *            name of the entry
+     * @param time
+     *            modification time of the entry
+     * @param comment
+     *            comment of the entry; may be {@code null}
+     * @param content
+     *            the content
+     * @param level
+     *            {@link ZipCompressionPolicy#STORED}, {@link ZipCompressionPolicy#PROBE} or a {@code Deflater} level
+     * @throws IOException
+     */
+    public void writeEntry( final String name, final long time, final String comment, final InputStream content,
+            final int level ) throws IOException {
+        U.assertNotEmpty( name, "Entry name must not be empty!" );
+        U.assertNotNull( content, "Content must not be null!" );
+        ensureOpen();
+        if ( level == ZipCompressionPolicy.PROBE ) {
+            final ZipCompressionPolicy.Probe probe = ZipCompressionPolicy.probe( content, compressionLevel );
+            writeEntry( name, time, comment, probe.content(), probe.level() );
+            return;
+        }
+        if ( level == ZipCompressionPolicy.STORED ) {
+            writeStoredEntry( name, time, comment, content );
+            return;
+        }
+        final ZipCentralDirectory.Entry entry = newEntry( name, time, comment );
+        entry.localHeaderOffset = position();
+        writeLocalHeader( entry );
+
+        final CRC32 crc = new CRC32();
+        final Deflater deflater = new Deflater( level, true );
+        long size = 0L;
+        long compressedSize = 0L;
+        try {
+            int bytesRead;
+            while ( (bytesRead = content.read( input, 0, input.length )) != Magic.END_OF_STREAM ) {
+                if ( bytesRead == 0 ) {
+                    continue;
+                }
+                crc.update( input, 0, bytesRead );
+                size += bytesRead;
+                deflater.setInput( input, 0, bytesRead );
+                while ( !deflater.needsInput() ) {
+                    compressedSize += drain( deflater );
+                }
+            }
+            deflater.finish();
+            while ( !deflater.finished() ) {
+                compressedSize += drain( deflater );
+            }
+        } finally {
+            deflater.end();
+        }
+        entry.crc = crc.getValue();
+        entry.size = checked32( size, "Entry size" );
+        entry.compressedSize = checked32( compressedSize, "Compressed entry size" );
+
+        putInt( DATA_DESCRIPTOR_SIGNATURE );
+        putInt( (int) entry.crc );
+        putInt( (int) entry.compressedSize );
+        putInt( (int) entry.size );
+        register( entry );
+    }
+
+    /**
+     * Writes an entry as is. CRC and size are patched into the local header once the content has been written.
+     */
+    private void writeStoredEntry( final String name, final long time, final String comment, final InputStream content )
+            throws IOException {
+        final ZipCentralDirectory.Entry entry = newEntry( name, time, comment );
+        asStored( entry );
+        entry.localHeaderOffset = position();
+        writeLocalHeader( entry );
+
+        final CRC32 crc = new CRC32();
+        long size = 0L;
+        int bytesRead;
+        while ( (bytesRead = content.read( input, 0, input.length )) != Magic.END_OF_STREAM ) {
+            crc.update( input, 0, bytesRead );
+            size += bytesRead;
+            putBytes( input, 0, bytesRead );
+        }
+        entry.crc = crc.getValue();
+        entry.size = checked32( size, "Entry size" );
+        entry.compressedSize = entry.size;
+
+        flushBuffer();
+        final ByteBuffer patch = ByteBuffer.allocate( 12 );
+        patch.order( ByteOrder.LITTLE_ENDIAN );
+        patch.putInt( (int) entry.crc );
+        patch.putInt( (int) entry.compressedSize );
+        patch.putInt( (int) entry.size );
+        patch.flip();
+        long patchPosition = entry.localHeaderOffset + LOCAL_HEADER_CRC_OFFSET;
+        while ( patch.hasRemaining() ) {
+            patchPosition += channel.write( patch, patchPosition );
+        }
+        register( entry );
+    }
+
+    /**
+     * Writes an entry deflated ahead. The entry must have been run - see {@link PrecompressedEntry}. As CRC and sizes
+     * are known the local header carries them and there is no data descriptor.
+     *
+     * @param precompressed
+     *            the entry
+     * @throws IOException
+     */
+    public void writePrecompressedEntry( final PrecompressedEntry precompressed ) throws IOException {
+        U.assertNotNull( precompressed, "Entry must not be null!" );
+        U.assertTrue( precompressed.isDone(), "Entry must have been compressed!" );
+        ensureOpen();
+        final ZipCentralDirectory.Entry entry = newEntry( precompressed.getName(), precompressed.getTime(),
+                precompressed.getComment() );
+        entry.flags &= ~DATA_DESCRIPTOR_FLAG;
+        if ( precompressed.isStored() ) {
+            asStored( entry );
+        }
+        entry.crc = precompressed.getCrc();
+        entry.size = checked32( precompressed.getSize(), "Entry size" );
+        entry.compressedSize = checked32( precompressed.getCompressedSize(), "Compressed entry size" );
+        entry.localHeaderOffset = position();
+        writeLocalHeader( entry );
+        flushBuffer();
+        precompressed.transferTo( channel );
+        register( entry );
+    }
+
+    /**
+     * Copies an entry of another archive in its compressed form.
+     *
+     * @param source
+     *            channel on the other archive
+     * @param sourceEntry
+     *            the entry as read from the other archive's central directory
+     * @throws IOException
+     */
+    public void copyRawEntry( final FileChannel source, final ZipCentralDirectory.Entry sourceEntry ) throws IOException {
+        U.assertNotNull( source, "Source must not be null!" );
+        U.assertNotNull( sourceEntry, "Entry must not be null!" );
+        ensureOpen();
+        final ZipCentralDirectory.Entry copy = copyOf( sourceEntry );
+        copy.localHeaderOffset = position();
+        flushBuffer();
+        long transferred = 0L;
+        while ( transferred < sourceEntry.rawLength ) {
+            final long count = source.transferTo( sourceEntry.localHeaderOffset + transferred, sourceEntry.rawLength
+                    - transferred, channel );
+            if ( count <= 0 ) {
+                throw new IOException( "Cannot copy entry " + U.w( sourceEntry.name ) + " - unexpected end of source!" );
+            }
+            transferred += count;
+        }
+        register( copy );
+    }
+
+    /**
+     * Gets the number of entries written so far.
+     *
+     * @return number of entries
+     */
+    public int numberOfEntries() {
+        return existing.size() + centralDirectory.size();
+    }
+
+    /**
+     * Writes the central directory, forces the archive to disk and closes the file.
+     *
+     * @throws IOException
+     *             also if the journal of an append in place cannot be deleted
+     */
+    public void close() throws IOException {
+        if ( closed ) {
+            return;
+        }
+        boolean completed = false;
+        try {
+            if ( numberOfEntries() > MAX_ENTRIES ) {
+                throw new IOException( "Too many entries - ZIP64 is not supported!" );
+            }
+            final long directoryOffset = checked32( position(), "Archive size" );
+            for ( int i = 0; i < existing.size(); i++ ) {
+                writeCentralDirectoryHeader( (ZipCentralDirectory.Entry) existing.get( i ) );
+            }
+            for ( int i = 0; i < centralDirectory.size(); i++ ) {
+                writeCentralDirectoryHeader( (ZipCentralDirectory.Entry) centralDirectory.get( i ) );
+            }
+            final long directoryLength = checked32( position() - directoryOffset, "Central directory size" );
+            putInt( ZipCentralDirectory.END_OF_CENTRAL_DIRECTORY_SIGNATURE );
+            putShort( 0 ); // number of this disk
+            putShort( 0 ); // disk with the central directory
+            putShort( numberOfEntries() );
+            putShort( numberOfEntries() );
+            putInt( (int) directoryLength );
+            putInt( (int) directoryOffset );
+            putShort( 0 ); // no archive comment
+            flushBuffer();
+            // the old central directory may have been longer
+            file.setLength( channel.position() );
+            channel.force( true );
+            completed = true;
+        } finally {
+            closed = true;
+            file.close();
+            if ( journal != null ) {
+                if ( completed ) {
+                    commitJournal( journal );
+                } else {
+                    rollBackPendingAppend( journalOwner() );
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the file without writing the central directory. A new archive is left invalid, an archive appended to
+     * in place is restored.
+     */
+    public void abort() {
+        closed = true;
+        try {
+            file.close();
+            if ( journal != null ) {
+                rollBackPendingAppend( journalOwner() );
+            }
+        } catch ( IOException ignored ) {
+            // restored on the next append at the latest
+        }
+    }
+
+    private File journalOwner() {
+        final String path = journal.getPath();
+        return new File( path.substring( 0, path.length() - JOURNAL_SUFFIX.length() ) );
+    }
+
+    private ZipCentralDirectory.Entry newEntry( final String name, final long time, final String comment ) {
+        final ZipCentralDirectory.Entry entry = new ZipCentralDirectory.Entry();
+        entry.name = name;
+        entry.nameBytes = utf8( name );
+        entry.comment = (comment == null) ? new byte[0] : utf8( comment );
+        entry.extra = new byte[0];
+        entry.versionMadeBy = VERSION_DEFLATED;
+        entry.versionNeeded = VERSION_DEFLATED;
+        entry.flags = DATA_DESCRIPTOR_FLAG | (isAscii( name ) && (comment == null || isAscii( comment )) ? 0
+                : ZipCentralDirectory.UTF8_FLAG);
+        entry.method = DEFLATED;
+        entry.dosTime = dosTime( time );
+        return entry;
+    }
+
+    private static void asStored( final ZipCentralDirectory.Entry entry ) {
+        entry.method = STORED;
+        entry.versionMadeBy = VERSION_STORED;
+        entry.versionNeeded = VERSION_STORED;
+        entry.flags &= ~DATA_DESCRIPTOR_FLAG;
+    }
+
+    private static ZipCentralDirectory.Entry copyOf( final ZipCentralDirectory.Entry source ) {
+        final ZipCentralDirectory.Entry copy = new ZipCentralDirectory.Entry();
+        copy.name = source.name;
+        copy.nameBytes = source.nameBytes;
+        copy.versionMadeBy = source.versionMadeBy;
+        copy.versionNeeded = source.versionNeeded;
+        copy.flags = source.flags;
+        copy.method = source.method;
+        copy.dosTime = source.dosTime;
+        copy.crc = source.crc;
+        copy.compressedSize = source.compressedSize;
+        copy.size = source.size;
+        copy.extra = source.extra;
+        copy.comment = source.comment;
+        copy.internalAttributes = source.internalAttributes;
+        copy.externalAttributes = source.externalAttributes;
+        copy.rawLength = source.rawLength;
+        return copy;
+    }
+
+    private void register( final ZipCentralDirectory.Entry entry ) throws IOException {
+        if ( centralDirectory.size() >= MAX_ENTRIES ) {
+            throw new IOException( "Too many entries - ZIP64 is not supported!" );
+        }
+        checked32( entry.localHeaderOffset, "Archive size" );
+        centralDirectory.add( entry );
+    }
+
+    private void writeLocalHeader( final ZipCentralDirectory.Entry entry ) throws IOException {
+        putInt( LOCAL_HEADER_SIGNATURE );
+        putShort( entry.versionNeeded );
+        putShort( entry.flags );
+        putShort( entry.method );
+        putInt( (int) entry.dosTime );
+        if ( (entry.flags & DATA_DESCRIPTOR_FLAG) != 0 ) {
+            putInt( 0 ); // crc, sizes follow in the data descriptor
+            putInt( 0 );
+            putInt( 0 );
+        } else {
+            putInt( (int) entry.crc );
+            putInt( (int) entry.compressedSize );
+            putInt( (int) entry.size );
+        }
+        putShort( entry.nameBytes.length );
+        putShort( 0 ); // no extra field
+        putBytes( entry.nameBytes, 0, entry.nameBytes.length );
+    }
+
+    private void writeCentralDirectoryHeader( final ZipCentralDirectory.Entry entry ) throws IOException {
+        putInt( ZipCentralDirectory.CENTRAL_DIRECTORY_SIGNATURE );
+        putShort( entry.versionMadeBy );
+        putShort( entry.versionNeeded );
+        putShort( entry.flags );
+        putShort( entry.method );
+        putInt( (int) entry.dosTime );
+        putInt( (int) entry.crc );
+        putInt( (int) entry.compressedSize );
+        putInt( (int) entry.size );
+        putShort( entry.nameBytes.length );
+        putShort( entry.extra.length );
+        putShort( entry.comment.length );
+        putShort( 0 ); // disk number start
+        putShort( entry.internalAttributes );
+        putInt( (int) entry.externalAttributes );
+        putInt( (int) entry.localHeaderOffset );
+        putBytes( entry.nameBytes, 0, entry.nameBytes.length );
+        putBytes( entry.extra, 0, entry.extra.length );
+        putBytes( entry.comment, 0, entry.comment.length );
+    }
+
+    private int drain( final Deflater deflater ) throws IOException {
+        final int length = deflater.deflate( deflated, 0, deflated.length );
+        putBytes( deflated, 0, length );
+        return length;
+    }
+
+    /*
+     * Buffered writing
+     */
+
+    private long position() throws IOException {
+        return channel.position() + buffer.position();
+    }
+
+    private void ensureCapacity( final int bytes ) throws IOException {
+        if ( buffer.remaining() < bytes ) {
+            flushBuffer();
+        }
+    }
+
+    private void putInt( final int value ) throws IOException {
+        ensureCapacity( 4 );
+        buffer.putInt( value );
+    }
+
+    private void putShort( final int value ) throws IOException {
+        ensureCapacity( 2 );
+        buffer.putShort( (short) value );
+    }
+
+    private void putBytes( final byte[] bytes, int offset, int length ) throws IOException {
+        while ( length > 0 ) {
+            if ( !buffer.hasRemaining() ) {
+                flushBuffer();
+            }
+            final int chunk = Math.min( length, buffer.remaining() );
+            buffer.put( bytes, offset, chunk );
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while ( buffer.hasRemaining() ) {
+            channel.write( buffer );
+        }
+        buffer.clear();
+    }
+
+    private void ensureOpen() throws IOException {
+        if ( closed ) {
+            throw new IOException( "ZIP file has been closed!" );
+        }
+    }
+
+    private static long checked32( final long value, final String what ) throws IOException {
+        if ( value > MAX_32_BIT ) {
+            throw new IOException( what + " exceeds 4 GB - ZIP64 is not supported!" );
+        }
+        return value;
+    }
+
+    private static byte[] utf8( final String s ) {
+        try {
+            return s.getBytes( "UTF-8" );
+        } catch ( UnsupportedEncodingException cannotHappen ) {
+            return s.getBytes();
+        }
+    }
+
+    private static boolean isAscii( final String s ) {
+        for ( int i = 0; i < s.length(); i++ ) {
+            if ( s.charAt( i ) > 0x7F ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts a Java time to the MS-DOS date and time format - like {@code ZipEntry} does.
+     *
+     * @param time
+     *            milliseconds since the epoch
+     * @return MS-DOS date and time
+     */
+    static long dosTime( final long time ) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis( time );
+        final int year = calendar.get( Calendar.YEAR );
+        if ( year < 1980 ) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long) (year - 1980) << 25) | ((calendar.get( Calendar.MONTH ) + 1) << 21)
+                | (calendar.get( Calendar.DAY_OF_MONTH ) << 16) | (calendar.get( Calendar.HOUR_OF_DAY ) << 11)
+                | (calendar.get( Calendar.MINUTE ) << 5) | (calendar.get( Calendar.SECOND ) >> 1);
+    }
+}
@@ -34,6 +34,7 @@ import org.apache.log4j.Logger;
 
 import de.mgpit.oracle.reports.plugin.commons.DestinationsLogging;
 import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.concurrent.WorkerPool;
 import de.mgpit.oracle.reports.plugin.commons.io.IOUtility;
 import de.mgpit.types.Filename;
 import oracle.reports.RWException;
@@ -279,6 +280,24 @@ public abstract class MgpDestination extends Destination {
         return CONTINUE;
     }
 
+    /**
+     * Gets the total number of files of the current distribution.
+     * 
+     * @return number of files
+     */
+    protected int getNumberOfFilesInDistribution() {
+        return this.numberOfFilesInDistribution;
+    }
+
+    /**
+     * Gets the 1-based index of the file currently being distributed.
+     * 
+     * @return index of the current file or {@code 0} if none has been sent yet
+     */
+    protected int getIndexOfCurrentlyDistributedFile() {
+        return this.indexOfCurrentlyDistributedFile;
+    }
+
     /**
      * Dumps the properties given using this object's current logger.
      * 
@@ -517,6 +536,7 @@ public abstract class MgpDestination extends Destination {
     }
 
     public static void shutdown() {
+        WorkerPool.shutdownShared();
         Destination.shutdown();
     }
 
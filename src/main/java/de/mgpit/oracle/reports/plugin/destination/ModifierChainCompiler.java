@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.destination;
+
+
+import java.io.OutputStream;
+import java.util.Properties;
+
+import de.mgpit.oracle.reports.plugin.commons.io.Base64Encoding;
+import de.mgpit.oracle.reports.plugin.destination.content.decorators.EnvelopeDecorator;
+import de.mgpit.oracle.reports.plugin.destination.content.decorators.HeaderDecorator;
+import de.mgpit.oracle.reports.plugin.destination.content.io.FusedOutputStream;
+import de.mgpit.oracle.reports.plugin.destination.content.transformers.Base64Transformer;
+import de.mgpit.oracle.reports.plugin.destination.content.types.Envelope;
+import de.mgpit.oracle.reports.plugin.destination.content.types.Header;
+import de.mgpit.oracle.reports.plugin.destination.content.types.LengthPredicting;
+import de.mgpit.oracle.reports.plugin.destination.content.types.OutputModifier;
+import oracle.reports.RWException;
+
+/**
+ * Compiles runs of {@code OutputModifier}s into fused stages.
+ * <p>
+ * A run of modifiers - in the order the data flows through them - matching
+ * 
+ * <pre>
+ * [HeaderDecorator] [Base64Transformer] [EnvelopeDecorator]
+ * </pre>
+ * 
+ * with at least two of the three present is applied as a single {@link FusedOutputStream} instead of one stream per
+ * modifier. E.g. {@code BASE64>>CDM(simple)} or {@code Header>>BASE64}. All other modifiers are stacked as usual.
+ * 
+ * @author mgp
+ *
+ */
+final class ModifierChainCompiler {
+
+    private ModifierChainCompiler() {
+    }
+
+    /**
+     * Finds the start of a fusable run ending with the modifier given.
+     * 
+     * @param chain
+     *            the modifier chain
+     * @param lastIndex
+     *            index of the last modifier of the run
+     * @param allProperties
+     *            properties of the current distribution
+     * @return index of the first modifier of the run; {@code lastIndex} if there is no fusable run
+     */
+    static int startOfFusableRun( final OutputModifier[] chain, final int lastIndex, final Properties allProperties ) {
+        int index = lastIndex;
+        int stages = 0;
+        if ( index >= 0 && chain[index] instanceof EnvelopeDecorator ) {
+            stages++;
+            index--;
+        }
+        if ( index >= 0 && chain[index] instanceof Base64Transformer
+                && ((Base64Transformer) chain[index]).encodingForOutput( allProperties ) != null ) {
+            stages++;
+            index--;
+        }
+        if ( index >= 0 && chain[index] instanceof HeaderDecorator ) {
+            stages++;
+            index--;
+        }
+        return (stages >= 2) ? index + 1 : lastIndex;
+    }
+
+    /**
+     * Applies a fusable run of modifiers as a single stage.
+     * <p>
+     * Each modifier will find its predicted input length as property
+     * {@link LengthPredicting#PREDICTED_INPUT_LENGTH_PROPERTY} when asked for its part.
+     * 
+     * @param chain
+     *            the modifier chain
+     * @param firstIndex
+     *            index of the first modifier of the run as found by
+     *            {@link #startOfFusableRun(OutputModifier[], int, Properties)}
+     * @param lastIndex
+     *            index of the last modifier of the run
+     * @param targetStream
+     *            stream to wrap
+     * @param allProperties
+     *            properties of the current distribution
+     * @param predictedInputLengths
+     *            input length for each modifier
+     * @return the fused stage
+     * @throws RWException
+     */
+    static OutputStream fuse( final OutputModifier[] chain, final int firstIndex, final int lastIndex,
+            final OutputStream targetStream, final Properties allProperties, final long[] predictedInputLengths )
+            throws RWException {
+        Header header = null;
+        Base64Encoding encoding = null;
+        Envelope envelope = null;
+        for ( int runIndex = lastIndex; runIndex >= firstIndex; --runIndex ) {
+            final OutputModifier modifier = chain[runIndex];
+            allProperties.put( LengthPredicting.PREDICTED_INPUT_LENGTH_PROPERTY, String.valueOf( predictedInputLengths[runIndex] ) );
+            if ( modifier instanceof EnvelopeDecorator ) {
+                envelope = ((EnvelopeDecorator) modifier).envelopeForOutput( allProperties );
+            } else if ( modifier instanceof Base64Transformer ) {
+                encoding = ((Base64Transformer) modifier).encodingForOutput( allProperties );
+            } else if ( modifier instanceof HeaderDecorator ) {
+                header = ((HeaderDecorator) modifier).headerForOutput( allProperties );
+            }
+        }
+        return new FusedOutputStream( targetStream, header, encoding, envelope );
+    }
+}
@@ -19,8 +19,13 @@ import org.apache.log4j.Logger;
 
 import de.mgpit.oracle.reports.plugin.commons.Magic;
 import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.Units;
+import de.mgpit.oracle.reports.plugin.commons.io.CountingOutputStream;
+import de.mgpit.oracle.reports.plugin.commons.io.IOUtility;
 import de.mgpit.oracle.reports.plugin.destination.content.types.Content;
+import de.mgpit.oracle.reports.plugin.destination.content.types.InputLengthDependent;
 import de.mgpit.oracle.reports.plugin.destination.content.types.InputModifier;
+import de.mgpit.oracle.reports.plugin.destination.content.types.LengthPredicting;
 import de.mgpit.oracle.reports.plugin.destination.content.types.Modifier;
 import de.mgpit.oracle.reports.plugin.destination.content.types.OutputModifier;
 import de.mgpit.oracle.reports.plugin.destination.content.types.WithModel;
@@ -98,6 +103,51 @@ public abstract class ModifyingDestination extends MgpDestination {
      */
     private static final String CHAIN_DECLARATION_PROPERTY = "apply";
 
+    /**
+     * Holds the name of the property for choosing how the input length of {@link InputLengthDependent} modifiers
+     * is determined if it cannot be predicted. Can be set for the destination and for each distribution. One of
+     * <ul>
+     * <li>{@link #BUFFERING_MODE_BUFFER} - the modifier buffers its input (default)</li>
+     * <li>{@link #BUFFERING_MODE_TWOPASS} - the length is measured with a first pass over the content</li>
+     * <li>{@link #BUFFERING_MODE_AUTO} - two passes if the file is at least {@link #TWOPASS_THRESHOLD_PROPERTY} bytes,
+     * buffering else</li>
+     * </ul>
+     */
+    public static final String BUFFERING_MODE_PROPERTY = "bufferingheader.mode";
+    public static final String BUFFERING_MODE_BUFFER = "buffer";
+    public static final String BUFFERING_MODE_TWOPASS = "twopass";
+    public static final String BUFFERING_MODE_AUTO = "auto";
+
+    /**
+     * Holds the name of the property with the file size in bytes from which on mode {@link #BUFFERING_MODE_AUTO}
+     * uses two passes.
+     */
+    public static final String TWOPASS_THRESHOLD_PROPERTY = "bufferingheader.twopass.threshold";
+
+    /**
+     * Holds the name of the property for switching the fusion of modifiers off. If {@code false} each
+     * {@code OutputModifier} is applied as a stream of its own. Can be set for the destination and for each distribution.
+     * Defaults to {@code true}.
+     * 
+     * @see ModifierChainCompiler
+     */
+    public static final String FUSE_CHAIN_PROPERTY = "chain.fuse";
+
+    /**
+     * Holds the buffering mode set for the destination.
+     */
+    private static String defaultBufferingMode = BUFFERING_MODE_BUFFER;
+
+    /**
+     * Holds the two pass threshold set for the destination.
+     */
+    private static long defaultTwoPassThreshold = Units.ONE_MEGABYTE * 4;
+
+    /**
+     * Holds the fusion setting for the destination.
+     */
+    private static String defaultFuseChain = "true";
+
     /**
      * Gets the Logger for this destination.
      * 
@@ -162,14 +212,90 @@ public abstract class ModifyingDestination extends MgpDestination {
      * @throws RWException
      */
     protected OutputStream getTarget() throws RWException {
+        return getTarget( LengthPredicting.UNPREDICTABLE );
+    }
+
+    /**
+     * Gets the target wrapped with the {@code OutputModifier}s for distributing a file of the size given.
+     * <p>
+     * The size will be used for predicting the length of each modifier's input.
+     * 
+     * @param sourceFile
+     *            the file to be distributed
+     * @return OutputStream to write the file's content to
+     * @throws RWException
+     */
+    protected OutputStream getTarget( File sourceFile ) throws RWException {
+        U.Rw.assertNotNull( sourceFile, "Source file must not be null!" );
+        final long contentLength = predictContentLength( sourceFile.length() );
+        final File measurable = useTwoPasses( sourceFile.length() ) ? sourceFile : null;
+        return getTarget( predictInputLengths( contentLength, getProperties(), measurable ) );
+    }
+
+    /**
+     * Predicts the length of the content as provided by {@link #getContent(File)}.
+     * 
+     * @param fileLength
+     *            length of the file to be distributed
+     * @return length of the file wrapped with the {@code InputModifier}s or {@link LengthPredicting#UNPREDICTABLE}
+     */
+    private long predictContentLength( final long fileLength ) {
+        long length = fileLength;
+        if ( this.inputModifierChain != null ) {
+            final Properties allProperties = getProperties();
+            for ( int runIndex = 0; runIndex < this.inputModifierChain.length && length != LengthPredicting.UNPREDICTABLE; runIndex++ ) {
+                InputModifier modifier = this.inputModifierChain[runIndex];
+                length = (modifier instanceof LengthPredicting)
+                        ? ((LengthPredicting) modifier).predictedLength( length, allProperties ) : LengthPredicting.UNPREDICTABLE;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Gets the target wrapped with the {@code OutputModifier}s for distributing the number of bytes given.
+     * 
+     * @param sourceLength
+     *            number of bytes to be distributed or {@link LengthPredicting#UNPREDICTABLE} if not known
+     * @return OutputStream to write the content to
+     * @throws RWException
+     */
+    protected OutputStream getTarget( long sourceLength ) throws RWException {
+        return getTarget( predictInputLengths( sourceLength, getProperties(), null ) );
+    }
+
+    private OutputStream getTarget( final long[] predictedInputLengths ) throws RWException {
         try {
-            OutputStream targetOut = getTargetOut();
-            return wrapWithOutputModifiers( targetOut );
+            final long predictedOutputLength = predictedInputLengths[this.outputModifierChain.length];
+            OutputStream targetOut = getTargetOut( predictedOutputLength );
+            return wrapWithOutputModifiers( targetOut, predictedInputLengths );
         } catch ( Exception any ) {
             throw asRWException( any );
         }
     }
 
+    /**
+     * Answers if the input length of {@link InputLengthDependent} modifiers should be measured by a first pass
+     * over the content.
+     * 
+     * @param fileLength
+     *            length of the file to be distributed
+     * @return {@code true} if two passes should be used, {@code false} else
+     */
+    protected boolean useTwoPasses( final long fileLength ) {
+        final Properties allProperties = getProperties();
+        final String mode = allProperties.getProperty( BUFFERING_MODE_PROPERTY, defaultBufferingMode );
+        if ( BUFFERING_MODE_TWOPASS.equalsIgnoreCase( mode ) ) {
+            return true;
+        }
+        if ( BUFFERING_MODE_AUTO.equalsIgnoreCase( mode ) ) {
+            final long threshold = Units.parseLength( allProperties.getProperty( TWOPASS_THRESHOLD_PROPERTY ),
+                    defaultTwoPassThreshold );
+            return fileLength >= threshold;
+        }
+        return false;
+    }
+
     /**
      * Gets an @{code OutputStream} on the distribution target.
      * 
@@ -179,6 +305,22 @@ public abstract class ModifyingDestination extends MgpDestination {
      */
     protected abstract OutputStream getTargetOut() throws RWException, Exception;
 
+    /**
+     * Gets an @{code OutputStream} on the distribution target for the number of bytes given.
+     * <p>
+     * Destinations able to preallocate their target should override this. The default implementation ignores the
+     * length and delegates to {@link #getTargetOut()}.
+     * 
+     * @param expectedLength
+     *            number of bytes which will be written to the target or {@link LengthPredicting#UNPREDICTABLE}
+     * @return OutputStream on the distribution target.
+     * @throws RWException
+     * @throws Exception
+     */
+    protected OutputStream getTargetOut( long expectedLength ) throws RWException, Exception {
+        return getTargetOut();
+    }
+
     /**
      * Wraps the output with {@code OutputModifier}s.
      * <p>
@@ -189,19 +331,157 @@ public abstract class ModifyingDestination extends MgpDestination {
      * @throws RWException
      */
     protected OutputStream wrapWithOutputModifiers( OutputStream targetStream ) throws RWException {
+        return wrapWithOutputModifiers( targetStream, LengthPredicting.UNPREDICTABLE );
+    }
+
+    /**
+     * Wraps the output with {@code OutputModifier}s.
+     * <p>
+     * Each modifier will find the predicted length of its input as property
+     * {@link LengthPredicting#PREDICTED_INPUT_LENGTH_PROPERTY} when being applied.
+     * 
+     * @param initialStream
+     *            the {@code OutputStream} to be wrapped.
+     * @param sourceLength
+     *            number of bytes which will be written to the outmost modifier or {@link LengthPredicting#UNPREDICTABLE}
+     * @return the {@initialStream} or {@initialStream} wrapped with {@code OutputModifier}s
+     * @throws RWException
+     */
+    protected OutputStream wrapWithOutputModifiers( OutputStream targetStream, long sourceLength ) throws RWException {
+        return wrapWithOutputModifiers( targetStream, predictInputLengths( sourceLength, getProperties(), null ) );
+    }
+
+    private OutputStream wrapWithOutputModifiers( OutputStream targetStream, final long[] predictedInputLengths ) throws RWException {
+        return wrapWithOutputModifiers( targetStream, predictedInputLengths, this.outputModifierChain.length );
+    }
+
+    /**
+     * Wraps the output with the first {@code OutputModifier}s of the chain.
+     * 
+     * @param targetStream
+     *            the {@code OutputStream} to be wrapped.
+     * @param predictedInputLengths
+     *            input length for each modifier
+     * @param endIndex
+     *            index of the first modifier <strong>not</strong> to apply
+     * @return the {@initialStream} or {@initialStream} wrapped with {@code OutputModifier}s
+     * @throws RWException
+     */
+    private OutputStream wrapWithOutputModifiers( OutputStream targetStream, final long[] predictedInputLengths, final int endIndex )
+            throws RWException {
         OutputStream wrapped = targetStream;
         if ( this.outputModifierChain != null ) {
-            final int startIndex = this.outputModifierChain.length - 1;
+            final int startIndex = endIndex - 1;
             final Properties allProperties = getProperties();
-            for ( int runIndex = startIndex; runIndex >= 0; --runIndex ) {
-                OutputModifier modifier = this.outputModifierChain[runIndex];
-                wrapped = modifier.forOutput( wrapped, allProperties );
-                getLogger().info( "Modifier for " + U.w( modifier.toString() ) + " has been applied successfully." );
+            final boolean fuse = !"false".equalsIgnoreCase( allProperties.getProperty( FUSE_CHAIN_PROPERTY, defaultFuseChain ) );
+            try {
+                for ( int runIndex = startIndex; runIndex >= 0; --runIndex ) {
+                    final int firstIndex = fuse
+                            ? ModifierChainCompiler.startOfFusableRun( this.outputModifierChain, runIndex, allProperties ) : runIndex;
+                    if ( firstIndex < runIndex ) {
+                        wrapped = ModifierChainCompiler.fuse( this.outputModifierChain, firstIndex, runIndex, wrapped, allProperties,
+                                predictedInputLengths );
+                        getLogger().info( "Modifiers " + U.w( firstIndex ) + " to " + U.w( runIndex ) + " have been applied as fused stage." );
+                        runIndex = firstIndex;
+                        continue;
+                    }
+                    OutputModifier modifier = this.outputModifierChain[runIndex];
+                    allProperties.put( LengthPredicting.PREDICTED_INPUT_LENGTH_PROPERTY,
+                            String.valueOf( predictedInputLengths[runIndex] ) );
+                    wrapped = modifier.forOutput( wrapped, allProperties );
+                    getLogger().info( "Modifier for " + U.w( modifier.toString() ) + " has been applied successfully." );
+                }
+            } finally {
+                allProperties.remove( LengthPredicting.PREDICTED_INPUT_LENGTH_PROPERTY );
             }
         }
         return wrapped;
     }
 
+    /**
+     * Folds the length predictions of the {@code OutputModifier}s.
+     * <p>
+     * The predictions are done in the order the data will flow through the modifiers. Once a modifier
+     * cannot predict its output length all following modifiers will get {@link LengthPredicting#UNPREDICTABLE}.
+     * <p>
+     * If a source file is given, the input length of an {@link InputLengthDependent} modifier which cannot be predicted
+     * will be measured by {@link #measureInputLength(File, long[], int) a first pass} over the file's content.
+     * 
+     * @param sourceLength
+     *            number of bytes which will be written to the first modifier
+     * @param allProperties
+     *            properties of the current distribution
+     * @param measurable
+     *            file to be distributed if lengths may be measured, {@code null} else
+     * @return the predicted input length for each modifier followed by the predicted length of the output
+     * @throws RWException
+     *             if measuring fails
+     */
+    private long[] predictInputLengths( final long sourceLength, final Properties allProperties, final File measurable )
+            throws RWException {
+        final long[] predictedInputLengths = new long[this.outputModifierChain.length + 1];
+        long length = sourceLength;
+        for ( int runIndex = 0; runIndex < this.outputModifierChain.length; runIndex++ ) {
+            if ( length == LengthPredicting.UNPREDICTABLE && measurable != null
+                    && this.outputModifierChain[runIndex] instanceof InputLengthDependent ) {
+                length = measureInputLength( measurable, predictedInputLengths, runIndex );
+            }
+            predictedInputLengths[runIndex] = length;
+            if ( length != LengthPredicting.UNPREDICTABLE ) {
+                OutputModifier modifier = this.outputModifierChain[runIndex];
+                length = (modifier instanceof LengthPredicting)
+                        ? ((LengthPredicting) modifier).predictedLength( length, allProperties ) : LengthPredicting.UNPREDICTABLE;
+            }
+        }
+        if ( getLogger().isDebugEnabled() ) {
+            getLogger().debug( "Predicted output length is " + U.w( length ) + " for source length " + U.w( sourceLength ) );
+        }
+        predictedInputLengths[this.outputModifierChain.length] = length;
+        return predictedInputLengths;
+    }
+
+    /**
+     * Measures the input length of a modifier by running the content through the modifiers before it into a
+     * counting sink.
+     * <p>
+     * The content is read again from the file for this. So the modifiers must be deterministic with regards to the
+     * number of bytes they produce.
+     * 
+     * @param sourceFile
+     *            file to be distributed
+     * @param predictedInputLengths
+     *            input lengths of the modifiers before the one to measure for
+     * @param modifierIndex
+     *            index of the modifier to measure the input length for
+     * @return number of bytes the modifier will get
+     * @throws RWException
+     */
+    private long measureInputLength( final File sourceFile, final long[] predictedInputLengths, final int modifierIndex )
+            throws RWException {
+        getLogger().info( "Measuring input length for " + U.w( this.outputModifierChain[modifierIndex].toString() ) + " ..." );
+        final CountingOutputStream sink = new CountingOutputStream();
+        InputStream source = null;
+        try {
+            final OutputStream measuring = wrapWithOutputModifiers( sink, predictedInputLengths, modifierIndex );
+            source = getContent( sourceFile );
+            IOUtility.copyFromTo( source, measuring );
+            measuring.close();
+        } catch ( RWException rwException ) {
+            throw rwException;
+        } catch ( Exception any ) {
+            getLogger().error( "Error on measuring input length!", any );
+            throw asRWException( any );
+        } finally {
+            if ( source != null ) {
+                try {
+                    source.close();
+                } catch ( Exception ignore ) {}
+            }
+        }
+        getLogger().info( "Measured " + U.w( sink.count() ) + " bytes." );
+        return sink.count();
+    }
+
     /**
      * Starts a new distribution cycle for a report to this destination.
      * 
@@ -332,7 +612,7 @@ public abstract class ModifyingDestination extends MgpDestination {
     private void buildInputModifierChainFrom( final List declarationsExtracted ) throws Exception {
         final boolean hasDeclarations = declarationsExtracted != null && declarationsExtracted.size() > 0;
         if ( hasDeclarations ) {
-            this.outputModifierChain = new OutputModifier[declarationsExtracted.size()];
+            this.inputModifierChain = new InputModifier[declarationsExtracted.size()];
             int targetIndex = 0;
             Iterator toInstantiate = declarationsExtracted.iterator();
             while ( toInstantiate.hasNext() ) {
@@ -546,6 +826,10 @@ public abstract class ModifyingDestination extends MgpDestination {
      */
     public static void init( Properties destinationsProperties ) throws RWException {
         MgpDestination.init( destinationsProperties );
+        defaultBufferingMode = destinationsProperties.getProperty( BUFFERING_MODE_PROPERTY, BUFFERING_MODE_BUFFER );
+        defaultTwoPassThreshold = Units.parseLength( destinationsProperties.getProperty( TWOPASS_THRESHOLD_PROPERTY ),
+                defaultTwoPassThreshold );
+        defaultFuseChain = destinationsProperties.getProperty( FUSE_CHAIN_PROPERTY, defaultFuseChain );
         DestinationRegistrar.registerConfiguredModifiersFrom( destinationsProperties );
         DestinationRegistrar.registerConfiguredContentProvidersFrom( destinationsProperties );
         DestinationRegistrar.listAll();
@@ -29,6 +29,8 @@ import de.mgpit.oracle.reports.plugin.destination.content.io.BufferingHeaderOutp
 import de.mgpit.oracle.reports.plugin.destination.content.types.BufferingHeader;
 import de.mgpit.oracle.reports.plugin.destination.content.types.Content;
 import de.mgpit.oracle.reports.plugin.destination.content.types.Header;
+import de.mgpit.oracle.reports.plugin.destination.content.types.InputLengthDependent;
+import de.mgpit.oracle.reports.plugin.destination.content.types.LengthPredicting;
 import de.mgpit.oracle.reports.plugin.destination.content.types.OutputModifier;
 import de.mgpit.oracle.reports.plugin.destination.content.types.WithModel;
 import oracle.reports.RWException;
@@ -40,7 +42,7 @@ import oracle.reports.utility.Utility;
  *
  *         Don't inherit from PluggableContentHeaderDecorator - don't want to implement InputModifier
  */
-public class BufferingHeaderDecorator implements WithModel, OutputModifier {
+public class BufferingHeaderDecorator implements WithModel, OutputModifier, InputLengthDependent {
 
     private BufferingHeader bufferingHeader;
 
@@ -69,9 +71,24 @@ public class BufferingHeaderDecorator implements WithModel, OutputModifier {
      */
     /**
      * Applies a {@code Header} to an {@code OutputStream}.
+     * <p>
+     * If the length of the payload has been predicted, passed as {@link LengthPredicting#PREDICTED_INPUT_LENGTH_PROPERTY},
+     * the header will be written first and the payload will be streamed through. Else the payload will be buffered.
      */
     public OutputStream forOutput( OutputStream out, Properties parameters ) throws RWException {
-        return new BufferingHeaderOutputStream( out, bufferingHeader, parameters );
+        return new BufferingHeaderOutputStream( out, bufferingHeader, parameters, predictedPayloadLength( parameters ) );
+    }
+
+    private static long predictedPayloadLength( Properties parameters ) {
+        final String predicted = parameters.getProperty( LengthPredicting.PREDICTED_INPUT_LENGTH_PROPERTY );
+        if ( predicted == null ) {
+            return LengthPredicting.UNPREDICTABLE;
+        }
+        try {
+            return Long.parseLong( predicted );
+        } catch ( NumberFormatException unparsable ) {
+            return LengthPredicting.UNPREDICTABLE;
+        }
     }
 
     /*
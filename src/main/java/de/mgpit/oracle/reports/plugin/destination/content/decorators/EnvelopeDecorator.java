@@ -26,7 +26,9 @@ import java.util.Properties;
 
 import de.mgpit.oracle.reports.plugin.destination.content.io.EnvelopeDecoratedInputStream;
 import de.mgpit.oracle.reports.plugin.destination.content.io.EnvelopeDecoratedOutputStream;
+import de.mgpit.oracle.reports.plugin.destination.content.types.Content;
 import de.mgpit.oracle.reports.plugin.destination.content.types.Envelope;
+import de.mgpit.oracle.reports.plugin.destination.content.types.LengthPredicting;
 import oracle.reports.RWException;
 import oracle.reports.utility.Utility;
 
@@ -36,7 +38,7 @@ import oracle.reports.utility.Utility;
  * @author mgp
  *
  */
-public abstract class EnvelopeDecorator extends ContentDecorator {
+public abstract class EnvelopeDecorator extends ContentDecorator implements LengthPredicting {
 
     public EnvelopeDecorator() {
     }
@@ -55,6 +57,40 @@ public abstract class EnvelopeDecorator extends ContentDecorator {
         return new EnvelopeDecoratedOutputStream( out, getEnvelope( parameters ) );
     }
 
+    /**
+     * Gets the {@code Envelope} to apply on output.
+     * <p>
+     * For applying the envelope within a fused stage instead of via {@link #forOutput(OutputStream, Properties)}.
+     * 
+     * @param parameters
+     *            properties of the current distribution
+     * @return the Envelope
+     * @throws RWException
+     */
+    public Envelope envelopeForOutput( final Properties parameters ) throws RWException {
+        return getEnvelope( parameters );
+    }
+
+    /**
+     * Predicts the length of the decorated data.
+     * <p>
+     * This is the length of the input plus the length of the {@code Envelope} built from the given parameters.
+     * The prediction does not keep anything, so it may be called any number of times and in any order with
+     * respect to the decoration, which builds the {@code Envelope} again from the same parameters.
+     */
+    public long predictedLength( final long inputLength, final Properties parameters ) {
+        if ( inputLength < 0 ) {
+            return UNPREDICTABLE;
+        }
+        final long envelopeLength;
+        try {
+            envelopeLength = getEnvelope( parameters ).lengthInBytes();
+        } catch ( RWException cannotBuild ) {
+            return UNPREDICTABLE;
+        }
+        return (envelopeLength == Content.UNDEFINED_LENGTH) ? UNPREDICTABLE : inputLength + envelopeLength;
+    }
+
     /**
      * Gets the Envelope.
      * 
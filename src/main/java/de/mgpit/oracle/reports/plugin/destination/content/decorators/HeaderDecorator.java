@@ -26,7 +26,9 @@ import java.util.Properties;
 
 import de.mgpit.oracle.reports.plugin.destination.content.io.HeaderDecoratedInputStream;
 import de.mgpit.oracle.reports.plugin.destination.content.io.HeaderDecoratedOutputStream;
+import de.mgpit.oracle.reports.plugin.destination.content.types.Content;
 import de.mgpit.oracle.reports.plugin.destination.content.types.Header;
+import de.mgpit.oracle.reports.plugin.destination.content.types.LengthPredicting;
 import oracle.reports.RWException;
 import oracle.reports.utility.Utility;
 
@@ -36,7 +38,7 @@ import oracle.reports.utility.Utility;
  * @author mgp
  *
  */
-public abstract class HeaderDecorator extends ContentDecorator {
+public abstract class HeaderDecorator extends ContentDecorator implements LengthPredicting {
 
     public HeaderDecorator() {}
 
@@ -54,6 +56,40 @@ public abstract class HeaderDecorator extends ContentDecorator {
         return new HeaderDecoratedOutputStream( out, getHeader( parameters ) );
     }
 
+    /**
+     * Gets the {@code Header} to apply on output.
+     * <p>
+     * For applying the header within a fused stage instead of via {@link #forOutput(OutputStream, Properties)}.
+     * 
+     * @param parameters
+     *            properties of the current distribution
+     * @return the Header
+     * @throws RWException
+     */
+    public Header headerForOutput( Properties parameters ) throws RWException {
+        return getHeader( parameters );
+    }
+
+    /**
+     * Predicts the length of the decorated data.
+     * <p>
+     * This is the length of the input plus the length of the {@code Header} built from the given parameters.
+     * The prediction does not keep anything, so it may be called any number of times and in any order with
+     * respect to the decoration, which builds the {@code Header} again from the same parameters.
+     */
+    public long predictedLength( final long inputLength, final Properties parameters ) {
+        if ( inputLength < 0 ) {
+            return UNPREDICTABLE;
+        }
+        final long headerLength;
+        try {
+            headerLength = getHeader( parameters ).lengthInBytes();
+        } catch ( RWException cannotBuild ) {
+            return UNPREDICTABLE;
+        }
+        return (headerLength == Content.UNDEFINED_LENGTH) ? UNPREDICTABLE : inputLength + headerLength;
+    }
+
     /**
      * Gets the Header.
      * 
@@ -20,49 +20,113 @@
 package de.mgpit.oracle.reports.plugin.destination.content.io;
 
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Properties;
 
-import org.apache.log4j.Logger;
-
 import de.mgpit.oracle.reports.plugin.commons.U;
 import de.mgpit.oracle.reports.plugin.commons.Units;
+import de.mgpit.oracle.reports.plugin.commons.io.ChunkedBuffer;
 import de.mgpit.oracle.reports.plugin.commons.io.IOUtility;
 import de.mgpit.oracle.reports.plugin.destination.content.types.BufferingHeader;
 import de.mgpit.oracle.reports.plugin.destination.content.types.Header;
+import de.mgpit.oracle.reports.plugin.destination.content.types.LengthPredicting;
 
 /**
+ * An {@code OutputStream} prepending a {@code Header} which needs to know the length of the payload.
+ * <p>
+ * If the payload's length is not known up front the payload will be buffered until this stream is closed.
+ * Then the header will be built and written followed by the buffered payload.
+ * <p>
+ * If the payload's length has been predicted the header will be written first and the payload will be streamed
+ * straight through. On close the number of bytes written will be checked against the prediction. On mismatch
+ * the wrapped {@code OutputStream} will <strong>not</strong> be closed, as the header written is invalid.
+ * 
  * @author mgp
  *
  */
 public class BufferingHeaderOutputStream extends OutputStream {
+    private static final int IN_MEMORY_BUFFER_SIZE = Units.ONE_MEGABYTE * 4;
 
     private final OutputStream out;
     private final Header header;
-    private final WriteBuffer writeBuffer;
+    private final ChunkedBuffer writeBuffer;
 
     private final Properties parameters;
+    private final long predictedPayloadLength;
+    private long bytesStreamed;
+    private boolean headerWritten;
     private boolean finished;
+    private boolean closed;
 
     public BufferingHeaderOutputStream( OutputStream toWrap, Header header, Properties parameters ) {
+        this( toWrap, header, parameters, LengthPredicting.UNPREDICTABLE );
+    }
+
+    /**
+     * Creates a new {@code BufferingHeaderOutputStream}.
+     * 
+     * @param toWrap
+     *            {@code OutputStream} to write to
+     * @param header
+     *            {@code Header} to prepend
+     * @param parameters
+     *            {@code Properties} for building the header
+     * @param predictedPayloadLength
+     *            number of bytes which will be written to this stream or {@link LengthPredicting#UNPREDICTABLE}
+     *            if this is not known
+     */
+    public BufferingHeaderOutputStream( OutputStream toWrap, Header header, Properties parameters, long predictedPayloadLength ) {
         super();
         U.assertNotNull( toWrap, "Cannot prepend a null OutputStream!" );
         U.assertNotNull( header, "Cannot instantiate without Header!" );
         this.out = toWrap;
         this.header = header;
         this.parameters = parameters;
-        this.writeBuffer = new WriteBuffer();
+        this.predictedPayloadLength = predictedPayloadLength;
+        this.writeBuffer = isStreaming() ? null : new ChunkedBuffer( IN_MEMORY_BUFFER_SIZE, "FrameworkHeaderOutputStream_" );
+        this.bytesStreamed = 0L;
+        this.headerWritten = false;
         this.finished = false;
+        this.closed = false;
+    }
+
+    /**
+     * Answers if the payload is streamed through - which is if its length has been predicted.
+     * 
+     * @return {@code true} if streaming, {@code false} if buffering
+     */
+    public boolean isStreaming() {
+        return predictedPayloadLength >= 0;
     }
 
     public void write( int b ) throws IOException {
-        writeBuffer.write( b );
+        if ( isStreaming() ) {
+            ensureHeaderWritten();
+            out.write( b );
+            bytesStreamed++;
+        } else {
+            writeBuffer.write( b );
+        }
+    }
+
+    /**
+     * Writes {@code len} bytes from the specified byte array starting at offset {@code off} to the buffer.
+     * 
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    public void write( byte[] b, int off, int len ) throws IOException {
+        if ( (off | len | (b.length - (len + off)) | (off + len)) < 0 ) {
+            throw new IndexOutOfBoundsException();
+        }
+        if ( isStreaming() ) {
+            ensureHeaderWritten();
+            out.write( b, off, len );
+            bytesStreamed += len;
+        } else {
+            writeBuffer.write( b, off, len );
+        }
     }
 
     /**
@@ -81,8 +145,8 @@ public class BufferingHeaderOutputStream extends OutputStream {
      * <p>
      * This will write
      * <ul>
-     * <li>the header</li>
-     * <li>the payload - which is buffered</li>
+     * <li>the header - if not streaming or nothing has been written, yet</li>
+     * <li>the payload - if buffered</li>
      * </ul>
      * to the output stream wrapped by this stream and then flush() that Output Stream.
      * 
@@ -90,16 +154,27 @@ public class BufferingHeaderOutputStream extends OutputStream {
      */
     private void finishWrite() throws IOException {
         if ( !finished ) {
-            writeHeader();
-            writeBuffer.flushTo( out );
+            if ( isStreaming() ) {
+                ensureHeaderWritten();
+            } else {
+                writeHeader( writeBuffer.size() );
+                writeBuffer.writeTo( out );
+            }
             out.flush();
             finished = true;
         }
     }
 
+    private void ensureHeaderWritten() throws IOException {
+        if ( !headerWritten ) {
+            writeHeader( predictedPayloadLength );
+        }
+    }
+
     // TODO: Delegate this to the Header??? e.g. Header::writeToOut(OutputStream)?
-    private void writeHeader() throws IOException {
-        parameters.put( BufferingHeader.SIZE_PROPERTY, writeBuffer.byteCount() );
+    private void writeHeader( long payloadLength ) throws IOException {
+        headerWritten = true;
+        parameters.put( BufferingHeader.SIZE_PROPERTY, String.valueOf( payloadLength ) );
         try {
             header.build( parameters );
         } catch ( Exception toBeWrapped ) {
@@ -119,71 +194,27 @@ public class BufferingHeaderOutputStream extends OutputStream {
      * <p>
      * Will flush this output stream and then close the wrapped {@code Outputstream}.
      * 
+     * @throws IOException
+     *             if the payload has been streamed and its length differs from the length predicted
      * @see java.io.OutputStream#close()
      */
     public void close() throws IOException {
+        if ( closed ) {
+            return;
+        }
+        closed = true;
         try {
             flush();
             finishWrite();
-        } catch ( IOException ignored ) {}
-        out.close();
-    }
-
-    private class WriteBuffer {
-        private static final int IN_MEMORY_BUFFER_SIZE = Units.ONE_MEGABYTE * 4;
-        private OutputStream buffer;
-        private int bytesWritten;
-        private boolean bufferingToFile;
-        File tmpFile;
-
-        public WriteBuffer() {
-            this.bufferingToFile = false;
-            this.buffer = new ByteArrayOutputStream( IN_MEMORY_BUFFER_SIZE );
-            this.bytesWritten = 0;
-        }
-
-        private void write( int b ) throws IOException {
-            buffer.write( b );
-            bytesWritten++;
-            if ( !bufferingToFile && bytesWritten > IN_MEMORY_BUFFER_SIZE ) {
-                switchToFileBasedBuffer();
+        } catch ( IOException ignored ) {} finally {
+            if ( writeBuffer != null ) {
+                writeBuffer.release();
             }
         }
-
-        private void switchToFileBasedBuffer() throws IOException {
-            Logger.getRootLogger().info( "Switching from In Memory Buffer to File Buffer at size " + U.w( bytesWritten ) );
-            final String prefix = "FrameworkHeaderOutputStream_";
-            final String suffix = ".buf";
-            tmpFile = File.createTempFile( prefix, suffix );
-            final InputStream source = out2in( buffer );
-            OutputStream destination = new FileOutputStream( tmpFile );
-            IOUtility.copyFromTo( source, destination );
-            try {
-                source.close();
-            } catch ( IOException ignore ) {}
-            buffer = destination;
-            bufferingToFile = true;
-        }
-
-        private InputStream out2in( OutputStream some ) {
-            final ByteArrayOutputStream byteOut = (ByteArrayOutputStream) some;
-            final InputStream byteIn = new ByteArrayInputStream( byteOut.toByteArray() );
-            return byteIn;
-        }
-
-        public String byteCount() {
-            return String.valueOf( bytesWritten );
-        }
-
-        private void flushTo( OutputStream destination ) throws IOException {
-            buffer.close();
-            final InputStream source = bufferingToFile ? IOUtility.inputStreamFromFile( tmpFile ) : out2in( buffer );
-            IOUtility.copyFromTo( source, destination );
-            if ( bufferingToFile ) {
-                try {
-                    tmpFile.delete();
-                } catch ( Exception ignore ) {}
-            }
+        if ( isStreaming() && bytesStreamed != predictedPayloadLength ) {
+            throw new IOException( "Payload length of " + U.w( bytesStreamed ) + " bytes differs from predicted length of "
+                    + U.w( predictedPayloadLength ) + " bytes. Header written is invalid!" );
         }
+        out.close();
     }
 }
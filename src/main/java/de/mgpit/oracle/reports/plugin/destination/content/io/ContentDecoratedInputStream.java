@@ -4,9 +4,21 @@ package de.mgpit.oracle.reports.plugin.destination.content.io;
 import java.io.IOException;
 import java.io.InputStream;
 
+import de.mgpit.oracle.reports.plugin.commons.Magic;
 import de.mgpit.oracle.reports.plugin.commons.U;
 import de.mgpit.oracle.reports.plugin.destination.content.types.Content;
 
+/**
+ * An {@code InputStream} decorated with some {@code Content}.
+ * <p>
+ * The decorated stream is a sequence of <em>segments</em> - e.g. the data before the payload, the payload itself and
+ * the data after the payload. Each segment is backed by an {@code InputStream} of its own. Subclasses implement the
+ * state machine walking through the segments via {@link #currentSegment()} and {@link #finishSegment()}, this class
+ * copies the data segment by segment in bulk.
+ *
+ * @author mgp
+ *
+ */
 public abstract class ContentDecoratedInputStream extends InputStream {
     public static final int CONTENT_NEW = 0;
 
@@ -25,6 +37,11 @@ public abstract class ContentDecoratedInputStream extends InputStream {
      */
     InputStream in;
 
+    /**
+     * Buffer used by the single byte {@link #read()}.
+     */
+    private final byte[] singleByte = new byte[1];
+
     public ContentDecoratedInputStream( InputStream toBeDecorated, Content decoration ) {
         this.in = toBeDecorated;
         this.decorator = decoration;
@@ -49,12 +66,138 @@ public abstract class ContentDecoratedInputStream extends InputStream {
         this.decorationData = data;
     }
 
+    /**
+     * Reads the next byte of data.
+     * <p>
+     * Delegates to {@link #read(byte[], int, int)} so there is one state machine, only.
+     *
+     * @see java.io.InputStream#read()
+     */
+    public int read() throws IOException {
+        final int bytesRead = read( singleByte, 0, 1 );
+        return (bytesRead == Magic.END_OF_STREAM) ? Magic.END_OF_STREAM : (singleByte[0] & 0xFF);
+    }
+
+    /**
+     * Reads up to {@code len} bytes of data into an array of bytes.
+     * <p>
+     * Copies whole segments in bulk and continues with the next segment when the current one is exhausted. Will
+     * not block on the payload once some bytes have been read, i.e. returns early if the payload has no more
+     * bytes {@link InputStream#available() available}.
+     *
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    public int read( byte[] b, int off, int len ) throws IOException {
+        if ( b == null ) {
+            throw new NullPointerException();
+        } else if ( off < 0 || len < 0 || len > b.length - off ) {
+            throw new IndexOutOfBoundsException();
+        } else if ( len == 0 ) {
+            return 0;
+        }
+
+        int totalBytesRead = 0;
+        while ( totalBytesRead < len && !isExhausted() ) {
+            final InputStream segment = currentSegment();
+            if ( segment == null ) {
+                finishSegment();
+                continue;
+            }
+            final int bytesRead = segment.read( b, off + totalBytesRead, len - totalBytesRead );
+            if ( bytesRead == Magic.END_OF_STREAM ) {
+                finishSegment();
+                continue;
+            }
+            totalBytesRead += bytesRead;
+            if ( inPayload() && in.available() <= 0 ) {
+                break;
+            }
+        }
+        return (totalBytesRead == 0) ? Magic.END_OF_STREAM : totalBytesRead;
+    }
+
+    /**
+     * Skips over and discards {@code n} bytes of data.
+     * <p>
+     * Skips segment by segment.
+     *
+     * @see java.io.InputStream#skip(long)
+     */
+    public long skip( long n ) throws IOException {
+        long remaining = n;
+        while ( remaining > 0 && !isExhausted() ) {
+            final InputStream segment = currentSegment();
+            if ( segment == null ) {
+                finishSegment();
+                continue;
+            }
+            final long skipped = segment.skip( remaining );
+            if ( skipped > 0 ) {
+                remaining -= skipped;
+            } else if ( segment.read() == Magic.END_OF_STREAM ) {
+                // skip() may return 0 before the end of the stream - so probe for the end
+                finishSegment();
+            } else {
+                remaining--;
+            }
+        }
+        return n - remaining;
+    }
+
+    /**
+     * Gets the number of bytes which can be read without blocking.
+     * <p>
+     * This is the number of bytes left in the current segment plus the bytes available from the payload
+     * if the payload has not been reached, yet.
+     *
+     * @see java.io.InputStream#available()
+     */
     public synchronized int available() throws IOException {
-        return inPayload() ? in.available() : 0;
+        if ( currentState == CONTENT_NEW ) {
+            finishSegment();
+        }
+        if ( isExhausted() ) {
+            return 0;
+        }
+        final InputStream segment = currentSegment();
+        int available = (segment == null) ? 0 : segment.available();
+        if ( beforePayload() ) {
+            available += in.available();
+        }
+        return available;
     }
 
     protected abstract boolean inPayload();
 
+    /**
+     * Answers if the current segment is one before the payload.
+     *
+     * @return {@code true} if the payload has not been reached, yet, {@code false} else
+     */
+    protected abstract boolean beforePayload();
+
+    /**
+     * Answers if all segments have been read.
+     *
+     * @return {@code true} if there is no more data, {@code false} else
+     */
+    protected abstract boolean isExhausted();
+
+    /**
+     * Gets the {@code InputStream} backing the current segment.
+     *
+     * @return the current segment's data or {@code null} if the current state has no data (e.g. if it is new)
+     */
+    protected abstract InputStream currentSegment();
+
+    /**
+     * Finishes the current segment and moves to the next one.
+     * <p>
+     * Implementations must release the current segment's data, open the next segment's data and
+     * switch to the {@link #nextState() next state}.
+     */
+    protected abstract void finishSegment();
+
     protected abstract void nextState();
 
     /**
@@ -72,4 +215,4 @@ public abstract class ContentDecoratedInputStream extends InputStream {
         in.close();
     }
 
-}
\ No newline at end of file
+}
@@ -20,10 +20,8 @@
 package de.mgpit.oracle.reports.plugin.destination.content.io;
 
 
-import java.io.IOException;
 import java.io.InputStream;
 
-import de.mgpit.oracle.reports.plugin.commons.Magic;
 import de.mgpit.oracle.reports.plugin.destination.content.types.Envelope;
 
 /**
@@ -38,46 +36,34 @@ public class EnvelopeDecoratedInputStream extends ContentDecoratedInputStream {
         super( toBeDecorated, envelope );
     }
 
-    public int read() throws IOException {
+    protected InputStream currentSegment() {
+        switch ( currentState ) {
+        case ENVELOPE_OPENED:
+        case ENVELOPE_CLOSING:
+            return decorationData;
+        case ENVELOPE_PAYLOAD:
+            return in;
+        default:
+            return null;
+        }
+    }
+
+    protected void finishSegment() {
         switch ( currentState ) {
         case ContentDecoratedInputStream.CONTENT_NEW:
             openEnvelopeBefore();
-            nextState();
-            return read();
-        case ENVELOPE_OPENED: {
-            final int aByte = decorationData.read();
-            if ( aByte == Magic.END_OF_STREAM ) {
-                closeData();
-                nextState();
-                return read();
-            } else {
-                return aByte;
-            }
-        }
-        case ENVELOPE_PAYLOAD: {
-            final int aByte = in.read();
-            if ( aByte == Magic.END_OF_STREAM ) {
-                openEnvelopeAfter();
-                nextState();
-                return read();
-            } else {
-                return aByte;
-            }
-        }
-        case ENVELOPE_CLOSING: {
-            final int aByte = decorationData.read();
-            if ( aByte == Magic.END_OF_STREAM ) {
-                closeData();
-                nextState();
-            }
-            return aByte;
-        }
-        case ENVELOPE_CLOSED: {
-            return Magic.END_OF_STREAM;
-        }
-        default:
-            return Magic.END_OF_STREAM;
+            break;
+        case ENVELOPE_OPENED:
+            closeData();
+            break;
+        case ENVELOPE_PAYLOAD:
+            openEnvelopeAfter();
+            break;
+        case ENVELOPE_CLOSING:
+            closeData();
+            break;
         }
+        nextState();
     }
 
     protected Envelope getEnvelope() {
@@ -96,6 +82,14 @@ public class EnvelopeDecoratedInputStream extends ContentDecoratedInputStream {
         return currentState == ENVELOPE_PAYLOAD;
     }
 
+    protected boolean beforePayload() {
+        return currentState < ENVELOPE_PAYLOAD;
+    }
+
+    protected boolean isExhausted() {
+        return currentState == ENVELOPE_CLOSED;
+    }
+
     protected void nextState() {
         switch ( currentState ) {
         case ContentDecoratedInputStream.CONTENT_NEW:
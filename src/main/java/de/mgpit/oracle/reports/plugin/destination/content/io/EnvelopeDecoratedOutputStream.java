@@ -51,6 +51,26 @@ public class EnvelopeDecoratedOutputStream extends FilterOutputStream {
     }
 
     public void write( int b ) throws IOException {
+        ensureEnvelopeOpened();
+        out.write( b );
+    }
+
+    /**
+     * Writes {@code len} bytes from the specified byte array starting at offset {@code off}.
+     * <p>
+     * Passes the bytes to the wrapped {@code OutputStream} in one call instead of writing them byte by byte.
+     * 
+     * @see java.io.FilterOutputStream#write(byte[], int, int)
+     */
+    public void write( byte[] b, int off, int len ) throws IOException {
+        if ( (off | len | (b.length - (len + off)) | (off + len)) < 0 ) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureEnvelopeOpened();
+        out.write( b, off, len );
+    }
+
+    private void ensureEnvelopeOpened() throws IOException {
         if ( !envelopeOpened ) {
             InputStream envelopeBeforeData = envelope.getBeforePayload();
             IOUtility.copyFromTo( envelopeBeforeData, out );
@@ -59,27 +79,43 @@ public class EnvelopeDecoratedOutputStream extends FilterOutputStream {
                 envelopeBeforeData.close();
             } catch ( IOException ignore ) {}
         }
-        out.write( b );
     }
     
+    /**
+     * Flushes the wrapped {@code OutputStream}.
+     * <p>
+     * Does <em>not</em> write the envelope's data after the payload. Streams stacked on top of this one may flush
+     * before having written all of their data - e.g. an encoding stream on close.
+     * 
+     * @see java.io.FilterOutputStream#flush()
+     */
     public void flush() throws IOException {
-        if ( !envelopeClosed ) {
+        out.flush();
+    }
+
+    /**
+     * Writes the envelope's data after the payload and closes the wrapped {@code OutputStream}.
+     * <p>
+     * The envelope is written completely even if there has been no payload.
+     * 
+     * @see java.io.FilterOutputStream#close()
+     */
+    public void close() throws IOException {
+        if ( envelopeClosed ) {
+            return;
+        }
+        try {
+            ensureEnvelopeOpened();
             InputStream envelopeAfterData = envelope.getAfterPayload();
             IOUtility.copyFromTo( envelopeAfterData, out );
-            envelopeClosed = true;
             try {
                 envelopeAfterData.close();
             } catch ( IOException ignore ) {}
+            out.flush();
+        } finally {
+            envelopeClosed = true;
+            out.close();
         }
-        out.flush();
     }
 
-    /*
-     * The inherited close does the right thing ...
-     * <ul>
-     * <li>flushing...</li>
-     * <li>and then closing the wrapped <code>out</code>
-     * </ul>
-     */
-
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.destination.content.io;
+
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import de.mgpit.oracle.reports.plugin.commons.Magic;
+import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.Units;
+import de.mgpit.oracle.reports.plugin.commons.io.Base64Encoder;
+import de.mgpit.oracle.reports.plugin.commons.io.Base64Encoding;
+import de.mgpit.oracle.reports.plugin.destination.content.types.Envelope;
+import de.mgpit.oracle.reports.plugin.destination.content.types.Header;
+
+/**
+ * An {@code OutputStream} applying a {@code Header}, a BASE64 encoding and an {@code Envelope} in a single stage.
+ * <p>
+ * Produces the same data as the chain {@code Header>>BASE64>>Envelope} - the envelope's data before the payload,
+ * then the encoded header and payload, then the envelope's data after the payload - without stacking a stream per
+ * step. The encoded data is collected in one preallocated buffer and written to the wrapped stream when the buffer is
+ * full and on {@link #close()}. Each of the three steps is optional.
+ *
+ * @author mgp
+ *
+ */
+public class FusedOutputStream extends FilterOutputStream {
+    /**
+     * Holds the maximum number of bytes encoded at once. A multiple of 3.
+     */
+    private static final int SLICE_SIZE = 3 * 16 * Units.ONE_KILOBYTE;
+
+    private final Header header;
+    private final Base64Encoder encoder;
+    private final Envelope envelope;
+    private final byte[] buffer;
+    private int bufferCount = 0;
+    private final byte[] singleByte = new byte[1];
+    private boolean started = false;
+    private boolean closed = false;
+
+    /**
+     * Creates a fused stage.
+     *
+     * @param toWrap
+     *            stream to write to
+     * @param header
+     *            header to put before the payload; may be {@code null}
+     * @param encoding
+     *            BASE64 encoding to apply on header and payload; may be {@code null}
+     * @param envelope
+     *            envelope to put around the - encoded - header and payload; may be {@code null}
+     */
+    public FusedOutputStream( final OutputStream toWrap, final Header header, final Base64Encoding encoding,
+            final Envelope envelope ) {
+        super( toWrap );
+        U.assertNotNull( toWrap, "Cannot wrap a null OutputStream!" );
+        this.header = header;
+        this.encoder = (encoding == null) ? null : encoding.newEncoder();
+        this.envelope = envelope;
+        this.buffer = new byte[(encoding == null) ? Units.EIGHT_KILOBYTE : encoding.maxEncodedLength( SLICE_SIZE )];
+    }
+
+    public void write( int b ) throws IOException {
+        singleByte[0] = (byte) b;
+        write( singleByte, 0, 1 );
+    }
+
+    public void write( byte[] b, int off, int len ) throws IOException {
+        if ( (off | len | (b.length - (len + off)) | (off + len)) < 0 ) {
+            throw new IndexOutOfBoundsException();
+        }
+        if ( closed ) {
+            throw new IOException( "Stream has been closed!" );
+        }
+        ensureStarted();
+        writePayload( b, off, len );
+    }
+
+    /**
+     * Writes the envelope's data before the payload and passes the header on as payload.
+     *
+     * @throws IOException
+     */
+    private void ensureStarted() throws IOException {
+        if ( started ) {
+            return;
+        }
+        started = true;
+        if ( envelope != null ) {
+            copyRaw( envelope.getBeforePayload() );
+        }
+        if ( header != null ) {
+            final InputStream headerData = header.get();
+            try {
+                final byte[] headerBuffer = new byte[Units.FOUR_KILOBYTE];
+                int bytesRead;
+                while ( (bytesRead = headerData.read( headerBuffer )) != Magic.END_OF_STREAM ) {
+                    writePayload( headerBuffer, 0, bytesRead );
+                }
+            } finally {
+                closeQuietly( headerData );
+            }
+        }
+    }
+
+    private void writePayload( final byte[] b, int off, int len ) throws IOException {
+        if ( encoder == null ) {
+            out.write( b, off, len );
+            return;
+        }
+        final Base64Encoding encoding = encoder.getEncoding();
+        while ( len > 0 ) {
+            final int slice = Math.min( len, SLICE_SIZE );
+            if ( bufferCount + encoding.maxEncodedLength( slice ) > buffer.length ) {
+                flushBuffer();
+            }
+            bufferCount += encoder.encode( b, off, slice, buffer, bufferCount );
+            off += slice;
+            len -= slice;
+        }
+    }
+
+    private void copyRaw( final InputStream data ) throws IOException {
+        try {
+            flushBuffer();
+            int bytesRead;
+            while ( (bytesRead = data.read( buffer )) != Magic.END_OF_STREAM ) {
+                out.write( buffer, 0, bytesRead );
+            }
+        } finally {
+            closeQuietly( data );
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if ( bufferCount > 0 ) {
+            out.write( buffer, 0, bufferCount );
+            bufferCount = 0;
+        }
+    }
+
+    private static void closeQuietly( final InputStream in ) {
+        try {
+            in.close();
+        } catch ( IOException ignore ) {}
+    }
+
+    /**
+     * Passes the data encoded so far to the wrapped stream and flushes it.
+     * <p>
+     * Up to two bytes may still be pending as they cannot be encoded before the next bytes or the end of the data
+     * are known.
+     *
+     * @see java.io.FilterOutputStream#flush()
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Finishes the encoding, writes the envelope's data after the payload and closes the wrapped stream.
+     *
+     * @see java.io.FilterOutputStream#close()
+     */
+    public void close() throws IOException {
+        if ( closed ) {
+            return;
+        }
+        closed = true;
+        try {
+            ensureStarted();
+            if ( encoder != null ) {
+                if ( bufferCount + encoder.getEncoding().maxEncodedLength( 0 ) > buffer.length ) {
+                    flushBuffer();
+                }
+                bufferCount += encoder.finish( buffer, bufferCount );
+            }
+            if ( envelope != null ) {
+                copyRaw( envelope.getAfterPayload() );
+            }
+            flushBuffer();
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -20,10 +20,8 @@
 package de.mgpit.oracle.reports.plugin.destination.content.io;
 
 
-import java.io.IOException;
 import java.io.InputStream;
 
-import de.mgpit.oracle.reports.plugin.commons.Magic;
 import de.mgpit.oracle.reports.plugin.destination.content.types.Header;
 
 /**
@@ -38,37 +36,27 @@ public class HeaderDecoratedInputStream extends ContentDecoratedInputStream {
         super( toBeDecorated, header );
     }
 
-    public int read() throws IOException {
+    protected InputStream currentSegment() {
+        switch ( currentState ) {
+        case HEADER_OPENED:
+            return decorationData;
+        case HEADER_PAYLOAD:
+            return in;
+        default:
+            return null;
+        }
+    }
+
+    protected void finishSegment() {
         switch ( currentState ) {
         case ContentDecoratedInputStream.CONTENT_NEW:
             openHeader();
-            nextState();
-            return read();
-        case HEADER_OPENED: {
-            final int aByte = decorationData.read();
-            if ( aByte == Magic.END_OF_STREAM ) {
-                closeData();
-                nextState();
-                return read();
-            } else {
-                return aByte;
-            }
-        }
-        case HEADER_PAYLOAD: {
-            final int aByte = in.read();
-            if ( aByte == Magic.END_OF_STREAM ) {
-                nextState();
-                return read();
-            } else {
-                return aByte;
-            }
-        }
-        case HEADER_CLOSED: {
-            return Magic.END_OF_STREAM;
-        }
-        default:
-            return Magic.END_OF_STREAM;
+            break;
+        case HEADER_OPENED:
+            closeData();
+            break;
         }
+        nextState();
     }
 
     protected Header getHeader() {
@@ -83,6 +71,14 @@ public class HeaderDecoratedInputStream extends ContentDecoratedInputStream {
         return currentState == HEADER_PAYLOAD;
     }
 
+    protected boolean beforePayload() {
+        return currentState < HEADER_PAYLOAD;
+    }
+
+    protected boolean isExhausted() {
+        return currentState == HEADER_CLOSED;
+    }
+
     protected void nextState() {
         switch ( currentState ) {
         case ContentDecoratedInputStream.CONTENT_NEW:
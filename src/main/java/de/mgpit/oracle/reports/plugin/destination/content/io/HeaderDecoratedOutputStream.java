@@ -48,6 +48,26 @@ public class HeaderDecoratedOutputStream extends FilterOutputStream {
     }
 
     public void write( int b ) throws IOException {
+        ensureHeaderWritten();
+        out.write( b );
+    }
+
+    /**
+     * Writes {@code len} bytes from the specified byte array starting at offset {@code off}.
+     * <p>
+     * Passes the bytes to the wrapped {@code OutputStream} in one call instead of writing them byte by byte.
+     * 
+     * @see java.io.FilterOutputStream#write(byte[], int, int)
+     */
+    public void write( byte[] b, int off, int len ) throws IOException {
+        if ( (off | len | (b.length - (len + off)) | (off + len)) < 0 ) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureHeaderWritten();
+        out.write( b, off, len );
+    }
+
+    private void ensureHeaderWritten() throws IOException {
         if ( !headerWritten ) {
             InputStream headerData = header.get();
             IOUtility.copyFromTo( headerData, out );
@@ -56,18 +76,25 @@ public class HeaderDecoratedOutputStream extends FilterOutputStream {
                 headerData.close();
             } catch ( IOException ignore ) {}
         }
-        out.write( b );
     }
 
     public void flush() throws IOException {
         out.flush();
     }
 
-    /*
-     * The inherited close does the right thing ...
-     * <ul>
-     * <li>flushing...</li>
-     * <li>and then closing the wrapped <code>out</code>
-     * </ul>
+    /**
+     * Closes the wrapped {@code OutputStream}.
+     * <p>
+     * The header is written even if there has been no payload.
+     * 
+     * @see java.io.FilterOutputStream#close()
      */
+    public void close() throws IOException {
+        try {
+            ensureHeaderWritten();
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
 }
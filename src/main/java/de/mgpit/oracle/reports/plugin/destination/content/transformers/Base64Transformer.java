@@ -27,21 +27,33 @@ import java.util.Properties;
 import javax.activation.MimeType;
 import javax.activation.MimeTypeParseException;
 
-import org.apache.commons.codec.binary.Base64InputStream;
-import org.apache.commons.codec.binary.Base64OutputStream;
-
+import de.mgpit.oracle.reports.plugin.commons.io.Base64Encoding;
+import de.mgpit.oracle.reports.plugin.commons.io.Base64EncodingInputStream;
+import de.mgpit.oracle.reports.plugin.commons.io.Base64EncodingOutputStream;
+import de.mgpit.oracle.reports.plugin.commons.io.ParallelBase64EncodingOutputStream;
 import de.mgpit.oracle.reports.plugin.destination.content.types.InputModifier;
+import de.mgpit.oracle.reports.plugin.destination.content.types.LengthPredicting;
 import de.mgpit.oracle.reports.plugin.destination.content.types.OutputModifier;
 import oracle.reports.RWException;
 
 /**
  * An {@code Transformation} for BASE64 encoding a {@code Stream}.
+ * <p>
+ * Encodes MIME style by default - lines of 76 characters separated by CRLF. The variant, the line length and the
+ * line separator can be set via the modifier's parameters, see {@link Base64Encoding#fromProperties(Properties)}.
+ * <p>
+ * Large reports are encoded in parallel on output. The size of the distribution is taken from
+ * {@code distribution.totalFileSize}. The threshold can be set with {@link #PARALLEL_THRESHOLD_PROPERTY}.
  * 
  * @author mgp
  *
  */
-public class Base64Transformer implements InputModifier, OutputModifier {
-    private static final boolean AS_ENCODING_STREAM = true;
+public class Base64Transformer implements InputModifier, OutputModifier, LengthPredicting {
+    /**
+     * Holds the name of the property for setting the size in bytes from which on the output will be encoded in
+     * parallel. Defaults to 16 MB. A negative value switches parallel encoding off.
+     */
+    public static final String PARALLEL_THRESHOLD_PROPERTY = "base64.parallelThreshold";
 
     public Base64Transformer() {
     }
@@ -50,16 +62,50 @@ public class Base64Transformer implements InputModifier, OutputModifier {
      * Applies the BASE64 encoding on an {@code InputStream}.
      */
     public InputStream forInput( final InputStream content, final Properties parameters ) throws RWException {
-        Base64InputStream base64Input = new org.apache.commons.codec.binary.Base64InputStream( content, AS_ENCODING_STREAM );
-        return base64Input;
+        return new Base64EncodingInputStream( content, Base64Encoding.fromProperties( parameters ) );
     }
 
     /**
      * Applies the BASE64 encoding on an {@code OutputStream}.
+     * <p>
+     * Encodes in parallel if the distribution is at least {@link #PARALLEL_THRESHOLD_PROPERTY} bytes large.
      */
     public OutputStream forOutput( final OutputStream content, final Properties parameters ) throws RWException {
-        Base64OutputStream base64Output = new org.apache.commons.codec.binary.Base64OutputStream( content, AS_ENCODING_STREAM );
-        return base64Output;
+        final Base64Encoding encoding = Base64Encoding.fromProperties( parameters );
+        if ( ParallelThreshold.isReached( parameters, PARALLEL_THRESHOLD_PROPERTY ) ) {
+            return new ParallelBase64EncodingOutputStream( content, encoding );
+        }
+        return new Base64EncodingOutputStream( content, encoding );
+    }
+
+    /**
+     * Gets the encoding to apply on output.
+     * <p>
+     * For encoding within a fused stage instead of via {@link #forOutput(OutputStream, Properties)}. Parallel
+     * encoding cannot be fused.
+     * 
+     * @param parameters
+     *            properties of the current distribution
+     * @return the encoding or {@code null} if the output will be encoded in parallel
+     */
+    public Base64Encoding encodingForOutput( final Properties parameters ) {
+        if ( ParallelThreshold.isReached( parameters, PARALLEL_THRESHOLD_PROPERTY ) ) {
+            return null;
+        }
+        return Base64Encoding.fromProperties( parameters );
+    }
+
+    /**
+     * Predicts the length of the BASE64 encoded data.
+     * <p>
+     * Every three bytes give four characters. With line breaks each line - including the last one - is terminated
+     * by the line separator.
+     */
+    public long predictedLength( final long inputLength, final Properties parameters ) {
+        if ( inputLength < 0 ) {
+            return UNPREDICTABLE;
+        }
+        return Base64Encoding.fromProperties( parameters ).encodedLength( inputLength );
     }
 
     private MimeType mimetype;
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.destination.content.transformers;
+
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import javax.activation.MimeType;
+import javax.activation.MimeTypeParseException;
+
+import org.apache.log4j.Logger;
+
+import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.io.CompressingInputStream;
+import de.mgpit.oracle.reports.plugin.commons.io.CompressingOutputStream;
+import de.mgpit.oracle.reports.plugin.commons.io.Gzip;
+import de.mgpit.oracle.reports.plugin.destination.content.types.InputModifier;
+import de.mgpit.oracle.reports.plugin.destination.content.types.OutputModifier;
+import oracle.reports.RWException;
+
+/**
+ * Base class for {@code Transformation}s compressing a {@code Stream} with {@code DEFLATE}.
+ * <p>
+ * The compression level can be set via {@link #LEVEL_PROPERTY}.
+ * 
+ * @author mgp
+ *
+ */
+public abstract class CompressingTransformer implements InputModifier, OutputModifier {
+    private static final Logger LOG = Logger.getRootLogger();
+
+    /**
+     * Holds the name of the property for setting the compression level. From {@code 0} (no compression) to {@code 9}
+     * (best compression). Defaults to {@code 6}.
+     */
+    public static final String LEVEL_PROPERTY = "compress.level";
+
+    private final boolean gzip;
+    private final String mimetypeLiteral;
+    private MimeType mimetype;
+
+    protected CompressingTransformer( final boolean gzip, final String mimetypeLiteral ) {
+        this.gzip = gzip;
+        this.mimetypeLiteral = mimetypeLiteral;
+    }
+
+    /**
+     * Applies the compression on an {@code InputStream}.
+     */
+    public InputStream forInput( final InputStream content, final Properties parameters ) throws RWException {
+        return new CompressingInputStream( content, level( parameters ), gzip );
+    }
+
+    /**
+     * Applies the compression on an {@code OutputStream}.
+     */
+    public OutputStream forOutput( final OutputStream content, final Properties parameters ) throws RWException {
+        return new CompressingOutputStream( content, level( parameters ), gzip );
+    }
+
+    /**
+     * Gets the compression level from the parameters given.
+     * 
+     * @param parameters
+     *            properties of the current distribution
+     * @return the compression level
+     */
+    protected static int level( final Properties parameters ) {
+        final String literal = (parameters == null) ? null : parameters.getProperty( LEVEL_PROPERTY );
+        if ( U.isEmpty( literal ) ) {
+            return Gzip.DEFAULT_LEVEL;
+        }
+        try {
+            final int level = Integer.parseInt( literal.trim() );
+            if ( level >= 0 && level <= 9 ) {
+                return level;
+            }
+        } catch ( NumberFormatException unparsable ) {
+            // fall through
+        }
+        LOG.warn( "Invalid compression level " + U.w( literal ) + ". Using " + U.w( Gzip.DEFAULT_LEVEL ) );
+        return Gzip.DEFAULT_LEVEL;
+    }
+
+    /**
+     * Gets the {@code MimeType} of the compressed data.
+     */
+    public MimeType mimetype() {
+        if ( mimetype == null ) {
+            try {
+                mimetype = new MimeType( mimetypeLiteral );
+            } catch ( MimeTypeParseException unparsable ) {
+                mimetype = new MimeType();
+            }
+        }
+        return this.mimetype;
+    }
+}
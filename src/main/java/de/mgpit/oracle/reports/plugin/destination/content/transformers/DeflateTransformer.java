@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.destination.content.transformers;
+
+
+/**
+ * An {@code Transformation} for compressing a {@code Stream} as raw {@code DEFLATE} data (RFC 1951) - without
+ * {@code GZIP} or {@code ZLIB} header and trailer.
+ * <p>
+ * Register with
+ * 
+ * <pre>
+ * {@code
+ *     <property name="modifier.DEFLATE" value="de.mgpit.oracle.reports.plugin.destination.content.transformers.DeflateTransformer"/>
+ * }
+ * </pre>
+ * <p>
+ * Always compresses on a single thread. Independently compressed blocks cannot be joined into a single raw
+ * {@code DEFLATE} stream without flushing the compressor, which the Reports Server's JVM does not provide.
+ * 
+ * @author mgp
+ *
+ */
+public class DeflateTransformer extends CompressingTransformer {
+
+    public DeflateTransformer() {
+        super( false, "application/octet-stream" );
+    }
+
+    /**
+     * Gets the file extension which should be used for filenames of files storing data produced by this transformation.
+     * 
+     * @return string denoting the file extension
+     */
+    public String fileExtension() {
+        return "deflate";
+    }
+}
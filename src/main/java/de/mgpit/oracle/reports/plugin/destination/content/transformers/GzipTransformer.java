@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.destination.content.transformers;
+
+
+import java.io.OutputStream;
+import java.util.Properties;
+
+import de.mgpit.oracle.reports.plugin.commons.io.ParallelGzipOutputStream;
+import oracle.reports.RWException;
+
+/**
+ * An {@code Transformation} for compressing a {@code Stream} in the {@code GZIP} format.
+ * <p>
+ * Register with
+ * 
+ * <pre>
+ * {@code
+ *     <property name="modifier.GZIP" value="de.mgpit.oracle.reports.plugin.destination.content.transformers.GzipTransformer"/>
+ * }
+ * </pre>
+ * <p>
+ * Large reports are compressed in parallel on output - {@code pigz} style. The data is split into blocks of 128 KB
+ * which are compressed into {@code GZIP} members of their own. The threshold can be set with
+ * {@link #PARALLEL_THRESHOLD_PROPERTY}.
+ * 
+ * @author mgp
+ *
+ */
+public class GzipTransformer extends CompressingTransformer {
+    /**
+     * Holds the name of the property for setting the size in bytes from which on the output will be compressed in
+     * parallel. Defaults to 16 MB. A negative value switches parallel compression off.
+     */
+    public static final String PARALLEL_THRESHOLD_PROPERTY = "compress.parallelThreshold";
+
+    public GzipTransformer() {
+        super( true, "application/gzip" );
+    }
+
+    /**
+     * Applies the compression on an {@code OutputStream}.
+     * <p>
+     * Compresses in parallel if the distribution is at least {@link #PARALLEL_THRESHOLD_PROPERTY} bytes large.
+     */
+    public OutputStream forOutput( final OutputStream content, final Properties parameters ) throws RWException {
+        if ( ParallelThreshold.isReached( parameters, PARALLEL_THRESHOLD_PROPERTY ) ) {
+            return new ParallelGzipOutputStream( content, level( parameters ) );
+        }
+        return super.forOutput( content, parameters );
+    }
+
+    /**
+     * Gets the file extension which should be used for filenames of files storing data produced by this transformation.
+     * 
+     * @return string denoting the file extension
+     */
+    public String fileExtension() {
+        return "gz";
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.destination.content.transformers;
+
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import javax.activation.MimeType;
+import javax.activation.MimeTypeParseException;
+
+import de.mgpit.oracle.reports.plugin.commons.io.Lz4FrameInputStream;
+import de.mgpit.oracle.reports.plugin.commons.io.Lz4FrameOutputStream;
+import de.mgpit.oracle.reports.plugin.destination.content.types.InputModifier;
+import de.mgpit.oracle.reports.plugin.destination.content.types.OutputModifier;
+import oracle.reports.RWException;
+
+/**
+ * An {@code Transformation} for compressing a {@code Stream} into an {@code LZ4} frame.
+ * <p>
+ * Trades compression ratio for speed - much faster than {@code GZIP}. Frames can be read by the {@code lz4} command
+ * line tool and the {@code LZ4} libraries. Register with
+ * 
+ * <pre>
+ * {@code
+ *     <property name="modifier.LZ4" value="de.mgpit.oracle.reports.plugin.destination.content.transformers.Lz4Transformer"/>
+ * }
+ * </pre>
+ * 
+ * and use it like any other modifier, e.g. {@code apply=LZ4>>BASE64>>CDM(simple)}.
+ * 
+ * @author mgp
+ *
+ */
+public class Lz4Transformer implements InputModifier, OutputModifier {
+
+    public Lz4Transformer() {
+    }
+
+    /**
+     * Applies the {@code LZ4} compression on an {@code InputStream}.
+     */
+    public InputStream forInput( final InputStream content, final Properties parameters ) throws RWException {
+        return new Lz4FrameInputStream( content );
+    }
+
+    /**
+     * Applies the {@code LZ4} compression on an {@code OutputStream}.
+     */
+    public OutputStream forOutput( final OutputStream content, final Properties parameters ) throws RWException {
+        return new Lz4FrameOutputStream( content );
+    }
+
+    private MimeType mimetype;
+
+    /**
+     * Gets a {@code MimeType} of {@code application/x-lz4} for this transformer.
+     */
+    public MimeType mimetype() {
+        if ( mimetype == null ) {
+            try {
+                mimetype = new MimeType( "application/x-lz4" );
+            } catch ( MimeTypeParseException unparsable ) {
+                mimetype = new MimeType();
+            }
+        }
+        return this.mimetype;
+    }
+
+    /**
+     * Gets the file extension which should be used for filenames of files storing data produced by this transformation.
+     * 
+     * @return string denoting the file extension
+     */
+    public String fileExtension() {
+        return "lz4";
+    }
+}
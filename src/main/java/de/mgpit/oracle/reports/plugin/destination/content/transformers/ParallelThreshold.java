@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.destination.content.transformers;
+
+
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.Units;
+
+/**
+ * Decides if a transformation should be run in parallel.
+ * <p>
+ * A transformation runs in parallel if the size of the distribution, taken from {@code distribution.totalFileSize},
+ * reaches a threshold. The threshold can be set per transformation via a property. A negative threshold switches
+ * running in parallel off.
+ *
+ * @author mgp
+ *
+ */
+final class ParallelThreshold {
+    private static final Logger LOG = Logger.getRootLogger();
+
+    public static final long DEFAULT_THRESHOLD = 16 * Units.ONE_MEGABYTE;
+    private static final String TOTAL_FILE_SIZE_PROPERTY = "distribution.totalFileSize";
+
+    private ParallelThreshold() {
+    }
+
+    /**
+     * Tests if the threshold is reached.
+     *
+     * @param parameters
+     *            properties of the current distribution
+     * @param thresholdProperty
+     *            name of the property holding the threshold
+     * @return {@code true} if the distribution is at least as large as the threshold, {@code false} else
+     */
+    static boolean isReached( final Properties parameters, final String thresholdProperty ) {
+        if ( parameters == null ) {
+            return false;
+        }
+        final long threshold = Units.parseLength( parameters.getProperty( thresholdProperty ), DEFAULT_THRESHOLD );
+        final long totalFileSize = Units.parseLength( parameters.getProperty( TOTAL_FILE_SIZE_PROPERTY ), -1L );
+        final boolean reached = threshold >= 0 && totalFileSize >= threshold;
+        if ( reached ) {
+            LOG.info( "Distribution of " + U.w( totalFileSize ) + " bytes reaches " + U.w( thresholdProperty ) + " of "
+                    + U.w( threshold ) + " bytes. Running in parallel." );
+        }
+        return reached;
+    }
+}
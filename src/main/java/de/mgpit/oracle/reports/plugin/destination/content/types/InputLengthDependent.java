@@ -0,0 +1,36 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.destination.content.types;
+
+
+/**
+ * Marks a {@code Modifier} whose output depends on the total length of its input - e.g. a header carrying the
+ * size of the payload.
+ * <p>
+ * Such a modifier has to buffer its input unless it finds the length as
+ * {@link LengthPredicting#PREDICTED_INPUT_LENGTH_PROPERTY} in its parameters. If the length cannot be predicted
+ * the {@code ModifyingDestination} may measure it with a first pass over the content.
+ *
+ * @author mgp
+ *
+ */
+public interface InputLengthDependent {
+
+}
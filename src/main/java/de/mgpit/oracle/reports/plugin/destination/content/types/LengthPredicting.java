@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016 Marco Pauls www.mgp-it.de
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * @license APACHE-2.0
+ */
+package de.mgpit.oracle.reports.plugin.destination.content.types;
+
+
+import java.util.Properties;
+
+/**
+ * A {@code Modifier} which can tell the number of bytes it will produce from the number of bytes it gets.
+ * <p>
+ * The {@code ModifyingDestination} folds the predictions of a modifier chain together, starting with the
+ * size of the file being distributed. Each {@code OutputModifier} will find the predicted length of its input
+ * in the parameters passed to {@code forOutput} as {@link #PREDICTED_INPUT_LENGTH_PROPERTY}.
+ * If a modifier of the chain does not implement this interface, the length is unpredictable from there on.
+ *
+ * @author mgp
+ *
+ */
+public interface LengthPredicting {
+    /**
+     * Holds the magic number indicating that a length cannot be predicted.
+     */
+    public static final long UNPREDICTABLE = -1;
+
+    /**
+     * Holds the name of the parameter holding the predicted length of the modifier's input.
+     */
+    public static final String PREDICTED_INPUT_LENGTH_PROPERTY = "payload.predictedLength";
+
+    /**
+     * Predicts the number of bytes produced from the number of bytes given.
+     *
+     * @param inputLength
+     *            number of bytes this modifier will be fed with
+     * @param parameters
+     *            {@code Properties} of the current distribution
+     * @return number of bytes this modifier will produce or {@link #UNPREDICTABLE}
+     */
+    public long predictedLength( final long inputLength, final Properties parameters );
+}
@@ -80,10 +80,12 @@ public abstract class AbstractXmlEnvelope implements Envelope {
 
         final String beforeContent = text.substring( 0, cuttingPosition );
         final String afterContent = text.substring( cuttingPosition );
-        byteLength = text.getBytes().length;
         String encodingName = encoding().name();
-        envelopesDataBeforePayload = new ByteArrayInputStream( beforeContent.getBytes( encodingName ) );
-        envelopesDataAfterPayload = new ByteArrayInputStream( afterContent.getBytes( encodingName ) );
+        final byte[] beforeContentBytes = beforeContent.getBytes( encodingName );
+        final byte[] afterContentBytes = afterContent.getBytes( encodingName );
+        byteLength = beforeContentBytes.length + afterContentBytes.length;
+        envelopesDataBeforePayload = new ByteArrayInputStream( beforeContentBytes );
+        envelopesDataAfterPayload = new ByteArrayInputStream( afterContentBytes );
     }
     
     public long lengthInBytes() {
@@ -70,6 +70,18 @@ public class ConfigurationTest extends TestCase {
         assertEquals( c1, c3 ); // transitiv
     }
 
+    public void testHashCode() throws URISyntaxException {
+        Configuration c1 = Configuration.fromURILiteral( "wmq://localhost:1414/dest/queue/QMGR.IN.QUEUE@QMGR?channelName=CHANNEL_1" );
+        Configuration c2 = new Configuration( "localhost", 1414, "QMGR", "CHANNEL_1", "QMGR.IN.QUEUE" );
+        Configuration other = new Configuration( "localhost", 1414, "QMGR", "CHANNEL_1", "QMGR.OTHER.QUEUE" );
+        Configuration otherUser = new Configuration( "localhost", 1414, "QMGR", "CHANNEL_1", "QMGR.IN.QUEUE", "someone" );
+
+        assertEquals( c1.hashCode(), c2.hashCode() );
+        assertEquals( c1.hashCode(), c1.hashCode() );
+        assertFalse( c1.hashCode() == other.hashCode() );
+        assertFalse( c1.equals( otherUser ) );
+    }
+
     public void testQueryParameterOverridesWmqQmgr() {
         String expectedUriString = "wmq://localhost:1414/dest/queue/QMGR.IN.QUEUE@QMGR?channelName=CHANNEL_1";
         boolean uriOK = true;
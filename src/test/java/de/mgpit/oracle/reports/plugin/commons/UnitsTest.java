@@ -0,0 +1,16 @@
+package de.mgpit.oracle.reports.plugin.commons;
+
+
+import junit.framework.TestCase;
+
+public class UnitsTest extends TestCase {
+
+    public void testParseLength() {
+        assertEquals( 4096L, Units.parseLength( "4096", 1L ) );
+        assertEquals( 4096L, Units.parseLength( " 4096 ", 1L ) );
+        assertEquals( -1L, Units.parseLength( "-1", 1L ) );
+        assertEquals( 1L, Units.parseLength( null, 1L ) );
+        assertEquals( 1L, Units.parseLength( "", 1L ) );
+        assertEquals( 1L, Units.parseLength( "4k", 1L ) );
+    }
+}
@@ -0,0 +1,104 @@
+package de.mgpit.oracle.reports.plugin.commons.concurrent;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class GroupCommitTest extends TestCase {
+
+    private int commits = 0;
+    private int backouts = 0;
+    private boolean failOnCommit = false;
+    private final List performed = Collections.synchronizedList( new ArrayList() );
+
+    private final GroupCommit.Committable committable = new GroupCommit.Committable() {
+        public void commit() throws Exception {
+            commits++;
+            if ( failOnCommit ) {
+                throw new Exception( "Commit failed" );
+            }
+        }
+
+        public void backout() {
+            backouts++;
+        }
+    };
+
+    public void testFullBatchIsCommittedOnce() throws Exception {
+        final GroupCommit groupCommit = new GroupCommit( committable, 4, 60000L );
+        final List failures = runConcurrently( groupCommit, 4 );
+
+        assertTrue( failures.toString(), failures.isEmpty() );
+        assertEquals( 4, performed.size() );
+        assertEquals( 1, commits );
+        assertEquals( 1L, groupCommit.commitCount() );
+    }
+
+    public void testCommitsAfterMaxDelay() throws Exception {
+        final GroupCommit groupCommit = new GroupCommit( committable, 100, 10L );
+        final long started = System.currentTimeMillis();
+        groupCommit.doAndAwaitCommit( work( "single" ) );
+
+        assertEquals( 1, commits );
+        assertTrue( System.currentTimeMillis() - started >= 10L );
+    }
+
+    public void testFailedCommitIsBackedOutAndReportedToAll() throws Exception {
+        failOnCommit = true;
+        final GroupCommit groupCommit = new GroupCommit( committable, 3, 60000L );
+        final List failures = runConcurrently( groupCommit, 3 );
+
+        assertEquals( 3, failures.size() );
+        assertEquals( 1, commits );
+        assertEquals( 1, backouts );
+        assertEquals( 0L, groupCommit.commitCount() );
+    }
+
+    public void testFailedWorkIsNotCommitted() throws Exception {
+        final GroupCommit groupCommit = new GroupCommit( committable, 1, 0L );
+        try {
+            groupCommit.doAndAwaitCommit( new GroupCommit.Work() {
+                public void perform() throws Exception {
+                    throw new Exception( "Put failed" );
+                }
+            } );
+            fail( "Failure of work expected" );
+        } catch ( Exception expected ) {
+            assertEquals( "Put failed", expected.getMessage() );
+        }
+        assertEquals( 0, commits );
+    }
+
+    private GroupCommit.Work work( final String name ) {
+        return new GroupCommit.Work() {
+            public void perform() {
+                performed.add( name );
+            }
+        };
+    }
+
+    private List runConcurrently( final GroupCommit groupCommit, final int numberOfThreads ) throws InterruptedException {
+        final List failures = Collections.synchronizedList( new ArrayList() );
+        final Thread[] threads = new Thread[numberOfThreads];
+        for ( int i = 0; i < numberOfThreads; i++ ) {
+            final GroupCommit.Work work = work( "work-" + i );
+            threads[i] = new Thread( new Runnable() {
+                public void run() {
+                    try {
+                        groupCommit.doAndAwaitCommit( work );
+                    } catch ( Exception failed ) {
+                        failures.add( failed );
+                    }
+                }
+            } );
+            threads[i].start();
+        }
+        for ( int i = 0; i < numberOfThreads; i++ ) {
+            threads[i].join( 10000L );
+        }
+        return failures;
+    }
+}
@@ -0,0 +1,188 @@
+package de.mgpit.oracle.reports.plugin.commons.driver;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class InMemoryMQTest extends TestCase {
+
+    private static final MQ.Configuration QUEUE_A = new MQ.Configuration( "localhost", 1414, "QMGR", "CHANNEL_1", "QUEUE.A" );
+
+    private static final MQConnectionPool.Factory FACTORY = new MQConnectionPool.Factory() {
+        public MQ newMQ( MQ.Configuration configuration ) {
+            return new InMemoryMQ( configuration );
+        }
+    };
+
+    private InMemoryMQ.Queue queue;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        InMemoryMQ.reset();
+        queue = InMemoryMQ.queue( QUEUE_A );
+    }
+
+    protected void tearDown() throws Exception {
+        InMemoryMQ.reset();
+        super.tearDown();
+    }
+
+    public void testPutAndGet() throws Exception {
+        final MQ mq = connected();
+        send( mq.newMessage(), "Hello" );
+        send( mq.newMessage( 5L ), "World" );
+
+        assertEquals( 2, queue.depth() );
+        assertEquals( "Hello", new String( queue.get().getData() ) );
+        assertEquals( "World", new String( queue.get( 100L ).getData() ) );
+        assertNull( queue.get() );
+        assertNull( queue.get( 10L ) );
+        assertEquals( 2L, queue.putCount() );
+    }
+
+    public void testQueueFull() throws Exception {
+        queue.setMaxDepth( 1 );
+        final MQ mq = connected();
+        send( mq.newMessage(), "first" );
+        try {
+            send( mq.newMessage(), "second" );
+            fail( "Queue full expected" );
+        } catch ( IOException expected ) {
+            // as expected
+        }
+        queue.get();
+        send( mq.newMessage(), "third" );
+        assertEquals( 1, queue.depth() );
+    }
+
+    public void testInjectedFailures() throws Exception {
+        queue.failNextConnects( 1 );
+        final MQ mq = new InMemoryMQ( QUEUE_A );
+        try {
+            mq.connect();
+            fail( "Failure on connect expected" );
+        } catch ( IOException expected ) {
+            assertFalse( mq.isConnected() );
+        }
+        mq.connect();
+
+        queue.failNextPuts( 1 );
+        try {
+            send( mq.newMessage(), "lost" );
+            fail( "Failure on put expected" );
+        } catch ( IOException expected ) {
+            // as expected
+        }
+        send( mq.newMessage(), "sent" );
+        assertEquals( 1, queue.depth() );
+    }
+
+    public void testUnitOfWork() throws Exception {
+        final MQ mq = connected();
+        mq.beginUnitOfWork();
+        send( mq.newGroupMessage( -1L, 0, false ), "part 1" );
+        send( mq.newGroupMessage( -1L, 0, true ), "part 2" );
+        assertEquals( 0, queue.depth() );
+        mq.commit();
+        assertEquals( 1L, queue.commitCount() );
+
+        final List messages = queue.browse();
+        assertEquals( 2, messages.size() );
+        final InMemoryMQ.Message first = (InMemoryMQ.Message) messages.get( 0 );
+        final InMemoryMQ.Message second = (InMemoryMQ.Message) messages.get( 1 );
+        assertNotNull( first.getGroupId() );
+        assertEquals( first.getGroupId(), second.getGroupId() );
+        assertEquals( 1, first.getSequenceInGroup() );
+        assertEquals( 2, second.getSequenceInGroup() );
+        assertFalse( first.isLastInGroup() );
+        assertTrue( second.isLastInGroup() );
+
+        queue.clear();
+        queue.setMaxDepth( 1 );
+        mq.beginUnitOfWork();
+        send( mq.newGroupMessage( -1L, 0, true ), "backed out" );
+        mq.backout();
+        assertEquals( 0, queue.depth() );
+        // room has been given back by the backout
+        send( mq.newMessage(), "sent" );
+        assertEquals( 1, queue.depth() );
+    }
+
+    public void testDisconnectBacksOut() throws Exception {
+        final MQ mq = connected();
+        mq.beginUnitOfWork();
+        send( mq.newMessage(), "backed out" );
+        mq.disconnect();
+        assertEquals( 0, queue.depth() );
+        assertFalse( mq.isConnected() );
+    }
+
+    public void testGroupCommitOnSharedConnection() throws Exception {
+        final MQSharedConnections shared = new MQSharedConnections( FACTORY, 10, 5L );
+        final List failures = Collections.synchronizedList( new ArrayList() );
+        final Thread[] senders = new Thread[8];
+        for ( int i = 0; i < senders.length; i++ ) {
+            final String payload = "report " + i;
+            senders[i] = new Thread( new Runnable() {
+                public void run() {
+                    try {
+                        final MQ mq = shared.get( QUEUE_A );
+                        send( mq.newMessage(), payload );
+                        shared.release( mq );
+                    } catch ( Exception failed ) {
+                        failures.add( failed );
+                    }
+                }
+            } );
+            senders[i].start();
+        }
+        for ( int i = 0; i < senders.length; i++ ) {
+            senders[i].join( 10000L );
+        }
+        shared.drain();
+
+        assertTrue( failures.toString(), failures.isEmpty() );
+        assertEquals( senders.length, queue.depth() );
+        final Set payloads = new HashSet();
+        final Iterator messages = queue.browse().iterator();
+        while ( messages.hasNext() ) {
+            payloads.add( new String( ((InMemoryMQ.Message) messages.next()).getData() ) );
+        }
+        assertEquals( senders.length, payloads.size() );
+    }
+
+    public void testPipelineEndToEnd() throws Exception {
+        queue.setPutLatencyMillis( 1L );
+        final MQConnectionPool pool = new MQConnectionPool( FACTORY, 2, 0, 60000L, 1000L );
+        final MQPutPipeline pipeline = new MQPutPipeline( pool, 2, 4, 1024 );
+        for ( int i = 0; i < 20; i++ ) {
+            send( pipeline.newMessage( QUEUE_A ), "report " + i );
+        }
+        assertTrue( pipeline.shutdown( 10000L ) );
+        pool.drain();
+
+        assertEquals( 20, queue.depth() );
+        for ( int i = 0; i < 20; i++ ) {
+            assertEquals( "report " + i, new String( queue.get().getData() ) );
+        }
+    }
+
+    private static MQ connected() throws Exception {
+        final MQ mq = new InMemoryMQ( QUEUE_A );
+        mq.connect();
+        return mq;
+    }
+
+    private static void send( final OutputStream message, final String payload ) throws IOException {
+        message.write( payload.getBytes() );
+        message.close();
+    }
+}
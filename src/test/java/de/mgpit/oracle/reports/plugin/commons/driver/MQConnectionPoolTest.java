@@ -0,0 +1,200 @@
+package de.mgpit.oracle.reports.plugin.commons.driver;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+public class MQConnectionPoolTest extends TestCase {
+
+    private static final MQ.Configuration QUEUE_A = new MQ.Configuration( "localhost", 1414, "QMGR", "CHANNEL_1", "QUEUE.A" );
+    private static final MQ.Configuration QUEUE_B = new MQ.Configuration( "localhost", 1414, "QMGR", "CHANNEL_1", "QUEUE.B" );
+
+    private CountingFactory factory;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        factory = new CountingFactory();
+    }
+
+    public void testReusesConnection() throws Exception {
+        final MQConnectionPool pool = new MQConnectionPool( factory, 2, 1, 60000L, 0L );
+        final MQ first = pool.borrow( QUEUE_A );
+        pool.giveBack( first );
+        final MQ second = pool.borrow( QUEUE_A );
+        assertSame( first, second );
+        assertEquals( 1, factory.created );
+        assertEquals( 1, ((CountingMQ) first).connects );
+        assertEquals( 0, ((CountingMQ) first).disconnects );
+        pool.giveBack( second );
+        pool.drain();
+        assertEquals( 1, ((CountingMQ) first).disconnects );
+    }
+
+    public void testKeyedByConfiguration() throws Exception {
+        final MQConnectionPool pool = new MQConnectionPool( factory, 2, 1, 60000L, 0L );
+        final MQ a = pool.borrow( QUEUE_A );
+        pool.giveBack( a );
+        final MQ b = pool.borrow( QUEUE_B );
+        assertNotSame( a, b );
+        assertEquals( QUEUE_B, b.getConfiguration() );
+        final MQ equalToA = pool.borrow( new MQ.Configuration( "localhost", 1414, "QMGR", "CHANNEL_1", "QUEUE.A" ) );
+        assertSame( a, equalToA );
+        pool.drain();
+    }
+
+    public void testMaxSize() throws Exception {
+        final MQConnectionPool pool = new MQConnectionPool( factory, 2, 1, 60000L, 0L );
+        pool.borrow( QUEUE_A );
+        pool.borrow( QUEUE_A );
+        assertEquals( 2, pool.borrowedCount( QUEUE_A ) );
+        try {
+            pool.borrow( QUEUE_A );
+            fail( "Pool should be exhausted" );
+        } catch ( MQConnectionPool.ExhaustedException expected ) {}
+        assertNotNull( pool.borrow( QUEUE_B ) );
+        pool.drain();
+    }
+
+    public void testWaitsForConnectionGivenBack() throws Exception {
+        final MQConnectionPool pool = new MQConnectionPool( factory, 1, 1, 60000L, 5000L );
+        final MQ borrowed = pool.borrow( QUEUE_A );
+        final Thread giver = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep( 100 );
+                } catch ( InterruptedException ignored ) {}
+                pool.giveBack( borrowed );
+            }
+        };
+        giver.start();
+        assertSame( borrowed, pool.borrow( QUEUE_A ) );
+        giver.join();
+        pool.drain();
+    }
+
+    public void testValidationOnBorrow() throws Exception {
+        final MQConnectionPool pool = new MQConnectionPool( factory, 2, 1, 60000L, 0L );
+        final CountingMQ stale = (CountingMQ) pool.borrow( QUEUE_A );
+        pool.giveBack( stale );
+        stale.connected = false;
+        final MQ fresh = pool.borrow( QUEUE_A );
+        assertNotSame( stale, fresh );
+        assertEquals( 1, stale.disconnects );
+        assertEquals( 1, pool.borrowedCount( QUEUE_A ) );
+        pool.drain();
+    }
+
+    public void testInvalidate() throws Exception {
+        final MQConnectionPool pool = new MQConnectionPool( factory, 1, 1, 60000L, 0L );
+        final CountingMQ broken = (CountingMQ) pool.borrow( QUEUE_A );
+        pool.invalidate( broken );
+        assertEquals( 1, broken.disconnects );
+        assertEquals( 0, pool.borrowedCount( QUEUE_A ) );
+        assertEquals( 0, pool.idleCount( QUEUE_A ) );
+        assertNotSame( broken, pool.borrow( QUEUE_A ) );
+        pool.drain();
+    }
+
+    public void testFailingConnectReleasesSlot() throws Exception {
+        final MQConnectionPool pool = new MQConnectionPool( factory, 1, 1, 60000L, 0L );
+        factory.failing = true;
+        try {
+            pool.borrow( QUEUE_A );
+            fail( "Connect should fail" );
+        } catch ( Exception expected ) {}
+        factory.failing = false;
+        assertEquals( 0, pool.borrowedCount( QUEUE_A ) );
+        assertNotNull( pool.borrow( QUEUE_A ) );
+        pool.drain();
+    }
+
+    public void testEvictIdle() throws Exception {
+        final MQConnectionPool pool = new MQConnectionPool( factory, 3, 1, 1L, 0L );
+        final CountingMQ first = (CountingMQ) pool.borrow( QUEUE_A );
+        final CountingMQ second = (CountingMQ) pool.borrow( QUEUE_A );
+        final CountingMQ third = (CountingMQ) pool.borrow( QUEUE_A );
+        pool.giveBack( first );
+        pool.giveBack( second );
+        pool.giveBack( third );
+        Thread.sleep( 20 );
+        pool.evictIdle();
+        assertEquals( 1, pool.idleCount( QUEUE_A ) );
+        assertEquals( 1, first.disconnects );
+        assertEquals( 1, second.disconnects );
+        assertEquals( 0, third.disconnects );
+        pool.drain();
+    }
+
+    public void testNoPooling() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty( MQConnectionPool.MAX_IDLE_SECONDS_PROPERTY, "0" );
+        final MQConnectionPool pool = MQConnectionPool.fromProperties( factory, properties );
+        final CountingMQ first = (CountingMQ) pool.borrow( QUEUE_A );
+        pool.giveBack( first );
+        assertEquals( 1, first.disconnects );
+        assertNotSame( first, pool.borrow( QUEUE_A ) );
+        pool.drain();
+    }
+
+    public void testDrain() throws Exception {
+        final MQConnectionPool pool = new MQConnectionPool( factory, 2, 1, 60000L, 0L );
+        final CountingMQ idle = (CountingMQ) pool.borrow( QUEUE_A );
+        final CountingMQ busy = (CountingMQ) pool.borrow( QUEUE_A );
+        pool.giveBack( idle );
+        pool.drain();
+        assertEquals( 1, idle.disconnects );
+        assertEquals( 0, busy.disconnects );
+        pool.giveBack( busy );
+        assertEquals( 1, busy.disconnects );
+        try {
+            pool.borrow( QUEUE_A );
+            fail( "Drained pool should not hand out connections" );
+        } catch ( IllegalStateException expected ) {}
+    }
+
+    private static final class CountingFactory implements MQConnectionPool.Factory {
+        private int created = 0;
+        private boolean failing = false;
+
+        public MQ newMQ( MQ.Configuration configuration ) {
+            created++;
+            return new CountingMQ( configuration, failing );
+        }
+    }
+
+    private static final class CountingMQ extends MQ {
+        private final boolean failing;
+        private int connects = 0;
+        private int disconnects = 0;
+        private boolean connected = false;
+
+        private CountingMQ( MQ.Configuration configuration, boolean failing ) {
+            super( configuration );
+            this.failing = failing;
+        }
+
+        public void connect() throws Exception {
+            if ( failing ) {
+                throw new Exception( "Queue manager not available" );
+            }
+            connects++;
+            connected = true;
+        }
+
+        public void disconnect() {
+            disconnects++;
+            connected = false;
+        }
+
+        public boolean isConnected() {
+            return connected;
+        }
+
+        public OutputStream newMessage() {
+            return new ByteArrayOutputStream();
+        }
+    }
+}
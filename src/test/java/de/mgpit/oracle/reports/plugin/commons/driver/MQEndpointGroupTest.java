@@ -0,0 +1,93 @@
+package de.mgpit.oracle.reports.plugin.commons.driver;
+
+
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+public class MQEndpointGroupTest extends TestCase {
+
+    private static final MQ.Configuration QM1 = new MQ.Configuration( "host1", 1414, "QM1", "CHANNEL_1", "QUEUE" );
+    private static final MQ.Configuration QM2 = new MQ.Configuration( "host2", 1414, "QM2", "CHANNEL_1", "QUEUE" );
+    private static final MQ.Configuration QM3 = new MQ.Configuration( "host3", 1414, "QM3", "CHANNEL_1", "QUEUE" );
+
+    private static final MQ.Configuration[] ALL = { QM1, QM2, QM3 };
+
+    public void testRoundRobin() {
+        final MQEndpointGroup group = new MQEndpointGroup( ALL, false, 60000L );
+        assertSame( QM1, group.candidates()[0] );
+        assertSame( QM2, group.candidates()[0] );
+        assertSame( QM3, group.candidates()[0] );
+        final MQ.Configuration[] candidates = group.candidates();
+        assertEquals( 3, candidates.length );
+        assertSame( QM1, candidates[0] );
+        assertSame( QM2, candidates[1] );
+        assertSame( QM3, candidates[2] );
+    }
+
+    public void testFailedEndpointIsLeftOut() throws Exception {
+        final MQEndpointGroup group = new MQEndpointGroup( ALL, false, 50L );
+        group.failed( QM2 );
+        for ( int i = 0; i < 3; i++ ) {
+            final MQ.Configuration[] candidates = group.candidates();
+            assertEquals( 2, candidates.length );
+            assertTrue( candidates[0] != QM2 && candidates[1] != QM2 );
+        }
+        Thread.sleep( 60L );
+        assertEquals( 3, group.candidates().length );
+    }
+
+    public void testAllCandidatesIfAllFailed() {
+        final MQEndpointGroup group = new MQEndpointGroup( ALL, false, 60000L );
+        group.failed( QM1 );
+        group.failed( QM2 );
+        group.failed( QM3 );
+        final MQ.Configuration[] candidates = group.candidates();
+        assertEquals( 3, candidates.length );
+        assertSame( QM1, candidates[0] );
+        assertSame( QM2, candidates[1] );
+        assertSame( QM3, candidates[2] );
+        assertSame( QM1, group.primary() );
+
+        group.succeeded( QM3, 5L );
+        assertEquals( 1, group.candidates().length );
+    }
+
+    public void testOnlyEndpointIsNeverLeftOut() {
+        final MQ.Configuration[] only = { QM1 };
+        final MQEndpointGroup group = new MQEndpointGroup( only, false, 60000L );
+        group.failed( QM1 );
+        assertEquals( 1, group.candidates().length );
+        assertSame( QM1, group.candidates()[0] );
+    }
+
+    public void testLeastLatency() {
+        final MQEndpointGroup group = new MQEndpointGroup( ALL, true, 60000L );
+        group.succeeded( QM1, 50L );
+        group.succeeded( QM2, 5L );
+        // not measured yet - tried first
+        assertSame( QM3, group.candidates()[0] );
+        group.succeeded( QM3, 20L );
+        for ( int i = 0; i < 3; i++ ) {
+            final MQ.Configuration[] candidates = group.candidates();
+            assertSame( QM2, candidates[0] );
+            assertSame( QM3, candidates[1] );
+            assertSame( QM1, candidates[2] );
+        }
+    }
+
+    public void testParse() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty( MQEndpointGroup.BALANCING_PROPERTY, MQEndpointGroup.LEAST_LATENCY );
+        final MQEndpointGroup group = MQEndpointGroup.parse(
+                "wmq://host1:1414/dest/queue/QUEUE@QM1?channelName=CHANNEL_1, wmq://host2:1414/dest/queue/QUEUE@QM2?channelName=CHANNEL_1",
+                properties );
+        assertEquals( 2, group.size() );
+        assertEquals( QM1, group.primary() );
+        assertTrue( group.toString().indexOf( MQEndpointGroup.LEAST_LATENCY ) > 0 );
+
+        final MQEndpointGroup single = MQEndpointGroup.parse( "wmq://host3/dest/queue/QUEUE@QM3?channelName=CHANNEL_1", null );
+        assertEquals( 1, single.size() );
+        assertEquals( QM3, single.primary() );
+    }
+}
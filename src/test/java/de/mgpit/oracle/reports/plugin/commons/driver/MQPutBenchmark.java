@@ -0,0 +1,103 @@
+package de.mgpit.oracle.reports.plugin.commons.driver;
+
+
+import java.io.OutputStream;
+
+/**
+ * Compares the throughput of sending reports synchronously, with group commit and asynchronously - using the
+ * {@link InMemoryMQ} with a simulated put latency.
+ * <p>
+ * Run with the number of concurrent distributions, the reports per distribution thread, the report size in kilobytes,
+ * the put latency and the commit latency in milliseconds as arguments.
+ */
+public class MQPutBenchmark {
+
+    private static final MQ.Configuration QUEUE = new MQ.Configuration( "localhost", 1414, "QMGR", "CHANNEL_1", "BENCHMARK" );
+
+    private static final MQConnectionPool.Factory FACTORY = new MQConnectionPool.Factory() {
+        public MQ newMQ( MQ.Configuration configuration ) {
+            return new InMemoryMQ( configuration );
+        }
+    };
+
+    private interface Sender {
+        void send( byte[] report ) throws Exception;
+    }
+
+    public static void main( String[] args ) throws Exception {
+        final int threads = args.length > 0 ? Integer.parseInt( args[0] ) : 8;
+        final int reports = args.length > 1 ? Integer.parseInt( args[1] ) : 200;
+        final int kilobytes = args.length > 2 ? Integer.parseInt( args[2] ) : 64;
+        final long putLatency = args.length > 3 ? Long.parseLong( args[3] ) : 1L;
+        final long commitLatency = args.length > 4 ? Long.parseLong( args[4] ) : 5L;
+        final byte[] report = new byte[kilobytes * 1024];
+
+        InMemoryMQ.queue( QUEUE ).setMaxDepth( Integer.MAX_VALUE );
+        InMemoryMQ.queue( QUEUE ).setPutLatencyMillis( putLatency );
+        InMemoryMQ.queue( QUEUE ).setCommitLatencyMillis( commitLatency );
+
+        final MQConnectionPool pool = new MQConnectionPool( FACTORY, threads, 0, 60000L, 60000L );
+        report( "pooled sync ", threads * reports, run( threads, reports, report, new Sender() {
+            public void send( byte[] data ) throws Exception {
+                final MQ mq = pool.borrow( QUEUE );
+                write( mq.newMessage( data.length ), data );
+                pool.giveBack( mq );
+            }
+        } ) );
+
+        final MQSharedConnections shared = new MQSharedConnections( FACTORY, 50, 5L );
+        report( "group commit", threads * reports, run( threads, reports, report, new Sender() {
+            public void send( byte[] data ) throws Exception {
+                final MQ mq = shared.get( QUEUE );
+                write( mq.newMessage( data.length ), data );
+                shared.release( mq );
+            }
+        } ) );
+        shared.drain();
+
+        final MQPutPipeline pipeline = new MQPutPipeline( pool, threads, 64, 1024 * 1024 );
+        report( "async       ", threads * reports, run( threads, reports, report, new Sender() {
+            public void send( byte[] data ) throws Exception {
+                write( pipeline.newMessage( QUEUE ), data );
+            }
+        } ) );
+        pipeline.shutdown( 60000L );
+        pool.drain();
+        InMemoryMQ.reset();
+    }
+
+    private static long run( final int threads, final int reports, final byte[] report, final Sender sender )
+            throws Exception {
+        final long start = System.currentTimeMillis();
+        final Thread[] distributors = new Thread[threads];
+        for ( int i = 0; i < threads; i++ ) {
+            distributors[i] = new Thread( new Runnable() {
+                public void run() {
+                    try {
+                        for ( int r = 0; r < reports; r++ ) {
+                            sender.send( report );
+                        }
+                    } catch ( Exception failed ) {
+                        failed.printStackTrace();
+                    }
+                }
+            } );
+            distributors[i].start();
+        }
+        for ( int i = 0; i < threads; i++ ) {
+            distributors[i].join();
+        }
+        InMemoryMQ.queue( QUEUE ).clear();
+        return System.currentTimeMillis() - start;
+    }
+
+    private static void write( OutputStream message, byte[] data ) throws Exception {
+        message.write( data, 0, data.length );
+        message.close();
+    }
+
+    private static void report( String what, int messages, long millis ) {
+        System.out.println( what + ": " + millis + " ms, " + (millis == 0 ? "-" : String.valueOf( messages * 1000L / millis ))
+                + " messages/s" );
+    }
+}
@@ -0,0 +1,277 @@
+package de.mgpit.oracle.reports.plugin.commons.driver;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.mgpit.oracle.reports.plugin.commons.io.AbortableOutputStream;
+import junit.framework.TestCase;
+
+public class MQPutPipelineTest extends TestCase {
+
+    private static final MQ.Configuration QUEUE_A = new MQ.Configuration( "localhost", 1414, "QMGR", "CHANNEL_1", "QUEUE.A" );
+    private static final MQ.Configuration QUEUE_B = new MQ.Configuration( "localhost", 1414, "QMGR", "CHANNEL_1", "QUEUE.B" );
+
+    /**
+     * Holds the messages put as "queue:payload" in the order put.
+     */
+    private final List put = Collections.synchronizedList( new ArrayList() );
+    private final Object gate = new Object();
+    private boolean gateOpen = true;
+    private int putsToFail = 0;
+
+    private MQConnectionPool pool;
+    private File directory;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        pool = new MQConnectionPool( new MQConnectionPool.Factory() {
+            public MQ newMQ( MQ.Configuration configuration ) {
+                return new RecordingMQ( configuration );
+            }
+        }, 4, 1, 60000L, 5000L );
+    }
+
+    protected void tearDown() throws Exception {
+        pool.drain();
+        if ( directory != null ) {
+            final File[] files = directory.listFiles();
+            for ( int i = 0; files != null && i < files.length; i++ ) {
+                files[i].delete();
+            }
+            directory.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testPerQueueOrder() throws Exception {
+        final MQPutPipeline pipeline = new MQPutPipeline( pool, 3, 8, 16 );
+        for ( int i = 0; i < 50; i++ ) {
+            send( pipeline, QUEUE_A, "A" + i );
+            send( pipeline, QUEUE_B, "B" + i );
+        }
+        assertTrue( pipeline.shutdown( 10000L ) );
+        assertEquals( 100, put.size() );
+        int nextA = 0;
+        int nextB = 0;
+        for ( int i = 0; i < put.size(); i++ ) {
+            final String message = (String) put.get( i );
+            if ( message.startsWith( "QUEUE.A:" ) ) {
+                assertEquals( "QUEUE.A:A" + nextA++, message );
+            } else {
+                assertEquals( "QUEUE.B:B" + nextB++, message );
+            }
+        }
+        assertEquals( 0, pipeline.pendingCount() );
+    }
+
+    public void testBlocksWhenFull() throws Exception {
+        final MQPutPipeline pipeline = new MQPutPipeline( pool, 1, 1, 16 );
+        closeGate();
+        send( pipeline, QUEUE_A, "first" );
+        final Thread producer = new Thread() {
+            public void run() {
+                try {
+                    send( pipeline, QUEUE_A, "second" );
+                } catch ( IOException unexpected ) {
+                    fail( unexpected.getMessage() );
+                }
+            }
+        };
+        producer.start();
+        producer.join( 200 );
+        assertTrue( "Producer should wait while pipeline is full", producer.isAlive() );
+        openGate();
+        producer.join( 5000 );
+        assertFalse( producer.isAlive() );
+        assertTrue( pipeline.shutdown( 5000L ) );
+        assertEquals( 2, put.size() );
+    }
+
+    public void testRejectsAfterShutdown() throws Exception {
+        final MQPutPipeline pipeline = new MQPutPipeline( pool, 1, 4, 16 );
+        assertTrue( pipeline.shutdown( 1000L ) );
+        try {
+            pipeline.newMessage( QUEUE_A );
+            fail( "Pipeline should not accept messages after shutdown" );
+        } catch ( IOException expected ) {}
+    }
+
+    public void testShutdownTimeout() throws Exception {
+        final MQPutPipeline pipeline = new MQPutPipeline( pool, 1, 4, 16 );
+        closeGate();
+        send( pipeline, QUEUE_A, "stuck" );
+        assertFalse( pipeline.shutdown( 100L ) );
+        openGate();
+    }
+
+    public void testShutdownTimeoutCountsQueuedMessagesAsFailed() throws Exception {
+        final MQPutPipeline pipeline = new MQPutPipeline( pool, null, 1, 4, 16, 1, 10L );
+        closeGate();
+        send( pipeline, QUEUE_A, "stuck" );
+        send( pipeline, QUEUE_A, "second" );
+        send( pipeline, QUEUE_A, "third" );
+        assertFalse( pipeline.shutdown( 100L ) );
+        assertEquals( 2L, pipeline.failedCount() );
+        assertEquals( 1, pipeline.pendingCount() );
+        openGate();
+        awaitDrained( pipeline );
+        assertEquals( 0, pipeline.pendingCount() );
+        assertEquals( 1, put.size() );
+        assertEquals( "QUEUE.A:stuck", put.get( 0 ) );
+        assertEquals( 2L, pipeline.failedCount() );
+    }
+
+    public void testShutdownTimeoutSpoolsQueuedMessages() throws Exception {
+        directory = new File( System.getProperty( "java.io.tmpdir" ), "mqputpipelinetest-" + System.currentTimeMillis() );
+        final MQSpool spool = new MQSpool( directory, pool, 1024 * 1024L, 4, 1L, 50L );
+        final MQPutPipeline pipeline = new MQPutPipeline( pool, spool, 1, 4, 16, 1, 10L );
+        closeGate();
+        send( pipeline, QUEUE_A, "stuck" );
+        send( pipeline, QUEUE_A, "second" );
+        send( pipeline, QUEUE_A, "third" );
+        assertFalse( pipeline.shutdown( 100L ) );
+        assertEquals( 2L, pipeline.spooledCount() );
+        assertEquals( 0L, pipeline.failedCount() );
+        openGate();
+        awaitDrained( pipeline );
+        final long deadline = System.currentTimeMillis() + 5000L;
+        while ( spool.depth() > 0 && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 10L );
+        }
+        spool.shutdown();
+        assertEquals( 0, pipeline.pendingCount() );
+        assertEquals( 3, put.size() );
+        assertTrue( put.contains( "QUEUE.A:stuck" ) );
+        assertTrue( put.contains( "QUEUE.A:second" ) );
+        assertTrue( put.contains( "QUEUE.A:third" ) );
+    }
+
+    public void testRetriesFailedPut() throws Exception {
+        final MQPutPipeline pipeline = new MQPutPipeline( pool, null, 1, 4, 16, 3, 10L );
+        failNextPuts( 2 );
+        send( pipeline, QUEUE_A, "retried" );
+        assertTrue( pipeline.shutdown( 5000L ) );
+        assertEquals( 1, put.size() );
+        assertEquals( "QUEUE.A:retried", put.get( 0 ) );
+        assertEquals( 0L, pipeline.failedCount() );
+    }
+
+    public void testDiscardsWithoutFallbackAfterLastAttempt() throws Exception {
+        final MQPutPipeline pipeline = new MQPutPipeline( pool, null, 1, 4, 16, 2, 10L );
+        failNextPuts( 2 );
+        send( pipeline, QUEUE_A, "lost" );
+        assertTrue( pipeline.shutdown( 5000L ) );
+        assertEquals( 0, put.size() );
+        assertEquals( 1L, pipeline.failedCount() );
+    }
+
+    public void testFallsBackToSpoolInOrder() throws Exception {
+        directory = new File( System.getProperty( "java.io.tmpdir" ), "mqputpipelinetest-" + System.currentTimeMillis() );
+        final MQSpool spool = new MQSpool( directory, pool, 1024 * 1024L, 4, 1L, 50L );
+        final MQPutPipeline pipeline = new MQPutPipeline( pool, spool, 1, 4, 16, 2, 10L );
+        failNextPuts( Integer.MAX_VALUE );
+        send( pipeline, QUEUE_A, "first" );
+        send( pipeline, QUEUE_A, "second" );
+        assertTrue( pipeline.shutdown( 5000L ) );
+        assertEquals( 2L, pipeline.spooledCount() );
+        assertEquals( 0L, pipeline.failedCount() );
+        assertEquals( 0, put.size() );
+
+        failNextPuts( 0 );
+        final long deadline = System.currentTimeMillis() + 5000L;
+        while ( spool.depth() > 0 && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 10L );
+        }
+        spool.shutdown();
+        assertEquals( 2, put.size() );
+        assertEquals( "QUEUE.A:first", put.get( 0 ) );
+        assertEquals( "QUEUE.A:second", put.get( 1 ) );
+    }
+
+    public void testAbortDiscardsMessage() throws Exception {
+        final MQPutPipeline pipeline = new MQPutPipeline( pool, 1, 4, 16 );
+        final OutputStream out = pipeline.newMessage( QUEUE_A );
+        out.write( "trunc".getBytes() );
+        assertTrue( AbortableOutputStream.abortIfPossible( out ) );
+        out.write( "ated".getBytes() );
+        out.close();
+        assertEquals( 0, pipeline.pendingCount() );
+        assertTrue( pipeline.shutdown( 1000L ) );
+        assertEquals( 0, put.size() );
+    }
+
+    private static void awaitDrained( final MQPutPipeline pipeline ) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000L;
+        while ( pipeline.pendingCount() > 0 && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 10L );
+        }
+    }
+
+    private synchronized void failNextPuts( final int count ) {
+        putsToFail = count;
+    }
+
+    private synchronized boolean failingPut() {
+        if ( putsToFail > 0 ) {
+            putsToFail--;
+            return true;
+        }
+        return false;
+    }
+
+    private void send( final MQPutPipeline pipeline, final MQ.Configuration configuration, final String payload )
+            throws IOException {
+        final OutputStream out = pipeline.newMessage( configuration );
+        out.write( payload.getBytes() );
+        out.close();
+    }
+
+    private void closeGate() {
+        synchronized (gate) {
+            gateOpen = false;
+        }
+    }
+
+    private void openGate() {
+        synchronized (gate) {
+            gateOpen = true;
+            gate.notifyAll();
+        }
+    }
+
+    private final class RecordingMQ extends MQ {
+        private RecordingMQ( MQ.Configuration configuration ) {
+            super( configuration );
+        }
+
+        public void connect() {}
+
+        public void disconnect() {}
+
+        public OutputStream newMessage() {
+            return new ByteArrayOutputStream() {
+                public void close() throws IOException {
+                    synchronized (gate) {
+                        while ( !gateOpen ) {
+                            try {
+                                gate.wait();
+                            } catch ( InterruptedException interrupted ) {
+                                throw new IOException( "Interrupted" );
+                            }
+                        }
+                    }
+                    if ( failingPut() ) {
+                        throw new IOException( "Injected failure on putting to " + configuration.getQueueName() );
+                    }
+                    put.add( configuration.getQueueName() + ":" + toString() );
+                }
+            };
+        }
+    }
+}
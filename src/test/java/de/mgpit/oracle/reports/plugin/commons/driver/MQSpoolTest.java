@@ -0,0 +1,214 @@
+package de.mgpit.oracle.reports.plugin.commons.driver;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import de.mgpit.oracle.reports.plugin.commons.io.AbortableOutputStream;
+import junit.framework.TestCase;
+
+public class MQSpoolTest extends TestCase {
+
+    private static final MQ.Configuration QUEUE_A = new MQ.Configuration( "localhost", 1414, "QMGR", "CHANNEL_1", "QUEUE.A",
+            "reports" );
+    private static final MQ.Configuration QUEUE_B = new MQ.Configuration( "localhost", 1414, "QMGR", "CHANNEL_1", "QUEUE.B",
+            "" );
+
+    private static final MQConnectionPool.Factory FACTORY = new MQConnectionPool.Factory() {
+        public MQ newMQ( MQ.Configuration configuration ) {
+            return new InMemoryMQ( configuration );
+        }
+    };
+
+    private File directory;
+    private MQConnectionPool pool;
+    private InMemoryMQ.Queue queue;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        InMemoryMQ.reset();
+        queue = InMemoryMQ.queue( QUEUE_A );
+        directory = new File( System.getProperty( "java.io.tmpdir" ), "mqspooltest-" + System.currentTimeMillis() );
+        pool = new MQConnectionPool( FACTORY, 2, 0, 60000L, 1000L );
+    }
+
+    protected void tearDown() throws Exception {
+        pool.drain();
+        final File[] files = directory.listFiles();
+        for ( int i = 0; files != null && i < files.length; i++ ) {
+            files[i].delete();
+        }
+        directory.delete();
+        InMemoryMQ.reset();
+        super.tearDown();
+    }
+
+    public void testForwardsInOrderAfterOutage() throws Exception {
+        queue.failNextConnects( Integer.MAX_VALUE );
+        final MQSpool spool = newSpool( 1024 * 1024L );
+        for ( int i = 0; i < 5; i++ ) {
+            send( spool.newMessage( QUEUE_A, 0, false ), "report " + i );
+        }
+        assertEquals( 5L, spool.depth() );
+        Thread.sleep( 20L );
+        assertTrue( spool.lagMillis() > 0L );
+        assertEquals( 0, queue.depth() );
+
+        queue.failNextConnects( 0 );
+        awaitForwarded( spool, 5L );
+        spool.shutdown();
+
+        assertEquals( 0L, spool.depth() );
+        assertEquals( 0L, spool.lagMillis() );
+        for ( int i = 0; i < 5; i++ ) {
+            assertEquals( "report " + i, new String( queue.get().getData() ) );
+        }
+    }
+
+    public void testRecoversAfterRestart() throws Exception {
+        queue.failNextConnects( Integer.MAX_VALUE );
+        MQSpool spool = newSpool( 1024 * 1024L );
+        send( spool.newMessage( QUEUE_A, 0, false ), "first" );
+        send( spool.newMessage( QUEUE_A, 0, false ), "second" );
+        spool.shutdown();
+
+        // a crash during an append leaves an incomplete record
+        final File[] segments = directory.listFiles();
+        final File segment = segments[0].getName().endsWith( ".journal" ) ? segments[0] : segments[1];
+        final long validLength = segment.length();
+        final FileOutputStream torn = new FileOutputStream( segment, true );
+        torn.write( new byte[] { 0x4D, 0x51, 0x53, 0x50, 0, 0 } );
+        torn.close();
+
+        spool = newSpool( 1024 * 1024L );
+        assertEquals( 2L, spool.depth() );
+        assertEquals( validLength, segment.length() );
+
+        queue.failNextConnects( 0 );
+        awaitForwarded( spool, 2L );
+        send( spool.newMessage( QUEUE_A, 0, false ), "third" );
+        awaitForwarded( spool, 3L );
+        spool.shutdown();
+
+        assertEquals( "first", new String( queue.get().getData() ) );
+        assertEquals( "second", new String( queue.get().getData() ) );
+        assertEquals( "third", new String( queue.get().getData() ) );
+        assertNull( queue.get() );
+
+        // forwarded messages are not sent again
+        spool = newSpool( 1024 * 1024L );
+        assertEquals( 0L, spool.depth() );
+        spool.shutdown();
+    }
+
+    public void testRollsSegments() throws Exception {
+        queue.failNextConnects( Integer.MAX_VALUE );
+        final MQSpool spool = newSpool( 100L );
+        for ( int i = 0; i < 6; i++ ) {
+            send( spool.newMessage( QUEUE_A, 0, false ), "a report which is larger than the segment size of the journal " + i );
+        }
+        assertEquals( 6, countSegments() );
+
+        queue.failNextConnects( 0 );
+        awaitForwarded( spool, 6L );
+        spool.shutdown();
+
+        assertEquals( 6, queue.depth() );
+        assertEquals( 1, countSegments() );
+        final InMemoryMQ.Message last = (InMemoryMQ.Message) queue.browse().get( 5 );
+        assertTrue( new String( last.getData() ).endsWith( " 5" ) );
+    }
+
+    public void testCountsPendingMessagesPerTarget() throws Exception {
+        queue.failNextConnects( Integer.MAX_VALUE );
+        MQSpool spool = newSpool( 1024 * 1024L );
+        send( spool.newMessage( QUEUE_A, 0, false ), "first" );
+        send( spool.newMessage( QUEUE_A, 0, false ), "second" );
+        send( spool.newMessage( QUEUE_B, 0, false ), "other" );
+        assertEquals( 3L, spool.depth() );
+        assertEquals( 2L, spool.depth( QUEUE_A ) );
+        // an empty user id is journaled as none
+        assertEquals( 1L, spool.depth( QUEUE_B ) );
+        assertEquals( 1L, spool.depth( new MQ.Configuration( "localhost", 1414, "QMGR", "CHANNEL_1", "QUEUE.B" ) ) );
+        assertEquals( 0L, spool.depth( new MQ.Configuration( "localhost", 1414, "QMGR", "CHANNEL_1", "QUEUE.C" ) ) );
+        spool.shutdown();
+
+        spool = newSpool( 1024 * 1024L );
+        assertEquals( 2L, spool.depth( QUEUE_A ) );
+        assertEquals( 1L, spool.depth( QUEUE_B ) );
+        queue.failNextConnects( 0 );
+        awaitForwarded( spool, 3L );
+        spool.shutdown();
+        assertEquals( 0L, spool.depth( QUEUE_A ) );
+        assertEquals( 0L, spool.depth( QUEUE_B ) );
+    }
+
+    public void testParksMessageFailingRepeatedly() throws Exception {
+        queue.failNextConnects( 5 );
+        queue.failNextPuts( 2 );
+        final MQSpool spool = new MQSpool( directory, pool, 1024 * 1024L, 8, 1L, 10L, 2 );
+        send( spool.newMessage( QUEUE_A, 0, false ), "poison" );
+        send( spool.newMessage( QUEUE_A, 0, false ), "good" );
+        awaitForwarded( spool, 1L );
+        spool.shutdown();
+
+        // connect failures are an outage and do not count
+        assertEquals( 1L, spool.parkedCount() );
+        assertEquals( 0L, spool.depth() );
+        assertEquals( 0L, spool.depth( QUEUE_A ) );
+        assertEquals( "good", new String( queue.get().getData() ) );
+        assertNull( queue.get() );
+        final File parked = new File( directory, "parked.records" );
+        assertTrue( parked.length() > "poison".length() );
+    }
+
+    public void testDiscardsAbortedMessage() throws Exception {
+        queue.failNextConnects( Integer.MAX_VALUE );
+        MQSpool spool = newSpool( 1024 * 1024L );
+        final OutputStream aborted = spool.newMessage( QUEUE_A, 0, false );
+        aborted.write( "trunc".getBytes() );
+        assertTrue( AbortableOutputStream.abortIfPossible( aborted ) );
+        send( aborted, "ated" );
+        send( spool.newMessage( QUEUE_A, 0, false ), "complete" );
+        assertEquals( 1L, spool.depth() );
+        spool.shutdown();
+
+        spool = newSpool( 1024 * 1024L );
+        assertEquals( 1L, spool.depth() );
+        queue.failNextConnects( 0 );
+        awaitForwarded( spool, 1L );
+        spool.shutdown();
+        assertEquals( "complete", new String( queue.get().getData() ) );
+        assertNull( queue.get() );
+    }
+
+    private MQSpool newSpool( final long maxSegmentBytes ) throws IOException {
+        return new MQSpool( directory, pool, maxSegmentBytes, 8, 1L, 10L );
+    }
+
+    private int countSegments() {
+        int segments = 0;
+        final String[] names = directory.list();
+        for ( int i = 0; i < names.length; i++ ) {
+            if ( names[i].endsWith( ".journal" ) ) {
+                segments++;
+            }
+        }
+        return segments;
+    }
+
+    private static void awaitForwarded( final MQSpool spool, final long count ) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000L;
+        while ( spool.forwardedCount() < count && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 10L );
+        }
+        assertEquals( count, spool.forwardedCount() );
+    }
+
+    private static void send( final OutputStream message, final String payload ) throws IOException {
+        message.write( payload.getBytes() );
+        message.close();
+    }
+}
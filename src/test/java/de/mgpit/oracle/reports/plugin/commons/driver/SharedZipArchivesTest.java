@@ -0,0 +1,125 @@
+package de.mgpit.oracle.reports.plugin.commons.driver;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import de.mgpit.types.Entryname;
+import de.mgpit.types.Filename;
+import junit.framework.TestCase;
+
+public class SharedZipArchivesTest extends TestCase {
+
+    private static final int DISTRIBUTIONS = 8;
+
+    private File directory;
+    private File archiveFile;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = new File( System.getProperty( "java.io.tmpdir" ), "sharedziparchivestest-" + System.currentTimeMillis() );
+        directory.mkdirs();
+        archiveFile = new File( directory, "archive.zip" );
+    }
+
+    protected void tearDown() throws Exception {
+        final File[] files = directory.listFiles();
+        for ( int i = 0; files != null && i < files.length; i++ ) {
+            files[i].delete();
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    public void testConcurrentDistributionsAreBatched() throws Exception {
+        runConcurrently( new SharedZipArchives( false, false, DISTRIBUTIONS, 200L ) );
+    }
+
+    public void testConcurrentDistributionsAreBatchedInPlace() throws Exception {
+        final SharedZipArchives archives = new SharedZipArchives( true, true, DISTRIBUTIONS, 200L );
+        archives.append( archives.newDistribution( Filename.of( archiveFile.getPath() ) ).add( file( "first.txt", "first" ),
+                Entryname.of( "first.txt" ) ) );
+        runConcurrently( archives );
+        final ZipFile zipFile = new ZipFile( archiveFile );
+        try {
+            assertEquals( "first", content( zipFile, "first.txt" ) );
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    public void testEmptyDistributionDoesNotUpdate() throws Exception {
+        final SharedZipArchives archives = new SharedZipArchives( false, false, DISTRIBUTIONS, 0L );
+        archives.append( archives.newDistribution( Filename.of( archiveFile.getPath() ) ) );
+        assertEquals( 0L, archives.updateCount() );
+        assertFalse( archiveFile.exists() );
+    }
+
+    private void runConcurrently( final SharedZipArchives archives ) throws Exception {
+        final long updatesBefore = archives.updateCount();
+        final Exception[] failures = new Exception[DISTRIBUTIONS];
+        final Thread[] threads = new Thread[DISTRIBUTIONS];
+        for ( int i = 0; i < DISTRIBUTIONS; i++ ) {
+            final int number = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        final SharedZipArchives.Distribution distribution = archives.newDistribution( Filename.of( archiveFile
+                                .getPath() ) );
+                        distribution.add( file( "report" + number + ".txt", "Report " + number ), Entryname.of( "report" + number
+                                + ".txt" ) );
+                        distribution.add( file( "index" + number + ".txt", "Index " + number ), Entryname.of( "index.txt" ) );
+                        archives.append( distribution );
+                    } catch ( Exception failed ) {
+                        failures[number] = failed;
+                    }
+                }
+            };
+        }
+        for ( int i = 0; i < DISTRIBUTIONS; i++ ) {
+            threads[i].start();
+        }
+        for ( int i = 0; i < DISTRIBUTIONS; i++ ) {
+            threads[i].join();
+            if ( failures[i] != null ) {
+                throw failures[i];
+            }
+        }
+        assertTrue( archives.updateCount() - updatesBefore < DISTRIBUTIONS );
+
+        final ZipFile zipFile = new ZipFile( archiveFile );
+        try {
+            for ( int i = 0; i < DISTRIBUTIONS; i++ ) {
+                assertEquals( "Report " + i, content( zipFile, "report" + i + ".txt" ) );
+            }
+            assertTrue( content( zipFile, "index.txt" ).startsWith( "Index " ) );
+        } finally {
+            zipFile.close();
+        }
+        assertTrue( new File( archiveFile.getPath() + ".lock" ).exists() );
+    }
+
+    private Filename file( final String name, final String content ) throws Exception {
+        final File file = new File( directory, name );
+        final FileOutputStream out = new FileOutputStream( file );
+        out.write( content.getBytes( "UTF-8" ) );
+        out.close();
+        return Filename.of( file.getPath() );
+    }
+
+    private static String content( final ZipFile zipFile, final String name ) throws Exception {
+        final ZipEntry entry = zipFile.getEntry( name );
+        assertNotNull( "Missing entry " + name, entry );
+        final InputStream in = zipFile.getInputStream( entry );
+        final StringBuffer content = new StringBuffer();
+        int c;
+        while ( (c = in.read()) != -1 ) {
+            content.append( (char) c );
+        }
+        in.close();
+        return content.toString();
+    }
+}
@@ -0,0 +1,294 @@
+package de.mgpit.oracle.reports.plugin.commons.driver;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+
+import com.ibm.mq.MQC;
+import com.ibm.mq.MQException;
+import com.ibm.mq.MQMessage;
+import com.ibm.mq.MQPutMessageOptions;
+
+import de.mgpit.oracle.reports.plugin.commons.io.AbortableOutputStream;
+import junit.framework.TestCase;
+
+public class WebsphereMQTest extends TestCase {
+
+    private static final MQ.Configuration QUEUE = new MQ.Configuration( "host", 1414, "QMGR", "CHANNEL", "QUEUE" );
+
+    public void testPresizesMessage() throws Exception {
+        final RecordingWebsphereMQ mq = new RecordingWebsphereMQ();
+        final OutputStream message = mq.newMessage( 10L );
+        assertEquals( new Integer( 10 ), mq.presizes.get( 0 ) );
+        message.write( bytes( 4 ) );
+        message.close();
+        assertEquals( 1, mq.puts.size() );
+        assertEquals( 4, mq.put( 0 ).data.length );
+        // put outside of a unit of work
+        assertEquals( 0, mq.put( 0 ).options & MQC.MQPMO_SYNCPOINT );
+        assertEquals( 0, mq.commits );
+    }
+
+    public void testWritesMoreThanPresized() throws Exception {
+        final RecordingWebsphereMQ mq = new RecordingWebsphereMQ();
+        final OutputStream message = mq.newMessage( 10L );
+        final byte[] data = bytes( 25 );
+        message.write( data, 0, 20 );
+        message.write( data[20] );
+        message.write( data, 21, 4 );
+        message.close();
+        assertEquals( 1, mq.puts.size() );
+        assertEquals( new String( data ), new String( mq.put( 0 ).data ) );
+    }
+
+    public void testDoesNotPresizeUnknownLength() throws Exception {
+        final RecordingWebsphereMQ mq = new RecordingWebsphereMQ();
+        mq.newMessage( -1L );
+        mq.newMessage( 0L );
+        mq.newMessage( Integer.MAX_VALUE + 1L );
+        mq.newMessage();
+        assertEquals( 4, mq.presizes.size() );
+        for ( int i = 0; i < mq.presizes.size(); i++ ) {
+            assertEquals( new Integer( 0 ), mq.presizes.get( i ) );
+        }
+    }
+
+    public void testAbortedMessageIsNotPut() throws Exception {
+        final RecordingWebsphereMQ mq = new RecordingWebsphereMQ();
+        final OutputStream message = mq.newMessage( 10L );
+        message.write( bytes( 4 ) );
+        assertTrue( AbortableOutputStream.abortIfPossible( message ) );
+        message.close();
+        assertEquals( 0, mq.puts.size() );
+    }
+
+    public void testSplitsIntoSegments() throws Exception {
+        final RecordingWebsphereMQ mq = new RecordingWebsphereMQ();
+        final OutputStream message = mq.newSegmentedMessage( 4, false );
+        final byte[] data = bytes( 10 );
+        message.write( data, 0, 5 );
+        message.write( data[5] );
+        message.write( data, 6, 4 );
+        assertEquals( 2, mq.puts.size() );
+        assertEquals( 0, mq.commits );
+        message.close();
+
+        assertEquals( 3, mq.puts.size() );
+        assertPut( mq.put( 0 ), "abcd", MQC.MQMF_SEGMENT );
+        assertPut( mq.put( 1 ), "efgh", MQC.MQMF_SEGMENT );
+        assertPut( mq.put( 2 ), "ij", MQC.MQMF_LAST_SEGMENT );
+        for ( int i = 0; i < mq.puts.size(); i++ ) {
+            assertEquals( MQC.MQPMO_LOGICAL_ORDER | MQC.MQPMO_SYNCPOINT, mq.put( i ).options
+                    & (MQC.MQPMO_LOGICAL_ORDER | MQC.MQPMO_SYNCPOINT) );
+        }
+        assertEquals( 1, mq.commits );
+        assertEquals( 0, mq.backouts );
+    }
+
+    public void testFlagsLastSegmentIfFull() throws Exception {
+        final RecordingWebsphereMQ mq = new RecordingWebsphereMQ();
+        final OutputStream message = mq.newSegmentedMessage( 4, false );
+        message.write( bytes( 8 ) );
+        // the full segment is held back until it is known if more data follows
+        assertEquals( 1, mq.puts.size() );
+        message.close();
+
+        assertEquals( 2, mq.puts.size() );
+        assertPut( mq.put( 0 ), "abcd", MQC.MQMF_SEGMENT );
+        assertPut( mq.put( 1 ), "efgh", MQC.MQMF_LAST_SEGMENT );
+        assertEquals( 1, mq.commits );
+    }
+
+    public void testSingleSegment() throws Exception {
+        final RecordingWebsphereMQ mq = new RecordingWebsphereMQ();
+        final OutputStream message = mq.newSegmentedMessage( 4, false );
+        message.write( bytes( 3 ) );
+        message.close();
+        message.close();
+
+        assertEquals( 1, mq.puts.size() );
+        assertPut( mq.put( 0 ), "abc", MQC.MQMF_LAST_SEGMENT );
+        assertEquals( 1, mq.commits );
+    }
+
+    public void testSplitsIntoGroup() throws Exception {
+        final RecordingWebsphereMQ mq = new RecordingWebsphereMQ();
+        final OutputStream message = mq.newSegmentedMessage( 4, true );
+        message.write( bytes( 6 ) );
+        message.close();
+
+        assertEquals( 2, mq.puts.size() );
+        assertPut( mq.put( 0 ), "abcd", MQC.MQMF_MSG_IN_GROUP );
+        assertPut( mq.put( 1 ), "ef", MQC.MQMF_LAST_MSG_IN_GROUP );
+        assertEquals( 1, mq.commits );
+    }
+
+    public void testAbortBacksOutSegments() throws Exception {
+        final RecordingWebsphereMQ mq = new RecordingWebsphereMQ();
+        final OutputStream message = mq.newSegmentedMessage( 4, false );
+        message.write( bytes( 6 ) );
+        assertEquals( 1, mq.puts.size() );
+        assertTrue( AbortableOutputStream.abortIfPossible( message ) );
+        // ignored after abort - e.g. trailers written by modifiers being closed
+        message.write( bytes( 4 ) );
+        message.close();
+
+        assertEquals( 1, mq.puts.size() );
+        assertEquals( 0, mq.commits );
+        assertEquals( 1, mq.backouts );
+    }
+
+    public void testPutsMessageGroupInUnitOfWork() throws Exception {
+        final RecordingWebsphereMQ mq = new RecordingWebsphereMQ();
+        mq.beginUnitOfWork();
+        final OutputStream first = mq.newGroupMessage( 5L, 0, false );
+        assertEquals( new Integer( 5 ), mq.presizes.get( 0 ) );
+        first.write( "first".getBytes() );
+        first.close();
+        final OutputStream last = mq.newGroupMessage( -1L, 4, true );
+        last.write( "second".getBytes() );
+        last.close();
+        // left to the owner of the unit of work
+        assertEquals( 0, mq.commits );
+
+        assertEquals( 3, mq.puts.size() );
+        assertPut( mq.put( 0 ), "first", MQC.MQMF_MSG_IN_GROUP );
+        assertPut( mq.put( 1 ), "seco", MQC.MQMF_LAST_MSG_IN_GROUP | MQC.MQMF_SEGMENT );
+        assertPut( mq.put( 2 ), "nd", MQC.MQMF_LAST_MSG_IN_GROUP | MQC.MQMF_LAST_SEGMENT );
+        for ( int i = 0; i < mq.puts.size(); i++ ) {
+            assertEquals( MQC.MQPMO_LOGICAL_ORDER | MQC.MQPMO_SYNCPOINT, mq.put( i ).options
+                    & (MQC.MQPMO_LOGICAL_ORDER | MQC.MQPMO_SYNCPOINT) );
+        }
+
+        mq.commit();
+        assertEquals( 1, mq.commits );
+        assertEquals( 0, mq.backouts );
+    }
+
+    public void testBacksOutMessageGroup() throws Exception {
+        final RecordingWebsphereMQ mq = new RecordingWebsphereMQ();
+        mq.beginUnitOfWork();
+        final OutputStream first = mq.newGroupMessage( 5L, 0, false );
+        first.write( "first".getBytes() );
+        first.close();
+        final OutputStream aborted = mq.newGroupMessage( -1L, 4, true );
+        aborted.write( "second".getBytes() );
+        // the owner of the unit of work backs out - not the message
+        assertTrue( AbortableOutputStream.abortIfPossible( aborted ) );
+        assertEquals( 0, mq.backouts );
+
+        mq.backout();
+        assertEquals( 0, mq.commits );
+        assertEquals( 1, mq.backouts );
+    }
+
+    public void testCannotWriteAfterClose() throws Exception {
+        final RecordingWebsphereMQ mq = new RecordingWebsphereMQ();
+        final OutputStream message = mq.newSegmentedMessage( 4, false );
+        message.write( bytes( 2 ) );
+        message.close();
+        try {
+            message.write( 'x' );
+            fail( "Closed stream should not accept data!" );
+        } catch ( IOException expected ) {
+            // expected
+        }
+        // aborting a message already put backs out nothing
+        AbortableOutputStream.abortIfPossible( message );
+        assertEquals( 1, mq.commits );
+        assertEquals( 0, mq.backouts );
+    }
+
+    public void testConnectionPropertiesPerInstance() {
+        final WebsphereMQ first = new WebsphereMQ( new MQ.Configuration( "host-a", 1414, "QMGR_A", "CHANNEL_A", "QUEUE.A" ) );
+        final WebsphereMQ second = new WebsphereMQ(
+                new MQ.Configuration( "host-b", 1415, "QMGR_B", "CHANNEL_B", "QUEUE.B", "someone" ) );
+
+        final Hashtable firstProperties = first.connectionProperties();
+        final Hashtable secondProperties = second.connectionProperties();
+
+        assertEquals( MQC.TRANSPORT_MQSERIES_CLIENT, firstProperties.get( MQC.TRANSPORT_PROPERTY ) );
+        assertEquals( "host-a", firstProperties.get( MQC.HOST_NAME_PROPERTY ) );
+        assertEquals( "CHANNEL_A", firstProperties.get( MQC.CHANNEL_PROPERTY ) );
+        assertEquals( new Integer( 1414 ), firstProperties.get( MQC.PORT_PROPERTY ) );
+        assertNull( firstProperties.get( MQC.USER_ID_PROPERTY ) );
+
+        assertEquals( "host-b", secondProperties.get( MQC.HOST_NAME_PROPERTY ) );
+        assertEquals( "CHANNEL_B", secondProperties.get( MQC.CHANNEL_PROPERTY ) );
+        assertEquals( new Integer( 1415 ), secondProperties.get( MQC.PORT_PROPERTY ) );
+        assertEquals( "someone", secondProperties.get( MQC.USER_ID_PROPERTY ) );
+
+        // the first instance is not affected by the second one
+        assertEquals( "host-a", first.connectionProperties().get( MQC.HOST_NAME_PROPERTY ) );
+    }
+
+    private static void assertPut( final Put put, final String data, final int messageFlags ) {
+        assertEquals( data, new String( put.data ) );
+        assertEquals( messageFlags, put.messageFlags );
+    }
+
+    private static byte[] bytes( final int length ) {
+        final byte[] bytes = new byte[length];
+        for ( int i = 0; i < length; i++ ) {
+            bytes[i] = (byte) ('a' + i % 26);
+        }
+        return bytes;
+    }
+
+    /**
+     * Records the messages put, the commits and the backouts instead of talking to a queue manager.
+     */
+    private static final class RecordingWebsphereMQ extends WebsphereMQ {
+        private final List presizes = new ArrayList();
+        private final List puts = new ArrayList();
+        private int commits = 0;
+        private int backouts = 0;
+
+        RecordingWebsphereMQ() {
+            super( QUEUE );
+        }
+
+        protected MQMessage newMQMessage( final int presize ) throws IOException {
+            presizes.add( new Integer( presize ) );
+            return super.newMQMessage( presize );
+        }
+
+        protected void put( final MQMessage message, final MQPutMessageOptions putMessageOptions ) throws MQException {
+            try {
+                final byte[] data = new byte[message.getMessageLength()];
+                message.seek( 0 );
+                message.readFully( data );
+                puts.add( new Put( data, message.messageFlags, putMessageOptions.options ) );
+            } catch ( IOException unexpected ) {
+                fail( unexpected.toString() );
+            }
+        }
+
+        protected void commitQueueManager() {
+            commits++;
+        }
+
+        protected void backoutQueueManager() {
+            backouts++;
+        }
+
+        Put put( final int index ) {
+            return (Put) puts.get( index );
+        }
+    }
+
+    private static final class Put {
+        private final byte[] data;
+        private final int messageFlags;
+        private final int options;
+
+        Put( final byte[] data, final int messageFlags, final int options ) {
+            this.data = data;
+            this.messageFlags = messageFlags;
+            this.options = options;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package de.mgpit.oracle.reports.plugin.commons.driver;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import de.mgpit.oracle.reports.plugin.commons.concurrent.WorkerPool;
+import de.mgpit.oracle.reports.plugin.commons.io.ZipCentralDirectory;
+import de.mgpit.oracle.reports.plugin.commons.io.ZipCompressionPolicy;
+import de.mgpit.oracle.reports.plugin.commons.io.ZipWriter;
+import de.mgpit.types.Entryname;
+import de.mgpit.types.Filename;
+import junit.framework.TestCase;
+
+public class ZipArchiveTest extends TestCase {
+
+    private File directory;
+    private File archiveFile;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = new File( System.getProperty( "java.io.tmpdir" ), "ziparchivetest-" + System.currentTimeMillis() );
+        directory.mkdirs();
+        archiveFile = new File( directory, "archive.zip" );
+    }
+
+    protected void tearDown() throws Exception {
+        final File[] files = directory.listFiles();
+        for ( int i = 0; files != null && i < files.length; i++ ) {
+            files[i].delete();
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    public void testNewArchive() throws Exception {
+        final ZipArchive archive = ZipArchive.newNamed( Filename.of( archiveFile.getPath() ) );
+        add( archive, "report.pdf", "The report" );
+        add( archive, "Bericht-\u00DCbersicht.txt", "Umlauts in the name" );
+        archive.close();
+
+        final ZipFile zipFile = new ZipFile( archiveFile );
+        try {
+            assertEquals( 2, zipFile.size() );
+            assertEquals( "The report", content( zipFile, "report.pdf" ) );
+            assertEquals( "Umlauts in the name", content( zipFile, "Bericht-\u00DCbersicht.txt" ) );
+            assertEquals( "Created by ZipArchive", zipFile.getEntry( "report.pdf" ).getComment() );
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    public void testAppendCopiesExistingEntriesRaw() throws Exception {
+        final StringBuffer large = new StringBuffer();
+        for ( int i = 0; i < 10000; i++ ) {
+            large.append( "Line " ).append( i ).append( " of the monthly report\n" );
+        }
+        final ZipArchive first = ZipArchive.newNamed( Filename.of( archiveFile.getPath() ) );
+        add( first, "january.txt", large.toString() );
+        add( first, "replaced.txt", "old version" );
+        first.close();
+        final byte[] januaryBefore = rawBytes( archiveFile, "january.txt" );
+
+        final ZipArchive second = ZipArchive.newOrExistingNamed( Filename.of( archiveFile.getPath() ) );
+        add( second, "february.txt", "The next report" );
+        add( second, "replaced.txt", "new version" );
+        second.close();
+
+        final ZipFile zipFile = new ZipFile( archiveFile );
+        try {
+            assertEquals( 3, zipFile.size() );
+            assertEquals( large.toString(), content( zipFile, "january.txt" ) );
+            assertEquals( "The next report", content( zipFile, "february.txt" ) );
+            assertEquals( "new version", content( zipFile, "replaced.txt" ) );
+        } finally {
+            zipFile.close();
+        }
+        final byte[] januaryAfter = rawBytes( archiveFile, "january.txt" );
+        assertEquals( januaryBefore.length, januaryAfter.length );
+        for ( int i = 0; i < januaryBefore.length; i++ ) {
+            assertEquals( "Byte " + i, januaryBefore[i], januaryAfter[i] );
+        }
+    }
+
+    public void testAppendInPlaceWritesNewDataOnly() throws Exception {
+        final StringBuffer large = new StringBuffer();
+        for ( int i = 0; i < 10000; i++ ) {
+            large.append( "Line " ).append( i ).append( " of the monthly report\n" );
+        }
+        final ZipArchive first = ZipArchive.newNamed( Filename.of( archiveFile.getPath() ) );
+        add( first, "january.txt", large.toString() );
+        add( first, "replaced.txt", "old version" );
+        first.close();
+        final byte[] before = bytes( archiveFile );
+        final long directoryOffset = directoryOffset( archiveFile );
+
+        final ZipArchive second = ZipArchive.newOrExistingNamedInPlace( Filename.of( archiveFile.getPath() ) );
+        add( second, "february.txt", "The next report" );
+        add( second, "replaced.txt", "new version" );
+        second.close();
+
+        assertFalse( new File( archiveFile.getPath() + ".journal" ).exists() );
+        final byte[] after = bytes( archiveFile );
+        for ( int i = 0; i < directoryOffset; i++ ) {
+            assertEquals( "Byte " + i, before[i], after[i] );
+        }
+        assertTrue( after.length - before.length < 1024 );
+
+        final ZipFile zipFile = new ZipFile( archiveFile );
+        try {
+            assertEquals( 3, zipFile.size() );
+            assertEquals( large.toString(), content( zipFile, "january.txt" ) );
+            assertEquals( "The next report", content( zipFile, "february.txt" ) );
+            assertEquals( "new version", content( zipFile, "replaced.txt" ) );
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    public void testInterruptedAppendInPlaceIsRolledBack() throws Exception {
+        final ZipArchive first = ZipArchive.newNamed( Filename.of( archiveFile.getPath() ) );
+        add( first, "january.txt", "The first report" );
+        first.close();
+        final byte[] before = bytes( archiveFile );
+
+        final ZipWriter writer = ZipWriter.appendingTo( archiveFile );
+        writer.writeEntry( "february.txt", System.currentTimeMillis(), null, new ByteArrayInputStream( new byte[100000] ) );
+        // what a crash leaves behind: the overwritten archive and the journal
+        final File crashed = new File( directory, "crashed.zip" );
+        copy( archiveFile, crashed );
+        copy( new File( archiveFile.getPath() + ".journal" ), new File( crashed.getPath() + ".journal" ) );
+        writer.abort();
+        assertEquals( before.length, bytes( archiveFile ).length );
+
+        final ZipArchive second = ZipArchive.newOrExistingNamedInPlace( Filename.of( crashed.getPath() ) );
+        add( second, "march.txt", "The third report" );
+        second.close();
+
+        assertFalse( new File( crashed.getPath() + ".journal" ).exists() );
+        final ZipFile zipFile = new ZipFile( crashed );
+        try {
+            assertEquals( 2, zipFile.size() );
+            assertNull( zipFile.getEntry( "february.txt" ) );
+            assertEquals( "The first report", content( zipFile, "january.txt" ) );
+            assertEquals( "The third report", content( zipFile, "march.txt" ) );
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    public void testParallelCompressionKeepsEntryOrder() throws Exception {
+        final WorkerPool pool = new WorkerPool( "ZipArchiveTest", 4 );
+        try {
+            final ZipArchive archive = ZipArchive.newNamed( Filename.of( archiveFile.getPath() ) ).withParallelCompression( pool );
+            for ( int i = 0; i < 50; i++ ) {
+                final StringBuffer content = new StringBuffer();
+                for ( int line = 0; line < i * 100; line++ ) {
+                    content.append( "Page " ).append( i ).append( " line " ).append( line ).append( '\n' );
+                }
+                add( archive, "burst-" + i + ".txt", content.toString() );
+            }
+            archive.close();
+        } finally {
+            pool.shutdown();
+        }
+
+        final ZipFile zipFile = new ZipFile( archiveFile );
+        try {
+            assertEquals( 50, zipFile.size() );
+            final Enumeration entries = zipFile.entries();
+            for ( int i = 0; i < 50; i++ ) {
+                final ZipEntry entry = (ZipEntry) entries.nextElement();
+                assertEquals( "burst-" + i + ".txt", entry.getName() );
+                assertEquals( i * 100 == 0 ? "" : "Page " + i + " line 0", firstLine( content( zipFile, entry.getName() ) ) );
+            }
+        } finally {
+            zipFile.close();
+        }
+        // local headers carry CRC and sizes - a streaming reader needs no central directory
+        final ZipInputStream in = new ZipInputStream( new FileInputStream( archiveFile ) );
+        int count = 0;
+        ZipEntry entry;
+        while ( (entry = in.getNextEntry()) != null ) {
+            assertEquals( "burst-" + count + ".txt", entry.getName() );
+            count++;
+        }
+        in.close();
+        assertEquals( 50, count );
+        assertEquals( 1, directory.listFiles().length );
+    }
+
+    public void testCompressionPolicyStoresIncompressibleEntries() throws Exception {
+        checkCompressionPolicy( null );
+    }
+
+    public void testCompressionPolicyWithParallelCompression() throws Exception {
+        final WorkerPool pool = new WorkerPool( "ZipArchiveTest", 2 );
+        try {
+            checkCompressionPolicy( pool );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void checkCompressionPolicy( final WorkerPool pool ) throws Exception {
+        final byte[] image = new byte[100000];
+        new Random( 7L ).nextBytes( image );
+        final StringBuffer text = new StringBuffer();
+        for ( int i = 0; i < 2000; i++ ) {
+            text.append( "Page " ).append( i ).append( '\n' );
+        }
+        final ZipArchive archive = ZipArchive.newNamed( Filename.of( archiveFile.getPath() ) ).withCompressionPolicy(
+                ZipCompressionPolicy.fromProperties( null ) );
+        if ( pool != null ) {
+            archive.withParallelCompression( pool );
+        }
+        archive.addFromStream( new ByteArrayInputStream( image ), Entryname.of( "chart.png" ) );
+        archive.addFromStream( new ByteArrayInputStream( image ), Entryname.of( "scan.pdf" ), 0L, "application/pdf" );
+        archive.addFromStream( new ByteArrayInputStream( text.toString().getBytes( "UTF-8" ) ), Entryname.of( "text.pdf" ), 0L,
+                "application/pdf" );
+        add( archive, "report.txt", text.toString() );
+        archive.close();
+
+        final ZipFile zipFile = new ZipFile( archiveFile );
+        try {
+            assertEquals( ZipEntry.STORED, zipFile.getEntry( "chart.png" ).getMethod() );
+            assertEquals( ZipEntry.STORED, zipFile.getEntry( "scan.pdf" ).getMethod() );
+            assertEquals( ZipEntry.DEFLATED, zipFile.getEntry( "text.pdf" ).getMethod() );
+            assertEquals( ZipEntry.DEFLATED, zipFile.getEntry( "report.txt" ).getMethod() );
+            assertEquals( text.toString(), content( zipFile, "text.pdf" ) );
+            assertEquals( text.toString(), content( zipFile, "report.txt" ) );
+        } finally {
+            zipFile.close();
+        }
+        // stored entries are only readable by a streaming reader if the local header carries CRC and sizes
+        final ZipInputStream in = new ZipInputStream( new FileInputStream( archiveFile ) );
+        ZipEntry entry;
+        int count = 0;
+        while ( (entry = in.getNextEntry()) != null ) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int bytesRead;
+            while ( (bytesRead = in.read( buffer )) != -1 ) {
+                out.write( buffer, 0, bytesRead );
+            }
+            if ( entry.getName().equals( "chart.png" ) || entry.getName().equals( "scan.pdf" ) ) {
+                final byte[] read = out.toByteArray();
+                assertEquals( image.length, read.length );
+                for ( int i = 0; i < image.length; i++ ) {
+                    assertEquals( "Byte " + i, image[i], read[i] );
+                }
+            }
+            count++;
+        }
+        in.close();
+        assertEquals( 4, count );
+    }
+
+    private static String firstLine( final String content ) {
+        final int newline = content.indexOf( '\n' );
+        return newline < 0 ? content : content.substring( 0, newline );
+    }
+
+    private static void add( final ZipArchive archive, final String name, final String content ) throws Exception {
+        archive.addFromStream( new ByteArrayInputStream( content.getBytes( "UTF-8" ) ), Entryname.of( name ) );
+    }
+
+    private static String content( final ZipFile zipFile, final String name ) throws Exception {
+        final ZipEntry entry = zipFile.getEntry( name );
+        assertNotNull( "Missing entry " + name, entry );
+        final InputStream in = zipFile.getInputStream( entry );
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int bytesRead;
+        while ( (bytesRead = in.read( buffer )) != -1 ) {
+            out.write( buffer, 0, bytesRead );
+        }
+        in.close();
+        return new String( out.toByteArray(), "UTF-8" );
+    }
+
+    private static byte[] bytes( final File file ) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final InputStream in = new FileInputStream( file );
+        final byte[] buffer = new byte[4096];
+        int bytesRead;
+        while ( (bytesRead = in.read( buffer )) != -1 ) {
+            out.write( buffer, 0, bytesRead );
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static void copy( final File from, final File to ) throws Exception {
+        final FileOutputStream out = new FileOutputStream( to );
+        out.write( bytes( from ) );
+        out.close();
+    }
+
+    private static long directoryOffset( final File file ) throws Exception {
+        final RandomAccessFile zipFile = new RandomAccessFile( file, "r" );
+        try {
+            return ZipCentralDirectory.read( zipFile.getChannel() ).offset();
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    /**
+     * Gets the bytes of an entry as stored - local header, compressed data and data descriptor.
+     */
+    private static byte[] rawBytes( final File file, final String name ) throws Exception {
+        final RandomAccessFile zipFile = new RandomAccessFile( file, "r" );
+        try {
+            final Iterator entries = ZipCentralDirectory.read( zipFile.getChannel() ).entries().iterator();
+            while ( entries.hasNext() ) {
+                final ZipCentralDirectory.Entry entry = (ZipCentralDirectory.Entry) entries.next();
+                if ( name.equals( entry.getName() ) ) {
+                    final ByteBuffer raw = ByteBuffer.allocate( (int) entry.getRawLength() );
+                    zipFile.getChannel().read( raw, entry.getLocalHeaderOffset() );
+                    return raw.array();
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+        fail( "Missing entry " + name );
+        return null;
+    }
+}
@@ -0,0 +1,61 @@
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.apache.commons.codec.binary.Base64InputStream;
+import org.apache.commons.codec.binary.Base64OutputStream;
+
+/**
+ * Compares the throughput of the built-in BASE64 streams with the commons codec streams.
+ * <p>
+ * Run with the size of the data in megabytes and the number of rounds as arguments.
+ */
+public class Base64EncodingBenchmark {
+
+    private static final int WRITE_SIZE = 8 * 1024;
+
+    public static void main( String[] args ) throws Exception {
+        final int megabytes = args.length > 0 ? Integer.parseInt( args[0] ) : 32;
+        final int rounds = args.length > 1 ? Integer.parseInt( args[1] ) : 5;
+        final byte[] data = new byte[megabytes * 1024 * 1024];
+        new Random( 4711 ).nextBytes( data );
+
+        for ( int round = 0; round < rounds; round++ ) {
+            report( "codec output  ", data.length, write( new Base64OutputStream( new CountingOutputStream(), true ), data ) );
+            report( "builtin output", data.length, write( new Base64EncodingOutputStream( new CountingOutputStream() ), data ) );
+            report( "parallel output", data.length,
+                    write( new ParallelBase64EncodingOutputStream( new CountingOutputStream(), Base64Encoding.MIME ), data ) );
+            report( "codec input   ", data.length,
+                    read( new Base64InputStream( new ByteArrayInputStream( data ), true ) ) );
+            report( "builtin input ", data.length, read( new Base64EncodingInputStream( new ByteArrayInputStream( data ) ) ) );
+        }
+    }
+
+    private static long write( OutputStream out, byte[] data ) throws Exception {
+        final long start = System.currentTimeMillis();
+        for ( int off = 0; off < data.length; off += WRITE_SIZE ) {
+            out.write( data, off, Math.min( WRITE_SIZE, data.length - off ) );
+        }
+        out.close();
+        return System.currentTimeMillis() - start;
+    }
+
+    private static long read( InputStream in ) throws Exception {
+        final long start = System.currentTimeMillis();
+        final byte[] buffer = new byte[WRITE_SIZE];
+        while ( in.read( buffer ) != -1 ) {
+            // consume
+        }
+        in.close();
+        return System.currentTimeMillis() - start;
+    }
+
+    private static void report( String what, int length, long millis ) {
+        System.out.println( what + ": " + millis + " ms, " + (millis == 0 ? "-" : String.valueOf( (length / 1024L * 1000L / 1024L) / millis ))
+                + " MB/s" );
+    }
+}
@@ -0,0 +1,129 @@
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Base64OutputStream;
+
+public class Base64EncodingTest extends TestCase {
+
+    private static byte[] testData( int length ) {
+        byte[] data = new byte[length];
+        new Random( length ).nextBytes( data );
+        return data;
+    }
+
+    private static byte[] codecMime( byte[] data ) throws Exception {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        OutputStream codec = new Base64OutputStream( encoded, true );
+        codec.write( data );
+        codec.close();
+        return encoded.toByteArray();
+    }
+
+    private static byte[] encodeChunked( byte[] data, Base64Encoding encoding, Random chunking ) throws Exception {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        OutputStream out = new Base64EncodingOutputStream( encoded, encoding );
+        int written = 0;
+        while ( written < data.length ) {
+            int len = Math.min( chunking.nextInt( 200 ), data.length - written );
+            if ( len == 1 ) {
+                out.write( data[written] );
+            } else {
+                out.write( data, written, len );
+            }
+            written += len;
+        }
+        out.close();
+        return encoded.toByteArray();
+    }
+
+    private static byte[] encodeViaInput( byte[] data, Base64Encoding encoding ) throws Exception {
+        InputStream in = new Base64EncodingInputStream( new ByteArrayInputStream( data ), encoding );
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        byte[] buffer = new byte[77];
+        int bytesRead;
+        while ( (bytesRead = in.read( buffer )) != -1 ) {
+            encoded.write( buffer, 0, bytesRead );
+        }
+        in.close();
+        return encoded.toByteArray();
+    }
+
+    public void testMimeEqualsCodec() throws Exception {
+        Random chunking = new Random( 4711 );
+        for ( int length = 0; length < 600; length++ ) {
+            byte[] data = testData( length );
+            byte[] expected = codecMime( data );
+            assertTrue( "output stream, length " + length, Arrays.equals( expected, encodeChunked( data, Base64Encoding.MIME, chunking ) ) );
+            assertTrue( "input stream, length " + length, Arrays.equals( expected, encodeViaInput( data, Base64Encoding.MIME ) ) );
+            assertEquals( expected.length, Base64Encoding.MIME.encodedLength( length ) );
+        }
+    }
+
+    public void testLargeMimeEqualsCodec() throws Exception {
+        byte[] data = testData( 3 * 64 * 1024 + 5 );
+        byte[] expected = codecMime( data );
+        assertTrue( Arrays.equals( expected, encodeChunked( data, Base64Encoding.MIME, new Random( 42 ) ) ) );
+        assertTrue( Arrays.equals( expected, encodeViaInput( data, Base64Encoding.MIME ) ) );
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        OutputStream out = new Base64EncodingOutputStream( encoded );
+        out.write( data );
+        out.close();
+        assertTrue( Arrays.equals( expected, encoded.toByteArray() ) );
+    }
+
+    public void testStandardAndUrlSafe() throws Exception {
+        Random chunking = new Random( 815 );
+        for ( int length = 0; length < 300; length++ ) {
+            byte[] data = testData( length );
+            byte[] standard = Base64.encodeBase64( data, false );
+            assertTrue( Arrays.equals( standard, encodeChunked( data, Base64Encoding.STANDARD, chunking ) ) );
+            assertEquals( standard.length, Base64Encoding.STANDARD.encodedLength( length ) );
+
+            byte[] urlSafe = Base64.encodeBase64URLSafe( data );
+            assertTrue( Arrays.equals( urlSafe, encodeChunked( data, Base64Encoding.URL_SAFE, chunking ) ) );
+            assertTrue( Arrays.equals( urlSafe, encodeViaInput( data, Base64Encoding.URL_SAFE ) ) );
+            assertEquals( urlSafe.length, Base64Encoding.URL_SAFE.encodedLength( length ) );
+        }
+    }
+
+    public void testFromProperties() throws Exception {
+        assertSame( Base64Encoding.MIME, Base64Encoding.fromProperties( null ) );
+        assertSame( Base64Encoding.MIME, Base64Encoding.fromProperties( new Properties() ) );
+
+        Properties parameters = new Properties();
+        parameters.setProperty( Base64Encoding.VARIANT_PROPERTY, "urlsafe" );
+        assertSame( Base64Encoding.URL_SAFE, Base64Encoding.fromProperties( parameters ) );
+
+        parameters = new Properties();
+        parameters.setProperty( Base64Encoding.LINE_LENGTH_PROPERTY, "0" );
+        Base64Encoding unwrapped = Base64Encoding.fromProperties( parameters );
+        assertFalse( unwrapped.hasLineBreaks() );
+
+        parameters.setProperty( Base64Encoding.LINE_LENGTH_PROPERTY, "66" );
+        parameters.setProperty( Base64Encoding.LINE_SEPARATOR_PROPERTY, "LF" );
+        Base64Encoding wrapped = Base64Encoding.fromProperties( parameters );
+        assertEquals( 64, wrapped.lineLength() );
+        assertTrue( Arrays.equals( new byte[] { '\n' }, wrapped.lineSeparator() ) );
+
+        Random chunking = new Random( 66 );
+        for ( int length = 0; length < 300; length++ ) {
+            byte[] data = testData( length );
+            byte[] expected = new Base64( 64, new byte[] { '\n' } ).encode( data );
+            byte[] encoded = encodeChunked( data, wrapped, chunking );
+            assertTrue( "length " + length, Arrays.equals( expected, encoded ) );
+            assertEquals( encoded.length, wrapped.encodedLength( length ) );
+        }
+    }
+}
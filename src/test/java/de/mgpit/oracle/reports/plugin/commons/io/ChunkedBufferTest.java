@@ -0,0 +1,85 @@
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class ChunkedBufferTest extends TestCase {
+
+    private static byte[] testData( int length ) {
+        byte[] data = new byte[length];
+        for ( int i = 0; i < length; i++ ) {
+            data[i] = (byte) (i * 31 + 7);
+        }
+        return data;
+    }
+
+    public void testInMemory() throws Exception {
+        byte[] data = testData( ChunkPool.CHUNK_SIZE * 2 + 17 );
+        ChunkedBuffer buffer = new ChunkedBuffer( ChunkPool.CHUNK_SIZE * 4, "ChunkedBufferTest_" );
+        buffer.write( data[0] );
+        buffer.write( data, 1, data.length - 1 );
+        assertEquals( data.length, buffer.size() );
+        assertFalse( buffer.isSpilled() );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo( out );
+        buffer.release();
+        assertTrue( Arrays.equals( data, out.toByteArray() ) );
+    }
+
+    public void testSpilled() throws Exception {
+        byte[] data = testData( ChunkPool.CHUNK_SIZE * 5 + 4711 );
+        ChunkedBuffer buffer = new ChunkedBuffer( ChunkPool.CHUNK_SIZE * 2, "ChunkedBufferTest_" );
+        int written = 0;
+        while ( written < data.length ) {
+            int len = Math.min( 1000, data.length - written );
+            buffer.write( data, written, len );
+            written += len;
+        }
+        assertEquals( data.length, buffer.size() );
+        assertTrue( buffer.isSpilled() );
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        buffer.writeTo( first );
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        buffer.writeTo( second );
+        buffer.release();
+        assertTrue( Arrays.equals( data, first.toByteArray() ) );
+        assertTrue( Arrays.equals( data, second.toByteArray() ) );
+    }
+
+    public void testEmpty() throws Exception {
+        ChunkedBuffer buffer = new ChunkedBuffer( ChunkPool.CHUNK_SIZE, "ChunkedBufferTest_" );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo( out );
+        buffer.release();
+        assertEquals( 0, out.size() );
+    }
+
+    public void testClosedAndReleased() throws Exception {
+        ChunkedBuffer buffer = new ChunkedBuffer( ChunkPool.CHUNK_SIZE, "ChunkedBufferTest_" );
+        buffer.write( 42 );
+        buffer.close();
+        try {
+            buffer.write( 42 );
+            fail( "Write after close must fail" );
+        } catch ( IOException expected ) {}
+        buffer.release();
+        try {
+            buffer.writeTo( new ByteArrayOutputStream() );
+            fail( "Replay after release must fail" );
+        } catch ( IOException expected ) {}
+    }
+
+    public void testChunksAreReused() throws Exception {
+        ChunkedBuffer buffer = new ChunkedBuffer( ChunkPool.CHUNK_SIZE * 4, "ChunkedBufferTest_" );
+        buffer.write( testData( ChunkPool.CHUNK_SIZE * 3 ) );
+        final int pooledBefore = ChunkPool.available();
+        buffer.release();
+        assertEquals( Math.min( ChunkPool.MAX_POOLED_CHUNKS, pooledBefore + 3 ), ChunkPool.available() );
+    }
+}
@@ -0,0 +1,85 @@
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compares {@code LZ4} with {@code DEFLATE} and plain copying.
+ * <p>
+ * Run with report output files as arguments. Without arguments a generated XML report of 32 MB is used.
+ */
+public class Lz4Benchmark {
+
+    private static final int WRITE_SIZE = 8 * 1024;
+    private static final int ROUNDS = 5;
+
+    public static void main( String[] args ) throws Exception {
+        if ( args.length == 0 ) {
+            run( "generated XML report", Lz4FrameTest.reportLikeData( 32 * 1024 * 1024 ) );
+        }
+        for ( int i = 0; i < args.length; i++ ) {
+            run( args[i], read( new File( args[i] ) ) );
+        }
+    }
+
+    private static final String[] METHODS = { "copy     ", "lz4      ", "deflate 1", "deflate 6" };
+
+    private static void run( String name, byte[] data ) throws Exception {
+        System.out.println( name + ", " + data.length + " bytes" );
+        // small files are compressed repeatedly for meaningful timings
+        final int repetitions = Math.max( 1, 64 * 1024 * 1024 / Math.max( 1, data.length ) );
+        for ( int round = 0; round < ROUNDS; round++ ) {
+            for ( int method = 0; method < METHODS.length; method++ ) {
+                measure( method, data, repetitions, round == ROUNDS - 1 );
+            }
+        }
+    }
+
+    private static OutputStream open( int method, OutputStream sink ) {
+        switch ( method ) {
+            case 1:
+                return new Lz4FrameOutputStream( sink );
+            case 2:
+                return new CompressingOutputStream( sink, 1, false );
+            case 3:
+                return new CompressingOutputStream( sink, 6, false );
+            default:
+                return sink;
+        }
+    }
+
+    private static void measure( int method, byte[] data, int repetitions, boolean report ) throws Exception {
+        long compressedSize = 0;
+        final long start = System.currentTimeMillis();
+        for ( int repetition = 0; repetition < repetitions; repetition++ ) {
+            final CountingOutputStream sink = new CountingOutputStream();
+            final OutputStream out = open( method, sink );
+            for ( int off = 0; off < data.length; off += WRITE_SIZE ) {
+                out.write( data, off, Math.min( WRITE_SIZE, data.length - off ) );
+            }
+            out.close();
+            compressedSize = sink.count();
+        }
+        final long millis = Math.max( 1, System.currentTimeMillis() - start );
+        if ( report ) {
+            System.out.println( METHODS[method] + ": " + ((long) data.length * repetitions / 1024L * 1000L / 1024L) / millis
+                    + " MB/s, " + (compressedSize * 1000L / Math.max( 1, data.length )) / 10.0 + " % of original size" );
+        }
+    }
+
+    private static byte[] read( File file ) throws Exception {
+        InputStream in = new FileInputStream( file );
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[WRITE_SIZE];
+        int bytesRead;
+        while ( (bytesRead = in.read( buffer )) != -1 ) {
+            content.write( buffer, 0, bytesRead );
+        }
+        in.close();
+        return content.toByteArray();
+    }
+}
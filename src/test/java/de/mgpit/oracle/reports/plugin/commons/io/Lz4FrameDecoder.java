@@ -0,0 +1,107 @@
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Decodes an {@code LZ4} frame for testing. Checks the format strictly.
+ */
+public class Lz4FrameDecoder {
+
+    public static byte[] decode( byte[] frame ) throws IOException {
+        int position = 0;
+        check( XXHash32.readIntLE( frame, position ) == Lz4FrameEncoder.MAGIC, "magic" );
+        position += 4;
+        int flg = frame[position] & 0xFF;
+        int bd = frame[position + 1] & 0xFF;
+        check( (flg >>> 6) == 1, "version" );
+        check( (flg & 0x02) == 0 && (bd & 0x8F) == 0, "reserved bits" );
+        check( (byte) (XXHash32.hash( frame, position, 2, 0 ) >>> 8) == frame[position + 2], "header checksum" );
+        boolean blockChecksum = (flg & 0x10) != 0;
+        boolean contentSize = (flg & 0x08) != 0;
+        boolean contentChecksum = (flg & 0x04) != 0;
+        check( !contentSize && (flg & 0x01) == 0, "unsupported flags" );
+        int maxBlockSize = 1 << (8 + 2 * ((bd >>> 4) & 0x07));
+        position += 3;
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        while ( true ) {
+            int blockSize = XXHash32.readIntLE( frame, position );
+            position += 4;
+            if ( blockSize == 0 ) {
+                break;
+            }
+            boolean uncompressed = (blockSize & 0x80000000) != 0;
+            blockSize &= 0x7FFFFFFF;
+            check( blockSize <= maxBlockSize, "block size" );
+            if ( uncompressed ) {
+                content.write( frame, position, blockSize );
+            } else {
+                byte[] block = decodeBlock( frame, position, blockSize, maxBlockSize );
+                content.write( block, 0, block.length );
+            }
+            position += blockSize;
+            if ( blockChecksum ) {
+                position += 4;
+            }
+        }
+        byte[] data = content.toByteArray();
+        if ( contentChecksum ) {
+            check( XXHash32.readIntLE( frame, position ) == XXHash32.hash( data, 0, data.length, 0 ), "content checksum" );
+            position += 4;
+        }
+        check( position == frame.length, "trailing bytes" );
+        return data;
+    }
+
+    private static byte[] decodeBlock( byte[] src, int off, int len, int maxBlockSize ) throws IOException {
+        byte[] out = new byte[maxBlockSize];
+        int o = 0;
+        int end = off + len;
+        while ( true ) {
+            int token = src[off++] & 0xFF;
+            int literalLength = token >>> 4;
+            if ( literalLength == 15 ) {
+                int b;
+                do {
+                    b = src[off++] & 0xFF;
+                    literalLength += b;
+                } while ( b == 255 );
+            }
+            System.arraycopy( src, off, out, o, literalLength );
+            off += literalLength;
+            o += literalLength;
+            if ( off == end ) {
+                check( (token & 0x0F) == 0, "last sequence has no match" );
+                check( literalLength >= 5 || o < 13, "last literals" );
+                break;
+            }
+            int offset = (src[off] & 0xFF) | ((src[off + 1] & 0xFF) << 8);
+            off += 2;
+            check( offset > 0 && offset <= o, "offset" );
+            int matchLength = token & 0x0F;
+            if ( matchLength == 15 ) {
+                int b;
+                do {
+                    b = src[off++] & 0xFF;
+                    matchLength += b;
+                } while ( b == 255 );
+            }
+            matchLength += 4;
+            for ( int i = 0; i < matchLength; i++ ) {
+                out[o] = out[o - offset];
+                o++;
+            }
+        }
+        byte[] block = new byte[o];
+        System.arraycopy( out, 0, block, 0, o );
+        return block;
+    }
+
+    private static void check( boolean condition, String what ) throws IOException {
+        if ( !condition ) {
+            throw new IOException( "Invalid LZ4 frame: " + what );
+        }
+    }
+}
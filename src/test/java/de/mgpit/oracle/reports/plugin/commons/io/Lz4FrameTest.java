@@ -0,0 +1,101 @@
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class Lz4FrameTest extends TestCase {
+
+    static byte[] reportLikeData( int length ) {
+        StringBuffer report = new StringBuffer();
+        Random random = new Random( length );
+        int line = 0;
+        while ( report.length() < length ) {
+            report.append( "<ROW><EMPNO>" ).append( 7000 + line ).append( "</EMPNO><ENAME>EMPLOYEE_" )
+                    .append( random.nextInt( 500 ) ).append( "</ENAME><SAL>" ).append( random.nextInt( 100000 ) / 100.0 )
+                    .append( "</SAL></ROW>\r\n" );
+            line++;
+        }
+        byte[] data = new byte[length];
+        for ( int i = 0; i < length; i++ ) {
+            data[i] = (byte) report.charAt( i );
+        }
+        return data;
+    }
+
+    private static byte[] randomData( int length ) {
+        byte[] data = new byte[length];
+        new Random( length ).nextBytes( data );
+        return data;
+    }
+
+    private static byte[] compress( byte[] data ) throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        OutputStream out = new Lz4FrameOutputStream( compressed );
+        Random chunking = new Random( data.length );
+        int written = 0;
+        while ( written < data.length ) {
+            int len = Math.min( 1 + chunking.nextInt( 100000 ), data.length - written );
+            out.write( data, written, len );
+            written += len;
+        }
+        out.close();
+        return compressed.toByteArray();
+    }
+
+    private static byte[] compressViaInput( byte[] data ) throws Exception {
+        InputStream in = new Lz4FrameInputStream( new ByteArrayInputStream( data ) );
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int bytesRead;
+        while ( (bytesRead = in.read( buffer )) != -1 ) {
+            compressed.write( buffer, 0, bytesRead );
+        }
+        in.close();
+        return compressed.toByteArray();
+    }
+
+    public void testXXHash32() throws Exception {
+        byte[] abc = { 'a', 'b', 'c' };
+        assertEquals( 0x02CC5D05, XXHash32.hash( new byte[0], 0, 0, 0 ) );
+        assertEquals( 0x32D153FF, XXHash32.hash( abc, 0, 3, 0 ) );
+
+        byte[] data = randomData( 1000 );
+        XXHash32 pieces = new XXHash32( 0 );
+        for ( int off = 0; off < data.length; off += 7 ) {
+            pieces.update( data, off, Math.min( 7, data.length - off ) );
+        }
+        assertEquals( XXHash32.hash( data, 0, data.length, 0 ), pieces.getValue() );
+    }
+
+    public void testRoundTrip() throws Exception {
+        int[] lengths = { 0, 1, 12, 13, 100, 65535, 65536, 65537, 300000 };
+        for ( int i = 0; i < lengths.length; i++ ) {
+            byte[] report = reportLikeData( lengths[i] );
+            byte[] compressed = compress( report );
+            assertTrue( "report, length " + lengths[i], Arrays.equals( report, Lz4FrameDecoder.decode( compressed ) ) );
+            assertTrue( Arrays.equals( compressed, compressViaInput( report ) ) );
+
+            byte[] random = randomData( lengths[i] );
+            assertTrue( "random, length " + lengths[i], Arrays.equals( random, Lz4FrameDecoder.decode( compress( random ) ) ) );
+        }
+    }
+
+    public void testRepetitiveData() throws Exception {
+        byte[] zeros = new byte[200000];
+        byte[] compressed = compress( zeros );
+        assertTrue( compressed.length < 2000 );
+        assertTrue( Arrays.equals( zeros, Lz4FrameDecoder.decode( compressed ) ) );
+    }
+
+    public void testCompressesReports() throws Exception {
+        byte[] report = reportLikeData( 1000000 );
+        assertTrue( compress( report ).length < report.length / 2 );
+    }
+}
@@ -0,0 +1,80 @@
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import de.mgpit.oracle.reports.plugin.commons.concurrent.WorkerPool;
+
+public class ParallelBase64EncodingOutputStreamTest extends TestCase {
+
+    private WorkerPool pool;
+
+    protected void setUp() throws Exception {
+        pool = new WorkerPool( "ParallelBase64Test", 3 );
+    }
+
+    protected void tearDown() throws Exception {
+        pool.shutdown();
+    }
+
+    private static byte[] testData( int length ) {
+        byte[] data = new byte[length];
+        new Random( length ).nextBytes( data );
+        return data;
+    }
+
+    private static byte[] encode( OutputStream out, ByteArrayOutputStream encoded, byte[] data, Random chunking )
+            throws IOException {
+        int written = 0;
+        while ( written < data.length ) {
+            int len = Math.min( 1 + chunking.nextInt( 100000 ), data.length - written );
+            out.write( data, written, len );
+            written += len;
+        }
+        out.close();
+        return encoded.toByteArray();
+    }
+
+    private void assertSameAsSerial( Base64Encoding encoding, int length ) throws IOException {
+        byte[] data = testData( length );
+        ByteArrayOutputStream serial = new ByteArrayOutputStream();
+        byte[] expected = encode( new Base64EncodingOutputStream( serial, encoding ), serial, data, new Random( 1 ) );
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        byte[] actual = encode( new ParallelBase64EncodingOutputStream( parallel, encoding, pool ), parallel, data, new Random( 2 ) );
+        assertTrue( encoding + ", length " + length, Arrays.equals( expected, actual ) );
+    }
+
+    public void testSameAsSerial() throws Exception {
+        Properties parameters = new Properties();
+        parameters.setProperty( Base64Encoding.LINE_LENGTH_PROPERTY, "64" );
+        parameters.setProperty( Base64Encoding.LINE_SEPARATOR_PROPERTY, "LF" );
+        Base64Encoding[] encodings = { Base64Encoding.MIME, Base64Encoding.STANDARD, Base64Encoding.URL_SAFE,
+                Base64Encoding.fromProperties( parameters ) };
+        int[] lengths = { 0, 1, 2, 57, 58, 196608, 196609, 2 * 1024 * 1024 + 1, 3 * 1024 * 1024 + 2 };
+        for ( int e = 0; e < encodings.length; e++ ) {
+            for ( int l = 0; l < lengths.length; l++ ) {
+                assertSameAsSerial( encodings[e], lengths[l] );
+            }
+        }
+    }
+
+    public void testFlushWritesCompleteBlocks() throws Exception {
+        byte[] data = testData( 1024 * 1024 );
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        OutputStream out = new ParallelBase64EncodingOutputStream( encoded, Base64Encoding.MIME, pool );
+        out.write( data );
+        out.flush();
+        int flushed = encoded.size();
+        assertTrue( flushed > 0 );
+        assertEquals( 0, flushed % 78 );
+        out.close();
+        assertEquals( Base64Encoding.MIME.encodedLength( data.length ), encoded.size() );
+    }
+}
@@ -0,0 +1,70 @@
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+import junit.framework.TestCase;
+
+public class PrecompressedEntryTest extends TestCase {
+
+    public void testProbedEntryUsesDeflateLevelGiven() throws Exception {
+        final PrecompressedEntry uncompressed = probed( Deflater.NO_COMPRESSION );
+        final PrecompressedEntry compressed = probed( Deflater.BEST_COMPRESSION );
+        try {
+            assertFalse( uncompressed.isStored() );
+            assertFalse( compressed.isStored() );
+            assertTrue( uncompressed.getCompressedSize() >= uncompressed.getSize() );
+            assertTrue( compressed.getCompressedSize() < compressed.getSize() / 10 );
+        } finally {
+            uncompressed.discard();
+            compressed.discard();
+        }
+    }
+
+    public void testClosesContentIfTemporaryFileCannotBeCreated() throws Exception {
+        final ClosingTrackedInputStream content = new ClosingTrackedInputStream( text() );
+        final File missing = new File( System.getProperty( "java.io.tmpdir" ), "precompressedentrytest-missing" );
+        final PrecompressedEntry entry = new PrecompressedEntry( "report.txt", 0L, null, content, ZipCompressionPolicy.PROBE,
+                Deflater.DEFAULT_COMPRESSION, missing );
+        entry.run();
+        try {
+            entry.await();
+            fail( "Temporary file should not be created in a missing directory!" );
+        } catch ( IOException expected ) {
+            // expected
+        }
+        assertTrue( content.closed );
+    }
+
+    private static PrecompressedEntry probed( final int deflateLevel ) throws Exception {
+        final PrecompressedEntry entry = new PrecompressedEntry( "report.txt", 0L, null, new ByteArrayInputStream( text() ),
+                ZipCompressionPolicy.PROBE, deflateLevel, null );
+        entry.run();
+        entry.await();
+        return entry;
+    }
+
+    private static byte[] text() {
+        final byte[] text = new byte[200000];
+        for ( int i = 0; i < text.length; i++ ) {
+            text[i] = (byte) ('a' + i % 7);
+        }
+        return text;
+    }
+
+    private static final class ClosingTrackedInputStream extends ByteArrayInputStream {
+        private boolean closed = false;
+
+        ClosingTrackedInputStream( final byte[] data ) {
+            super( data );
+        }
+
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+}
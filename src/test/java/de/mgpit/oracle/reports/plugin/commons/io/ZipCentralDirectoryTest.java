@@ -0,0 +1,100 @@
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+public class ZipCentralDirectoryTest extends TestCase {
+
+    private static final byte[] JUNK = "not part of any entry".getBytes();
+
+    private File file;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile( "zipcentraldirectorytest", ".zip" );
+    }
+
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testRawLengthEndsWithEntry() throws Exception {
+        final byte[] zip = zip();
+        write( zip );
+        final List entries = read();
+        final ZipCentralDirectory.Entry stored = (ZipCentralDirectory.Entry) entries.get( 0 );
+        final ZipCentralDirectory.Entry deflated = (ZipCentralDirectory.Entry) entries.get( 1 );
+        // no data descriptor
+        assertEquals( 30 + "stored.txt".length() + stored.getCompressedSize(), stored.getRawLength() );
+        // data descriptor with signature
+        assertEquals( 30 + "deflated.txt".length() + deflated.getCompressedSize() + 16, deflated.getRawLength() );
+        assertEquals( deflated.getLocalHeaderOffset(), stored.getLocalHeaderOffset() + stored.getRawLength() );
+        assertEquals( directoryOffset( zip ), deflated.getLocalHeaderOffset() + deflated.getRawLength() );
+    }
+
+    public void testRawLengthLeavesOutBytesBehindEntry() throws Exception {
+        final byte[] zip = zip();
+        final int directoryOffset = directoryOffset( zip );
+        final ByteBuffer junked = ByteBuffer.allocate( zip.length + JUNK.length ).order( ByteOrder.LITTLE_ENDIAN );
+        junked.put( zip, 0, directoryOffset ).put( JUNK ).put( zip, directoryOffset, zip.length - directoryOffset );
+        junked.putInt( junked.capacity() - 22 + 16, directoryOffset + JUNK.length );
+        write( junked.array() );
+
+        final ZipCentralDirectory.Entry deflated = (ZipCentralDirectory.Entry) read().get( 1 );
+        assertEquals( directoryOffset, deflated.getLocalHeaderOffset() + deflated.getRawLength() );
+    }
+
+    private static byte[] zip() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ZipOutputStream zip = new ZipOutputStream( bytes );
+        final byte[] text = "Hello, stored world!".getBytes();
+        final ZipEntry stored = new ZipEntry( "stored.txt" );
+        final CRC32 crc = new CRC32();
+        crc.update( text );
+        stored.setMethod( ZipEntry.STORED );
+        stored.setSize( text.length );
+        stored.setCompressedSize( text.length );
+        stored.setCrc( crc.getValue() );
+        zip.putNextEntry( stored );
+        zip.write( text );
+        zip.closeEntry();
+        zip.putNextEntry( new ZipEntry( "deflated.txt" ) );
+        for ( int i = 0; i < 1000; i++ ) {
+            zip.write( "Hello, deflated world! ".getBytes() );
+        }
+        zip.closeEntry();
+        zip.close();
+        return bytes.toByteArray();
+    }
+
+    private static int directoryOffset( final byte[] zip ) {
+        return ByteBuffer.wrap( zip ).order( ByteOrder.LITTLE_ENDIAN ).getInt( zip.length - 22 + 16 );
+    }
+
+    private void write( final byte[] zip ) throws Exception {
+        final FileOutputStream out = new FileOutputStream( file );
+        out.write( zip );
+        out.close();
+    }
+
+    private List read() throws Exception {
+        final RandomAccessFile zipFile = new RandomAccessFile( file, "r" );
+        try {
+            return ZipCentralDirectory.read( zipFile.getChannel() ).entries();
+        } finally {
+            zipFile.close();
+        }
+    }
+}
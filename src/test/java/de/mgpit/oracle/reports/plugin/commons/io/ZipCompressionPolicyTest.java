@@ -0,0 +1,87 @@
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import junit.framework.TestCase;
+
+public class ZipCompressionPolicyTest extends TestCase {
+
+    public void testDefaults() {
+        final ZipCompressionPolicy policy = ZipCompressionPolicy.fromProperties( null );
+        assertEquals( ZipCompressionPolicy.STORED, policy.levelFor( "image/png", "chart.bin" ) );
+        assertEquals( ZipCompressionPolicy.STORED, policy.levelFor( null, "scans/Photo.JPG" ) );
+        assertEquals( ZipCompressionPolicy.PROBE, policy.levelFor( "application/pdf", "report" ) );
+        assertEquals( Deflater.DEFAULT_COMPRESSION, policy.levelFor( "text/html", "report.html" ) );
+        assertEquals( Deflater.DEFAULT_COMPRESSION, policy.levelFor( null, "archive.zip/readme" ) );
+        assertEquals( Deflater.DEFAULT_COMPRESSION, ZipCompressionPolicy.DEFLATE_ALL.levelFor( "image/png", "chart.png" ) );
+    }
+
+    public void testConfigured() {
+        final Properties properties = new Properties();
+        properties.setProperty( ZipCompressionPolicy.STORED_PROPERTY, "application/pdf .pdf" );
+        properties.setProperty( ZipCompressionPolicy.DEFLATE_PROPERTY_PREFIX + "9", "text/xml, .xml" );
+        properties.setProperty( ZipCompressionPolicy.DEFAULT_PROPERTY, "1" );
+        final ZipCompressionPolicy policy = ZipCompressionPolicy.fromProperties( properties );
+        assertEquals( ZipCompressionPolicy.STORED, policy.levelFor( "application/pdf", "report.pdf" ) );
+        assertEquals( 9, policy.levelFor( null, "data.XML" ) );
+        // configured lists replace the defaults
+        assertEquals( 1, policy.levelFor( "image/png", "chart.png" ) );
+
+        properties.setProperty( ZipCompressionPolicy.DEFAULT_PROPERTY, "fast" );
+        assertEquals( Deflater.DEFAULT_COMPRESSION, ZipCompressionPolicy.fromProperties( properties ).levelFor( null, "a.txt" ) );
+    }
+
+    public void testDeflateLevel() {
+        final Properties properties = new Properties();
+        assertEquals( Deflater.DEFAULT_COMPRESSION, ZipCompressionPolicy.fromProperties( properties ).deflateLevel() );
+        properties.setProperty( ZipCompressionPolicy.DEFAULT_PROPERTY, "9" );
+        assertEquals( 9, ZipCompressionPolicy.fromProperties( properties ).deflateLevel() );
+        properties.setProperty( ZipCompressionPolicy.DEFAULT_PROPERTY, "probe" );
+        assertEquals( Deflater.DEFAULT_COMPRESSION, ZipCompressionPolicy.fromProperties( properties ).deflateLevel() );
+        properties.setProperty( ZipCompressionPolicy.DEFAULT_PROPERTY, "stored" );
+        assertEquals( Deflater.DEFAULT_COMPRESSION, ZipCompressionPolicy.fromProperties( properties ).deflateLevel() );
+    }
+
+    public void testProbe() throws Exception {
+        final byte[] random = new byte[200000];
+        new Random( 42L ).nextBytes( random );
+        final ZipCompressionPolicy.Probe incompressible = ZipCompressionPolicy.probe( new ByteArrayInputStream( random ), 6 );
+        assertEquals( ZipCompressionPolicy.STORED, incompressible.level() );
+        assertEquals( random, readAll( incompressible.content() ) );
+
+        final byte[] text = new byte[200000];
+        for ( int i = 0; i < text.length; i++ ) {
+            text[i] = (byte) ('a' + i % 7);
+        }
+        final ZipCompressionPolicy.Probe compressible = ZipCompressionPolicy.probe( new ByteArrayInputStream( text ), 6 );
+        assertEquals( 6, compressible.level() );
+        assertEquals( text, readAll( compressible.content() ) );
+
+        assertEquals( ZipCompressionPolicy.STORED, ZipCompressionPolicy.probe( new ByteArrayInputStream( new byte[0] ), 6 )
+                .level() );
+    }
+
+    private static void assertEquals( final byte[] expected, final byte[] actual ) {
+        assertEquals( expected.length, actual.length );
+        for ( int i = 0; i < expected.length; i++ ) {
+            assertEquals( "Byte " + i, expected[i], actual[i] );
+        }
+    }
+
+    private static byte[] readAll( final InputStream in ) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int bytesRead;
+        while ( (bytesRead = in.read( buffer )) != -1 ) {
+            out.write( buffer, 0, bytesRead );
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
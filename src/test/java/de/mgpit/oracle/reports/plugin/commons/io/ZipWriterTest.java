@@ -0,0 +1,104 @@
+package de.mgpit.oracle.reports.plugin.commons.io;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.ZipFile;
+
+import junit.framework.TestCase;
+
+public class ZipWriterTest extends TestCase {
+
+    private File archive;
+    private File journal;
+    private File pending;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        archive = File.createTempFile( "zipwritertest", ".zip" );
+        journal = new File( archive.getPath() + ".journal" );
+        pending = File.createTempFile( "zipwritertest", ".journal" );
+        final ZipWriter writer = new ZipWriter( archive );
+        write( writer, "january.txt" );
+        writer.close();
+    }
+
+    protected void tearDown() throws Exception {
+        archive.delete();
+        journal.delete();
+        pending.delete();
+        super.tearDown();
+    }
+
+    public void testCompletedAppendDeletesJournal() throws Exception {
+        final ZipWriter writer = ZipWriter.appendingTo( archive );
+        write( writer, "february.txt" );
+        assertTrue( journal.exists() );
+        writer.close();
+        assertFalse( journal.exists() );
+        assertEquals( 2, entries() );
+    }
+
+    public void testJournalSurvivingCompletedAppendIsNotRolledBack() throws Exception {
+        final ZipWriter writer = ZipWriter.appendingTo( archive );
+        write( writer, "february.txt" );
+        copy( journal, pending );
+        writer.close();
+        // what a completed close leaves behind if the journal cannot be deleted
+        copy( pending, journal );
+        ZipWriter.markCommitted( journal );
+
+        assertFalse( ZipWriter.rollBackPendingAppend( archive ) );
+        assertFalse( journal.exists() );
+        assertEquals( 2, entries() );
+
+        copy( pending, journal );
+        ZipWriter.markCommitted( journal );
+        final ZipWriter next = ZipWriter.appendingTo( archive );
+        write( next, "march.txt" );
+        next.close();
+        assertEquals( 3, entries() );
+    }
+
+    public void testJournalOfIncompleteAppendIsRolledBack() throws Exception {
+        final long before = archive.length();
+        final ZipWriter writer = ZipWriter.appendingTo( archive );
+        write( writer, "february.txt" );
+        copy( journal, pending );
+        writer.close();
+        copy( pending, journal );
+
+        assertTrue( ZipWriter.rollBackPendingAppend( archive ) );
+        assertFalse( journal.exists() );
+        assertEquals( before, archive.length() );
+        assertEquals( 1, entries() );
+    }
+
+    private static void write( final ZipWriter writer, final String name ) throws Exception {
+        writer.writeEntry( name, System.currentTimeMillis(), null, new ByteArrayInputStream( new byte[10000] ) );
+    }
+
+    private int entries() throws Exception {
+        final ZipFile zipFile = new ZipFile( archive );
+        try {
+            return zipFile.size();
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    private static void copy( final File from, final File to ) throws Exception {
+        final InputStream in = new FileInputStream( from );
+        final OutputStream out = new FileOutputStream( to );
+        try {
+            IOUtility.copyFromTo( in, out );
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+}
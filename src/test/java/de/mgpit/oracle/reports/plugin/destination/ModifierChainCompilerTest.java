@@ -0,0 +1,100 @@
+package de.mgpit.oracle.reports.plugin.destination;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+import de.mgpit.oracle.reports.plugin.destination.content.decorators.PluggableContentEnvelopeDecorator;
+import de.mgpit.oracle.reports.plugin.destination.content.decorators.PluggableContentHeaderDecorator;
+import de.mgpit.oracle.reports.plugin.destination.content.io.TestHelper;
+import de.mgpit.oracle.reports.plugin.destination.content.transformers.Base64Transformer;
+import de.mgpit.oracle.reports.plugin.destination.content.transformers.GzipTransformer;
+import de.mgpit.oracle.reports.plugin.destination.content.types.LengthPredicting;
+import de.mgpit.oracle.reports.plugin.destination.content.types.OutputModifier;
+import junit.framework.TestCase;
+
+public class ModifierChainCompilerTest extends TestCase {
+
+    private static OutputModifier header() {
+        PluggableContentHeaderDecorator header = new PluggableContentHeaderDecorator();
+        header.setContentModel( TestHelper.getPlainHeader( "HEADER;" ) );
+        return header;
+    }
+
+    private static OutputModifier envelope() {
+        PluggableContentEnvelopeDecorator envelope = new PluggableContentEnvelopeDecorator();
+        envelope.setContentModel( TestHelper.getPlainEnvelope( "<data>", "</data>" ) );
+        return envelope;
+    }
+
+    private static byte[] payload() {
+        byte[] payload = new byte[100000];
+        for ( int i = 0; i < payload.length; i++ ) {
+            payload[i] = (byte) (i * 7 + i / 100);
+        }
+        return payload;
+    }
+
+    private static byte[] stacked( OutputModifier[] chain, byte[] payload ) throws Exception {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        OutputStream out = target;
+        for ( int i = chain.length - 1; i >= 0; i-- ) {
+            out = chain[i].forOutput( out, new Properties() );
+        }
+        out.write( payload );
+        out.close();
+        return target.toByteArray();
+    }
+
+    private static byte[] fused( OutputModifier[] chain, byte[] payload ) throws Exception {
+        int last = chain.length - 1;
+        int first = ModifierChainCompiler.startOfFusableRun( chain, last, new Properties() );
+        assertEquals( 0, first );
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        OutputStream out = ModifierChainCompiler.fuse( chain, first, last, target, new Properties(), new long[chain.length] );
+        out.write( payload, 0, 1 );
+        out.write( payload, 1, payload.length - 1 );
+        out.close();
+        return target.toByteArray();
+    }
+
+    public void testFusedEqualsStacked() throws Exception {
+        OutputModifier[][] chains = { { new Base64Transformer(), envelope() }, { header(), new Base64Transformer() },
+                { header(), new Base64Transformer(), envelope() }, { header(), envelope() } };
+        byte[] payload = payload();
+        for ( int i = 0; i < chains.length; i++ ) {
+            assertTrue( "chain " + i, Arrays.equals( stacked( chains[i], payload ), fused( chains[i], payload ) ) );
+        }
+    }
+
+    public void testPredictionDoesNotDependOnCallOrder() throws Exception {
+        OutputModifier[] decorators = { header(), envelope() };
+        byte[] payload = payload();
+        for ( int i = 0; i < decorators.length; i++ ) {
+            LengthPredicting predicting = (LengthPredicting) decorators[i];
+            OutputModifier[] chain = { decorators[i] };
+            long before = stacked( chain, payload ).length;
+            assertEquals( "decorator " + i, before, predicting.predictedLength( payload.length, new Properties() ) );
+            assertEquals( "decorator " + i, before, predicting.predictedLength( payload.length, new Properties() ) );
+            assertEquals( "decorator " + i, before, stacked( chain, payload ).length );
+            assertEquals( "decorator " + i, before, stacked( chain, payload ).length );
+        }
+    }
+
+    public void testFusableRuns() throws Exception {
+        Properties parameters = new Properties();
+        OutputModifier[] chain = { new GzipTransformer(), new Base64Transformer(), envelope() };
+        assertEquals( 1, ModifierChainCompiler.startOfFusableRun( chain, 2, parameters ) );
+        assertEquals( 1, ModifierChainCompiler.startOfFusableRun( chain, 1, parameters ) );
+        assertEquals( 0, ModifierChainCompiler.startOfFusableRun( chain, 0, parameters ) );
+
+        OutputModifier[] notFusable = { envelope(), new Base64Transformer() };
+        assertEquals( 1, ModifierChainCompiler.startOfFusableRun( notFusable, 1, parameters ) );
+
+        parameters.setProperty( "distribution.totalFileSize", "1000" );
+        parameters.setProperty( Base64Transformer.PARALLEL_THRESHOLD_PROPERTY, "0" );
+        assertEquals( 2, ModifierChainCompiler.startOfFusableRun( chain, 2, parameters ) );
+    }
+}
@@ -0,0 +1,161 @@
+package de.mgpit.oracle.reports.plugin.destination;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import javax.activation.MimeType;
+
+import org.apache.log4j.Logger;
+
+import de.mgpit.oracle.reports.plugin.commons.io.IOUtility;
+import de.mgpit.oracle.reports.plugin.destination.content.transformers.GzipTransformer;
+import de.mgpit.oracle.reports.plugin.destination.content.types.InputLengthDependent;
+import de.mgpit.oracle.reports.plugin.destination.content.types.LengthPredicting;
+import de.mgpit.oracle.reports.plugin.destination.content.types.OutputModifier;
+import de.mgpit.types.Filename;
+import junit.framework.TestCase;
+
+public class ModifyingDestinationTest extends TestCase {
+
+    private static final short SOME_FORMAT = 0;
+
+    private File report;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        final Properties destinationsProperties = new Properties();
+        destinationsProperties.setProperty( "modifier.GZIP", GzipTransformer.class.getName() );
+        destinationsProperties.setProperty( "modifier.RECORDING", RecordingModifier.class.getName() );
+        ModifyingDestination.init( destinationsProperties );
+        report = File.createTempFile( "modifyingdestinationtest", ".txt" );
+        final FileOutputStream out = new FileOutputStream( report );
+        for ( int i = 0; i < 100000; i++ ) {
+            out.write( (i * 7 + i / 100) % 64 );
+        }
+        out.close();
+        RecordingModifier.predicted = 0L;
+        RecordingModifier.received = 0L;
+    }
+
+    protected void tearDown() throws Exception {
+        report.delete();
+        super.tearDown();
+    }
+
+    public void testBuffersBelowThreshold() throws Exception {
+        final TestDestination destination = start( ModifyingDestination.BUFFERING_MODE_AUTO, report.length() + 1 );
+        assertFalse( destination.useTwoPasses( report.length() ) );
+        send( destination );
+        assertEquals( LengthPredicting.UNPREDICTABLE, RecordingModifier.predicted );
+        assertEquals( LengthPredicting.UNPREDICTABLE, destination.expectedLength );
+        assertTrue( RecordingModifier.received > 0 );
+    }
+
+    public void testMeasuresFromThreshold() throws Exception {
+        final TestDestination destination = start( ModifyingDestination.BUFFERING_MODE_AUTO, report.length() );
+        assertTrue( destination.useTwoPasses( report.length() ) );
+        send( destination );
+        // the gzipped length measured in the first pass is exactly what the second pass produces
+        assertTrue( RecordingModifier.received > 0 );
+        assertTrue( RecordingModifier.received != report.length() );
+        assertEquals( RecordingModifier.received, RecordingModifier.predicted );
+        assertEquals( destination.target.size(), destination.expectedLength );
+    }
+
+    public void testMeasuresInTwoPassMode() throws Exception {
+        final TestDestination destination = start( ModifyingDestination.BUFFERING_MODE_TWOPASS, Long.MAX_VALUE );
+        assertTrue( destination.useTwoPasses( 0L ) );
+        send( destination );
+        assertEquals( RecordingModifier.received, RecordingModifier.predicted );
+        assertEquals( destination.target.size(), destination.expectedLength );
+    }
+
+    private TestDestination start( final String mode, final long threshold ) throws Exception {
+        final Properties distributionProperties = new Properties();
+        distributionProperties.setProperty( "apply", "GZIP>>RECORDING" );
+        distributionProperties.setProperty( ModifyingDestination.BUFFERING_MODE_PROPERTY, mode );
+        distributionProperties.setProperty( ModifyingDestination.TWOPASS_THRESHOLD_PROPERTY, String.valueOf( threshold ) );
+        final TestDestination destination = new TestDestination();
+        assertTrue( destination.start( distributionProperties, "modifying", 1, report.length(), SOME_FORMAT ) );
+        return destination;
+    }
+
+    private void send( final TestDestination destination ) throws Exception {
+        final InputStream source = destination.getContent( report );
+        final OutputStream target = destination.getTarget( report );
+        IOUtility.copyFromTo( source, target );
+        source.close();
+        target.close();
+    }
+
+    /**
+     * Remembers the input length predicted and the number of bytes actually written to it. Predicts its output
+     * length to be its input length.
+     */
+    public static final class RecordingModifier implements OutputModifier, InputLengthDependent, LengthPredicting {
+        static long predicted;
+        static long received;
+
+        public OutputStream forOutput( final OutputStream out, final Properties parameters ) {
+            predicted = Long.parseLong( parameters.getProperty( PREDICTED_INPUT_LENGTH_PROPERTY ) );
+            return new FilterOutputStream( out ) {
+                public void write( int b ) throws IOException {
+                    received++;
+                    out.write( b );
+                }
+
+                public void write( byte[] b, int off, int len ) throws IOException {
+                    received += len;
+                    out.write( b, off, len );
+                }
+            };
+        }
+
+        public long predictedLength( final long inputLength, final Properties parameters ) {
+            return inputLength;
+        }
+
+        public MimeType mimetype() {
+            return null;
+        }
+
+        public String fileExtension() {
+            return "recorded";
+        }
+    }
+
+    private static final class TestDestination extends ModifyingDestination {
+        private static final Logger LOG = Logger.getLogger( TestDestination.class );
+
+        private final ByteArrayOutputStream target = new ByteArrayOutputStream();
+        private long expectedLength;
+
+        protected Logger getLogger() {
+            return LOG;
+        }
+
+        protected OutputStream getTargetOut() {
+            return getTargetOut( LengthPredicting.UNPREDICTABLE );
+        }
+
+        protected OutputStream getTargetOut( final long expectedLength ) {
+            this.expectedLength = expectedLength;
+            return target;
+        }
+
+        protected void sendMainFile( final Filename cacheFileFilename, final short fileFormat ) {
+            throw new UnsupportedOperationException();
+        }
+
+        protected void sendAdditionalFile( final Filename cacheFileFilename, final short fileFormat ) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
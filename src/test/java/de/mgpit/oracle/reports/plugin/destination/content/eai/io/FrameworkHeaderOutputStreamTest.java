@@ -9,6 +9,7 @@ import java.util.Properties;
 import de.mgpit.oracle.reports.plugin.commons.Units;
 import de.mgpit.oracle.reports.plugin.destination.content.eai.fwk.SimpleFrameworkHeader;
 import de.mgpit.oracle.reports.plugin.destination.content.io.BufferingHeaderOutputStream;
+import de.mgpit.oracle.reports.plugin.destination.content.types.BufferingHeader;
 import junit.framework.TestCase;
 
 public class FrameworkHeaderOutputStreamTest extends TestCase {
@@ -44,6 +45,40 @@ public class FrameworkHeaderOutputStreamTest extends TestCase {
         assertFalse( exceptionOccured );
     }
 
+    public void testStreamingWithPredictedLength() throws Exception {
+        CountingOutputStream dummy = new CountingOutputStream();
+        SimpleFrameworkHeader header = new SimpleFrameworkHeader();
+        Properties parameters = new Properties();
+        BufferingHeaderOutputStream fwkOut = new BufferingHeaderOutputStream( dummy, header, parameters, BYTES_TO_BE_WRITTEN );
+        assertTrue( fwkOut.isStreaming() );
+
+        byte[] payload = new byte[(int) BYTES_TO_BE_WRITTEN];
+        for ( int i = 0; i < payload.length; i++ ) {
+            payload[i] = (byte) (65 + (i % 26));
+        }
+        fwkOut.write( payload, 0, 100 );
+        // header and payload must have been passed through without buffering
+        assertEquals( 100 + header.lengthInBytes(), (long) dummy.getReceived() );
+        fwkOut.write( payload, 100, payload.length - 100 );
+        fwkOut.close();
+
+        assertEquals( BYTES_TO_BE_WRITTEN + header.lengthInBytes(), (long) dummy.getReceived() );
+        assertEquals( String.valueOf( BYTES_TO_BE_WRITTEN ), parameters.getProperty( BufferingHeader.SIZE_PROPERTY ) );
+        assertTrue( dummy.isClosed() );
+    }
+
+    public void testStreamingWithWrongPrediction() throws Exception {
+        CountingOutputStream dummy = new CountingOutputStream();
+        BufferingHeaderOutputStream fwkOut = new BufferingHeaderOutputStream( dummy, new SimpleFrameworkHeader(), new Properties(),
+                BYTES_TO_BE_WRITTEN );
+        fwkOut.write( new byte[10], 0, 10 );
+        try {
+            fwkOut.close();
+            fail( "Length mismatch must be reported" );
+        } catch ( IOException expected ) {}
+        assertFalse( dummy.isClosed() );
+    }
+
     private class CountingOutputStream extends OutputStream {
         private int received = 0;        
 
@@ -51,9 +86,19 @@ public class FrameworkHeaderOutputStreamTest extends TestCase {
             received++;
         }
 
+        private boolean closed = false;
+
         public int getReceived() {
             return this.received;
         }
+
+        public void close() throws IOException {
+            closed = true;
+        }
+
+        public boolean isClosed() {
+            return this.closed;
+        }
     }
 
 }
@@ -2,6 +2,8 @@ package de.mgpit.oracle.reports.plugin.destination.content.io;
 
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 
 import org.apache.commons.codec.binary.Base64InputStream;
 
@@ -67,4 +69,46 @@ public class EnvelopeDecoratedInputStreamTest extends TestCase {
 
     }
 
+    private static final String BEFORE = "<envelope><data>";
+    private static final String PAYLOAD = "Lorem Ipsum Dolor Si amet";
+    private static final String AFTER = "</data></envelope>";
+
+    private InputStream newPlainEnvelopeStream() {
+        ByteArrayInputStream payload = new ByteArrayInputStream( PAYLOAD.getBytes() );
+        return new EnvelopeDecoratedInputStream( payload, TestHelper.getPlainEnvelope( BEFORE, AFTER ) );
+    }
+
+    public void testBulkReadEqualsSingleByteRead() throws Exception {
+        InputStream singleBytes = newPlainEnvelopeStream();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        int aByte;
+        while ( (aByte = singleBytes.read()) != Magic.END_OF_STREAM ) {
+            expected.write( aByte );
+        }
+        assertEquals( BEFORE + PAYLOAD + AFTER, new String( expected.toByteArray() ) );
+
+        InputStream bulk = newPlainEnvelopeStream();
+        byte[] buffer = new byte[7]; // odd size - reads will span segment boundaries
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        int bytesRead;
+        while ( (bytesRead = bulk.read( buffer, 0, buffer.length )) != Magic.END_OF_STREAM ) {
+            actual.write( buffer, 0, bytesRead );
+        }
+        assertEquals( new String( expected.toByteArray() ), new String( actual.toByteArray() ) );
+        assertEquals( Magic.END_OF_STREAM, bulk.read() );
+    }
+
+    public void testSkipAndAvailable() throws Exception {
+        InputStream decorated = newPlainEnvelopeStream();
+        final int total = BEFORE.length() + PAYLOAD.length();
+        assertEquals( total, decorated.available() );
+
+        final int toSkip = BEFORE.length() + 6;
+        assertEquals( toSkip, decorated.skip( toSkip ) );
+        assertEquals( 'I', decorated.read() );
+
+        String rest = IOUtility.inputAsPlatformString( decorated );
+        assertEquals( PAYLOAD.substring( 7 ) + AFTER, rest );
+    }
+
 }
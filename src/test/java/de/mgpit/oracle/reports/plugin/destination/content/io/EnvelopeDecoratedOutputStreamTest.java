@@ -3,6 +3,9 @@ package de.mgpit.oracle.reports.plugin.destination.content.io;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 
 import org.apache.commons.codec.binary.Base64InputStream;
 
@@ -73,4 +76,58 @@ public class EnvelopeDecoratedOutputStreamTest extends TestCase {
 
     }    
     
+    public void testBulkWriteEqualsSingleByteWrite() throws Exception {
+        final String before = "<envelope><data>";
+        final String payload = "Lorem Ipsum Dolor Si amet";
+        final String after = "</data></envelope>";
+
+        ByteArrayOutputStream singleOut = new ByteArrayOutputStream();
+        EnvelopeDecoratedOutputStream single = new EnvelopeDecoratedOutputStream( singleOut, TestHelper.getPlainEnvelope( before, after ) );
+        byte[] payloadBytes = payload.getBytes( "ISO-8859-1" );
+        for ( int i = 0; i < payloadBytes.length; i++ ) {
+            single.write( payloadBytes[i] );
+        }
+        single.close();
+
+        ByteArrayOutputStream bulkOut = new ByteArrayOutputStream();
+        WriteCountingOutputStream counter = new WriteCountingOutputStream( bulkOut );
+        EnvelopeDecoratedOutputStream bulk = new EnvelopeDecoratedOutputStream( counter, TestHelper.getPlainEnvelope( before, after ) );
+        bulk.write( payloadBytes, 0, 11 );
+        bulk.write( payloadBytes, 11, payloadBytes.length - 11 );
+        bulk.close();
+
+        assertEquals( before + payload + after, new String( bulkOut.toByteArray(), "ISO-8859-1" ) );
+        assertEquals( new String( singleOut.toByteArray(), "ISO-8859-1" ), new String( bulkOut.toByteArray(), "ISO-8859-1" ) );
+        assertEquals( 0, counter.singleByteWrites );
+    }
+
+    public void testHeaderBulkWrite() throws Exception {
+        final String payload = "Lorem Ipsum Dolor Si amet";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WriteCountingOutputStream counter = new WriteCountingOutputStream( out );
+        HeaderDecoratedOutputStream headed = new HeaderDecoratedOutputStream( counter, TestHelper.getPlainHeader( "<header/>" ) );
+        IOUtility.copyFromToAndThenClose( new ByteArrayInputStream( payload.getBytes( "ISO-8859-1" ) ), headed );
+
+        final String actual = new String( out.toByteArray(), "ISO-8859-1" );
+        assertEquals( "<header/>" + payload, actual );
+        assertEquals( 0, counter.singleByteWrites );
+    }
+
+    private static class WriteCountingOutputStream extends FilterOutputStream {
+        int singleByteWrites = 0;
+
+        WriteCountingOutputStream( OutputStream out ) {
+            super( out );
+        }
+
+        public void write( int b ) throws IOException {
+            singleByteWrites++;
+            out.write( b );
+        }
+
+        public void write( byte[] b, int off, int len ) throws IOException {
+            out.write( b, off, len );
+        }
+    }
+
 }
@@ -1,10 +1,16 @@
 package de.mgpit.oracle.reports.plugin.destination.content.io;
 
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.Properties;
 
+import javax.activation.MimeType;
+
 import de.mgpit.oracle.reports.plugin.destination.content.AbstractXmlEnvelope;
 import de.mgpit.oracle.reports.plugin.destination.content.types.Envelope;
+import de.mgpit.oracle.reports.plugin.destination.content.types.Header;
 import de.mgpit.xml.XML;
 
 public final class TestHelper {
@@ -49,4 +55,62 @@ public final class TestHelper {
         return cdm;
     }
 
+    public static final Envelope getPlainEnvelope( final String before, final String after ) {
+        return new Envelope() {
+
+            public InputStream getBeforePayload() {
+                return new ByteArrayInputStream( before.getBytes() );
+            }
+
+            public InputStream getAfterPayload() {
+                return new ByteArrayInputStream( after.getBytes() );
+            }
+
+            public long lengthInBytes() {
+                return before.getBytes().length + after.getBytes().length;
+            }
+
+            public void build( Properties parameters ) throws Exception {}
+
+            public Charset encoding() {
+                return Charset.forName( "ISO-8859-1" );
+            }
+
+            public MimeType mimetype() {
+                return new MimeType();
+            }
+
+            public String fileExtension() {
+                return "txt";
+            }
+        };
+    }
+
+    public static final Header getPlainHeader( final String headerData ) {
+        return new Header() {
+
+            public InputStream get() {
+                return new ByteArrayInputStream( headerData.getBytes() );
+            }
+
+            public long lengthInBytes() {
+                return headerData.getBytes().length;
+            }
+
+            public void build( Properties parameters ) throws Exception {}
+
+            public Charset encoding() {
+                return Charset.forName( "ISO-8859-1" );
+            }
+
+            public MimeType mimetype() {
+                return new MimeType();
+            }
+
+            public String fileExtension() {
+                return "txt";
+            }
+        };
+    }
+
 }
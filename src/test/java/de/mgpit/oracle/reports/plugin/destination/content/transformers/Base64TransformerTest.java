@@ -0,0 +1,65 @@
+package de.mgpit.oracle.reports.plugin.destination.content.transformers;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import de.mgpit.oracle.reports.plugin.commons.io.Base64EncodingOutputStream;
+import de.mgpit.oracle.reports.plugin.commons.io.ParallelBase64EncodingOutputStream;
+import de.mgpit.oracle.reports.plugin.destination.content.decorators.PluggableContentEnvelopeDecorator;
+import de.mgpit.oracle.reports.plugin.destination.content.io.TestHelper;
+import de.mgpit.oracle.reports.plugin.destination.content.types.LengthPredicting;
+import junit.framework.TestCase;
+
+public class Base64TransformerTest extends TestCase {
+
+    private static final Properties EMPTY_PARAMS = new Properties();
+
+    private static long encodedLength( Base64Transformer transformer, int inputLength ) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream encoding = transformer.forOutput( out, EMPTY_PARAMS );
+        for ( int i = 0; i < inputLength; i++ ) {
+            encoding.write( i );
+        }
+        encoding.close();
+        return out.size();
+    }
+
+    public void testPredictedLength() throws Exception {
+        Base64Transformer transformer = new Base64Transformer();
+        for ( int inputLength = 0; inputLength < 500; inputLength++ ) {
+            assertEquals( "Input length " + inputLength, encodedLength( transformer, inputLength ),
+                    transformer.predictedLength( inputLength, EMPTY_PARAMS ) );
+        }
+        assertEquals( LengthPredicting.UNPREDICTABLE, transformer.predictedLength( LengthPredicting.UNPREDICTABLE, EMPTY_PARAMS ) );
+    }
+
+    public void testPredictedLengthWithEnvelope() throws Exception {
+        Base64Transformer transformer = new Base64Transformer();
+        PluggableContentEnvelopeDecorator envelope = new PluggableContentEnvelopeDecorator();
+        envelope.setContentModel( TestHelper.getPlainEnvelope( "<data>", "</data>" ) );
+
+        final long base64Length = transformer.predictedLength( 1000, EMPTY_PARAMS );
+        assertEquals( base64Length + "<data></data>".length(), envelope.predictedLength( base64Length, EMPTY_PARAMS ) );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream chain = transformer.forOutput( envelope.forOutput( out, EMPTY_PARAMS ), EMPTY_PARAMS );
+        chain.write( new byte[1000] );
+        chain.close();
+        assertEquals( base64Length + "<data></data>".length(), out.size() );
+    }
+
+    public void testParallelAboveThreshold() throws Exception {
+        Base64Transformer transformer = new Base64Transformer();
+        Properties parameters = new Properties();
+        parameters.setProperty( "distribution.totalFileSize", "1000" );
+        assertTrue( transformer.forOutput( new ByteArrayOutputStream(), parameters ) instanceof Base64EncodingOutputStream );
+
+        parameters.setProperty( Base64Transformer.PARALLEL_THRESHOLD_PROPERTY, "1000" );
+        assertTrue( transformer.forOutput( new ByteArrayOutputStream(), parameters ) instanceof ParallelBase64EncodingOutputStream );
+
+        parameters.setProperty( Base64Transformer.PARALLEL_THRESHOLD_PROPERTY, "-1" );
+        assertTrue( transformer.forOutput( new ByteArrayOutputStream(), parameters ) instanceof Base64EncodingOutputStream );
+    }
+}
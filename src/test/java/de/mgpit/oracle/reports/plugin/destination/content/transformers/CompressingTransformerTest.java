@@ -0,0 +1,129 @@
+package de.mgpit.oracle.reports.plugin.destination.content.transformers;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.codec.binary.Base64;
+
+import de.mgpit.oracle.reports.plugin.commons.io.Lz4FrameDecoder;
+import de.mgpit.oracle.reports.plugin.commons.io.ParallelGzipOutputStream;
+import junit.framework.TestCase;
+
+public class CompressingTransformerTest extends TestCase {
+
+    private static byte[] testData( int length ) {
+        // compressible, but not trivially
+        byte[] data = new byte[length];
+        Random random = new Random( length );
+        for ( int i = 0; i < length; i++ ) {
+            data[i] = (byte) ('a' + random.nextInt( 8 ));
+        }
+        return data;
+    }
+
+    private static byte[] readFully( InputStream in ) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int bytesRead;
+        while ( (bytesRead = in.read( buffer )) != -1 ) {
+            out.write( buffer, 0, bytesRead );
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] compressOnOutput( CompressingTransformer transformer, byte[] data, Properties parameters )
+            throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        OutputStream out = transformer.forOutput( compressed, parameters );
+        int written = 0;
+        Random chunking = new Random( 17 );
+        while ( written < data.length ) {
+            int len = Math.min( 1 + chunking.nextInt( 30000 ), data.length - written );
+            out.write( data, written, len );
+            written += len;
+        }
+        out.close();
+        return compressed.toByteArray();
+    }
+
+    private static byte[] gunzip( byte[] compressed ) throws Exception {
+        return readFully( new GZIPInputStream( new ByteArrayInputStream( compressed ) ) );
+    }
+
+    private static byte[] inflateRaw( byte[] compressed ) throws Exception {
+        return readFully( new InflaterInputStream( new ByteArrayInputStream( compressed ), new Inflater( true ) ) );
+    }
+
+    public void testGzip() throws Exception {
+        GzipTransformer transformer = new GzipTransformer();
+        int[] lengths = { 0, 1, 1000, 200000 };
+        for ( int i = 0; i < lengths.length; i++ ) {
+            byte[] data = testData( lengths[i] );
+            byte[] compressed = compressOnOutput( transformer, data, new Properties() );
+            assertTrue( Arrays.equals( data, gunzip( compressed ) ) );
+            byte[] viaInput = readFully( transformer.forInput( new ByteArrayInputStream( data ), new Properties() ) );
+            assertTrue( Arrays.equals( compressed, viaInput ) );
+        }
+    }
+
+    public void testDeflate() throws Exception {
+        DeflateTransformer transformer = new DeflateTransformer();
+        int[] lengths = { 0, 1, 1000, 200000 };
+        for ( int i = 0; i < lengths.length; i++ ) {
+            byte[] data = testData( lengths[i] );
+            byte[] compressed = compressOnOutput( transformer, data, new Properties() );
+            assertTrue( Arrays.equals( data, inflateRaw( compressed ) ) );
+            byte[] viaInput = readFully( transformer.forInput( new ByteArrayInputStream( data ), new Properties() ) );
+            assertTrue( Arrays.equals( data, inflateRaw( viaInput ) ) );
+        }
+    }
+
+    public void testLevel() throws Exception {
+        byte[] data = testData( 100000 );
+        Properties parameters = new Properties();
+        parameters.setProperty( CompressingTransformer.LEVEL_PROPERTY, "0" );
+        byte[] stored = compressOnOutput( new GzipTransformer(), data, parameters );
+        parameters.setProperty( CompressingTransformer.LEVEL_PROPERTY, "9" );
+        byte[] best = compressOnOutput( new GzipTransformer(), data, parameters );
+        assertTrue( stored.length > data.length );
+        assertTrue( best.length < data.length / 2 );
+        assertTrue( Arrays.equals( data, gunzip( best ) ) );
+    }
+
+    public void testParallelGzip() throws Exception {
+        GzipTransformer transformer = new GzipTransformer();
+        Properties parameters = new Properties();
+        parameters.setProperty( "distribution.totalFileSize", "1000" );
+        parameters.setProperty( GzipTransformer.PARALLEL_THRESHOLD_PROPERTY, "0" );
+        assertTrue( transformer.forOutput( new ByteArrayOutputStream(), parameters ) instanceof ParallelGzipOutputStream );
+
+        int[] lengths = { 0, 1, ParallelGzipOutputStream.BLOCK_SIZE, ParallelGzipOutputStream.BLOCK_SIZE + 1,
+                20 * ParallelGzipOutputStream.BLOCK_SIZE + 4711 };
+        for ( int i = 0; i < lengths.length; i++ ) {
+            byte[] data = testData( lengths[i] );
+            byte[] compressed = compressOnOutput( transformer, data, parameters );
+            assertTrue( "length " + lengths[i], Arrays.equals( data, gunzip( compressed ) ) );
+        }
+    }
+
+    public void testLz4ThroughBase64() throws Exception {
+        byte[] data = testData( 300000 );
+        Properties parameters = new Properties();
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        OutputStream chain = new Lz4Transformer().forOutput( new Base64Transformer().forOutput( encoded, parameters ), parameters );
+        chain.write( data );
+        chain.close();
+        byte[] compressed = Base64.decodeBase64( encoded.toByteArray() );
+        assertTrue( Arrays.equals( data, Lz4FrameDecoder.decode( compressed ) ) );
+    }
+}
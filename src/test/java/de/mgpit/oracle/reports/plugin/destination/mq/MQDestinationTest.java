@@ -1,23 +1,295 @@
 package de.mgpit.oracle.reports.plugin.destination.mq;
 
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import de.mgpit.oracle.reports.plugin.commons.U;
+import de.mgpit.oracle.reports.plugin.commons.driver.InMemoryMQ;
+import de.mgpit.oracle.reports.plugin.commons.driver.MQ;
+import de.mgpit.oracle.reports.plugin.destination.MgpDestination;
 import de.mgpit.types.ModifierRawDeclaration;
+import javax.activation.MimeType;
+
+import de.mgpit.oracle.reports.plugin.destination.content.types.OutputModifier;
 import junit.framework.TestCase;
+import oracle.reports.RWException;
 
 public class MQDestinationTest extends TestCase {
 
+    private static final String GROUP_QUEUE = "wmq://localhost:1414/dest/queue/GROUP.QUEUE@QMGR?channelName=CHANNEL_1";
+    private static final String QUEUE_A = "wmq://host1:1414/dest/queue/QUEUE@QM_A?channelName=CHANNEL_1";
+    private static final String QUEUE_B = "wmq://host2:1414/dest/queue/QUEUE@QM_B?channelName=CHANNEL_1";
+    private static final String BOTH_QUEUES = QUEUE_A + ", " + QUEUE_B;
+
+    private static final short SOME_FORMAT = 0;
+
+    private File first;
+    private File second;
+
     protected void setUp() throws Exception {
         super.setUp();
+        InMemoryMQ.reset();
+        final Properties destinationsProperties = new Properties();
+        destinationsProperties.setProperty( "mq.implementation", InMemoryMQ.class.getName() );
+        destinationsProperties.setProperty( "mq", GROUP_QUEUE );
+        destinationsProperties.setProperty( "logfile", "mqdestinationtest.log" );
+        destinationsProperties.setProperty( "modifier.FAILING", FailingModifier.class.getName() );
+        MQDestination.init( destinationsProperties );
+        first = cacheFile( "first file" );
+        second = cacheFile( "second file" );
     }
 
     protected void tearDown() throws Exception {
+        MQDestination.shutdown();
+        InMemoryMQ.reset();
+        first.delete();
+        second.delete();
         super.tearDown();
     }
 
+    public void testCommitsCompleteMessageGroup() throws Exception {
+        final MQDestination destination = new MQDestination();
+        assertTrue( destination.start( new Properties(), "group", 2, first.length() + second.length(), SOME_FORMAT ) );
+        sendFile( destination, true, first );
+        sendFile( destination, false, second );
+        destination.stop();
+
+        final List messages = queue().browse();
+        assertEquals( 2, messages.size() );
+        final InMemoryMQ.Message firstMessage = (InMemoryMQ.Message) messages.get( 0 );
+        final InMemoryMQ.Message secondMessage = (InMemoryMQ.Message) messages.get( 1 );
+        assertEquals( "first file", new String( firstMessage.getData() ) );
+        assertEquals( "second file", new String( secondMessage.getData() ) );
+        assertNotNull( firstMessage.getGroupId() );
+        assertEquals( firstMessage.getGroupId(), secondMessage.getGroupId() );
+        assertEquals( 1, firstMessage.getSequenceInGroup() );
+        assertEquals( 2, secondMessage.getSequenceInGroup() );
+        assertFalse( firstMessage.isLastInGroup() );
+        assertTrue( secondMessage.isLastInGroup() );
+        assertEquals( 1L, queue().commitCount() );
+    }
+
+    public void testBacksOutIncompleteMessageGroup() throws Exception {
+        final MQDestination destination = new MQDestination();
+        assertTrue( destination.start( new Properties(), "group", 2, first.length() + second.length(), SOME_FORMAT ) );
+        sendFile( destination, true, first );
+        try {
+            destination.stop();
+            fail( "Incomplete message group must not be committed!" );
+        } catch ( RWException expected ) {
+            // expected
+        }
+        assertEquals( 0, queue().depth() );
+        assertEquals( 0L, queue().commitCount() );
+    }
+
+    public void testBacksOutMessageGroupOnFailedSend() throws Exception {
+        final MQDestination destination = new MQDestination();
+        assertTrue( destination.start( new Properties(), "group", 2, first.length() + second.length(), SOME_FORMAT ) );
+        sendFile( destination, true, first );
+        queue().failNextPuts( 1 );
+        try {
+            sendFile( destination, false, second );
+            fail( "Put should have failed!" );
+        } catch ( RWException expected ) {
+            // expected
+        }
+        try {
+            destination.stop();
+            fail( "Message group with failed send must not be committed!" );
+        } catch ( RWException expected ) {
+            // expected
+        }
+        assertEquals( 0, queue().depth() );
+        assertEquals( 0L, queue().commitCount() );
+    }
+
+    public void testAbortsMessageOnFailureWhileWriting() throws Exception {
+        final MQDestination destination = new MQDestination();
+        final Properties distributionProperties = new Properties();
+        distributionProperties.setProperty( "apply", "FAILING" );
+        assertTrue( destination.start( distributionProperties, "failing", 1, first.length(), SOME_FORMAT ) );
+        try {
+            sendFile( destination, true, first );
+            fail( "Modifier should have failed!" );
+        } catch ( RWException expected ) {
+            // expected
+        }
+        destination.stop();
+        // neither the truncated message nor anything written on closing the modifiers afterwards is put
+        assertEquals( 0, queue().depth() );
+        assertEquals( 0L, queue().putCount() );
+    }
+
+    public void testModifierFailureDoesNotLeaveOutEndpoint() throws Exception {
+        try {
+            distribute( BOTH_QUEUES, "FAILING", first );
+            fail( "Modifier should have failed!" );
+        } catch ( RWException expected ) {
+            // expected
+        }
+        distribute( BOTH_QUEUES, null, first );
+        distribute( BOTH_QUEUES, null, second );
+        // round robin goes on with the endpoint the modifier failed on
+        assertEquals( 1, queue( QUEUE_A ).depth() );
+        assertEquals( 1, queue( QUEUE_B ).depth() );
+    }
+
+    public void testFailedPutLeavesOutEndpoint() throws Exception {
+        queue( QUEUE_A ).failNextPuts( 1 );
+        try {
+            distribute( BOTH_QUEUES, null, first );
+            fail( "Put should have failed!" );
+        } catch ( RWException expected ) {
+            // expected
+        }
+        distribute( BOTH_QUEUES, null, first );
+        distribute( BOTH_QUEUES, null, second );
+        assertEquals( 0, queue( QUEUE_A ).depth() );
+        assertEquals( 2, queue( QUEUE_B ).depth() );
+    }
+
+    public void testSendsWithoutGroupCommitIfNotSupported() throws Exception {
+        PlainMQ.PUT.clear();
+        final Properties destinationsProperties = new Properties();
+        destinationsProperties.setProperty( "mq.implementation", PlainMQ.class.getName() );
+        destinationsProperties.setProperty( "mq", GROUP_QUEUE );
+        destinationsProperties.setProperty( "logfile", "mqdestinationtest.log" );
+        destinationsProperties.setProperty( MQDestination.GROUP_COMMIT_PROPERTY, "true" );
+        MQDestination.init( destinationsProperties );
+
+        distribute( GROUP_QUEUE, null, first );
+        distribute( GROUP_QUEUE, null, second );
+        assertEquals( 2, PlainMQ.PUT.size() );
+        assertEquals( "first file", PlainMQ.PUT.get( 0 ) );
+        assertEquals( "second file", PlainMQ.PUT.get( 1 ) );
+    }
+
+    /**
+     * Distributes a single file to the endpoints given.
+     */
+    private static void distribute( final String endpoints, final String apply, final File file ) throws Exception {
+        final MQDestination destination = new MQDestination();
+        final Properties distributionProperties = new Properties();
+        distributionProperties.setProperty( "mq", endpoints );
+        if ( apply != null ) {
+            distributionProperties.setProperty( "apply", apply );
+        }
+        assertTrue( destination.start( distributionProperties, "single", 1, file.length(), SOME_FORMAT ) );
+        try {
+            sendFile( destination, true, file );
+        } finally {
+            destination.stop();
+        }
+    }
+
+    private static InMemoryMQ.Queue queue() throws Exception {
+        return queue( GROUP_QUEUE );
+    }
+
+    private static InMemoryMQ.Queue queue( final String uri ) throws Exception {
+        return InMemoryMQ.queue( MQ.Configuration.fromURILiteral( uri ) );
+    }
+
+    private static File cacheFile( final String content ) throws Exception {
+        final File file = File.createTempFile( "mqdestinationtest", ".txt" );
+        final FileOutputStream out = new FileOutputStream( file );
+        out.write( content.getBytes() );
+        out.close();
+        return file;
+    }
+
+    /**
+     * An MQ without group commit. Remembers the messages put.
+     */
+    public static final class PlainMQ extends MQ {
+        static final List PUT = Collections.synchronizedList( new ArrayList() );
+
+        public PlainMQ( final MQ.Configuration configuration ) {
+            super( configuration );
+        }
+
+        public void connect() {}
+
+        public void disconnect() {}
+
+        public OutputStream newMessage() {
+            return new ByteArrayOutputStream() {
+                public void close() {
+                    PUT.add( toString() );
+                }
+            };
+        }
+    }
+
+    /**
+     * Passes the first bytes and fails afterwards. Writes a trailer on close like a compressor would.
+     */
+    public static final class FailingModifier implements OutputModifier {
+        public OutputStream forOutput( final OutputStream out, final Properties parameters ) {
+            return new FilterOutputStream( out ) {
+                private int passed = 0;
+
+                public void write( int b ) throws IOException {
+                    if ( passed++ >= 4 ) {
+                        throw new IOException( "Failing after 4 bytes" );
+                    }
+                    out.write( b );
+                }
+
+                public void write( byte[] b, int off, int len ) throws IOException {
+                    for ( int i = 0; i < len; i++ ) {
+                        write( b[off + i] );
+                    }
+                }
+
+                public void close() throws IOException {
+                    out.write( "trailer".getBytes() );
+                    out.close();
+                }
+            };
+        }
+
+        public MimeType mimetype() {
+            return null;
+        }
+
+        public String fileExtension() {
+            return "failing";
+        }
+    }
+
+    /**
+     * Sends a file like the Report Server does. {@code sendFile} is final and not visible from here.
+     */
+    private static void sendFile( final MQDestination destination, final boolean isMainFile, final File file ) throws Exception {
+        final Method sendFile = MgpDestination.class.getDeclaredMethod( "sendFile", new Class[] { Boolean.TYPE, String.class,
+                Short.TYPE, Long.TYPE } );
+        sendFile.setAccessible( true );
+        try {
+            sendFile.invoke( destination, new Object[] { Boolean.valueOf( isMainFile ), file.getAbsolutePath(),
+                    new Short( SOME_FORMAT ), new Long( file.length() ) } );
+        } catch ( InvocationTargetException failed ) {
+            if ( failed.getTargetException() instanceof Exception ) {
+                throw (Exception) failed.getTargetException();
+            }
+            throw failed;
+        }
+    }
+
     public void testRegexp() {
         final String first2lastExpression = "^([^><]+>>)*([^><])+$";
         final String last2firstExpression = "^([^><]+<<)*([^><])+$";